@@ -5,6 +5,7 @@ import java.util.Locale;
 import java.util.logging.Logger;
 
 import org.archive.format.arc.ARCConstants;
+import org.archive.format.http.HeaderNames;
 import org.archive.format.warc.WARCConstants;
 import org.archive.format.warc.WARCConstants.WARCRecordType;
 import org.archive.resource.MetaData;
@@ -89,15 +90,18 @@ public class ExtractingResourceFactoryMapper implements ResourceFactoryMapper {
 	private String caseInsensitiveKeyScan(MetaData m, String child, String k) {
 		try {
 			if(m.has(child)) {
-				String kLC = k.toLowerCase(Locale.ROOT);
 				JSONObject childJSObj = m.getJSONObject(child);
+				String known = HeaderNames.canonical(k);
+				if(known != null && childJSObj.has(known)) {
+					return childJSObj.getString(known);
+				}
 				@SuppressWarnings("rawtypes")
 				Iterator i = childJSObj.keys();
 				while(i.hasNext()) {
 					Object kObj = i.next();
 					if(kObj instanceof String) {
 						String kString = (String) kObj;
-						if(kString.toLowerCase(Locale.ROOT).equals(kLC)) {
+						if(kString.equalsIgnoreCase(k)) {
 							return childJSObj.getString(kString);
 						}
 					}
@@ -37,6 +37,8 @@ public class ProducerUtils {
 	   
 	    	if(path.endsWith(".warc.gz") || path.endsWith(".wat.gz")) {
 				producer = wf.getGZResourceProducer(fsdis,name,offset);
+			} else if(path.endsWith(".warc.zst") || path.endsWith(".wat.zst")) {
+				producer = wf.getZstdResourceProducer(fsdis,name,offset);
 			} else if(path.endsWith(".arc.gz")) {
 				producer = af.getGZResourceProducer(fsdis,name,offset);
 			} else if(path.endsWith(".arc")) {
@@ -45,6 +47,8 @@ public class ProducerUtils {
 				producer = wf.getResourceProducer(fsdis,name,offset);
 			} else if(path.endsWith(".gz")) {
 				producer = ef.getGZResourceProducer(fsdis,name,offset);
+			} else if(path.endsWith(".zst")) {
+				producer = ef.getZstdResourceProducer(fsdis,name,offset);
 			}
 
 	    } else if(path.startsWith("http://")) {
@@ -53,6 +57,8 @@ public class ProducerUtils {
 
 	    	if(path.endsWith(".warc.gz") || path.endsWith(".wat.gz")) {
 				producer = wf.getGZResourceProducer(url,name,offset);
+			} else if(path.endsWith(".warc.zst") || path.endsWith(".wat.zst")) {
+				producer = wf.getZstdResourceProducer(url,name,offset);
 			} else if(path.endsWith(".arc.gz")) {
 				producer = af.getGZResourceProducer(url,name,offset);
 			} else if(path.endsWith(".arc")) {
@@ -61,6 +67,8 @@ public class ProducerUtils {
 				producer = wf.getResourceProducer(url,name,offset);
 			} else if(path.endsWith(".gz")) {
 				producer = ef.getGZResourceProducer(url,name,offset);
+			} else if(path.endsWith(".zst")) {
+				producer = ef.getZstdResourceProducer(url,name,offset);
 			}
 
 	    } else {
@@ -71,6 +79,8 @@ public class ProducerUtils {
 			}
 			if(path.endsWith(".warc.gz") || path.endsWith(".wat.gz")) {
 				producer = wf.getGZResourceProducer(file,offset);
+			} else if(path.endsWith(".warc.zst") || path.endsWith(".wat.zst")) {
+				producer = wf.getZstdResourceProducer(file,offset);
 			} else if(path.endsWith(".arc.gz")) {
 				producer = af.getGZResourceProducer(file,offset);
 			} else if(path.endsWith(".arc")) {
@@ -79,6 +89,8 @@ public class ProducerUtils {
 				producer = wf.getResourceProducer(file,offset);
 			} else if(path.endsWith(".gz")) {
 				producer = ef.getGZResourceProducer(file,offset);
+			} else if(path.endsWith(".zst")) {
+				producer = ef.getZstdResourceProducer(file,offset);
 			}
 	    }
 	    return producer;
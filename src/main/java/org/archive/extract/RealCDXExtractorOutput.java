@@ -14,6 +14,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.archive.format.gzip.GZIPFormatException;
+import org.archive.format.http.HeaderNames;
 import org.archive.format.json.JSONUtils;
 import org.archive.format.json.SimpleJSONPathSpec;
 import org.archive.resource.MetaData;
@@ -38,6 +39,7 @@ public class RealCDXExtractorOutput implements ExtractorOutput {
 	SimpleJSONPathSpec filenameSpec = new SimpleJSONPathSpec("Container.Filename");
 	SimpleJSONPathSpec offsetSpec = new SimpleJSONPathSpec("Container.Offset");
 	SimpleJSONPathSpec gzDeflateLengthSpec = new SimpleJSONPathSpec("Container.Gzip-Metadata.Deflate-Length");
+	SimpleJSONPathSpec zstdFrameLengthSpec = new SimpleJSONPathSpec("Container.Zstd-Metadata.Frame-Length");
 	SimpleJSONPathSpec formatSpec = new SimpleJSONPathSpec("Envelope.Format");
 	
 	SimpleJSONPathSpec arcURL = new SimpleJSONPathSpec("Envelope.ARC-Header-Metadata.Target-URI");
@@ -333,15 +335,14 @@ public class RealCDXExtractorOutput implements ExtractorOutput {
 			if(o.length() == 0) {
 				return defaultVal;
 			}
-			String lc = match.toLowerCase(Locale.ROOT).trim();
-//			try {
-//				System.err.println("REC:" + o.toString(1));
-//			} catch (JSONException e1) {
-//				// TODO Auto-generated catch block
-//				e1.printStackTrace();
-//			}
+			String lc = match.trim();
+			// parsed names are usually spelt the usual way: try that first
+			String known = HeaderNames.canonical(lc);
+			if(known != null && o.has(known)) {
+				return o.optString(known, defaultVal).trim();
+			}
 			for(String key : JSONObject.getNames(o)) {
-				if(lc.equals(key.toLowerCase(Locale.ROOT).trim())) {
+				if(lc.equalsIgnoreCase(key.trim())) {
 					try {
 						return o.getString(key).trim();
 					} catch (JSONException e) {
@@ -360,7 +361,11 @@ public class RealCDXExtractorOutput implements ExtractorOutput {
 		return unwrapFirst(offsetSpec.extract(m),"-");
 	}
 	private String getGZLength(MetaData m) {
-		return unwrapFirst(gzDeflateLengthSpec.extract(m),"-");
+		String len = unwrapFirst(gzDeflateLengthSpec.extract(m),"-");
+		if(len.equals("-")) {
+			len = unwrapFirst(zstdFrameLengthSpec.extract(m),"-");
+		}
+		return len;
 	}
 	private String getEnvelopeFormat(MetaData m) {
 		return unwrapFirst(formatSpec.extract(m),"-");
@@ -39,6 +39,11 @@ public interface ArchiveFileConstants {
      * Dot plus compressed file extention.
      */
     public static final String DOT_COMPRESSED_FILE_EXTENSION = ".gz";
+
+    /**
+     * Suffix given to Zstandard-compressed files.
+     */
+    public static final String DOT_ZSTD_COMPRESSED_FILE_EXTENSION = ".zst";
     
     /**
      * Key for the Archive File version field.
@@ -14,8 +14,10 @@ import org.archive.streamcontext.StreamWrappedInputStream;
 import org.archive.util.GeneralURIStreamFactory;
 import org.archive.util.binsearch.SeekableLineReaderFactory;
 import org.archive.util.binsearch.SortedTextFile;
+import org.archive.util.binsearch.impl.GZIPIndexedSeekableLineReaderFactory;
 import org.archive.util.binsearch.impl.RandomAccessFileSeekableLineReaderFactory;
 import org.archive.util.iterator.CloseableIterator;
+import org.archive.util.zip.GZIPCheckpointIndex;
 import org.archive.util.zip.OpenJDK7GZIPInputStream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -44,6 +46,17 @@ public class CDXFile extends SortedTextFile implements CDXInputSource {
 	
 	public static SeekableLineReaderFactory getUriFactory(String uri, boolean decodeToTemp) throws IOException
 	{
+		if (isLocalGZ(uri)) {
+			// binary search the .gz directly if an up to date checkpoint
+			// index is available; never build or rewrite one here
+			File gzFile = new File(uri);
+			GZIPCheckpointIndex index = GZIPCheckpointIndex.loadIfFresh(gzFile);
+			if (index != null) {
+				return new GZIPIndexedSeekableLineReaderFactory(gzFile, index,
+						SeekableLineReaderFactory.BINSEARCH_BLOCK_SIZE);
+			}
+		}
+		
 		if (decodeToTemp) {
 			return new RandomAccessFileSeekableLineReaderFactory(decodeGZToTemp(uri));
 		}
@@ -51,6 +64,22 @@ public class CDXFile extends SortedTextFile implements CDXInputSource {
 		return GeneralURIStreamFactory.createSeekableStreamFactory(uri, false);
 	}
 	
+	protected static boolean isLocalGZ(String uri)
+	{
+		return uri.endsWith(".gz") && !GeneralURIStreamFactory.isHttp(uri)
+				&& !GeneralURIStreamFactory.isHdfs(uri)
+				&& !GeneralURIStreamFactory.isFileURI(uri);
+	}
+	
+	/**
+	 * Build (or refresh) the checkpoint index sidecar of a local gzipped
+	 * cdx so that later {@link #getUriFactory(String, boolean)} calls can
+	 * search it without decoding to a temporary file.
+	 */
+	public static GZIPCheckpointIndex indexGZ(String uriGZ, long span) throws IOException {
+		return GZIPCheckpointIndex.loadOrBuild(new File(uriGZ), span);
+	}
+	
 	// Decode gzipped cdx to a temporary file	
 	public static File decodeGZToTemp(String uriGZ) throws IOException {
 		final int BUFFER_SIZE = 8192;
@@ -8,6 +8,7 @@ import java.util.zip.DeflaterOutputStream;
 
 import org.archive.util.StreamCopy;
 import org.archive.util.io.CRCInputStream;
+import org.archive.util.zip.DeflaterPool;
 
 import com.google.common.io.CountingOutputStream;
 
@@ -26,10 +27,14 @@ public class GZIPMemberWriter implements GZIPConstants {
 		GZIPHeader gzHeader = new GZIPHeader();
 		// TODO: add fields...
 		gzHeader.writeBytes(out);
-		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
-		DeflaterOutputStream deflateOut = new DeflaterOutputStream(out,deflater);
-		StreamCopy.copy(crc, deflateOut);
-		deflateOut.finish();
+		Deflater deflater = DeflaterPool.GZIP.borrow();
+		try {
+			DeflaterOutputStream deflateOut = new DeflaterOutputStream(out,deflater);
+			StreamCopy.copy(crc, deflateOut);
+			deflateOut.finish();
+		} finally {
+			DeflaterPool.GZIP.release(deflater);
+		}
 		GZIPFooter gzFooter = new GZIPFooter(crc.getCRCValue(), crc.getByteCount());
 		gzFooter.writeBytes(out);
 		out.flush();
@@ -0,0 +1,178 @@
+package org.archive.format.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Table of well known HTTP and WARC header field names.
+ *
+ * Parsers look names up here straight from the bytes they read, and get
+ * back one shared String for each known name rather than a new one for
+ * every header of every record. The table is also matched ignoring case,
+ * giving the canonical spelling and lower case key of a known name without
+ * lower-casing or allocating anything. Names not in the table are returned
+ * as new Strings, as before.
+ */
+public final class HeaderNames {
+	private static final String[] KNOWN = {
+		// WARC
+		"WARC-Type", "WARC-Record-ID", "WARC-Date", "WARC-Target-URI",
+		"WARC-IP-Address", "WARC-Concurrent-To", "WARC-Refers-To",
+		"WARC-Refers-To-Target-URI", "WARC-Refers-To-Date",
+		"WARC-Refers-To-Filename", "WARC-Refers-To-File-Offset",
+		"WARC-Block-Digest", "WARC-Payload-Digest", "WARC-Truncated",
+		"WARC-Warcinfo-ID", "WARC-Filename", "WARC-Profile",
+		"WARC-Identified-Payload-Type", "WARC-Segment-Number",
+		"WARC-Segment-Origin-ID", "WARC-Segment-Total-Length", "WARC-Etag",
+		"WARC-Last-Modified", "WARC-Protocol", "WARC-Cipher-Suite",
+		"Content-Description",
+		// HTTP
+		"Accept", "Accept-Charset", "Accept-Encoding", "Accept-Language",
+		"Accept-Ranges", "Access-Control-Allow-Credentials",
+		"Access-Control-Allow-Headers", "Access-Control-Allow-Methods",
+		"Access-Control-Allow-Origin", "Access-Control-Expose-Headers",
+		"Access-Control-Max-Age", "Age", "Allow", "Alt-Svc",
+		"Authorization", "Cache-Control", "Connection",
+		"Content-Disposition", "Content-Encoding", "Content-Language",
+		"Content-Length", "Content-Location", "Content-MD5", "Content-Range",
+		"Content-Security-Policy", "Content-Type", "Cookie", "Date", "DNT",
+		"ETag", "Expect", "Expires", "From", "Host", "If-Match",
+		"If-Modified-Since", "If-None-Match", "If-Range",
+		"If-Unmodified-Since", "Keep-Alive", "Last-Modified", "Link",
+		"Location", "Origin", "P3P", "Pragma", "Proxy-Authenticate",
+		"Proxy-Authorization", "Proxy-Connection", "Range", "Referer",
+		"Refresh", "Retry-After", "Server", "Set-Cookie", "Set-Cookie2",
+		"Strict-Transport-Security", "TE", "Timing-Allow-Origin", "Trailer",
+		"Transfer-Encoding", "Upgrade", "Upgrade-Insecure-Requests",
+		"User-Agent", "Vary", "Via", "Warning", "WWW-Authenticate",
+		"X-Cache", "X-Content-Type-Options", "X-Forwarded-For",
+		"X-Frame-Options", "X-Powered-By", "X-Robots-Tag",
+		"X-XSS-Protection",
+	};
+
+	private static final int MASK;
+	private static final String[] names;
+	private static final String[] keys;
+	private static final byte[][] bytes;
+
+	static {
+		int size = Integer.highestOneBit(KNOWN.length * 4);
+		MASK = size - 1;
+		names = new String[size];
+		keys = new String[size];
+		bytes = new byte[size][];
+		for(String name : KNOWN) {
+			byte[] b = name.getBytes(StandardCharsets.US_ASCII);
+			int slot = hash(b, 0, b.length) & MASK;
+			while(names[slot] != null) {
+				if(names[slot].equalsIgnoreCase(name)) {
+					throw new IllegalStateException("Duplicate name " + name);
+				}
+				slot = (slot + 1) & MASK;
+			}
+			names[slot] = name;
+			keys[slot] = name.toLowerCase(Locale.ROOT);
+			bytes[slot] = b;
+		}
+	}
+
+	private HeaderNames() {}
+
+	private static int lower(int c) {
+		return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+	}
+
+	private static int hash(byte[] b, int off, int len) {
+		int h = len;
+		for(int i = off; i < off + len; i++) {
+			h = 31 * h + lower(b[i] & 0xff);
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static int hash(String s) {
+		int h = s.length();
+		for(int i = 0; i < s.length(); i++) {
+			h = 31 * h + lower(s.charAt(i));
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static int find(byte[] b, int off, int len) {
+		int slot = hash(b, off, len) & MASK;
+		for(; names[slot] != null; slot = (slot + 1) & MASK) {
+			byte[] known = bytes[slot];
+			if(known.length != len) {
+				continue;
+			}
+			int i = 0;
+			while(i < len && lower(known[i]) == lower(b[off + i] & 0xff)) {
+				i++;
+			}
+			if(i == len) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	private static int find(String s) {
+		int slot = hash(s) & MASK;
+		for(; names[slot] != null; slot = (slot + 1) & MASK) {
+			if(names[slot].equalsIgnoreCase(s)) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param b buffer holding a header name
+	 * @param off offset of the name
+	 * @param len length of the name
+	 * @return the shared instance if the bytes spell a known name exactly,
+	 * otherwise a new String of them decoded as UTF-8
+	 */
+	public static String intern(byte[] b, int off, int len) {
+		int slot = find(b, off, len);
+		if(slot >= 0) {
+			byte[] known = bytes[slot];
+			int i = 0;
+			while(i < len && known[i] == b[off + i]) {
+				i++;
+			}
+			if(i == len) {
+				return names[slot];
+			}
+		}
+		return new String(b, off, len, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param name a header name
+	 * @return the shared instance if name is a known name spelled exactly,
+	 * otherwise name itself
+	 */
+	public static String intern(String name) {
+		int slot = find(name);
+		return (slot >= 0 && names[slot].equals(name)) ? names[slot] : name;
+	}
+
+	/**
+	 * @param name a header name, in any case
+	 * @return the usual spelling of name if it is a known name, else null
+	 */
+	public static String canonical(String name) {
+		int slot = find(name);
+		return slot >= 0 ? names[slot] : null;
+	}
+
+	/**
+	 * @param name a header name, in any case
+	 * @return name in lower case, as a shared instance for known names
+	 */
+	public static String key(String name) {
+		int slot = find(name);
+		return slot >= 0 ? keys[slot] : name.toLowerCase(Locale.ROOT);
+	}
+}
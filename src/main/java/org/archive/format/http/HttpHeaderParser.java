@@ -2,11 +2,65 @@ package org.archive.format.http;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
+import org.archive.io.SeekInputStream;
+
+/**
+ * Parser for RFC 822 style header fields, as used by HTTP and WARC.
+ * 
+ * Name and value buffers start small and grow, up to the maximum lengths
+ * given, as long fields are met; a buffer grown beyond
+ * {@link #RETAINED_LENGTH} is dropped again at the start of the next parse.
+ * Parse states are shared by all instances, so a parser is cheap to make
+ * and to keep around; see also {@link #forThread()}.
+ */
 public class HttpHeaderParser implements HttpConstants {
 	private static final int DEFAULT_MAX_NAME_LENGTH = 1024 * 100;
 	private static final int DEFAULT_MAX_VALUE_LENGTH = 1024 * 1024 * 10;
+	private static final int INITIAL_NAME_LENGTH = 64;
+	private static final int INITIAL_VALUE_LENGTH = 256;
+	/** buffers larger than this are not kept from one parse to the next */
+	public static final int RETAINED_LENGTH = 16 * 1024;
+	/** bytes read at a time from seekable or pushback streams */
+	public static final int BLOCK_LENGTH = 4 * 1024;
+
+	/**
+	 * Stream the parser reads a block at a time, unreading whatever it
+	 * read past the end of the headers. Wrap a stream that can't seek
+	 * (a gzip member, say) in one of these, and read the body from it too.
+	 * @see #blockReadable(InputStream)
+	 */
+	public static class BlockPushbackInputStream extends PushbackInputStream {
+		public BlockPushbackInputStream(InputStream in) {
+			super(in, BLOCK_LENGTH);
+		}
+	}
+
+	/**
+	 * @param is stream positioned at headers
+	 * @return <code>is</code> if the parser can already read it a block at a
+	 * time, otherwise a {@link BlockPushbackInputStream} over it, from
+	 * which the rest of the stream must then be read
+	 */
+	public static InputStream blockReadable(InputStream is) {
+		if(is instanceof SeekInputStream
+				|| is instanceof BlockPushbackInputStream) {
+			return is;
+		}
+		return new BlockPushbackInputStream(is);
+	}
+
+	private static final ThreadLocal<HttpHeaderParser> THREAD_PARSER =
+		new ThreadLocal<HttpHeaderParser>() {
+			@Override
+			protected HttpHeaderParser initialValue() {
+				return new HttpHeaderParser();
+			}
+	};
+
 	private HttpHeaderObserver obs = null;
 	private ParseState state = null;
 	public boolean isStrict = false;
@@ -14,24 +68,28 @@ public class HttpHeaderParser implements HttpConstants {
 	private int nameStartIdx = 0;
 	private int nameLength = 0;
 	private byte name[] = null;
+	private int maxNameLength;
 
 	private int valueStartIdx = 0;
 	private int valueLength = 0;
 	private byte value[] = null;
+	private int maxValueLength;
 	
 	private int bufferIdx = 0;
+
+	private byte block[] = null;
 	
-	private ParseState startState = new StartParseState();
-	private ParseState endState = new EndParseState();
-	private ParseState lineStartState = new LineStartParseState();
-	private ParseState nameState = new NameParseState();
-	private ParseState postNameState = new PostNameParseState();
-	private ParseState postColonState = new PostColonParseState();
-	private ParseState valueState = new ValueParseState();
-	private ParseState valuePostLWSPState = new ValuePostLWSPParseState();
-	private ParseState valuePostCRState = new ValuePostCRParseState();
-	private ParseState postBlankCRState = new PostBlankCRParseState();
-	private ParseState laxLineEatParseState = new LAXLineEatParseState();
+	private static final ParseState startState = new StartParseState();
+	private static final ParseState endState = new EndParseState();
+	private static final ParseState lineStartState = new LineStartParseState();
+	private static final ParseState nameState = new NameParseState();
+	private static final ParseState postNameState = new PostNameParseState();
+	private static final ParseState postColonState = new PostColonParseState();
+	private static final ParseState valueState = new ValueParseState();
+	private static final ParseState valuePostLWSPState = new ValuePostLWSPParseState();
+	private static final ParseState valuePostCRState = new ValuePostCRParseState();
+	private static final ParseState postBlankCRState = new PostBlankCRParseState();
+	private static final ParseState laxLineEatParseState = new LAXLineEatParseState();
 	private ParseState valuePreCRState = null;
 	
 	public HttpHeaderParser() {
@@ -43,16 +101,42 @@ public class HttpHeaderParser implements HttpConstants {
 	}
 	
 	public HttpHeaderParser(HttpHeaderObserver obs, int maxName, int maxValue) {
-		name = new byte[maxName];
-		value = new byte[maxValue];
+		maxNameLength = maxName;
+		maxValueLength = maxValue;
+		name = new byte[Math.min(INITIAL_NAME_LENGTH, maxName)];
+		value = new byte[Math.min(INITIAL_VALUE_LENGTH, maxValue)];
 		this.obs = obs;
 		reset();
 	}
+
+	/**
+	 * A lax parser with the default limits, for reuse by the calling
+	 * thread. Every parse starts it afresh, so it may be used for any
+	 * number of parses in turn; it must not be made strict, nor be held
+	 * on to past a parse.
+	 * @return the calling thread's parser
+	 */
+	public static HttpHeaderParser forThread() {
+		return THREAD_PARSER.get();
+	}
+
 	public void setObserver(HttpHeaderObserver obs) {
 		this.obs = obs;
 	}
-	private void reset() {
+	/**
+	 * Prepare for a new parse, dropping any overly grown buffers. Done
+	 * by each of the doParse() methods; needed only when feeding bytes
+	 * with {@link #parseByte(byte)}.
+	 */
+	public void reset() {
+		if(name.length > RETAINED_LENGTH) {
+			name = new byte[INITIAL_NAME_LENGTH];
+		}
+		if(value.length > RETAINED_LENGTH) {
+			value = new byte[INITIAL_VALUE_LENGTH];
+		}
 		state = startState;
+		valuePreCRState = null;
 		bufferIdx = 0;
 
 		nameStartIdx = 0;
@@ -76,12 +160,28 @@ public class HttpHeaderParser implements HttpConstants {
 		return headers;
 	}
 
+	/**
+	 * Parse headers from the stream, leaving it positioned just after the
+	 * blank line ending them. A {@link SeekInputStream} is read a block at
+	 * a time, and positioned back to the end of the headers if the last
+	 * block ran into the body; a {@link BlockPushbackInputStream} is read
+	 * a block at a time, unreading the bytes past the headers; other
+	 * streams are read one byte at a time. The stream's mark, if any, is
+	 * left alone.
+	 * @param is stream positioned at the start of the headers
+	 * @return number of bytes consumed
+	 */
 	public int doParse(InputStream is) 
 		throws HttpParseException, IOException {
 
-		int bytesRead = 0;
-
 		reset();
+		if(is instanceof SeekInputStream) {
+			return doBlockParse((SeekInputStream) is);
+		}
+		if(is instanceof BlockPushbackInputStream) {
+			return doBlockParse((BlockPushbackInputStream) is);
+		}
+		int bytesRead = 0;
 		while(!isDone()) {
 			int i = is.read();
 			if(i == -1) {
@@ -105,6 +205,109 @@ public class HttpHeaderParser implements HttpConstants {
 
 		return bytesRead;
 	}
+
+	private int doBlockParse(SeekInputStream is)
+		throws HttpParseException, IOException {
+
+		if(block == null) {
+			block = new byte[BLOCK_LENGTH];
+		}
+		int bytesRead = 0;
+		while(!isDone()) {
+			long start = is.position();
+			int amt = is.read(block, 0, block.length);
+			if(amt <= 0) {
+				if(isStrict) {
+					throw new HttpParseException("EOF before CRLFCRLF");
+				}
+				headersCorrupted();
+				return bytesRead;
+			}
+			int used = parse(block, 0, amt);
+			bytesRead += used;
+			if(used < amt) {
+				// read into the body: go back to where it starts
+				is.position(start + used);
+			}
+		}
+		return bytesRead;
+	}
+
+	private int doBlockParse(BlockPushbackInputStream is)
+		throws HttpParseException, IOException {
+
+		if(block == null) {
+			block = new byte[BLOCK_LENGTH];
+		}
+		int bytesRead = 0;
+		while(!isDone()) {
+			int amt = is.read(block, 0, block.length);
+			if(amt <= 0) {
+				if(isStrict) {
+					throw new HttpParseException("EOF before CRLFCRLF");
+				}
+				headersCorrupted();
+				return bytesRead;
+			}
+			int used = parse(block, 0, amt);
+			bytesRead += used;
+			if(used < amt) {
+				// read into the body: hand it back
+				is.unread(block, used, amt - used);
+			}
+		}
+		return bytesRead;
+	}
+
+	/**
+	 * Feed a run of bytes to the parser, stopping once the headers are
+	 * complete. Runs of plain name and value bytes are copied in one go
+	 * rather than passed through the state machine a byte at a time.
+	 * @param buf bytes to parse
+	 * @param off offset of first byte
+	 * @param len number of bytes available
+	 * @return number of bytes consumed, less than len only if the end of
+	 * the headers was found
+	 */
+	public int parse(byte[] buf, int off, int len) throws HttpParseException {
+		int end = off + len;
+		int i = off;
+		while(i < end && !isDone()) {
+			byte b = buf[i];
+			if(b < 0) {
+				if(isStrict) {
+					throw new HttpParseException("Non ASCII byte in headers");
+				}
+				headersCorrupted();
+				i++;
+				continue;
+			}
+			int run = i;
+			if(state == valueState) {
+				while(run < end && isPlainValueByte(buf[run])) {
+					run++;
+				}
+				if(run > i) {
+					addValueBytes(buf, i, run - i);
+				}
+			} else if(state == nameState) {
+				while(run < end && isLegalNameByte(buf[run])) {
+					run++;
+				}
+				if(run > i) {
+					addNameBytes(buf, i, run - i);
+				}
+			}
+			if(run > i) {
+				bufferIdx += run - i;
+				i = run;
+				continue;
+			}
+			parseByte(b);
+			i++;
+		}
+		return i - off;
+	}
 	
 	public boolean isDone() {
 		return state instanceof EndParseState;
@@ -149,12 +352,26 @@ public class HttpHeaderParser implements HttpConstants {
 
 	private void addNameByte(byte b) throws HttpParseException {
 		if(nameLength >= name.length) {
-			throw new HttpParseException("Name too long");
+			if(name.length >= maxNameLength) {
+				throw new HttpParseException("Name too long");
+			}
+			name = grow(name, maxNameLength);
 		}
 		name[nameLength] = b;
 		nameLength++;
 	}
 
+	private void addNameBytes(byte[] b, int off, int len) throws HttpParseException {
+		if(nameLength + len > maxNameLength) {
+			throw new HttpParseException("Name too long");
+		}
+		while(nameLength + len > name.length) {
+			name = grow(name, maxNameLength);
+		}
+		System.arraycopy(b, off, name, nameLength, len);
+		nameLength += len;
+	}
+
 	private void setValueStartIdx() {
 		valueStartIdx = bufferIdx;
 		valueLength = 0;
@@ -171,25 +388,48 @@ public class HttpHeaderParser implements HttpConstants {
 			}
 		}
 		if(valueLength >= value.length) {
-			throw new HttpParseException("Value too long");
+			if(value.length >= maxValueLength) {
+				throw new HttpParseException("Value too long");
+			}
+			value = grow(value, maxValueLength);
 		}
 		value[valueLength] = b;
 		valueLength++;
 	}
 
+	/* bytes ValueParseState adds as they are, without a state change */
+	private void addValueBytes(byte[] b, int off, int len) throws HttpParseException {
+		if(valueLength + len > maxValueLength) {
+			throw new HttpParseException("Value too long");
+		}
+		while(valueLength + len > value.length) {
+			value = grow(value, maxValueLength);
+		}
+		System.arraycopy(b, off, value, valueLength, len);
+		valueLength += len;
+	}
+
+	private static boolean isPlainValueByte(byte b) {
+		return b >= 0 && b != CR && b != LF && !isLWSP(b);
+	}
+
+	private static byte[] grow(byte[] buf, int max) {
+		return Arrays.copyOf(buf, (int) Math.min(buf.length * 2L, max));
+	}
+
 	private interface ParseState {
 		public ParseState handleByte(byte b, HttpHeaderParser parser)
 		throws HttpParseException;
 	}
 
-	private class EndParseState implements ParseState {
+	private static class EndParseState implements ParseState {
 		public ParseState handleByte(byte b, HttpHeaderParser parser)
 		throws HttpParseException {
 			throw new HttpParseException("Parse already completed");
 		}
 	}
 
-	private class StartParseState implements ParseState {
+	private static class StartParseState implements ParseState {
 		public ParseState handleByte(byte b, HttpHeaderParser parser)
 		throws HttpParseException {
 			if(isLWSP(b)) {
@@ -198,66 +438,66 @@ public class HttpHeaderParser implements HttpConstants {
 				}
 				// skip i guess...
 				parser.headersCorrupted();
-				return parser.startState;
+				return startState;
 			}
 			if(isLegalNameByte(b)) {
 				parser.setNameStartPos();
 				parser.addNameByte(b);
-				return parser.nameState;
+				return nameState;
 			}
 			if(parser.isStrict) {
 				throw new HttpParseException("Bad character at start of headers");
 			}
 			parser.headersCorrupted();
-			return parser.laxLineEatParseState;
+			return laxLineEatParseState;
 		}
 	}
 
-	private class LineStartParseState implements ParseState {
+	private static class LineStartParseState implements ParseState {
 		public ParseState handleByte(byte b, HttpHeaderParser parser)
 		throws HttpParseException {
 			if(isLWSP(b)) {
 				parser.addValueByte(SP);
-				return parser.valuePostLWSPState;
+				return valuePostLWSPState;
 			}
 			if(isLegalNameByte(b)) {
 				parser.headerFinished();
 				parser.setNameStartPos();
 				parser.addNameByte(b);
-				return parser.nameState;
+				return nameState;
 			}
 			if(b == CR) {
-				return parser.postBlankCRState;
+				return postBlankCRState;
 			}
 			if(b == LF) {
 				// TODO: this is lax, is LFLF an OK terminator?
 				// that's all folks!
 				parser.headerFinished();
 				parser.parseFinished();
-				return parser.endState;
+				return endState;
 			}
 			if(parser.isStrict) {
 				throw new HttpParseException("Bad character at start of line");
 			}
 			parser.headersCorrupted();
-			return parser.laxLineEatParseState;
+			return laxLineEatParseState;
 		}
 	}
 	
-	private class LAXLineEatParseState implements ParseState {
+	private static class LAXLineEatParseState implements ParseState {
 		public ParseState handleByte(byte b, HttpHeaderParser parser)
 		throws HttpParseException {
 			if(b == CR) {
-				return parser.valuePostCRState;
+				return valuePostCRState;
 			}
 			if(b == LF) {
-				return parser.lineStartState;
+				return lineStartState;
 			}
-			return parser.laxLineEatParseState;
+			return laxLineEatParseState;
 		}
 	}
 
-	private class NameParseState implements ParseState {
+	private static class NameParseState implements ParseState {
 		public ParseState handleByte(byte b, HttpHeaderParser parser)
 		throws HttpParseException {
 			if(isLegalNameByte(b)) {
@@ -265,98 +505,99 @@ public class HttpHeaderParser implements HttpConstants {
 				return this;
 			}
 			if(isLWSP(b)) {
-				return parser.postNameState;
+				return postNameState;
 			}
 			if(b == COLON) {
-				return parser.postColonState;
+				return postColonState;
 			}
 			if(parser.isStrict) {
 				throw new HttpParseException("Illegal name char");
 			}
 			parser.headersCorrupted();
-			return parser.laxLineEatParseState;
+			return laxLineEatParseState;
 		}
 	}
 	
-	private class PostNameParseState implements ParseState {
+	private static class PostNameParseState implements ParseState {
 		public ParseState handleByte(byte b, HttpHeaderParser parser)
 		throws HttpParseException {
 			if(isLWSP(b)) {
 				// ignore more spaces..
-				return parser.postNameState;
+				return postNameState;
 			}
 			if(b == COLON) {
-				return parser.postColonState;
+				return postColonState;
 			}
 			if(parser.isStrict) {
 				throw new HttpParseException("Illegal char after name("
-						+ new String(name, 0, nameLength, StandardCharsets.ISO_8859_1) + ")");
+						+ new String(parser.name, 0, parser.nameLength,
+								StandardCharsets.ISO_8859_1) + ")");
 			}
 			parser.headersCorrupted();
-			return parser.laxLineEatParseState;
+			return laxLineEatParseState;
 		}
 	}
 	
 
-	private class PostColonParseState implements ParseState {
+	private static class PostColonParseState implements ParseState {
 		public ParseState handleByte(byte b, HttpHeaderParser parser) throws HttpParseException {
 			if(isLWSP(b)) {
-				return parser.postColonState;
+				return postColonState;
 			}
 			// reset previous value also in case the header value is empty
 			parser.setValueStartIdx();
 			if(b == CR) {
-				parser.valuePreCRState = parser.postColonState;
-				return parser.valuePostCRState;
+				parser.valuePreCRState = postColonState;
+				return valuePostCRState;
 			}
 			if(b == LF) {
 				// TODO: this is lax, is LFLF an OK terminator?
-				return parser.lineStartState;
+				return lineStartState;
 			}
 			parser.addValueByte(b);
-			return parser.valueState;
+			return valueState;
 		}
 	}
 	
-	private class ValueParseState implements ParseState {
+	private static class ValueParseState implements ParseState {
 		public ParseState handleByte(byte b, HttpHeaderParser parser) throws HttpParseException {
 			if(isLWSP(b)) {
 				parser.addValueByte(SP);
-				return parser.valuePostLWSPState;
+				return valuePostLWSPState;
 			}
 			if(b == CR) {
 				parser.valuePreCRState = this;
-				return parser.valuePostCRState;
+				return valuePostCRState;
 			}
 			if(b == LF) {
 				// TODO: this is lax, is LFLF an OK terminator?
-				return parser.lineStartState;
+				return lineStartState;
 			}
 			parser.addValueByte(b);
 			return this;
 		}
 	}
 	
-	private class ValuePostLWSPParseState implements ParseState {
+	private static class ValuePostLWSPParseState implements ParseState {
 		public ParseState handleByte(byte b, HttpHeaderParser parser) throws HttpParseException {
 			if(isLWSP(b)) {
 				// skip, already added a space:
-				return parser.valuePostLWSPState;
+				return valuePostLWSPState;
 			}
 			if(b == CR) {
 				parser.valuePreCRState = this;
-				return parser.valuePostCRState;
+				return valuePostCRState;
 			}
 			if(b == LF) {
 				// TODO: this is lax, is LFLF an OK terminator?
-				return parser.lineStartState;
+				return lineStartState;
 			}
 			parser.addValueByte(b);
-			return parser.valueState;
+			return valueState;
 		}
 	}
 	
-	private class ValuePostCRParseState implements ParseState {
+	private static class ValuePostCRParseState implements ParseState {
 		public ParseState handleByte(byte b, HttpHeaderParser parser) throws HttpParseException {
 			if(isLWSP(b)) {
 				// ignore last CR. lax?
@@ -364,29 +605,29 @@ public class HttpHeaderParser implements HttpConstants {
 			}
 			if(b == CR) {
 				// TODO: this is lax, is LFLF an OK terminator?
-				return parser.valuePostCRState;
+				return valuePostCRState;
 			}
 			if(b == LF) {
-				return parser.lineStartState;
+				return lineStartState;
 			}
 			parser.addValueByte(b);
-			return parser.valueState;
+			return valueState;
 		}
 	}
-	private class PostBlankCRParseState implements ParseState {
+	private static class PostBlankCRParseState implements ParseState {
 		public ParseState handleByte(byte b, HttpHeaderParser parser) throws HttpParseException {
 			if(b == LF) {
 				parser.headerFinished();
 				// that's all folks!
 				parser.parseFinished();
-				return parser.endState;
+				return endState;
 			}
 			if(parser.isStrict) {
 				throw new HttpParseException("NON LF after blank CR");
 			}
 			parser.headersCorrupted();
 			// TODO: is this the right state?
-			return parser.laxLineEatParseState;
+			return laxLineEatParseState;
 		}
 	}
 
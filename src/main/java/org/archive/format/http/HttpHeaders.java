@@ -4,13 +4,17 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.Locale;
+import java.util.HashMap;
 import java.util.logging.Logger;
 
-import org.archive.util.ByteOp;
 import org.archive.util.DateUtils;
 
 /**
+ * Header fields in the order they were added. Parsed names are shared
+ * instances from {@link HeaderNames} where known. Lookups by name go
+ * through an index of the first header under each lower case name, which
+ * is rebuilt when headers are added or removed; renaming a header in place
+ * with {@link HttpHeader#setName(String)} is not noticed by the index.
  * @author brad
  *
  */
@@ -24,6 +28,8 @@ implements HttpHeaderObserver {
 	private static final long serialVersionUID = 5737284156382429120L;
 	private boolean isCorrupt = false;
 	private int totalBytes;
+	private transient HashMap<String,HttpHeader> index = null;
+	private transient int indexModCount = -1;
 
 	public void setDateHeader(String name, long ms) {
 		setDateHeader(name,new Date(ms));
@@ -40,28 +46,52 @@ implements HttpHeaderObserver {
 		add(name, dv);
 	}
 
+	private HttpHeader lookup(String name) {
+		if(index == null || indexModCount != modCount) {
+			if(index == null) {
+				index = new HashMap<String,HttpHeader>();
+			} else {
+				index.clear();
+			}
+			for(HttpHeader h : this) {
+				String key = HeaderNames.key(h.getName());
+				if(!index.containsKey(key)) {
+					index.put(key, h);
+				}
+			}
+			indexModCount = modCount;
+		}
+		return index.get(HeaderNames.key(name));
+	}
+
 	public HttpHeader get(String name) {
-		for(HttpHeader h : this) {
-			if(h.getName().equals(name)) {
-				return h;
+		HttpHeader h = lookup(name);
+		if(h == null || h.getName().equals(name)) {
+			return h;
+		}
+		// first match ignoring case is spelt differently: look further
+		for(HttpHeader header : this) {
+			if(header.getName().equals(name)) {
+				return header;
 			}
 		}
 		return null;
 	}
 
+	@Override
+	public HttpHeader set(int i, HttpHeader header) {
+		indexModCount = -1;
+		return super.set(i, header);
+	}
+
 	public String getValue(String name) {
 		HttpHeader header = get(name);
 		return header == null ? null : header.getValue();
 	}
 
 	public String getValueCaseInsensitive(String name) {
-		String lc = name.toLowerCase(Locale.ROOT);
-		for(HttpHeader h : this) {
-			if(h.getName().toLowerCase(Locale.ROOT).equals(lc)) {
-				return h.getValue();
-			}
-		}
-		return null;
+		HttpHeader h = lookup(name);
+		return h == null ? null : h.getValue();
 	}
 
 	public long getContentLength() {
@@ -87,10 +117,8 @@ implements HttpHeaderObserver {
 	}
 	public void headerParsed(byte[] name, int ns, int nl, byte[] value, int vs,
 			int vl) {
-		String sName = new String(ByteOp.copy(name, 0, nl), UTF8);
-		String sValue = new String(ByteOp.copy(value,0,vl), UTF8);
-//		String sName = new String(name,0,nl,UTF8);
-//		String sValue = new String(value,0,vl,UTF8);
+		String sName = HeaderNames.intern(name, 0, nl);
+		String sValue = new String(value, 0, vl, UTF8);
 		add(new HttpHeader(sName, sValue));
 	}
 
@@ -7,8 +7,6 @@ public class HttpRequestParser {
 	private HttpRequestMessageParser messageParser = 
 		new HttpRequestMessageParser();
 
-	private HttpHeaderParser headerParser = new HttpHeaderParser();
-
 	public HttpRequestParser() {}
 	public HttpRequest parse(InputStream is) 
 	throws HttpParseException, IOException {
@@ -16,7 +14,7 @@ public class HttpRequestParser {
 		HttpRequestMessage message = new HttpRequestMessage();
 		HttpHeaders headers = new HttpHeaders();
 		int headerBytes = messageParser.parse(is, message);
-		headerBytes += headerParser.doParse(is, headers);
+		headerBytes += HttpHeaderParser.forThread().doParse(is, headers);
 		
 		HttpRequest request = new HttpRequest(is, message, headers);
 		request.setHeaderBytes(headerBytes);
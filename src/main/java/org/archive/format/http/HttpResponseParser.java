@@ -7,8 +7,6 @@ public class HttpResponseParser {
 	private HttpResponseMessageParser messageParser = 
 		new HttpResponseMessageParser();
 
-	private HttpHeaderParser headerParser = new HttpHeaderParser();
-
 	public HttpResponseParser() {}
 	public HttpResponse parse(InputStream is) 
 	throws HttpParseException, IOException {
@@ -16,7 +14,7 @@ public class HttpResponseParser {
 		HttpResponseMessage message = new HttpResponseMessage();
 		HttpHeaders headers = new HttpHeaders();
 		int headerBytes = messageParser.parse(is, message);
-		headerBytes += headerParser.doParse(is, headers);
+		headerBytes += HttpHeaderParser.forThread().doParse(is, headers);
 		
 		HttpResponse response = new HttpResponse(is, message, headers);
 		response.setHeaderBytes(headerBytes);
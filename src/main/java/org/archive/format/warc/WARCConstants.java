@@ -81,6 +81,12 @@ public interface WARCConstants extends ArchiveFileConstants {
      */
     public static final String DOT_COMPRESSED_WARC_FILE_EXTENSION =
         DOT_WARC_FILE_EXTENSION + DOT_COMPRESSED_FILE_EXTENSION;
+
+    /**
+     * Zstandard-compressed dot WARC file extension.
+     */
+    public static final String DOT_ZSTD_COMPRESSED_WARC_FILE_EXTENSION =
+        DOT_WARC_FILE_EXTENSION + DOT_ZSTD_COMPRESSED_FILE_EXTENSION;
     
     /**
      * Encoding to use getting bytes from strings.
@@ -20,12 +20,10 @@
 package org.archive.io;
 
 
-import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -41,6 +39,7 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.archive.util.MimetypeUtils;
 import org.archive.util.zip.GZIPMembersInputStream;
+import org.archive.util.zip.ZstdMembersInputStream;
 
 import com.google.common.io.CountingInputStream;
 
@@ -69,6 +68,18 @@ public abstract class ArchiveReader implements Iterable<ArchiveRecord>, Closeabl
      * Should the parse be strict?
      */
     private boolean strict = false;
+
+    /**
+     * Read only record headers, and at most this many bytes of each
+     * record's content; -1 to read records in full.
+     */
+    private int headersOnlyPreview = -1;
+
+    /**
+     * Buffer shared by the records read one after another, for skipping
+     * over or copying out their content.
+     */
+    private byte[] transferBuffer = null;
     
     /**
      * Archive file input stream.
@@ -121,18 +132,32 @@ public abstract class ArchiveReader implements Iterable<ArchiveRecord>, Closeabl
     }
     
     /**
-     * Convenience method for constructors.
+     * Convenience method for constructors. Returns a stream over a
+     * FileChannel with a pooled direct buffer, positioned at the start of
+     * the file; skips on it are positional.
      * 
      * @param f File to read.
-     * @param offset Offset at which to start reading.
+     * @param offset Offset at which to start reading (callers skip or seek
+     * there themselves).
      * @return InputStream to read from.
-     * @throws IOException If failed open or fail to get a memory
-     * mapped byte buffer on file.
+     * @throws IOException If failed open.
      */
     protected InputStream getInputStream(final File f, final long offset)
     throws IOException {
-        FileInputStream fin = new FileInputStream(f); 
-        return new BufferedInputStream(fin);
+        return new FileChannelInputStream(f);
+    }
+
+    /**
+     * Convenience method for constructors of uncompressed readers. A
+     * {@link SeekInputStream} is used as is, since it knows its position
+     * and record parsing reads and skips it in blocks; any other stream
+     * is wrapped to count the bytes read.
+     * 
+     * @param is stream over the file
+     * @return stream whose position {@link #positionForRecord} can report
+     */
+    protected static InputStream countingStream(InputStream is) {
+        return is instanceof SeekInputStream ? is : new CountingInputStream(is);
     }
 
     public boolean isCompressed() {
@@ -315,10 +340,41 @@ public abstract class ArchiveReader implements Iterable<ArchiveRecord>, Closeabl
     }
 
     /**
-     * @return True if we're digesting as we read.
+     * @return True if we're digesting as we read.  Never so in headers-only
+     * mode.
      */
     public boolean isDigest() {
-        return this.digest;
+        return this.digest && !isHeadersOnly();
+    }
+
+    /**
+     * Iterate over record headers only.  Records are not digested and the
+     * first <code>previewLength</code> bytes of each record's content (for
+     * instance, enough for the HTTP status line and headers) are all that
+     * can be read of it; moving on to the next record then seeks past the
+     * rest of the content of an uncompressed file, and inflates and
+     * discards it, without digesting, in a compressed one.
+     * 
+     * @param previewLength bytes of content readable from each record, 0
+     * for none
+     * @see ArchiveRecord#setHeadersOnly(long)
+     */
+    public void setHeadersOnly(int previewLength) {
+        this.headersOnlyPreview = Math.max(0, previewLength);
+    }
+
+    /**
+     * Go back to reading records in full.
+     */
+    public void clearHeadersOnly() {
+        this.headersOnlyPreview = -1;
+    }
+
+    /**
+     * @return True if only record headers are being read.
+     */
+    public boolean isHeadersOnly() {
+        return this.headersOnlyPreview >= 0;
     }
  
     protected Logger getLogger() {
@@ -357,6 +413,16 @@ public abstract class ArchiveReader implements Iterable<ArchiveRecord>, Closeabl
 	}
 
 	protected ArchiveRecord currentRecord(final ArchiveRecord r) {
+		if (r != null) {
+			if (this.transferBuffer == null) {
+				this.transferBuffer =
+					new byte[ArchiveRecord.TRANSFER_BUFFER_SIZE];
+			}
+			r.setTransferBuffer(this.transferBuffer);
+			if (isHeadersOnly()) {
+				r.setHeadersOnly(this.headersOnlyPreview);
+			}
+		}
 		this.currentRecord = r;
         return r;
 	}
@@ -573,10 +639,15 @@ public abstract class ArchiveReader implements Iterable<ArchiveRecord>, Closeabl
         }
     }
     
-    protected static long positionForRecord(InputStream in) {
-        return (in instanceof GZIPMembersInputStream) 
-            ? ((GZIPMembersInputStream)in).getCurrentMemberStart()
-            : ((CountingInputStream)in).getCount();
+    protected static long positionForRecord(InputStream in) throws IOException {
+        if (in instanceof GZIPMembersInputStream) {
+            return ((GZIPMembersInputStream)in).getCurrentMemberStart();
+        } else if (in instanceof ZstdMembersInputStream) {
+            return ((ZstdMembersInputStream)in).getCurrentMemberStart();
+        } else if (in instanceof SeekInputStream) {
+            return ((SeekInputStream)in).position();
+        }
+        return ((CountingInputStream)in).getCount();
     }
     
     protected static String stripExtension(final String name,
@@ -608,6 +679,7 @@ public abstract class ArchiveReader implements Iterable<ArchiveRecord>, Closeabl
     public static String getStrippedFileName(String name,
     		final String dotFileExtension) {
     	name = stripExtension(name, DOT_COMPRESSED_FILE_EXTENSION);
+    	name = stripExtension(name, DOT_ZSTD_COMPRESSED_FILE_EXTENSION);
     	return stripExtension(name, dotFileExtension);
     }
     
@@ -661,6 +733,8 @@ public abstract class ArchiveReader implements Iterable<ArchiveRecord>, Closeabl
         if (toFile) {
             String cdxFilename = stripExtension(getReaderIdentifier(),
                 DOT_COMPRESSED_FILE_EXTENSION);
+            cdxFilename = stripExtension(cdxFilename,
+                DOT_ZSTD_COMPRESSED_FILE_EXTENSION);
             cdxFilename = stripExtension(cdxFilename, getDotFileExtension());
             cdxFilename += ('.' + CDX);
             cdxWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cdxFilename), UTF_8));
@@ -297,7 +297,8 @@ public class ArchiveReaderFactory {
      * @throws IOException
      */
     protected boolean isCompressed(final File f) throws IOException {
-        return f.getName().toLowerCase(Locale.ROOT).
-        	endsWith(DOT_COMPRESSED_FILE_EXTENSION);
+        String name = f.getName().toLowerCase(Locale.ROOT);
+        return name.endsWith(DOT_COMPRESSED_FILE_EXTENSION) ||
+        	name.endsWith(DOT_ZSTD_COMPRESSED_FILE_EXTENSION);
     }
 }
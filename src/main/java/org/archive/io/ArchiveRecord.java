@@ -21,10 +21,13 @@ package org.archive.io;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Locale;
 import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.archive.format.ArchiveFileConstants;
 import org.archive.util.Base32;
@@ -35,6 +38,8 @@ import org.archive.util.Base32;
  * @version $Date$ $Version$
  */
 public abstract class ArchiveRecord extends InputStream {
+    private static final Logger logger =
+        Logger.getLogger(ArchiveRecord.class.getName());
 
     /**
      * Minimal http response or request header length.
@@ -88,6 +93,19 @@ public abstract class ArchiveRecord extends InputStream {
 
     protected boolean strict = false;
 
+    /**
+     * Size of the chunks in which {@link #skip(long)} and transferTo() read,
+     * and so digest, record content.
+     */
+    protected static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+    private byte[] transferBuffer = null;
+
+    /**
+     * Position past which content is not read in headers-only mode, or -1
+     * if not in that mode.
+     */
+    private long previewEnd = -1;
+
 
     /**
      * Constructor.
@@ -171,7 +189,11 @@ public abstract class ArchiveRecord extends InputStream {
      */
     public void close() throws IOException {
         if (this.in != null) {
-            skip();
+            if (isHeadersOnly()) {
+                skipRemaining();
+            } else {
+                skip();
+            }
             this.in = null;
             if (this.digest != null) {
                 this.digestStr = Base32.encode(this.digest.digest());
@@ -229,6 +251,9 @@ public abstract class ArchiveRecord extends InputStream {
      */
     public int available() {
         long amount = getHeader().getLength() - getPosition();
+        if (this.previewEnd >= 0) {
+            amount = Math.min(amount, Math.max(0, this.previewEnd - getPosition()));
+        }
         return (amount > Integer.MAX_VALUE? Integer.MAX_VALUE: (int)amount);
     }
 
@@ -253,11 +278,10 @@ public abstract class ArchiveRecord extends InputStream {
     }
 
     public long skip(long n) throws IOException {
-        final int SKIP_BUFFERSIZE = 1024 * 4;
-        byte[] b = new byte[SKIP_BUFFERSIZE];
+        byte[] b = getTransferBuffer();
         long total = 0;
         for (int read = 0; (total < n) && (read != -1);) {
-            read = Math.min(SKIP_BUFFERSIZE, (int) (n - total));
+            read = (int) Math.min(b.length, n - total);
             // TODO: Interesting is that reading from compressed stream, we only
             // read about 500 characters at a time though we ask for 4k.
             // Look at this sometime.
@@ -271,6 +295,139 @@ public abstract class ArchiveRecord extends InputStream {
         return total;
     }
 
+    /**
+     * Read until <code>len</code> bytes have been read or the end of the
+     * record is reached. 
+     * 
+     * @param b buffer to read into
+     * @param off offset in <code>b</code>
+     * @param len bytes wanted
+     * @return bytes read, or -1 if already at end of record
+     * @throws IOException
+     */
+    public int readFully(byte[] b, int off, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            int read = read(b, off + total, len - total);
+            if (read == -1) {
+                return total == 0 ? -1 : total;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Copy the rest of the record content to <code>out</code>, reading
+     * (and digesting) in large chunks.
+     * 
+     * @param out where to write
+     * @return bytes copied
+     * @throws IOException
+     */
+    public long transferTo(OutputStream out) throws IOException {
+        byte[] b = getTransferBuffer();
+        long total = 0;
+        for (int read; (read = read(b, 0, b.length)) != -1;) {
+            out.write(b, 0, read);
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Copy the rest of the record content to <code>channel</code>,
+     * reading (and digesting) in large chunks.
+     * 
+     * @param channel where to write
+     * @return bytes copied
+     * @throws IOException
+     */
+    public long transferTo(WritableByteChannel channel) throws IOException {
+        byte[] b = getTransferBuffer();
+        ByteBuffer bb = ByteBuffer.wrap(b);
+        long total = 0;
+        for (int read; (read = read(b, 0, b.length)) != -1;) {
+            bb.clear().limit(read);
+            while (bb.hasRemaining()) {
+                channel.write(bb);
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    protected byte[] getTransferBuffer() {
+        if (this.transferBuffer == null) {
+            this.transferBuffer = new byte[TRANSFER_BUFFER_SIZE];
+        }
+        return this.transferBuffer;
+    }
+
+    /**
+     * Have this record use a buffer shared with others read one after
+     * another, rather than allocate its own.
+     */
+    void setTransferBuffer(byte[] b) {
+        this.transferBuffer = b;
+    }
+
+    /**
+     * Put this record in headers-only mode. At most
+     * <code>previewLength</code> more bytes of content can then be read,
+     * nothing is digested, and {@link #close()} passes over the rest of the
+     * record without reading it through this record: by seeking where the
+     * stream is a {@link SeekInputStream}, else by reading and discarding
+     * it in large chunks.
+     * 
+     * @param previewLength bytes of content that can still be read
+     */
+    public void setHeadersOnly(long previewLength) {
+        this.previewEnd = getPosition() + Math.max(0, previewLength);
+        this.digest = null;
+    }
+
+    public boolean isHeadersOnly() {
+        return this.previewEnd >= 0;
+    }
+
+    /**
+     * Move the underlying stream to the end of this record's content
+     * without digesting.
+     * 
+     * @throws IOException
+     */
+    protected void skipRemaining() throws IOException {
+        if (this.eor) {
+            return;
+        }
+        long remaining = getHeader().getLength() - getPosition();
+        while (remaining > 0) {
+            long n;
+            if (this.in instanceof SeekInputStream) {
+                n = this.in.skip(remaining);
+            } else {
+                byte[] b = getTransferBuffer();
+                n = this.in.read(b, 0, (int) Math.min(b.length, remaining));
+            }
+            if (n == 0 && this.in.read() != -1) {
+                n = 1;
+            }
+            if (n <= 0) {
+                String msg = "Premature EOF before end-of-record: "
+                        + getHeader().getHeaderFields();
+                if (isStrict()) {
+                    throw new IOException(msg);
+                }
+                setEor(true);
+                logger.warning(msg);
+                return;
+            }
+            remaining -= n;
+            incrementPosition(n);
+        }
+    }
+
     /**
      * @return Returns the strict.
      */
@@ -372,11 +529,7 @@ public abstract class ArchiveRecord extends InputStream {
      */
     public void dump(final OutputStream os)
             throws IOException {
-        final byte [] outputBuffer = new byte [16*1024];
-        int read = outputBuffer.length;
-        while ((read = read(outputBuffer, 0, outputBuffer.length)) != -1) {
-            os.write(outputBuffer, 0, read);
-        }
+        transferTo(os);
         os.flush();
     }
 
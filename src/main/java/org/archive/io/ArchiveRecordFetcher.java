@@ -0,0 +1,373 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.format.ArchiveFileConstants;
+import org.archive.io.arc.ARCReaderFactory;
+import org.archive.io.arc.ARCRecord;
+import org.archive.io.warc.WARCRecord;
+import org.archive.util.zip.GZIPMembersInputStream;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Fetches single records from WARC and ARC files by offset, as replay
+ * does, without opening the file and building a reader for each fetch.
+ * 
+ * <p>Files are kept open in a bounded, least recently used set of
+ * {@link FileChannel}s shared by all threads. Records are read with
+ * positional reads through a {@link FileChannelInputStream} whose buffer
+ * comes from a {@link DirectBufferPool}, so fetches from the same file
+ * neither share a file pointer nor lock each other out; the set is only
+ * locked to look a file up. A channel dropped from the set stays open
+ * until the last record read from it is closed.
+ * 
+ * <p>Gzip members are recognised by their magic bytes; ARC files by their
+ * name, anything else being taken for a WARC. Zstandard-compressed WARCs
+ * are not supported.
+ * 
+ * <p>Records are not digested. Closing a fetched record gives back its
+ * buffer and file, without reading through the rest of the record.
+ */
+public class ArchiveRecordFetcher implements Closeable {
+    private static final Logger LOGGER =
+        Logger.getLogger(ArchiveRecordFetcher.class.getName());
+
+    public static final int DEFAULT_MAX_OPEN_FILES = 128;
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int GZIP_MAGIC = 0x1f8b;
+
+    protected static class OpenFile {
+        final FileChannel channel;
+        int users = 0;
+        boolean evicted = false;
+
+        OpenFile(FileChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    protected final int maxOpenFiles;
+    protected final int bufferSize;
+    protected final DirectBufferPool bufferPool;
+    protected final LinkedHashMap<String,OpenFile> openFiles;
+    private boolean closed = false;
+
+    protected final AtomicLong hits = new AtomicLong();
+    protected final AtomicLong misses = new AtomicLong();
+    protected final AtomicLong evictions = new AtomicLong();
+
+    public ArchiveRecordFetcher() {
+        this(DEFAULT_MAX_OPEN_FILES);
+    }
+
+    /**
+     * @param maxOpenFiles most files kept open between fetches
+     */
+    public ArchiveRecordFetcher(int maxOpenFiles) {
+        this(maxOpenFiles, DEFAULT_BUFFER_SIZE, DirectBufferPool.SHARED);
+    }
+
+    /**
+     * @param maxOpenFiles most files kept open between fetches
+     * @param bufferSize read buffer size for each fetched record
+     * @param bufferPool pool to borrow read buffers from
+     */
+    public ArchiveRecordFetcher(final int maxOpenFiles, int bufferSize,
+            DirectBufferPool bufferPool) {
+        if (maxOpenFiles < 1) {
+            throw new IllegalArgumentException("maxOpenFiles " + maxOpenFiles);
+        }
+        this.maxOpenFiles = maxOpenFiles;
+        this.bufferSize = Math.max(bufferSize,
+                FileChannelInputStream.ALIGNMENT * 2);
+        this.bufferPool = bufferPool;
+        this.openFiles = new LinkedHashMap<String,OpenFile>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,OpenFile> eldest) {
+                if (size() > maxOpenFiles) {
+                    evict(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param file WARC or ARC file
+     * @param offset offset of a record in the file (of its gzip member,
+     * if compressed)
+     * @return the record, its headers parsed and its content ready to
+     * read; the caller must close it
+     * @throws IOException
+     */
+    public ArchiveRecord fetch(File file, long offset) throws IOException {
+        final OpenFile openFile = acquire(file);
+        ByteBuffer buffer = null;
+        InputStream in = null;
+        try {
+            buffer = bufferPool.borrow(bufferSize);
+            FileChannelInputStream fcis =
+                new FileChannelInputStream(openFile.channel, offset, buffer);
+            in = fcis;
+            if (fcis.ensure(2)) {
+                ByteBuffer b = fcis.getBuffer();
+                int magic = ((b.get(b.position()) & 0xff) << 8)
+                        | (b.get(b.position() + 1) & 0xff);
+                if (magic == GZIP_MAGIC) {
+                    in = new GZIPMembersInputStream(fcis);
+                }
+            }
+            ArchiveRecord record = createRecord(file, in, offset,
+                    new Lease(in, buffer, openFile));
+            buffer = null;
+            return record;
+        } finally {
+            if (buffer != null) {
+                // record not made: give everything back
+                if (in != null) {
+                    in.close();
+                }
+                bufferPool.release(buffer);
+                release(openFile);
+            }
+        }
+    }
+
+    public ArchiveRecord fetch(String path, long offset) throws IOException {
+        return fetch(new File(path), offset);
+    }
+
+    protected ArchiveRecord createRecord(File file, InputStream in,
+            long offset, final Lease lease) throws IOException {
+        String name = file.getName();
+        if (name.endsWith(ArchiveFileConstants.OCCUPIED_SUFFIX)) {
+            name = name.substring(0, name.length()
+                    - ArchiveFileConstants.OCCUPIED_SUFFIX.length());
+        }
+        String identifier = file.getAbsolutePath();
+        if (ARCReaderFactory.isARCSuffix(name)) {
+            return new ARCRecord(in, identifier, offset, false, false, true) {
+                @Override
+                public void close() throws IOException {
+                    this.in = null;
+                    lease.close();
+                }
+            };
+        }
+        return new WARCRecord(in, identifier, offset, false, false) {
+            @Override
+            public void close() throws IOException {
+                this.in = null;
+                lease.close();
+            }
+        };
+    }
+
+    /**
+     * What a fetched record holds until it is closed.
+     */
+    protected class Lease implements Closeable {
+        private InputStream in;
+        private ByteBuffer buffer;
+        private final OpenFile openFile;
+
+        Lease(InputStream in, ByteBuffer buffer, OpenFile openFile) {
+            this.in = in;
+            this.buffer = buffer;
+            this.openFile = openFile;
+        }
+
+        public synchronized void close() throws IOException {
+            if (this.buffer == null) {
+                return;
+            }
+            try {
+                this.in.close();
+            } finally {
+                bufferPool.release(this.buffer);
+                this.buffer = null;
+                this.in = null;
+                release(this.openFile);
+            }
+        }
+    }
+
+    protected OpenFile acquire(File file) throws IOException {
+        String key = file.getPath();
+        synchronized (openFiles) {
+            OpenFile openFile = lookup(key);
+            if (openFile != null) {
+                hits.incrementAndGet();
+                return openFile;
+            }
+        }
+        // open without the lock, so a slow open holds up no other fetch
+        misses.incrementAndGet();
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+        OpenFile openFile;
+        synchronized (openFiles) {
+            try {
+                openFile = lookup(key);
+            } catch (IOException e) {
+                closeChannel(channel);
+                throw e;
+            }
+            if (openFile == null) {
+                openFile = new OpenFile(channel);
+                openFile.users++;
+                openFiles.put(key, openFile);
+                return openFile;
+            }
+        }
+        // another thread opened the file meanwhile: use theirs
+        closeChannel(channel);
+        return openFile;
+    }
+
+    /**
+     * Take a use of the open file for <code>key</code>, if there is one.
+     * Called holding the lock on openFiles.
+     * 
+     * @return the open file, or null if it must be opened
+     * @throws IOException if this fetcher is closed
+     */
+    private OpenFile lookup(String key) throws IOException {
+        if (closed) {
+            throw new IOException("Fetcher is closed");
+        }
+        OpenFile openFile = openFiles.get(key);
+        if (openFile == null) {
+            return null;
+        }
+        if (!openFile.channel.isOpen()) {
+            // closed under us, by an interrupted read
+            openFiles.remove(key);
+            evict(openFile);
+            return null;
+        }
+        openFile.users++;
+        return openFile;
+    }
+
+    protected void release(OpenFile openFile) {
+        synchronized (openFiles) {
+            openFile.users--;
+            if (openFile.evicted && openFile.users == 0) {
+                closeChannel(openFile.channel);
+            }
+        }
+    }
+
+    /* called holding the lock on openFiles */
+    private void evict(OpenFile openFile) {
+        evictions.incrementAndGet();
+        openFile.evicted = true;
+        if (openFile.users == 0) {
+            closeChannel(openFile.channel);
+        }
+    }
+
+    private void closeChannel(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "problem closing channel", e);
+        }
+    }
+
+    /**
+     * Close all files not in use; those in use are closed when the last
+     * record fetched from them is. No fetches can be made after this.
+     */
+    public void close() {
+        synchronized (openFiles) {
+            closed = true;
+            List<OpenFile> all = new ArrayList<OpenFile>(openFiles.values());
+            openFiles.clear();
+            for (OpenFile openFile : all) {
+                openFile.evicted = true;
+                if (openFile.users == 0) {
+                    closeChannel(openFile.channel);
+                }
+            }
+        }
+    }
+
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    public int getOpenFileCount() {
+        synchronized (openFiles) {
+            return openFiles.size();
+        }
+    }
+
+    /**
+     * @return fetches from a file that was already open
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return fetches that had to open their file
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return files dropped from the open set to make room
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public JSONObject jsonMetrics() throws JSONException {
+        JSONObject jo = new JSONObject();
+        jo.put("maxOpenFiles", getMaxOpenFiles());
+        jo.put("openFiles", getOpenFileCount());
+        jo.put("hits", getHitCount());
+        jo.put("misses", getMissCount());
+        jo.put("evictions", getEvictionCount());
+        return jo;
+    }
+}
@@ -66,9 +66,12 @@ public class ArraySeekInputStream extends SeekInputStream {
     
     @Override
     public int read(byte[] buf, int ofs, int len) {
-        if (offset >= array.length) {
+        if (len == 0) {
             return 0;
         }
+        if (offset >= array.length) {
+            return -1;
+        }
         len = Math.min(len, array.length - offset);
         System.arraycopy(array, offset, buf, ofs, len);
         offset += len;
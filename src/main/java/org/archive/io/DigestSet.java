@@ -0,0 +1,349 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.Closeable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Several digests of the same data, computed in one pass.
+ *
+ * <p>Input is staged into 64KB chunks so that the digests only ever see
+ * bulk updates, even when recorded one byte at a time. Algorithms are
+ * {@link MessageDigest} names, or {@link #MURMUR3_128} for a fast
+ * non-cryptographic hash. With <code>background</code> set, the
+ * MessageDigests are updated from a small ring of chunks on a pool of
+ * daemon threads, one per processor, shared by all instances (each
+ * instance's chunks are digested in order, one at a time), while the
+ * caller goes on recording; non-cryptographic hashes are always updated
+ * on the calling thread.
+ *
+ * <p>Not thread-safe: meant to be owned by one recording stream. Call
+ * {@link #reset()} before each new run of data.
+ */
+public class DigestSet implements Closeable {
+
+    /** Algorithm name for Guava's 128-bit murmur3 hash. */
+    public static final String MURMUR3_128 = "murmur3_128";
+
+    protected static final int CHUNK_BYTES = 64 * 1024;
+
+    /** Chunks a background instance may have in flight. */
+    protected static final int CHUNKS = 4;
+
+    private static ExecutorService executor = null;
+
+    protected final String[] algorithms;
+
+    /** Index-aligned with <code>algorithms</code>; null where non-crypto. */
+    protected final MessageDigest[] digests;
+
+    /** Index-aligned with <code>algorithms</code>; null where crypto. */
+    protected final Hasher[] hashers;
+
+    protected final boolean background;
+
+    protected byte[] staging = new byte[CHUNK_BYTES];
+    protected int staged = 0;
+
+    protected Map<String, byte[]> values = null;
+
+    protected long bytes = 0;
+
+    /** Background state; created on first use. */
+    protected BlockingQueue<Chunk> work = null;
+    protected BlockingQueue<byte[]> free;
+    /** true while a digester task for this instance is queued or running */
+    protected final AtomicBoolean scheduled = new AtomicBoolean();
+    protected final Runnable digester = new Runnable() {
+        public void run() {
+            digestQueued();
+        }
+    };
+
+    protected static class Chunk {
+        final byte[] data;
+        final int length;
+        final CountDownLatch barrier;
+
+        Chunk(byte[] data, int length, CountDownLatch barrier) {
+            this.data = data;
+            this.length = length;
+            this.barrier = barrier;
+        }
+    }
+
+    /**
+     * @param algorithms MessageDigest algorithm names, or
+     * {@link #MURMUR3_128}
+     * @throws NoSuchAlgorithmException
+     */
+    public DigestSet(String... algorithms) throws NoSuchAlgorithmException {
+        this(false, algorithms);
+    }
+
+    /**
+     * @param background true to update MessageDigests on a worker thread
+     * @param algorithms MessageDigest algorithm names, or
+     * {@link #MURMUR3_128}
+     * @throws NoSuchAlgorithmException
+     */
+    public DigestSet(boolean background, String... algorithms)
+            throws NoSuchAlgorithmException {
+        if (algorithms.length == 0) {
+            throw new IllegalArgumentException("no algorithms");
+        }
+        this.algorithms = algorithms.clone();
+        this.digests = new MessageDigest[algorithms.length];
+        this.hashers = new Hasher[algorithms.length];
+        boolean anyCrypto = false;
+        for (int i = 0; i < algorithms.length; i++) {
+            if (!MURMUR3_128.equals(algorithms[i])) {
+                digests[i] = MessageDigest.getInstance(algorithms[i]);
+                anyCrypto = true;
+            }
+        }
+        this.background = background && anyCrypto;
+        resetHashers();
+    }
+
+    public String[] getAlgorithms() {
+        return algorithms.clone();
+    }
+
+    public boolean isBackground() {
+        return background;
+    }
+
+    /**
+     * @return the pool background digests are computed on
+     */
+    protected static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r,
+                                "DigestSet-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        return executor;
+    }
+
+    /**
+     * @return bytes fed since the last reset
+     */
+    public long getByteCount() {
+        return bytes;
+    }
+
+    protected void resetHashers() {
+        for (int i = 0; i < algorithms.length; i++) {
+            if (digests[i] == null) {
+                hashers[i] = Hashing.murmur3_128().newHasher();
+            }
+        }
+    }
+
+    /**
+     * Discard any data fed so far and start over.
+     */
+    public void reset() {
+        staged = 0;
+        if (work != null) {
+            drain();
+        }
+        for (MessageDigest md : digests) {
+            if (md != null) {
+                md.reset();
+            }
+        }
+        resetHashers();
+        values = null;
+        bytes = 0;
+    }
+
+    public void update(byte b) {
+        if (staged == staging.length) {
+            flushStaged();
+        }
+        staging[staged++] = b;
+        bytes++;
+    }
+
+    public void update(byte[] b, int off, int len) {
+        bytes += len;
+        if (!background && len >= staging.length) {
+            // nothing to gain from copying
+            flushStaged();
+            updateHashers(b, off, len);
+            updateDigests(b, off, len);
+            return;
+        }
+        while (len > 0) {
+            int n = Math.min(len, staging.length - staged);
+            System.arraycopy(b, off, staging, staged, n);
+            staged += n;
+            off += n;
+            len -= n;
+            if (staged == staging.length) {
+                flushStaged();
+            }
+        }
+    }
+
+    protected void updateHashers(byte[] b, int off, int len) {
+        for (Hasher h : hashers) {
+            if (h != null) {
+                h.putBytes(b, off, len);
+            }
+        }
+    }
+
+    protected void updateDigests(byte[] b, int off, int len) {
+        for (MessageDigest md : digests) {
+            if (md != null) {
+                md.update(b, off, len);
+            }
+        }
+    }
+
+    protected void flushStaged() {
+        if (staged == 0) {
+            return;
+        }
+        updateHashers(staging, 0, staged);
+        if (background) {
+            hand(new Chunk(staging, staged, null));
+            staging = Uninterruptibles.takeUninterruptibly(free);
+        } else {
+            updateDigests(staging, 0, staged);
+        }
+        staged = 0;
+    }
+
+    /**
+     * Queue a chunk for the shared pool, scheduling a digester for this
+     * instance unless one is already queued or running.
+     */
+    protected void hand(Chunk c) {
+        if (work == null) {
+            work = new ArrayBlockingQueue<Chunk>(CHUNKS + 1);
+            free = new ArrayBlockingQueue<byte[]>(CHUNKS);
+            for (int i = 1; i < CHUNKS; i++) {
+                free.add(new byte[CHUNK_BYTES]);
+            }
+        }
+        Uninterruptibles.putUninterruptibly(work, c);
+        if (scheduled.compareAndSet(false, true)) {
+            getExecutor().execute(digester);
+        }
+    }
+
+    /** Digest queued chunks in order; runs on the shared pool. */
+    protected void digestQueued() {
+        while (true) {
+            Chunk c = work.poll();
+            if (c == null) {
+                scheduled.set(false);
+                // a chunk queued after the poll may have seen us scheduled
+                if (work.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            if (c.barrier != null) {
+                c.barrier.countDown();
+                continue;
+            }
+            updateDigests(c.data, 0, c.length);
+            free.add(c.data);
+        }
+    }
+
+    /** Wait until every chunk handed to the pool has been digested. */
+    protected void drain() {
+        CountDownLatch barrier = new CountDownLatch(1);
+        hand(new Chunk(null, 0, barrier));
+        Uninterruptibles.awaitUninterruptibly(barrier);
+    }
+
+    /**
+     * Complete the digests of everything fed since the last reset. Further
+     * updates are not allowed until {@link #reset()}.
+     *
+     * @return algorithm name to digest value, in constructor order
+     */
+    public Map<String, byte[]> getValues() {
+        if (values == null) {
+            flushStaged();
+            if (work != null) {
+                drain();
+            }
+            Map<String, byte[]> v = new LinkedHashMap<String, byte[]>();
+            for (int i = 0; i < algorithms.length; i++) {
+                v.put(algorithms[i], digests[i] != null ? digests[i].digest()
+                        : hashers[i].hash().asBytes());
+            }
+            values = Collections.unmodifiableMap(v);
+        }
+        return values;
+    }
+
+    /**
+     * @return the completed digest for <code>algorithm</code>, or null if
+     * it is not one of this set's
+     * @see #getValues()
+     */
+    public byte[] getValue(String algorithm) {
+        return getValues().get(algorithm);
+    }
+
+    /**
+     * Wait for any background digesting to finish, so no pool thread still
+     * holds this instance's buffers. A closed instance may still be used.
+     */
+    public void close() {
+        if (work != null) {
+            drain();
+        }
+    }
+}
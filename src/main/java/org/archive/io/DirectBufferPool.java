@@ -0,0 +1,193 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe pool of direct {@link ByteBuffer}s in power-of-two size
+ * classes, from {@link #MIN_CLASS_BYTES} up to a largest class; larger 
+ * requests get an unpooled direct buffer. Released buffers are kept for
+ * reuse while the pool's idle bytes stay under its limit, and otherwise
+ * dropped for the garbage collector to free.
+ * 
+ * <p>Used by {@link RecordingOutputStream} (and so {@link RecordingInputStream}
+ * and {@link org.archive.util.Recorder}) to keep recording buffers off the
+ * Java heap, borrowed only while a recording is held.
+ * 
+ * <p>Buffers must not be used after they have been released.
+ */
+public class DirectBufferPool {
+    public static final int MIN_CLASS_BYTES = 4 * 1024;
+    public static final int DEFAULT_MAX_CLASS_BYTES = 64 * 1024 * 1024;
+    public static final long DEFAULT_MAX_IDLE_BYTES = 256L * 1024 * 1024;
+
+    /** pool shared by recorders that are not given their own */
+    public static final DirectBufferPool SHARED = new DirectBufferPool(
+            DEFAULT_MAX_CLASS_BYTES, DEFAULT_MAX_IDLE_BYTES);
+
+    protected final int maxClassBytes;
+    protected final long maxIdleBytes;
+    /** idle buffers by size class: index i holds MIN_CLASS_BYTES << i */
+    protected final List<Queue<ByteBuffer>> idle;
+
+    protected final AtomicLong idleBytes = new AtomicLong();
+    protected final AtomicLong outstandingBytes = new AtomicLong();
+    protected final AtomicLong borrowed = new AtomicLong();
+    protected final AtomicLong reused = new AtomicLong();
+    protected final AtomicLong created = new AtomicLong();
+    protected final AtomicLong discarded = new AtomicLong();
+
+    /**
+     * @param maxClassBytes largest pooled buffer size; rounded up to a
+     * power of two
+     * @param maxIdleBytes most bytes of released buffers kept for reuse
+     */
+    public DirectBufferPool(int maxClassBytes, long maxIdleBytes) {
+        int classes = sizeClass(Math.max(MIN_CLASS_BYTES, maxClassBytes)) + 1;
+        this.maxClassBytes = MIN_CLASS_BYTES << (classes - 1);
+        this.maxIdleBytes = maxIdleBytes;
+        this.idle = new ArrayList<Queue<ByteBuffer>>(classes);
+        for (int i = 0; i < classes; i++) {
+            idle.add(new ConcurrentLinkedQueue<ByteBuffer>());
+        }
+    }
+
+    /**
+     * @return index of the smallest class holding size bytes
+     */
+    protected static int sizeClass(int size) {
+        if (size <= MIN_CLASS_BYTES) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) 
+                - Integer.numberOfTrailingZeros(MIN_CLASS_BYTES);
+    }
+
+    /**
+     * @param size bytes needed
+     * @return a direct buffer of at least <code>size</code> capacity, with
+     * position 0 and limit <code>size</code>; its contents are undefined
+     */
+    public ByteBuffer borrow(int size) {
+        borrowed.incrementAndGet();
+        ByteBuffer buf = null;
+        if (size <= maxClassBytes) {
+            int c = sizeClass(size);
+            buf = idle.get(c).poll();
+            if (buf != null) {
+                reused.incrementAndGet();
+                idleBytes.addAndGet(-buf.capacity());
+            } else {
+                buf = ByteBuffer.allocateDirect(MIN_CLASS_BYTES << c);
+                created.incrementAndGet();
+            }
+        } else {
+            buf = ByteBuffer.allocateDirect(size);
+            created.incrementAndGet();
+        }
+        outstandingBytes.addAndGet(buf.capacity());
+        buf.clear();
+        buf.limit(size);
+        return buf;
+    }
+
+    /**
+     * Return a buffer obtained from {@link #borrow(int)}.
+     * @param buf buffer to return; null is ignored
+     */
+    public void release(ByteBuffer buf) {
+        if (buf == null) {
+            return;
+        }
+        int capacity = buf.capacity();
+        outstandingBytes.addAndGet(-capacity);
+        if (capacity <= maxClassBytes 
+                && capacity == (MIN_CLASS_BYTES << sizeClass(capacity))) {
+            if (idleBytes.addAndGet(capacity) <= maxIdleBytes) {
+                idle.get(sizeClass(capacity)).offer(buf);
+                return;
+            }
+            idleBytes.addAndGet(-capacity);
+        }
+        discarded.incrementAndGet();
+    }
+
+    /**
+     * Drop all idle buffers.
+     */
+    public void clear() {
+        for (Queue<ByteBuffer> q : idle) {
+            ByteBuffer buf;
+            while ((buf = q.poll()) != null) {
+                idleBytes.addAndGet(-buf.capacity());
+            }
+        }
+    }
+
+    public int getMaxClassBytes() {
+        return maxClassBytes;
+    }
+
+    public long getMaxIdleBytes() {
+        return maxIdleBytes;
+    }
+
+    /** @return bytes in buffers kept for reuse */
+    public long getIdleBytes() {
+        return idleBytes.get();
+    }
+
+    /** @return bytes in buffers borrowed and not yet released */
+    public long getOutstandingBytes() {
+        return outstandingBytes.get();
+    }
+
+    public long getBorrowCount() {
+        return borrowed.get();
+    }
+
+    /** @return number of borrows satisfied by an idle pooled buffer */
+    public long getReuseCount() {
+        return reused.get();
+    }
+
+    public long getCreateCount() {
+        return created.get();
+    }
+
+    /** @return number of released buffers dropped rather than kept */
+    public long getDiscardCount() {
+        return discarded.get();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[borrowed=" + getBorrowCount()
+            + ", reused=" + getReuseCount() + ", created=" + getCreateCount()
+            + ", discarded=" + getDiscardCount() + ", idleBytes=" 
+            + getIdleBytes() + ", outstandingBytes=" + getOutstandingBytes()
+            + "]";
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Chooses the output directory of each new {@link WriterPoolMember} file,
+ * and is told how files in each directory are being written. Without one,
+ * writers round-robin over the configured directories.
+ * 
+ * <p>One selector is normally shared by all writers of a pool, so 
+ * implementations must be thread-safe. The notification methods are 
+ * called on writing threads and should be cheap.
+ */
+public interface DirectorySelector {
+    /**
+     * @param dirs configured output directories
+     * @return directory to create the next file in
+     * @throws IOException if none of the directories is usable
+     */
+    File selectDirectory(List<File> dirs) throws IOException;
+
+    /**
+     * A file was opened in <code>dir</code>.
+     */
+    void fileOpened(File dir);
+
+    /**
+     * A file opened in <code>dir</code> was closed.
+     */
+    void fileClosed(File dir);
+
+    /**
+     * Bytes were handed to the operating system for a file in 
+     * <code>dir</code>.
+     * 
+     * @param dir directory of the file
+     * @param bytes count of bytes written
+     * @param nanos time the write took
+     */
+    void bytesWritten(File dir, long bytes, long nanos);
+}
@@ -0,0 +1,125 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io;
+
+/**
+ * When a {@link WriterPoolMember} forces what it has written to disk.
+ * 
+ * <ul>
+ * <li>{@link #none()}: never; the OS writes back when it likes (the
+ * historical behaviour).</li>
+ * <li>{@link #everyRecords(int)}: after every n records the writer
+ * flushes and waits for an fsync, so a record is durable once that write
+ * returns. Concurrent writers of a pool share fsync passes through the
+ * pool's {@link GroupCommitter}.</li>
+ * <li>{@link #everyMillis(long)}: after a record, if at least the interval
+ * has passed since the last sync, the writer flushes and requests an fsync
+ * without waiting for it. A {@link WriterPool} also syncs its idle writers
+ * every interval, so a crash loses at most about two intervals even if
+ * writing stops. A writer used outside a pool, or held by a thread that
+ * stops writing, only syncs on its next record or when closed.</li>
+ * <li>{@link #onRollover()}: only when a file is closed, before it loses
+ * its open suffix.</li>
+ * </ul>
+ * Every policy but {@link #none()} also syncs files as they are closed, so
+ * a finished file is always complete on disk.
+ */
+public class DurabilityPolicy {
+    public enum Mode {
+        NONE, RECORDS, INTERVAL, ROLLOVER
+    }
+
+    protected static final DurabilityPolicy NONE = 
+        new DurabilityPolicy(Mode.NONE, 0, 0);
+    protected static final DurabilityPolicy ROLLOVER = 
+        new DurabilityPolicy(Mode.ROLLOVER, 0, 0);
+
+    protected final Mode mode;
+    protected final int records;
+    protected final long millis;
+
+    protected DurabilityPolicy(Mode mode, int records, long millis) {
+        this.mode = mode;
+        this.records = records;
+        this.millis = millis;
+    }
+
+    public static DurabilityPolicy none() {
+        return NONE;
+    }
+
+    public static DurabilityPolicy onRollover() {
+        return ROLLOVER;
+    }
+
+    /**
+     * @param records number of records between syncs; at least 1
+     */
+    public static DurabilityPolicy everyRecords(int records) {
+        if (records < 1) {
+            throw new IllegalArgumentException("records must be positive: "
+                    + records);
+        }
+        return new DurabilityPolicy(Mode.RECORDS, records, 0);
+    }
+
+    /**
+     * @param millis least time between syncs; at least 1
+     */
+    public static DurabilityPolicy everyMillis(long millis) {
+        if (millis < 1) {
+            throw new IllegalArgumentException("millis must be positive: "
+                    + millis);
+        }
+        return new DurabilityPolicy(Mode.INTERVAL, 0, millis);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getRecords() {
+        return records;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    /**
+     * @return whether files are synced when closed
+     */
+    public boolean getSyncOnClose() {
+        return mode != Mode.NONE;
+    }
+
+    @Override
+    public String toString() {
+        switch (mode) {
+        case RECORDS:
+            return "every " + records + " records";
+        case INTERVAL:
+            return "every " + millis + "ms";
+        case ROLLOVER:
+            return "on rollover";
+        default:
+            return "none";
+        }
+    }
+}
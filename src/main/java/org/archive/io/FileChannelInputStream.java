@@ -0,0 +1,279 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file through a {@link FileChannel} into one reused direct buffer,
+ * borrowed from {@link DirectBufferPool#SHARED} and given back on
+ * {@link #close()}. Refills after a reposition start at a block-aligned file offset,
+ * skips are positional (nothing is read), and bulk reads at least as large
+ * as the buffer go straight from the channel into the caller's array.
+ * 
+ * Channel-aware consumers may work on the buffer directly: 
+ * {@link #ensure(int)} makes at least that many bytes available at 
+ * {@link #getBuffer()}'s position, which always corresponds to this 
+ * stream's {@link #position()}.
+ */
+public class FileChannelInputStream extends SeekInputStream {
+    public final static int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /** refills after a reposition start at a multiple of this */
+    public final static int ALIGNMENT = 4096;
+
+    protected FileChannel channel;
+    protected boolean sympathyClose;
+
+    /** readable window; buffer index 0 is file offset bufferStart */
+    protected ByteBuffer buffer;
+    protected long bufferStart = 0;
+
+    /** pool to give the buffer back to on close, if it was borrowed */
+    protected DirectBufferPool pool = null;
+    protected boolean closed = false;
+
+    /**
+     * Size of the file when last asked. The channel is only asked again
+     * when a read or skip gets to that size, so a file that is still
+     * growing can be read on.
+     */
+    protected long size = -1;
+
+    /**
+     * @param file File to read. The channel is closed when this stream is.
+     * @throws IOException
+     */
+    public FileChannelInputStream(final File file) throws IOException {
+        this(FileChannel.open(file.toPath(), StandardOpenOption.READ), true,
+                DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param channel channel to read, from its current position
+     * @param sympathyClose true to close the channel when this stream is
+     * closed
+     * @param bufferSize size of the direct read buffer
+     * @throws IOException
+     */
+    public FileChannelInputStream(final FileChannel channel,
+            final boolean sympathyClose, final int bufferSize)
+    throws IOException {
+        if (bufferSize < ALIGNMENT * 2) {
+            throw new IllegalArgumentException("buffer too small: " + bufferSize);
+        }
+        this.channel = channel;
+        this.sympathyClose = sympathyClose;
+        this.pool = DirectBufferPool.SHARED;
+        this.buffer = this.pool.borrow(bufferSize);
+        this.buffer.clear();
+        this.buffer.limit(0);
+        this.bufferStart = channel.position();
+    }
+
+    /**
+     * Read a channel shared with other readers: all reads are positional,
+     * so the channel's own position is neither used nor changed, and the
+     * channel is not closed with this stream.
+     * 
+     * @param channel channel to read
+     * @param position file offset to start reading at
+     * @param buffer read buffer, of at least twice {@link #ALIGNMENT};
+     * it belongs to this stream until it is closed
+     */
+    public FileChannelInputStream(final FileChannel channel,
+            final long position, final ByteBuffer buffer) {
+        if (buffer.capacity() < ALIGNMENT * 2) {
+            throw new IllegalArgumentException("buffer too small: "
+                    + buffer.capacity());
+        }
+        this.channel = channel;
+        this.sympathyClose = false;
+        this.buffer = buffer;
+        this.buffer.clear();
+        this.buffer.limit(0);
+        this.bufferStart = position;
+    }
+
+    /**
+     * @return the read buffer, positioned at the stream position. Callers
+     * may advance its position (to consume) but must not change its limit.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Make at least <code>n</code> bytes available in the buffer, unless
+     * end of file comes first.
+     * 
+     * @param n bytes wanted; at most the buffer capacity
+     * @return true if <code>n</code> bytes are available
+     * @throws IOException
+     */
+    public boolean ensure(int n) throws IOException {
+        if (buffer.remaining() >= n) {
+            return true;
+        }
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (n > buffer.capacity()) {
+            throw new IllegalArgumentException("can't buffer " + n
+                    + " bytes with buffer of " + buffer.capacity());
+        }
+        long pos = position();
+        int keep;
+        if (buffer.hasRemaining()) {
+            buffer.compact();
+            bufferStart = pos;
+            keep = 0;
+        } else {
+            buffer.clear();
+            keep = (int) (pos % ALIGNMENT);
+            if (keep + n > buffer.capacity()) {
+                // no room to align as well as fit n bytes
+                keep = 0;
+            }
+            bufferStart = pos - keep;
+        }
+        while (buffer.position() < keep + n && buffer.hasRemaining()) {
+            long readAt = bufferStart + buffer.position();
+            if (readAt >= size(readAt + 1)) {
+                break;
+            }
+            if (channel.read(buffer, readAt) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        if (keep > buffer.limit()) {
+            // position was past end of file
+            bufferStart = pos;
+            buffer.limit(0);
+            return false;
+        }
+        buffer.position(keep);
+        return buffer.remaining() >= n;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensure(1)) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining() && len >= buffer.capacity() && !closed) {
+            // large read: skip the copy through our buffer
+            long pos = position();
+            int n = channel.read(ByteBuffer.wrap(b, off, len), pos);
+            if (n > 0) {
+                bufferStart = pos + n;
+                buffer.limit(0);
+            }
+            return n;
+        }
+        if (!ensure(1)) {
+            return -1;
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long pos = position();
+        long skipped = Math.min(n, Math.max(0, size(pos + n) - pos));
+        position(pos + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        long pos = position();
+        long amount = size(pos + 1) - pos;
+        return (amount >= Integer.MAX_VALUE) ? Integer.MAX_VALUE
+                : (int) Math.max(0, amount);
+    }
+
+    /**
+     * @param wanted file offset a caller wants to get to
+     * @return size of the file, asking the channel only if the size last
+     * seen is less than <code>wanted</code>
+     * @throws IOException
+     */
+    protected long size(long wanted) throws IOException {
+        if (size < wanted) {
+            size = channel.size();
+        }
+        return size;
+    }
+
+    public long position() throws IOException {
+        return bufferStart + buffer.position();
+    }
+
+    public void position(long position) throws IOException {
+        if (position >= bufferStart && position <= bufferStart + buffer.limit()) {
+            buffer.position((int) (position - bufferStart));
+        } else {
+            bufferStart = position;
+            buffer.limit(0);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            // keep the position; reads from now on find nothing buffered
+            bufferStart = position();
+            if (pool != null) {
+                pool.release(buffer);
+            }
+            buffer = ByteBuffer.allocate(0);
+        }
+        try {
+            super.close();
+        } finally {
+            if (this.sympathyClose) {
+                this.channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Batches {@link FileChannel#force(boolean)} calls for many writers onto
+ * one background thread.
+ * 
+ * <p>Writers request a sync of their (already flushed) file channel. All
+ * requests made while a pass is under way join the next pass, which
+ * forces each distinct channel once; so however many writers are waiting,
+ * each file costs at most one fsync per pass. Callers may wait for the
+ * pass covering their request, or just leave it queued.
+ * 
+ * <p>The same thread can also run a periodic task, set with
+ * {@link #setTimer(Runnable, long)}; a {@link WriterPool} uses it to sync
+ * idle writers under {@link DurabilityPolicy#everyMillis(long)}.
+ */
+public class GroupCommitter {
+    private static final Logger logger =
+        Logger.getLogger(GroupCommitter.class.getName());
+
+    /** channels to force in one pass, and how forcing each went */
+    protected static class Batch {
+        protected final Set<FileChannel> channels = Collections.newSetFromMap(
+                new IdentityHashMap<FileChannel, Boolean>());
+        protected final Map<FileChannel, IOException> failures =
+            new IdentityHashMap<FileChannel, IOException>();
+        protected boolean done = false;
+    }
+
+    protected Batch open = new Batch();
+    protected Thread thread = null;
+    protected boolean running = true;
+    protected Runnable timerTask = null;
+    protected long timerMillis = 0;
+    protected long nextTimerRun = 0;
+
+    protected final AtomicLong passes = new AtomicLong();
+    protected final AtomicLong forces = new AtomicLong();
+    protected final AtomicLong requests = new AtomicLong();
+    protected final AtomicLong forceNanos = new AtomicLong();
+    protected final AtomicLong maxForceNanos = new AtomicLong();
+    protected final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Sync a channel in the next pass.
+     * 
+     * @param channel channel whose written content should reach the disk;
+     * anything buffered above it must already have been flushed
+     * @param wait whether to block until the channel has been forced
+     * @throws IOException if waiting and forcing failed, or was interrupted
+     */
+    public void sync(FileChannel channel, boolean wait) throws IOException {
+        Batch batch;
+        synchronized (this) {
+            if (!running) {
+                throw new IOException("group committer closed");
+            }
+            ensureThread();
+            batch = open;
+            batch.channels.add(channel);
+            requests.incrementAndGet();
+            notifyAll();
+            if (!wait) {
+                return;
+            }
+            try {
+                while (!batch.done) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted awaiting sync");
+            }
+        }
+        IOException e = batch.failures.get(channel);
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    protected void ensureThread() {
+        if (thread == null) {
+            thread = new Thread("WriterPool-group-commit") {
+                @Override
+                public void run() {
+                    commitLoop();
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Run a task on the commit thread every so often, between passes.
+     * 
+     * @param task task to run, or null for none
+     * @param periodMillis time between runs
+     */
+    public synchronized void setTimer(Runnable task, long periodMillis) {
+        if (task != null && periodMillis < 1) {
+            throw new IllegalArgumentException("periodMillis must be positive: "
+                    + periodMillis);
+        }
+        timerTask = task;
+        timerMillis = periodMillis;
+        nextTimerRun = System.currentTimeMillis() + periodMillis;
+        if (task != null && running) {
+            ensureThread();
+        }
+        notifyAll();
+    }
+
+    protected void commitLoop() {
+        while (true) {
+            Batch batch = null;
+            Runnable task = null;
+            synchronized (this) {
+                while (open.channels.isEmpty() && running) {
+                    long now = System.currentTimeMillis();
+                    if (timerTask != null && now >= nextTimerRun) {
+                        break;
+                    }
+                    try {
+                        wait(timerTask != null ? nextTimerRun - now : 0);
+                    } catch (InterruptedException e) {
+                        // checked by loop
+                    }
+                }
+                if (running && timerTask != null 
+                        && System.currentTimeMillis() >= nextTimerRun) {
+                    task = timerTask;
+                    nextTimerRun = System.currentTimeMillis() + timerMillis;
+                } else if (open.channels.isEmpty()) {
+                    return;
+                } else {
+                    batch = open;
+                    open = new Batch();
+                }
+            }
+            if (task != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "timer task failed", e);
+                }
+                continue;
+            }
+            commit(batch);
+            synchronized (this) {
+                batch.done = true;
+                notifyAll();
+            }
+        }
+    }
+
+    protected void commit(Batch batch) {
+        passes.incrementAndGet();
+        for (FileChannel channel : batch.channels) {
+            long start = System.nanoTime();
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // file since closed; a writer with a sync policy forced it 
+                // before closing
+                continue;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "fsync failed", e);
+                failures.incrementAndGet();
+                batch.failures.put(channel, e);
+                continue;
+            }
+            long took = System.nanoTime() - start;
+            forces.incrementAndGet();
+            forceNanos.addAndGet(took);
+            for (long max = maxForceNanos.get(); took > max;
+                    max = maxForceNanos.get()) {
+                if (maxForceNanos.compareAndSet(max, took)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finish any requested syncs, then stop the commit thread.
+     */
+    public void close() {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            notifyAll();
+            t = thread;
+        }
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** @return number of passes over requested channels */
+    public long getPassCount() {
+        return passes.get();
+    }
+
+    /** @return number of sync requests made */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /** @return number of successful fsyncs */
+    public long getForceCount() {
+        return forces.get();
+    }
+
+    /** @return number of failed fsyncs */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /** @return total time spent in successful fsyncs, in nanoseconds */
+    public long getForceNanos() {
+        return forceNanos.get();
+    }
+
+    /** @return longest single fsync, in nanoseconds */
+    public long getMaxForceNanos() {
+        return maxForceNanos.get();
+    }
+
+    /**
+     * @return sync counts and fsync latency
+     */
+    public JSONObject jsonMetrics() throws JSONException {
+        JSONObject jo = new JSONObject();
+        jo.put("requests", getRequestCount());
+        jo.put("passes", getPassCount());
+        jo.put("fsyncs", getForceCount());
+        jo.put("failures", getFailureCount());
+        jo.put("fsyncNanos", getForceNanos());
+        jo.put("maxFsyncNanos", getMaxForceNanos());
+        return jo;
+    }
+}
@@ -67,6 +67,24 @@ public class MiserOutputStream extends FilterOutputStream {
       count++;
     }
 
+    /**
+     * Flush the wrapped stream even if flushes are being swallowed, e.g.
+     * before writing to the underlying file by other means.
+     */
+    public void flushAlways() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Count bytes written to the underlying file other than through this
+     * stream (e.g. by {@link java.nio.channels.FileChannel#transferTo}).
+     * 
+     * @param written count of bytes written
+     */
+    public void addCount(long written) {
+        count += written;
+    }
+
     @Override
     public void close() throws IOException {
         passFlushes = true; 
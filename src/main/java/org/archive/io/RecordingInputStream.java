@@ -23,6 +23,7 @@ import java.io.InputStream;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.security.MessageDigest;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -73,6 +74,22 @@ public class RecordingInputStream
             backingFilename);
     }
 
+    /**
+     * Create a new RecordingInputStream recording to a buffer borrowed
+     * from a pool of direct buffers; see 
+     * {@link RecordingOutputStream#RecordingOutputStream(int, String, DirectBufferPool)}.
+     *
+     * @param bufferSize Size of buffer to use.
+     * @param backingFilename Name of backing file.
+     * @param bufferPool Pool to borrow the buffer from.
+     */
+    public RecordingInputStream(int bufferSize, String backingFilename,
+            DirectBufferPool bufferPool)
+    {
+        this.recordingOutputStream = new RecordingOutputStream(bufferSize,
+            backingFilename, bufferPool);
+    }
+
     public void open(InputStream wrappedStream) throws IOException {
         if (logger.isLoggable(Level.FINE)) {
             logger.fine("wrapping " + wrappedStream + " in thread "
@@ -359,6 +376,32 @@ public class RecordingInputStream
         return this.recordingOutputStream.getDigestValue();
     }
 
+    /**
+     * Sets a set of digests to be computed over recorded data in one pass.
+     * As usually only a subset of the recorded data should
+     * be fed to the digests, you must also call startDigest()
+     * to begin digesting.
+     *
+     * @param digests
+     */
+    public void setDigests(DigestSet digests) {
+        this.recordingOutputStream.setDigests(digests);
+    }
+
+    public DigestSet getDigests() {
+        return this.recordingOutputStream.getDigests();
+    }
+
+    /**
+     * Return the values of the DigestSet for any recorded, digested data.
+     * Call only after all data has been recorded.
+     *
+     * @return algorithm name to digest value, or null if no DigestSet
+     */
+    public Map<String, byte[]> getDigestValues() {
+        return this.recordingOutputStream.getDigestValues();
+    }
+
     public long getResponseContentLength() {
         return this.recordingOutputStream.getResponseContentLength();
     }
@@ -419,6 +462,13 @@ public class RecordingInputStream
         recordingOutputStream.clearForReuse();
     }
 
+    /**
+     * See doc on {@link RecordingOutputStream#releaseBuffer()}
+     */
+    public void releaseBuffer() {
+        recordingOutputStream.releaseBuffer();
+    }
+
     /**
      * Returns an OutputStream that can be used for recording input data. This is useful if the input comes in some
      * form other than an InputStream. For example, if the input is provided by a callback periodically called with
@@ -24,8 +24,10 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -83,6 +85,18 @@ public class RecordingOutputStream extends OutputStream {
      */
     private byte[] buffer;
 
+    /**
+     * Pool to borrow an off-heap buffer from instead, if any; see
+     * {@link #RecordingOutputStream(int, String, DirectBufferPool)}.
+     */
+    private final DirectBufferPool bufferPool;
+
+    /** buffer borrowed from bufferPool, while held */
+    private ByteBuffer pooledBuffer;
+
+    /** count of bytes recorded in memory before using the backing file */
+    private final int bufferSize;
+
     /** current virtual position in the recording */
     long position;
     
@@ -99,6 +113,11 @@ public class RecordingOutputStream extends OutputStream {
      */
     private MessageDigest digest = null;
 
+    /**
+     * Further digests of the same data, computed in the same pass.
+     */
+    private DigestSet digests = null;
+
     /**
      * Define for SHA1 algarithm.
      */
@@ -168,6 +187,27 @@ public class RecordingOutputStream extends OutputStream {
      */
     public RecordingOutputStream(int bufferSize, String backingFilename) {
         this.buffer = new byte[bufferSize];
+        this.bufferPool = null;
+        this.bufferSize = bufferSize;
+        this.backingFilename = backingFilename;
+        recording = true;
+    }
+
+    /**
+     * Create a new RecordingOutputStream whose in-memory buffer is borrowed
+     * from a pool of direct buffers on {@link #open(OutputStream)}, and
+     * returned by {@link #releaseBuffer()}. Replays read the pooled buffer
+     * in place, so release it only once done with all replays.
+     *
+     * @param bufferSize Buffer size to use.
+     * @param backingFilename Name of backing file to use.
+     * @param bufferPool Pool to borrow the buffer from.
+     */
+    public RecordingOutputStream(int bufferSize, String backingFilename,
+            DirectBufferPool bufferPool) {
+        this.buffer = null;
+        this.bufferPool = bufferPool;
+        this.bufferSize = bufferSize;
         this.backingFilename = backingFilename;
         recording = true;
     }
@@ -199,9 +239,34 @@ public class RecordingOutputStream extends OutputStream {
                     +Thread.currentThread().getName());
         }
         clearForReuse();
+        if (this.bufferPool != null) {
+            pooledBuffer();
+        }
         this.out = wrappedStream;
         startTime = System.currentTimeMillis();
     }
+
+    /**
+     * @return the pooled buffer, borrowing it if not held
+     */
+    private ByteBuffer pooledBuffer() {
+        if (this.pooledBuffer == null) {
+            this.pooledBuffer = this.bufferPool.borrow(this.bufferSize);
+        }
+        return this.pooledBuffer;
+    }
+
+    /**
+     * Return a pooled buffer to its pool. Call once no more replays of the
+     * current recording will be read; the next open borrows again. Does
+     * nothing for a stream recording to its own heap buffer.
+     */
+    public void releaseBuffer() {
+        if (this.pooledBuffer != null) {
+            this.bufferPool.release(this.pooledBuffer);
+            this.pooledBuffer = null;
+        }
+    }
     
     protected OutputStream ensureDiskStream() throws FileNotFoundException {
         if (this.diskStream == null) {
@@ -348,12 +413,19 @@ public class RecordingOutputStream extends OutputStream {
      */
     private void record(int b) throws IOException {
         if (this.shouldDigest) {
-            this.digest.update((byte)b);
+            if (this.digest != null) {
+                this.digest.update((byte)b);
+            }
+            if (this.digests != null) {
+                this.digests.update((byte)b);
+            }
         }
-        if (this.position >= this.buffer.length) {
+        if (this.position >= this.bufferSize) {
             this.ensureDiskStream().write(b);
-        } else {
+        } else if (this.buffer != null) {
             this.buffer[(int) this.position] = (byte) b;
+        } else {
+            pooledBuffer().put((int) this.position, (byte) b);
         }
         this.position++;
     }
@@ -369,8 +441,12 @@ public class RecordingOutputStream extends OutputStream {
      */
     private void record(byte[] b, int off, int len) throws IOException {
         if(this.shouldDigest) {
-            assert this.digest != null: "Digest is null.";
-            this.digest.update(b, off, len);
+            if (this.digest != null) {
+                this.digest.update(b, off, len);
+            }
+            if (this.digests != null) {
+                this.digests.update(b, off, len);
+            }
         }
         tailRecord(b, off, len);
     }
@@ -385,14 +461,19 @@ public class RecordingOutputStream extends OutputStream {
      * @exception IOException Failed write to backing file.
      */
     private void tailRecord(byte[] b, int off, int len) throws IOException {
-        if(this.position >= this.buffer.length){
+        if(this.position >= this.bufferSize){
             this.ensureDiskStream().write(b, off, len);
             this.position += len;
         } else {
-            assert this.buffer != null: "Buffer is null";
-            int toCopy = (int)Math.min(this.buffer.length - this.position, len);
+            int toCopy = (int)Math.min(this.bufferSize - this.position, len);
             assert b != null: "Passed buffer is null";
-            System.arraycopy(b, off, this.buffer, (int)this.position, toCopy);
+            if (this.buffer != null) {
+                System.arraycopy(b, off, this.buffer, (int)this.position, toCopy);
+            } else {
+                ByteBuffer bb = pooledBuffer();
+                bb.position((int) this.position);
+                bb.put(b, off, toCopy);
+            }
             this.position += toCopy;
             // TODO verify these are +1 -1 right
             if (toCopy < len) {
@@ -453,8 +534,20 @@ public class RecordingOutputStream extends OutputStream {
         // stream is closed. If it ain't, then the stream gotten won't work
         // -- the size will zero so any attempt at a read will get back EOF.
         assert this.out == null: "Stream is still open.";
-        ReplayInputStream replay = new ReplayInputStream(this.buffer, 
+        ReplayInputStream replay;
+        if (this.buffer != null) {
+            replay = new ReplayInputStream(this.buffer, 
+                this.size, this.messageBodyBeginMark, this.backingFilename);
+        } else if (this.pooledBuffer != null) {
+            replay = new ReplayInputStream(this.pooledBuffer, 
                 this.size, this.messageBodyBeginMark, this.backingFilename);
+        } else if (this.size == 0) {
+            // never opened
+            replay = new ReplayInputStream(new byte[0], 0, 
+                this.messageBodyBeginMark, this.backingFilename);
+        } else {
+            throw new IOException("recording buffer already released");
+        }
         replay.skip(skip);
         return replay; 
     }
@@ -491,14 +584,18 @@ public class RecordingOutputStream extends OutputStream {
     }
     
     /**
-     * Starts digesting recorded data, if a MessageDigest has been
-     * set.
+     * Starts digesting recorded data, if a MessageDigest or DigestSet
+     * has been set.
      */
     public void startDigest() {
         if (this.digest != null) {
             this.digest.reset();
             this.shouldDigest = true;
         }
+        if (this.digests != null) {
+            this.digests.reset();
+            this.shouldDigest = true;
+        }
     }
 
     /**
@@ -557,6 +654,36 @@ public class RecordingOutputStream extends OutputStream {
         return this.digest.digest();
     }
 
+    /**
+     * Sets a set of digests to be computed over recorded data, in the
+     * same pass as (and in addition to) any single digest set with
+     * {@link #setDigest(MessageDigest)}. As with that, you must also call
+     * startDigest() to begin digesting.
+     *
+     * @param digests digests to compute, or null for none
+     */
+    public void setDigests(DigestSet digests) {
+        this.digests = digests;
+    }
+
+    public DigestSet getDigests() {
+        return this.digests;
+    }
+
+    /**
+     * Return the values of the DigestSet for any recorded, digested data.
+     * Call only after all data has been recorded.
+     *
+     * @return algorithm name to digest value, or null if no DigestSet
+     * @see DigestSet#getValues()
+     */
+    public Map<String, byte[]> getDigestValues() {
+        if (this.digests == null) {
+            return null;
+        }
+        return this.digests.getValues();
+    }
+
     public long getResponseContentLength() {
         return this.size - this.messageBodyBeginMark;
     }
@@ -569,7 +696,7 @@ public class RecordingOutputStream extends OutputStream {
     }
     
     public int getBufferLength() {
-        return this.buffer.length;
+        return this.bufferSize;
     }
     
     /**
@@ -23,6 +23,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 
 import org.apache.commons.io.IOUtils;
 import org.archive.util.ArchiveUtils;
@@ -42,6 +46,10 @@ public class ReplayInputStream extends SeekInputStream
     private static final int DEFAULT_BUFFER_SIZE = 256*1024; // 256KiB
     private BufferedSeekInputStream diskStream;
     private byte[] buffer;
+    /** in-memory bytes, when held in a ByteBuffer (e.g. pooled direct) */
+    private ByteBuffer byteBuffer;
+    /** count of bytes held in memory rather than in the backing file */
+    private int bufferLength;
     private long position;
 
     /**
@@ -93,17 +101,50 @@ public class ReplayInputStream extends SeekInputStream
         throws IOException
     {
         this.buffer = buffer;
+        this.bufferLength = buffer.length;
         this.size = size;
         if (size > buffer.length) {
             setupDiskStream(new File(backingFilename));
         }
     }
 
+    /**
+     * Constructor reading in-memory bytes from a ByteBuffer, such as a
+     * direct buffer from a {@link DirectBufferPool}. The bytes from index 0
+     * to the buffer's limit are replayed in place, so the buffer must not
+     * be reused while this stream is read.
+     *
+     * @param buffer Buffer to read from.
+     * @param size Size of data to replay.
+     * @param responseBodyStart Start of the response body.
+     * @param backingFilename Backing file that sits behind the buffer.
+     * @throws IOException If we fail to open an input stream on
+     * backing file.
+     */
+    public ReplayInputStream(ByteBuffer buffer, long size, 
+            long responseBodyStart, String backingFilename)
+        throws IOException
+    {
+        this.byteBuffer = buffer.duplicate();
+        this.bufferLength = buffer.limit();
+        this.size = size;
+        this.responseBodyStart = responseBodyStart;
+        if (size > bufferLength) {
+            setupDiskStream(new File(backingFilename));
+        }
+    }
+
     protected void setupDiskStream(File backingFile) throws IOException {
         RandomAccessInputStream rais = new RandomAccessInputStream(backingFile); 
         diskStream = new BufferedSeekInputStream(rais, 4096);
+        diskFile = backingFile;
     }
 
+    /** file holding the bytes beyond the buffer, if any */
+    protected File diskFile;
+    /** channel on diskFile, opened for bulk transfers */
+    protected FileChannel diskChannel;
+
     protected File backingFile;
     
     /**
@@ -120,6 +161,7 @@ public class ReplayInputStream extends SeekInputStream
      */
     public ReplayInputStream(InputStream fillStream) throws IOException {
         this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+        this.bufferLength = buffer.length;
         long count = ArchiveUtils.readFully(fillStream, buffer);
         if(fillStream.available()>0) {
             this.backingFile = File.createTempFile("tid"+Thread.currentThread().getId(), "ris");
@@ -152,9 +194,10 @@ public class ReplayInputStream extends SeekInputStream
         if (position == size) {
             return -1; // EOF
         }
-        if (position < buffer.length) {
+        if (position < bufferLength) {
             // Convert to unsigned int.
-            int c = buffer[(int) position] & 0xFF;
+            int c = (buffer != null ? buffer[(int) position]
+                    : byteBuffer.get((int) position)) & 0xFF;
             position++;
             return c;
         }
@@ -174,10 +217,16 @@ public class ReplayInputStream extends SeekInputStream
         if (position == size) {
             return -1; // EOF
         }
-        if (position < buffer.length) {
+        if (position < bufferLength) {
             int toCopy = (int)Math.min(size - position,
-                Math.min(len, buffer.length - position));
-            System.arraycopy(buffer, (int)position, b, off, toCopy);
+                Math.min(len, bufferLength - position));
+            if (buffer != null) {
+                System.arraycopy(buffer, (int)position, b, off, toCopy);
+            } else {
+                byteBuffer.clear();
+                byteBuffer.position((int) position);
+                byteBuffer.get(b, off, toCopy);
+            }
             if (toCopy > 0) {
                 position += toCopy;
             }
@@ -243,6 +292,105 @@ public class ReplayInputStream extends SeekInputStream
         }
     }
 
+    /**
+     * @return true if some of the bytes to replay are in a backing file
+     */
+    public boolean isFileBacked() {
+        return diskFile != null;
+    }
+
+    protected FileChannel getDiskChannel() throws IOException {
+        if (diskChannel == null) {
+            diskChannel = FileChannel.open(diskFile.toPath(),
+                    StandardOpenOption.READ);
+        }
+        return diskChannel;
+    }
+
+    /**
+     * Copy bytes from the current position to a channel. Bytes in the 
+     * backing file are copied with {@link FileChannel#transferTo}, which 
+     * for a FileChannel target may avoid copying through user space at all.
+     * 
+     * @param target channel to write to
+     * @param max most bytes to copy
+     * @return count of bytes copied; less than max only at end of stream
+     * @throws IOException
+     */
+    public long transferTo(WritableByteChannel target, long max)
+    throws IOException {
+        long end = Math.min(size, position + max);
+        long p = position;
+        if (p < bufferLength) {
+            ByteBuffer bb = inMemory(p, Math.min(end, bufferLength));
+            while (bb.hasRemaining()) {
+                target.write(bb);
+            }
+            p = Math.min(end, bufferLength);
+        }
+        while (p < end) {
+            long n = getDiskChannel().transferTo(p - bufferLength, end - p,
+                    target);
+            if (n <= 0) {
+                throw new IOException("backing file " + diskFile
+                        + " shorter than expected");
+            }
+            p += n;
+        }
+        long copied = p - position;
+        position(p);
+        return copied;
+    }
+
+    /**
+     * Copy bytes from the current position to a stream: in-memory bytes 
+     * straight from the buffer, and file-backed bytes through the given
+     * (preferably large) buffer with positional channel reads.
+     * 
+     * @param os stream to write to
+     * @param max most bytes to copy
+     * @param buf scratch buffer for file-backed bytes
+     * @return count of bytes copied; less than max only at end of stream
+     * @throws IOException
+     */
+    public long readTo(OutputStream os, long max, byte[] buf)
+    throws IOException {
+        long end = Math.min(size, position + max);
+        long p = position;
+        if (p < bufferLength) {
+            int n = (int) (Math.min(end, bufferLength) - p);
+            if (buffer != null) {
+                os.write(buffer, (int) p, n);
+            } else {
+                ByteBuffer bb = inMemory(p, p + n);
+                while (bb.hasRemaining()) {
+                    int chunk = Math.min(buf.length, bb.remaining());
+                    bb.get(buf, 0, chunk);
+                    os.write(buf, 0, chunk);
+                }
+            }
+            p += n;
+        }
+        if (p < end) {
+            FileChannel channel = getDiskChannel();
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            while (p < end) {
+                bb.clear();
+                bb.limit((int) Math.min(buf.length, end - p));
+                int n = channel.read(bb, p - bufferLength);
+                if (n <= 0) {
+                    throw new IOException("backing file " + diskFile
+                            + " shorter than expected");
+                }
+                os.write(buf, 0, n);
+                p += n;
+            }
+        }
+        long copied = p - position;
+        position(p);
+        return copied;
+    }
+
     /* (non-Javadoc)
      * @see java.io.InputStream#close()
      */
@@ -251,6 +399,10 @@ public class ReplayInputStream extends SeekInputStream
         if(diskStream != null) {
             diskStream.close();
         }
+        if (diskChannel != null) {
+            diskChannel.close();
+            diskChannel = null;
+        }
     }
 
     /**
@@ -302,13 +454,13 @@ public class ReplayInputStream extends SeekInputStream
         if (p > size) {
             throw new IOException("Desired position exceeds size.");
         }
-        if (p < buffer.length) {
+        if (p < bufferLength) {
             // Only seek file if necessary
-            if (position > buffer.length) {
+            if (position > bufferLength) {
                 diskStream.position(0);
             }
-        } else {
-            diskStream.position(p - buffer.length);
+        } else if (diskStream != null) {
+            diskStream.position(p - bufferLength);
         }
         this.position = p;
     }
@@ -321,4 +473,15 @@ public class ReplayInputStream extends SeekInputStream
     protected byte[] getBuffer() {
         return buffer;
     }
+
+    /**
+     * @return the in-memory bytes from start to end, as a buffer of its own
+     */
+    protected ByteBuffer inMemory(long start, long end) {
+        ByteBuffer bb = buffer != null ? ByteBuffer.wrap(buffer) 
+                : byteBuffer.duplicate();
+        bb.limit((int) end);
+        bb.position((int) start);
+        return bb;
+    }
 }
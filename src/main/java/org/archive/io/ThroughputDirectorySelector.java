@@ -0,0 +1,255 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import org.archive.util.FileUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Sends each new file to the directory expected to take it fastest.
+ * 
+ * <p>For every directory the selector tracks the files currently open in
+ * it, a moving average of its write throughput (bytes over time spent in
+ * writes to it), and its usable space. The next file goes to the
+ * directory with the least expected delay, 
+ * <code>(open files + 1) / throughput</code>; a directory not yet
+ * measured is assumed to be as fast as the fastest measured one, so every
+ * disk gets tried. Directories with less than {@link #getMinFreeBytes()}
+ * usable space are passed over unless all are that full. Ties go to the
+ * directory with more space.
+ */
+public class ThroughputDirectorySelector implements DirectorySelector {
+    private static final Logger logger =
+        Logger.getLogger(ThroughputDirectorySelector.class.getName());
+
+    public static final long DEFAULT_MIN_FREE_BYTES = 1024L * 1024 * 1024;
+    public static final long DEFAULT_SAMPLE_INTERVAL_MILLIS = 1000;
+    public static final long DEFAULT_FREE_SPACE_INTERVAL_MILLIS = 10000;
+    /** weight of the latest sample in the throughput average */
+    protected static final double ALPHA = 0.3;
+
+    /** what is known about one directory */
+    protected static class DirStats {
+        protected final AtomicInteger openFiles = new AtomicInteger();
+        protected final LongAdder bytes = new LongAdder();
+        protected final LongAdder nanos = new LongAdder();
+        // below here, only touched while selecting
+        protected long sampledBytes = 0;
+        protected long sampledNanos = 0;
+        protected long sampledAt = 0;
+        /** bytes per second, or -1 until measured */
+        protected double throughput = -1;
+        protected long usableSpace = 0;
+        protected long usableCheckedAt = 0;
+    }
+
+    protected final ConcurrentMap<File, DirStats> stats =
+        new ConcurrentHashMap<File, DirStats>();
+
+    protected long minFreeBytes = DEFAULT_MIN_FREE_BYTES;
+    protected long sampleIntervalMillis = DEFAULT_SAMPLE_INTERVAL_MILLIS;
+    protected long freeSpaceIntervalMillis = DEFAULT_FREE_SPACE_INTERVAL_MILLIS;
+
+    protected DirStats statsFor(File dir) {
+        File key = dir.getAbsoluteFile();
+        DirStats s = stats.get(key);
+        if (s == null) {
+            s = new DirStats();
+            DirStats had = stats.putIfAbsent(key, s);
+            if (had != null) {
+                s = had;
+            }
+        }
+        return s;
+    }
+
+    @Override
+    public synchronized File selectDirectory(List<File> dirs) 
+    throws IOException {
+        long now = System.currentTimeMillis();
+        double fastest = -1;
+        DirStats[] candidates = new DirStats[dirs.size()];
+        for (int i = 0; i < candidates.length; i++) {
+            File d = dirs.get(i);
+            try {
+                FileUtils.ensureWriteableDirectory(d);
+            } catch (IOException e) {
+                logger.warning("Directory " + d.getPath() + " is not" +
+                        " writeable or cannot be created: " + e.getMessage());
+                continue;
+            }
+            DirStats s = statsFor(d);
+            sample(d, s, now);
+            candidates[i] = s;
+            fastest = Math.max(fastest, s.throughput);
+        }
+        int best = pick(candidates, fastest, true);
+        if (best < 0) {
+            best = pick(candidates, fastest, false);
+        }
+        if (best < 0) {
+            throw new IOException("Directories unusable.");
+        }
+        return dirs.get(best);
+    }
+
+    /**
+     * @return index of the candidate with least expected delay, or -1
+     */
+    protected int pick(DirStats[] candidates, double fastest, 
+            boolean requireFree) {
+        int best = -1;
+        double bestCost = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            DirStats s = candidates[i];
+            if (s == null || (requireFree && s.usableSpace < minFreeBytes)) {
+                continue;
+            }
+            double rate = s.throughput > 0 ? s.throughput 
+                    : (fastest > 0 ? fastest : 1);
+            double cost = (s.openFiles.get() + 1) / rate;
+            if (best < 0 || cost < bestCost || (cost == bestCost 
+                    && s.usableSpace > candidates[best].usableSpace)) {
+                best = i;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Fold writes since the last sample into the throughput average, and
+     * recheck usable space, if those are due.
+     */
+    protected void sample(File dir, DirStats s, long now) {
+        if (now - s.sampledAt >= sampleIntervalMillis) {
+            long b = s.bytes.sum();
+            long n = s.nanos.sum();
+            long db = b - s.sampledBytes;
+            long dn = n - s.sampledNanos;
+            if (db > 0 && dn > 0) {
+                double rate = db * 1e9 / dn;
+                s.throughput = s.throughput < 0 ? rate
+                        : ALPHA * rate + (1 - ALPHA) * s.throughput;
+            }
+            s.sampledBytes = b;
+            s.sampledNanos = n;
+            s.sampledAt = now;
+        }
+        if (s.usableCheckedAt == 0 
+                || now - s.usableCheckedAt >= freeSpaceIntervalMillis) {
+            s.usableSpace = dir.getUsableSpace();
+            s.usableCheckedAt = now;
+        }
+    }
+
+    @Override
+    public void fileOpened(File dir) {
+        statsFor(dir).openFiles.incrementAndGet();
+    }
+
+    @Override
+    public void fileClosed(File dir) {
+        statsFor(dir).openFiles.decrementAndGet();
+    }
+
+    @Override
+    public void bytesWritten(File dir, long bytes, long nanos) {
+        DirStats s = statsFor(dir);
+        s.bytes.add(bytes);
+        s.nanos.add(nanos);
+    }
+
+    /**
+     * @return files open in dir
+     */
+    public int getOpenFiles(File dir) {
+        return statsFor(dir).openFiles.get();
+    }
+
+    /**
+     * @return averaged write throughput of dir, in bytes per second, as
+     * of the last selection; -1 if not yet measured
+     */
+    public synchronized double getThroughput(File dir) {
+        return statsFor(dir).throughput;
+    }
+
+    public long getMinFreeBytes() {
+        return minFreeBytes;
+    }
+
+    /**
+     * @param minFreeBytes usable space below which a directory is only
+     * chosen if every directory is that full
+     */
+    public void setMinFreeBytes(long minFreeBytes) {
+        this.minFreeBytes = minFreeBytes;
+    }
+
+    public long getSampleIntervalMillis() {
+        return sampleIntervalMillis;
+    }
+
+    /**
+     * @param sampleIntervalMillis least time between throughput samples
+     */
+    public void setSampleIntervalMillis(long sampleIntervalMillis) {
+        this.sampleIntervalMillis = sampleIntervalMillis;
+    }
+
+    public long getFreeSpaceIntervalMillis() {
+        return freeSpaceIntervalMillis;
+    }
+
+    /**
+     * @param freeSpaceIntervalMillis least time between checks of a
+     * directory's usable space
+     */
+    public void setFreeSpaceIntervalMillis(long freeSpaceIntervalMillis) {
+        this.freeSpaceIntervalMillis = freeSpaceIntervalMillis;
+    }
+
+    /**
+     * @return per-directory open files, throughput and usable space
+     */
+    public synchronized JSONObject jsonStatus() throws JSONException {
+        JSONObject jo = new JSONObject();
+        for (File dir : stats.keySet()) {
+            DirStats s = stats.get(dir);
+            JSONObject d = new JSONObject();
+            d.put("openFiles", s.openFiles.get());
+            d.put("bytesWritten", s.bytes.sum());
+            d.put("throughput", s.throughput);
+            d.put("usableSpace", s.usableSpace);
+            jo.put(dir.getPath(), d);
+        }
+        return jo;
+    }
+}
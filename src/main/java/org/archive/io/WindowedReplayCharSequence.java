@@ -0,0 +1,474 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.primitives.Ints;
+
+/**
+ * (Replay)CharSequence view on recorded streams that decodes on demand.
+ *
+ * <p>Unlike {@link GenericReplayCharSequence}, nothing is re-encoded to
+ * disk: characters are decoded straight from the recorded bytes, one
+ * window at a time, and only the most recently used windows are kept.
+ * Single-byte charsets map bytes to chars through a lookup table and need
+ * no checkpoints at all. For UTF-8, one sequential pass at construction
+ * counts characters and notes a checkpoint (byte offset, char index) at
+ * every window boundary where the decoder holds no partial sequence, so
+ * any window can later be decoded again on its own.
+ *
+ * <p>Only charsets for which such restarts are safe are handled; see
+ * {@link #isSupported(Charset)}. Others should use
+ * {@link GenericReplayCharSequence}.
+ *
+ * <p>Call {@link #close()} on this class when done to clean up resources;
+ * this closes the underlying {@link ReplayInputStream}.
+ */
+public class WindowedReplayCharSequence implements ReplayCharSequence {
+
+    protected static Logger logger = Logger
+            .getLogger(WindowedReplayCharSequence.class.getName());
+
+    /** Default number of raw bytes decoded per window. */
+    public static final int DEFAULT_WINDOW_BYTES = 64 * 1024;
+
+    /** Default number of decoded windows kept. */
+    public static final int DEFAULT_MAX_WINDOWS = 8;
+
+    private static final Map<Charset, char[]> SINGLE_BYTE_TABLES =
+            new ConcurrentHashMap<Charset, char[]>();
+
+    private static final char[] NOT_SINGLE_BYTE = new char[0];
+
+    protected ReplayInputStream replay;
+
+    /** Position in <code>replay</code> of the first content byte. */
+    protected long contentStart;
+
+    protected Charset charset;
+
+    protected int windowBytes;
+
+    /** Character count, capped at <code>Integer.MAX_VALUE</code>. */
+    protected int length;
+
+    /** Byte-to-char table for single-byte charsets, else null. */
+    protected char[] singleByteTable;
+
+    /**
+     * For multi-byte charsets, the content byte offset and char index at
+     * which each window starts; entry <code>windowCount</code> marks the
+     * end of the last window.
+     */
+    protected long[] checkpointBytes;
+    protected int[] checkpointChars;
+
+    protected int windowCount;
+
+    protected Map<Integer, char[]> windows;
+
+    /** Most recently used window, and the char range it covers. */
+    protected char[] current;
+    protected int currentStart;
+    protected int currentEnd;
+
+    protected byte[] readBuffer;
+
+    protected long decodingExceptions = 0;
+    protected CharacterCodingException codingException = null;
+
+    private boolean isOpen = true;
+
+    /**
+     * Constructor.
+     *
+     * @param replay replay positioned at the start of the content to view;
+     * it is owned (and closed) by this sequence from now on
+     * @param charset charset of the content; must be supported
+     * @throws IOException
+     */
+    public WindowedReplayCharSequence(ReplayInputStream replay,
+            Charset charset) throws IOException {
+        this(replay, charset, DEFAULT_WINDOW_BYTES, DEFAULT_MAX_WINDOWS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param replay replay positioned at the start of the content to view;
+     * it is owned (and closed) by this sequence from now on
+     * @param charset charset of the content; must be supported
+     * @param windowBytes raw bytes decoded per window
+     * @param maxWindows decoded windows kept
+     * @throws IOException
+     */
+    public WindowedReplayCharSequence(ReplayInputStream replay,
+            Charset charset, int windowBytes, final int maxWindows)
+            throws IOException {
+        if (charset == null) {
+            charset = ReplayCharSequence.FALLBACK_CHARSET;
+        }
+        if (!isSupported(charset)) {
+            throw new IllegalArgumentException("unsupported charset " + charset);
+        }
+        if (windowBytes < 16 || maxWindows < 1) {
+            throw new IllegalArgumentException("windowBytes=" + windowBytes
+                    + " maxWindows=" + maxWindows);
+        }
+        this.replay = replay;
+        this.charset = charset;
+        this.windowBytes = windowBytes;
+        this.contentStart = replay.position();
+        this.windows = new LinkedHashMap<Integer, char[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, char[]> eldest) {
+                return size() > maxWindows;
+            }
+        };
+        this.readBuffer = new byte[windowBytes + 16];
+
+        long contentLength = replay.getSize() - contentStart;
+        this.singleByteTable = singleByteTable(charset);
+        if (singleByteTable != null) {
+            this.length = Ints.saturatedCast(contentLength);
+            this.windowCount = (int) ((length + (long) windowBytes - 1) / windowBytes);
+        } else {
+            scan(contentLength);
+        }
+        logger.fine("charset=" + charset + " length=" + length
+                + " windows=" + windowCount);
+    }
+
+    /**
+     * @return true if the content in this charset can be viewed by this
+     * class: single-byte charsets, and UTF-8
+     */
+    public static boolean isSupported(Charset charset) {
+        return StandardCharsets.UTF_8.equals(charset)
+                || singleByteTable(charset) != null;
+    }
+
+    /**
+     * @return table mapping every byte value to its char, if
+     * <code>charset</code> is a single-byte charset; null otherwise
+     */
+    protected static char[] singleByteTable(Charset charset) {
+        char[] table = SINGLE_BYTE_TABLES.get(charset);
+        if (table == null) {
+            table = buildSingleByteTable(charset);
+            SINGLE_BYTE_TABLES.put(charset, table);
+        }
+        return table == NOT_SINGLE_BYTE ? null : table;
+    }
+
+    private static char[] buildSingleByteTable(Charset charset) {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        if (decoder.maxCharsPerByte() != 1.0f) {
+            return NOT_SINGLE_BYTE;
+        }
+        try {
+            if (charset.newEncoder().maxBytesPerChar() != 1.0f) {
+                return NOT_SINGLE_BYTE;
+            }
+        } catch (UnsupportedOperationException e) {
+            return NOT_SINGLE_BYTE; // decode-only charset
+        }
+        ByteBuffer in = ByteBuffer.allocate(256);
+        for (int i = 0; i < 256; i++) {
+            in.put((byte) i);
+        }
+        in.flip();
+        CharBuffer out = CharBuffer.allocate(256);
+        CoderResult cr = decoder.decode(in, out, true);
+        if (cr.isOverflow() || in.hasRemaining() || out.position() != 256) {
+            return NOT_SINGLE_BYTE;
+        }
+        return out.array();
+    }
+
+    protected CharsetDecoder newDecoder() {
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+
+    /**
+     * Decode, substituting the decoder's replacement for bad input the way
+     * {@link CodingErrorAction#REPLACE} would, but counting the errors
+     * when <code>count</code> is true.
+     */
+    protected CoderResult decode(CharsetDecoder decoder, ByteBuffer in,
+            CharBuffer out, boolean endOfInput, boolean count) {
+        while (true) {
+            CoderResult cr = decoder.decode(in, out, endOfInput);
+            if (!cr.isError()) {
+                return cr;
+            }
+            String replacement = decoder.replacement();
+            if (out.remaining() < replacement.length()) {
+                return CoderResult.OVERFLOW;
+            }
+            if (count) {
+                decodingExceptions++;
+                if (codingException == null) {
+                    try {
+                        cr.throwException();
+                    } catch (CharacterCodingException e) {
+                        codingException = e;
+                    }
+                }
+            }
+            in.position(in.position() + cr.length());
+            out.put(replacement);
+        }
+    }
+
+    /**
+     * Count the characters of the whole content, noting window checkpoints.
+     */
+    protected void scan(long contentLength) throws IOException {
+        int capacity = 1 + (int) Math.min(
+                contentLength / windowBytes + 1, Integer.MAX_VALUE - 1);
+        long[] bytes = new long[Math.min(capacity, 1024)];
+        int[] chars = new int[bytes.length];
+        int count = 1; // checkpoint 0 is (0, 0)
+
+        CharsetDecoder decoder = newDecoder();
+        ByteBuffer in = ByteBuffer.allocate(windowBytes + 16);
+        CharBuffer out = CharBuffer.allocate(
+                (int) Math.ceil(decoder.maxCharsPerByte() * in.capacity()) + 4);
+        long read = 0;
+        long consumed = 0;
+        long total = 0;
+        replay.position(contentStart);
+        while (true) {
+            int want = (int) Math.min(in.remaining(), contentLength - read);
+            readFully(in.array(), in.position(), want);
+            in.position(in.position() + want);
+            read += want;
+            boolean endOfInput = read == contentLength;
+            in.flip();
+            int before = in.remaining();
+            CoderResult cr;
+            do {
+                out.clear();
+                cr = decode(decoder, in, out, endOfInput, true);
+                total += out.position();
+            } while (cr.isOverflow());
+            if (endOfInput) {
+                do {
+                    out.clear();
+                    cr = decoder.flush(out);
+                    total += out.position();
+                } while (cr.isOverflow());
+            }
+            consumed += before - in.remaining();
+            in.compact();
+
+            boolean capped = total >= Integer.MAX_VALUE;
+            if (capped) {
+                logger.warning("content is longer than Integer.MAX_VALUE="
+                        + Integer.MAX_VALUE + " characters -- only first "
+                        + Integer.MAX_VALUE + " are accessible");
+            }
+            if (endOfInput || capped
+                    || (total > chars[count - 1] && consumed > bytes[count - 1])) {
+                if (count == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, count * 2);
+                    chars = Arrays.copyOf(chars, count * 2);
+                }
+                bytes[count] = consumed;
+                chars[count] = Ints.saturatedCast(total);
+                count++;
+            }
+            if (endOfInput || capped) {
+                break;
+            }
+        }
+        this.length = chars[count - 1];
+        this.windowCount = count - 1;
+        this.checkpointBytes = bytes;
+        this.checkpointChars = chars;
+    }
+
+    protected void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = replay.read(b, off, len);
+            if (n < 0) {
+                throw new IOException("unexpected end of replay");
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    protected int windowStart(int window) {
+        return singleByteTable != null ? window * windowBytes
+                : checkpointChars[window];
+    }
+
+    protected int windowEnd(int window) {
+        return singleByteTable != null
+                ? (int) Math.min((long) (window + 1) * windowBytes, length)
+                : checkpointChars[window + 1];
+    }
+
+    protected int windowOf(int index) {
+        if (singleByteTable != null) {
+            return index / windowBytes;
+        }
+        int i = Arrays.binarySearch(checkpointChars, 0, windowCount + 1, index);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /**
+     * Make <code>window</code> the current window, decoding it if it is
+     * not cached.
+     */
+    protected void useWindow(int window) {
+        char[] chars = windows.get(window);
+        if (chars == null) {
+            try {
+                chars = decodeWindow(window);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "problem decoding window " + window
+                        + " of " + replay.backingFile, e);
+                throw new RuntimeException(e);
+            }
+            windows.put(window, chars);
+        }
+        current = chars;
+        currentStart = windowStart(window);
+        currentEnd = windowEnd(window);
+    }
+
+    protected char[] decodeWindow(int window) throws IOException {
+        char[] chars = new char[windowEnd(window) - windowStart(window)];
+        if (singleByteTable != null) {
+            replay.position(contentStart + (long) window * windowBytes);
+            readFully(readBuffer, 0, chars.length);
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = singleByteTable[readBuffer[i] & 0xff];
+            }
+            return chars;
+        }
+        long start = checkpointBytes[window];
+        int len = (int) (checkpointBytes[window + 1] - start);
+        if (len > readBuffer.length) {
+            readBuffer = new byte[len];
+        }
+        replay.position(contentStart + start);
+        readFully(readBuffer, 0, len);
+        boolean last = contentStart + start + len == replay.getSize();
+        CharsetDecoder decoder = newDecoder();
+        ByteBuffer in = ByteBuffer.wrap(readBuffer, 0, len);
+        CharBuffer out = CharBuffer.wrap(chars);
+        decode(decoder, in, out, last, false);
+        if (last) {
+            decoder.flush(out);
+        }
+        if (out.hasRemaining()) {
+            logger.warning("window " + window + " decoded to "
+                    + out.position() + " chars, expected " + chars.length);
+        }
+        return chars;
+    }
+
+    /**
+     * Get character at passed absolute position.
+     * @param index Index into content
+     * @return Character at offset <code>index</code>.
+     */
+    public char charAt(int index) {
+        if (index < 0 || index >= this.length()) {
+            throw new IndexOutOfBoundsException("index=" + index
+                    + " - should be between 0 and length()=" + this.length());
+        }
+        if (current == null || index < currentStart || index >= currentEnd) {
+            useWindow(windowOf(index));
+        }
+        return current[index - currentStart];
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        return new CharSubSequence(this, start, end);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder(this.length());
+        for (int i = 0; i < windowCount; i++) {
+            useWindow(i);
+            sb.append(current, 0, currentEnd - currentStart);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.isOpen;
+    }
+
+    public void close() throws IOException {
+        if (!isOpen) {
+            return;
+        }
+        this.isOpen = false;
+        this.windows.clear();
+        this.current = null;
+        replay.close();
+    }
+
+    @Override
+    public long getDecodeExceptionCount() {
+        return decodingExceptions;
+    }
+
+    @Override
+    public CharacterCodingException getCodingException() {
+        return codingException;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+}
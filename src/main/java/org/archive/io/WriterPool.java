@@ -22,11 +22,13 @@ package org.archive.io;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -41,6 +43,15 @@ import org.json.JSONObject;
  * Abstract. Override and pass in the Constructor a factory that creates
  * {@link WriterPoolMember} implementations.
  * 
+ * <p>Idle writers sit in {@link #availableWriters}, but a writer is only 
+ * handed out once it has been claimed by flipping its idle flag, so a
+ * borrower can also take a writer directly without touching the queue
+ * (queue entries for writers claimed that way are skipped as stale). With
+ * {@link #setThreadAffinity(boolean)} each thread first tries to reclaim
+ * the writer it last returned, which is lock-free and keeps a writer (and
+ * its buffers) on one thread while there is no contention for it. Borrow
+ * wait times and contention are counted; see {@link #jsonMetrics()}.
+ * 
  * @author stack
  */
 public abstract class WriterPool {
@@ -76,8 +87,8 @@ public abstract class WriterPool {
     protected int maxActive;
     /** maximum ms to wait before considering creation of a writer */ 
     protected int maxWait;
-    /** current count of active writers; only read/mutated in synchronized blocks */
-    protected int currentActive = 0; 
+    /** current count of active writers; only mutated in synchronized blocks */
+    protected volatile int currentActive = 0; 
     /** round-robin queue of available writers */ 
     protected BlockingQueue<WriterPoolMember> availableWriters;
 
@@ -85,6 +96,29 @@ public abstract class WriterPool {
     protected long lastWriterNeededTime;
     /** system time when writer was last 'rolled over' (imminent creation of new file) */ 
     protected long lastWriterRolloverTime; 
+
+    /** whether threads prefer the writer they last returned */
+    protected boolean threadAffinity = false;
+    /** writer each thread last borrowed, when using thread affinity */
+    protected final ThreadLocal<WriterPoolMember> lastBorrowed =
+        new ThreadLocal<WriterPoolMember>();
+    /** count of idle (claimable) writers */
+    protected final AtomicInteger idleCount = new AtomicInteger();
+
+    protected final AtomicLong borrowCount = new AtomicLong();
+    protected final AtomicLong borrowWaitNanos = new AtomicLong();
+    protected final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    /** borrows that found no idle writer immediately */
+    protected final AtomicLong contendedBorrowCount = new AtomicLong();
+    /** borrows satisfied by the thread's previous writer */
+    protected final AtomicLong affinityHitCount = new AtomicLong();
+
+    /** when writers force their files to disk */
+    protected DurabilityPolicy durability = DurabilityPolicy.none();
+    /** shared by all writers for batched syncs; created with a policy */
+    protected GroupCommitter groupCommitter = null;
+    /** chooses directories for new files; null to round-robin */
+    protected DirectorySelector directorySelector = null;
     
     /**
      * Constructor
@@ -122,10 +156,24 @@ public abstract class WriterPool {
 	 */
     public WriterPoolMember borrowFile()
     throws IOException {
+        long start = System.nanoTime();
         WriterPoolMember writer = null;
+        if (threadAffinity) {
+            WriterPoolMember previous = lastBorrowed.get();
+            if (previous != null && claim(previous)) {
+                affinityHitCount.incrementAndGet();
+                writer = previous;
+            }
+        }
+        if (writer == null) {
+            writer = pollAvailable();
+        }
+        if (writer == null) {
+            contendedBorrowCount.incrementAndGet();
+        }
         while(writer == null) {
             try {
-                writer = availableWriters.poll(maxWait,TimeUnit.MILLISECONDS);
+                writer = pollAvailable(maxWait);
             } catch (InterruptedException e) {
                 // nothing to do but proceed
             }
@@ -133,9 +181,83 @@ public abstract class WriterPool {
                 writer = makeNewWriterIfAppropriate(); 
             }
         }
+        if (threadAffinity) {
+            lastBorrowed.set(writer);
+        }
+        long waited = System.nanoTime() - start;
+        borrowCount.incrementAndGet();
+        borrowWaitNanos.addAndGet(waited);
+        for (long max = maxBorrowWaitNanos.get(); waited > max;
+                max = maxBorrowWaitNanos.get()) {
+            if (maxBorrowWaitNanos.compareAndSet(max, waited)) {
+                break;
+            }
+        }
         return writer;
     }
 
+    /**
+     * Claim an idle writer for exclusive use.
+     * @param writer writer to claim
+     * @return true if the writer was idle and now belongs to the caller
+     */
+    protected boolean claim(WriterPoolMember writer) {
+        if (writer.poolIdle.compareAndSet(true, false)) {
+            idleCount.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Mark a writer idle, queueing it unless it is still queued (from 
+     * before it was claimed directly).
+     * @param writer writer to make available
+     * @return false if it could not be queued; it is then claimed again
+     */
+    protected boolean release(WriterPoolMember writer) {
+        writer.poolIdle.set(true);
+        idleCount.incrementAndGet();
+        if (writer.poolQueued.compareAndSet(false, true)) {
+            if (!availableWriters.offer(writer)) {
+                writer.poolQueued.set(false);
+                return !claim(writer);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Take an idle writer from the queue, skipping stale entries for
+     * writers that were claimed directly.
+     * @param waitMillis how long to wait for a queue entry; 0 for none
+     * @return claimed writer, or null if none became available
+     */
+    protected WriterPoolMember pollAvailable(long waitMillis) 
+    throws InterruptedException {
+        while (true) {
+            WriterPoolMember writer = waitMillis > 0
+                    ? availableWriters.poll(waitMillis, TimeUnit.MILLISECONDS)
+                    : availableWriters.poll();
+            if (writer == null) {
+                return null;
+            }
+            writer.poolQueued.set(false);
+            if (claim(writer)) {
+                return writer;
+            }
+        }
+    }
+
+    protected WriterPoolMember pollAvailable() {
+        try {
+            return pollAvailable(0);
+        } catch (InterruptedException e) {
+            // cannot happen without waiting
+            return null;
+        }
+    }
+
 	/**
 	 * Create a new writer instance, if still below maxActive count. 
 	 * Remember times to help make later decision when writer should 
@@ -149,7 +271,10 @@ public abstract class WriterPool {
         if(currentActive < maxActive) {
             currentActive++;
             lastWriterRolloverTime = now; 
-            return makeWriter(); 
+            WriterPoolMember writer = makeWriter();
+            writer.setDurability(durability, groupCommitter);
+            writer.setDirectorySelector(directorySelector);
+            return writer; 
         }
         return null; 
     }
@@ -179,8 +304,8 @@ public abstract class WriterPool {
 	 */
     public void returnFile(WriterPoolMember writer)
     throws IOException {
-        synchronized(this) {
-            if(writer.isOversize()) {
+        if(writer.isOversize()) {
+            synchronized(this) {
             // maybe retire writer rather than recycle
                 if(lastWriterNeededTime<=lastWriterRolloverTime) {
                     // no timeouts waiting for recycled writer since last writer rollover
@@ -192,7 +317,7 @@ public abstract class WriterPool {
                 }
             }
         }
-        if(!availableWriters.offer(writer)) {
+        if(!release(writer)) {
             logger.log(Level.WARNING, "writer unreturnable to available pool; closing early");
             destroyWriter(writer); 
         }
@@ -223,7 +348,7 @@ public abstract class WriterPool {
 	 * @return Number of {@link WriterPoolMember}s checked out of pool.
 	 * @throws java.lang.UnsupportedOperationException
 	 */
-    public synchronized int getNumActive()
+    public int getNumActive()
     throws UnsupportedOperationException {
         return currentActive - getNumIdle();
     }
@@ -234,7 +359,7 @@ public abstract class WriterPool {
 	 */
     public int getNumIdle()
     throws UnsupportedOperationException {
-        return availableWriters.size();
+        return idleCount.get();
     }
     
 	/**
@@ -249,6 +374,92 @@ public abstract class WriterPool {
                 logger.log(Level.WARNING,"problem closing writer",e); 
             }
         }
+        GroupCommitter committer;
+        synchronized (this) {
+            committer = groupCommitter;
+            groupCommitter = null;
+        }
+        if (committer != null) {
+            committer.close();
+        }
+    }
+
+    /**
+     * Set when writers force their files to disk. Applies to writers the
+     * pool creates from now on, so set it before the first borrow. All 
+     * writers of the pool share one {@link GroupCommitter}, so the syncs
+     * of concurrent writers are batched. Under
+     * {@link DurabilityPolicy#everyMillis(long)} the committer also syncs
+     * idle writers every interval.
+     * 
+     * @param durability policy for new writers
+     */
+    public synchronized void setDurabilityPolicy(DurabilityPolicy durability) {
+        this.durability = durability;
+        if (durability.getMode() != DurabilityPolicy.Mode.NONE 
+                && groupCommitter == null) {
+            groupCommitter = new GroupCommitter();
+        }
+        if (groupCommitter != null) {
+            if (durability.getMode() == DurabilityPolicy.Mode.INTERVAL) {
+                groupCommitter.setTimer(new Runnable() {
+                    public void run() {
+                        syncIdleWriters();
+                    }
+                }, durability.getMillis());
+            } else {
+                groupCommitter.setTimer(null, 0);
+            }
+        }
+    }
+
+    /**
+     * Sync idle writers holding records left unsynced for longer than the
+     * durability interval. Each is claimed from the pool while it is
+     * synced, so this never races a writing thread.
+     */
+    protected void syncIdleWriters() {
+        for (int n = getNumIdle(); n > 0; n--) {
+            WriterPoolMember writer = pollAvailable();
+            if (writer == null) {
+                break;
+            }
+            try {
+                writer.syncIfStale();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "problem syncing writer " + writer, e);
+            } finally {
+                releaseAll(Collections.singletonList(writer));
+            }
+        }
+    }
+
+    public DurabilityPolicy getDurabilityPolicy() {
+        return durability;
+    }
+
+    /**
+     * Set how writers created from now on choose directories for new 
+     * files, e.g. a {@link ThroughputDirectorySelector} shared by them all.
+     * By default they round-robin over the configured directories.
+     * 
+     * @param directorySelector selector, or null to round-robin
+     */
+    public synchronized void setDirectorySelector(
+            DirectorySelector directorySelector) {
+        this.directorySelector = directorySelector;
+    }
+
+    public DirectorySelector getDirectorySelector() {
+        return directorySelector;
+    }
+
+    /**
+     * @return committer batching writer syncs, or null if no durability
+     * policy has been set
+     */
+    public synchronized GroupCommitter getGroupCommitter() {
+        return groupCommitter;
     }
 
 	/**
@@ -268,6 +479,11 @@ public abstract class WriterPool {
         buffer.append(maxActive);
         buffer.append(", idle ");
         buffer.append(getNumIdle());
+        buffer.append(", borrows ");
+        buffer.append(getBorrowCount());
+        buffer.append(" (contended ");
+        buffer.append(getContendedBorrowCount());
+        buffer.append(")");
         return buffer.toString();
     }
     
@@ -286,19 +502,24 @@ public abstract class WriterPool {
      * wait for any writers currently in use to become available.
      * 
      * <p>
-     * When finished with writers, call availableWriters.addAll(...) to put them
-     * back into the rotation.
+     * When finished with writers, call {@link #releaseAll(Collection)} to put
+     * them back into the rotation.
      * 
      * @return all the active writers
      */
     protected synchronized Collection<WriterPoolMember> drainAllWriters() {
         LinkedList<WriterPoolMember> writers = new LinkedList<WriterPoolMember>();
-        availableWriters.drainTo(writers);
+        for (WriterPoolMember w = pollAvailable(); w != null; w = pollAvailable()) {
+            writers.add(w);
+        }
 
         while (writers.size() < currentActive) {
             try {
                 WriterPoolMember w = availableWriters.take();
-                writers.add(w);
+                w.poolQueued.set(false);
+                if (claim(w)) {
+                    writers.add(w);
+                }
             } catch (InterruptedException e) {
                 logger.severe("caught " + e + " while waiting for writers to free up; returning only "
                         + writers.size() + " of " + currentActive + " active writers");
@@ -309,6 +530,23 @@ public abstract class WriterPool {
         return writers;
     }
 
+    /**
+     * Return writers obtained from {@link #drainAllWriters()}.
+     * @param writers writers to make available again
+     */
+    protected void releaseAll(Collection<WriterPoolMember> writers) {
+        for (WriterPoolMember w: writers) {
+            if (!release(w)) {
+                logger.log(Level.WARNING, "writer unreturnable to available pool; closing early");
+                try {
+                    destroyWriter(w);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "problem closing writer " + w, e);
+                }
+            }
+        }
+    }
+
     public void flush() {
         Collection<WriterPoolMember> writers = drainAllWriters();
         
@@ -320,7 +558,7 @@ public abstract class WriterPool {
             }
         }
 
-        availableWriters.addAll(writers);
+        releaseAll(writers);
     }
     
     public JSONArray jsonStatus() throws JSONException {
@@ -334,8 +572,64 @@ public abstract class WriterPool {
             ja.put(jo);
         }
         
-        availableWriters.addAll(writers);
+        releaseAll(writers);
         
         return ja;
     }
+
+    /**
+     * @return borrow counts and wait times
+     */
+    public JSONObject jsonMetrics() throws JSONException {
+        JSONObject jo = new JSONObject();
+        jo.put("active", getNumActive());
+        jo.put("idle", getNumIdle());
+        jo.put("borrows", getBorrowCount());
+        jo.put("contendedBorrows", getContendedBorrowCount());
+        jo.put("affinityHits", getAffinityHitCount());
+        jo.put("borrowWaitNanos", getBorrowWaitNanos());
+        jo.put("maxBorrowWaitNanos", getMaxBorrowWaitNanos());
+        GroupCommitter committer = getGroupCommitter();
+        if (committer != null) {
+            jo.put("sync", committer.jsonMetrics());
+        }
+        return jo;
+    }
+
+    public boolean getThreadAffinity() {
+        return threadAffinity;
+    }
+
+    /**
+     * @param threadAffinity if true, each thread first tries to reuse the
+     * writer it last borrowed, if that writer is idle
+     */
+    public void setThreadAffinity(boolean threadAffinity) {
+        this.threadAffinity = threadAffinity;
+    }
+
+    /** @return number of completed borrows */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /** @return total time spent in {@link #borrowFile()}, in nanoseconds */
+    public long getBorrowWaitNanos() {
+        return borrowWaitNanos.get();
+    }
+
+    /** @return longest single {@link #borrowFile()}, in nanoseconds */
+    public long getMaxBorrowWaitNanos() {
+        return maxBorrowWaitNanos.get();
+    }
+
+    /** @return number of borrows that found no idle writer at once */
+    public long getContendedBorrowCount() {
+        return contendedBorrowCount.get();
+    }
+
+    /** @return number of borrows that reused the thread's previous writer */
+    public long getAffinityHitCount() {
+        return affinityHitCount.get();
+    }
 }
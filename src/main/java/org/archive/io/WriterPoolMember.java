@@ -22,9 +22,11 @@ package org.archive.io;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
@@ -33,13 +35,15 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
-import java.util.zip.GZIPOutputStream;
 
 import org.archive.util.ArchiveUtils;
 import org.archive.util.FileUtils;
 import org.archive.util.PropertyUtils;
+import org.archive.util.zip.DeflaterPool;
+import org.archive.util.zip.PooledGZIPOutputStream;
 
 import static org.archive.format.ArchiveFileConstants.*;
 
@@ -100,6 +104,14 @@ public abstract class WriterPoolMember {
      * A running sequence used making unique file names.
      */
     final private AtomicInteger serialNo;
+
+    /**
+     * Pool bookkeeping: whether this writer is idle and claimable, and 
+     * whether it has an entry in the pool's queue of available writers.
+     * See {@link WriterPool#claim(WriterPoolMember)}.
+     */
+    final AtomicBoolean poolIdle = new AtomicBoolean(false);
+    final AtomicBoolean poolQueued = new AtomicBoolean(false);
     
     /**
      * Directories round-robin index.
@@ -123,6 +135,31 @@ public abstract class WriterPoolMember {
      * Buffer to reuse writing streams.
      */
     protected final byte [] scratchbuffer = new byte[4 * 1024];
+
+    /**
+     * Size of the buffer used to copy file-backed record content into
+     * compressed output.
+     */
+    public static final int TRANSFER_BUFFER_SIZE = 256 * 1024;
+    protected byte [] transferBuffer = null;
+
+    /**
+     * Channel of the file being written, when this writer opened it; used
+     * to transfer file-backed content directly.
+     */
+    protected FileChannel fileChannel = null;
+
+    /** When written content is forced to disk. */
+    protected DurabilityPolicy durability = DurabilityPolicy.none();
+    /** Batches syncs with other writers; null to sync inline. */
+    protected GroupCommitter groupCommitter = null;
+    protected int recordsSinceSync = 0;
+    protected long lastSyncTime = 0;
+
+    /** Chooses directories for new files; null to round-robin. */
+    protected DirectorySelector directorySelector = null;
+    /** Directory of the current file, while it is reported to the selector. */
+    protected File selectedDirectory = null;
  
     
     /**
@@ -198,7 +235,7 @@ public abstract class WriterPoolMember {
     protected String createFile() throws IOException {
         generateNewBasename();
         String name = currentBasename + '.' + this.extension  +
-            ((settings.getCompress())? DOT_COMPRESSED_FILE_EXTENSION: "") +
+            ((settings.getCompress())? getCompressedFileExtension(): "") +
             OCCUPIED_SUFFIX;
         File dir = getNextDirectory(settings.calcOutputDirs());
         return createFile(new File(dir, name));
@@ -208,8 +245,18 @@ public abstract class WriterPoolMember {
     	close();
         this.f = file;
         FileOutputStream fos = new FileOutputStream(this.f);
-        this.countOut = new MiserOutputStream(new BufferedOutputStream(fos),settings.getFrequentFlushes());
+        this.fileChannel = fos.getChannel();
+        OutputStream sink = fos;
+        if (this.directorySelector != null) {
+            this.selectedDirectory = this.f.getAbsoluteFile().getParentFile();
+            this.directorySelector.fileOpened(this.selectedDirectory);
+            sink = new MeteredOutputStream(fos, this.directorySelector,
+                    this.selectedDirectory);
+        }
+        this.countOut = new MiserOutputStream(new BufferedOutputStream(sink),settings.getFrequentFlushes());
         this.out = this.countOut; 
+        this.recordsSinceSync = 0;
+        this.lastSyncTime = System.currentTimeMillis();
         logger.fine("Opened " + this.f.getAbsolutePath());
         return this.f.getName();
     }
@@ -217,11 +264,15 @@ public abstract class WriterPoolMember {
     /**
      * @param dirs List of File objects that point at directories.
      * @return Find next directory to write an arc too.  If more
-     * than one, it tries to round-robin through each in turn.
+     * than one, it tries to round-robin through each in turn, unless a
+     * {@link DirectorySelector} has been set.
      * @throws IOException
      */
     protected File getNextDirectory(List<File> dirs)
     throws IOException {
+        if (this.directorySelector != null) {
+            return this.directorySelector.selectDirectory(dirs);
+        }
         if (WriterPoolMember.roundRobinIndex >= dirs.size()) {
             WriterPoolMember.roundRobinIndex = 0;
         }
@@ -292,13 +343,13 @@ public abstract class WriterPoolMember {
      */
     protected String getBaseFilename() {
         String name = this.f.getName();
-        if (settings.getCompress() && name.endsWith(DOT_COMPRESSED_FILE_EXTENSION)) {
-            return name.substring(0,name.length() - 3);
+        String ext = getCompressedFileExtension();
+        if (settings.getCompress() && name.endsWith(ext)) {
+            return name.substring(0,name.length() - ext.length());
         } else if(settings.getCompress() &&
-                name.endsWith(DOT_COMPRESSED_FILE_EXTENSION +
-                    OCCUPIED_SUFFIX)) {
+                name.endsWith(ext + OCCUPIED_SUFFIX)) {
             return name.substring(0, name.length() -
-                (3 + OCCUPIED_SUFFIX.length()));
+                (ext.length() + OCCUPIED_SUFFIX.length()));
         } else {
             return name;
         }
@@ -321,8 +372,7 @@ public abstract class WriterPoolMember {
      * 
      * Has side effects.  Will open new file if we're at the upper bound.
      * If we're writing compressed files, it will wrap output stream with a
-     * GZIP writer with side effect that GZIP header is written out on the
-     * stream.
+     * compressing writer (see {@link #createCompressedStream(OutputStream)}).
      *
      * @exception IOException
      */
@@ -332,10 +382,7 @@ public abstract class WriterPoolMember {
             createFile();
         }
         if (settings.getCompress()) {
-            // Wrap stream in GZIP Writer.
-            // The below construction immediately writes the GZIP 'default'
-            // header out on the underlying stream.
-            this.out = new CompressedStream(this.out);
+            this.out = createCompressedStream(this.out);
         }
     }
 
@@ -349,13 +396,49 @@ public abstract class WriterPoolMember {
     protected void postWriteRecordTasks()
     throws IOException {
         if (settings.getCompress()) {
-            CompressedStream o = (CompressedStream)this.out;
-            o.finish();
-            o.flush();
-            o.end();
-            this.out = o.getWrappedStream();
+            this.out = finishCompressedStream(this.out);
         }
     }
+
+    /**
+     * @return extension, with leading dot, appended to the names of 
+     * compressed files
+     */
+    protected String getCompressedFileExtension() {
+        return DOT_COMPRESSED_FILE_EXTENSION;
+    }
+
+    /**
+     * Wrap <code>out</code> so that the next record is written as one
+     * independently-decompressible unit. By default a GZIP member; the
+     * construction immediately writes the GZIP 'default' header out on the
+     * underlying stream.
+     * 
+     * @param out stream to wrap
+     * @return compressing stream
+     * @throws IOException
+     */
+    protected OutputStream createCompressedStream(OutputStream out)
+    throws IOException {
+        return new CompressedStream(out);
+    }
+
+    /**
+     * Finish the unit begun by {@link #createCompressedStream(OutputStream)}
+     * and release any compressor it holds.
+     * 
+     * @param compressed stream returned by createCompressedStream
+     * @return the underlying stream
+     * @throws IOException
+     */
+    protected OutputStream finishCompressedStream(OutputStream compressed)
+    throws IOException {
+        CompressedStream o = (CompressedStream)compressed;
+        o.finish();
+        o.flush();
+        o.end();
+        return o.getWrappedStream();
+    }
     
 	/**
      * Position in raw output (typically, physical file).
@@ -375,7 +458,9 @@ public abstract class WriterPoolMember {
     }
     
 	protected void flush() throws IOException {
-		this.out.flush();
+		if (this.out != null) {
+			this.out.flush();
+		}
 	}
 
 	protected void write(byte[] b, int off, int len) throws IOException {
@@ -386,6 +471,101 @@ public abstract class WriterPoolMember {
 		this.out.write(b);
 	}
 
+    /**
+     * Set when written content is forced to disk.
+     * 
+     * @param durability policy to follow
+     * @param groupCommitter shared committer to batch syncs through, or
+     * null to sync on the writing thread
+     */
+    public void setDurability(DurabilityPolicy durability,
+            GroupCommitter groupCommitter) {
+        this.durability = durability;
+        this.groupCommitter = groupCommitter;
+    }
+
+    public DurabilityPolicy getDurability() {
+        return this.durability;
+    }
+
+    /**
+     * Set how directories are chosen for new files, in place of
+     * round-robin. Set before the writer opens its first file.
+     * 
+     * @param directorySelector selector, or null to round-robin
+     */
+    public void setDirectorySelector(DirectorySelector directorySelector) {
+        this.directorySelector = directorySelector;
+    }
+
+    public DirectorySelector getDirectorySelector() {
+        return this.directorySelector;
+    }
+
+    /**
+     * Call once a record has been completely written (and any compressed
+     * unit finished); syncs if the durability policy says it is time.
+     * 
+     * @throws IOException
+     */
+    protected void syncIfDue() throws IOException {
+        switch (durability.getMode()) {
+        case RECORDS:
+            if (++recordsSinceSync >= durability.getRecords()) {
+                sync(true);
+            }
+            break;
+        case INTERVAL:
+            recordsSinceSync++;
+            if (System.currentTimeMillis() - lastSyncTime 
+                    >= durability.getMillis()) {
+                sync(false);
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Sync records written under {@link DurabilityPolicy#everyMillis(long)}
+     * that have gone unsynced for the interval because no later record
+     * came along. Only call while holding the writer, e.g. having claimed
+     * it idle from its pool.
+     * 
+     * @throws IOException
+     */
+    public void syncIfStale() throws IOException {
+        if (durability.getMode() == DurabilityPolicy.Mode.INTERVAL 
+                && recordsSinceSync > 0
+                && System.currentTimeMillis() - lastSyncTime 
+                    >= durability.getMillis()) {
+            sync(false);
+        }
+    }
+
+    /**
+     * Flush everything written so far to the current file, and force it
+     * to disk.
+     * 
+     * @param wait whether to return only once the file has been forced;
+     * otherwise the sync may still be queued with the group committer
+     * @throws IOException
+     */
+    public void sync(boolean wait) throws IOException {
+        if (this.fileChannel == null || !this.fileChannel.isOpen()) {
+            return;
+        }
+        this.countOut.flushAlways();
+        this.recordsSinceSync = 0;
+        this.lastSyncTime = System.currentTimeMillis();
+        if (this.groupCommitter != null) {
+            this.groupCommitter.sync(this.fileChannel, wait);
+        } else {
+            this.fileChannel.force(false);
+        }
+    }
+
     /**
      * Copy bytes from the provided InputStream to the target file/stream being
      * written.
@@ -402,15 +582,71 @@ public abstract class WriterPoolMember {
      */
     protected long copyFrom(final InputStream is, final long recordLength,
             boolean enforceLength) throws IOException {
-        int read = scratchbuffer.length;
+        return copyFrom(is, recordLength, enforceLength, this.out, scratchbuffer);
+    }
+
+    /**
+     * Copy content that has spilled to a {@link ReplayInputStream}'s backing
+     * file. Into an uncompressed file this writer opened, bytes go by
+     * {@link FileChannel#transferTo}; otherwise through a large buffer.
+     */
+    protected long copyFromReplay(ReplayInputStream ris, long recordLength,
+            boolean enforceLength, OutputStream target) throws IOException {
+        long tot;
+        if (target == this.countOut && this.fileChannel != null
+                && this.fileChannel.isOpen()) {
+            this.countOut.flushAlways();
+            long start = System.nanoTime();
+            tot = ris.transferTo(this.fileChannel, recordLength);
+            this.countOut.addCount(tot);
+            if (this.selectedDirectory != null) {
+                this.directorySelector.bytesWritten(this.selectedDirectory,
+                        tot, System.nanoTime() - start);
+            }
+        } else {
+            if (transferBuffer == null) {
+                transferBuffer = new byte[TRANSFER_BUFFER_SIZE];
+            }
+            tot = ris.readTo(target, recordLength, transferBuffer);
+        }
+        if (enforceLength && tot != recordLength) {
+            throw new IOException("Read " + tot + " but expected "
+                    + recordLength);
+        }
+        return tot;
+    }
+
+    /**
+     * Copy record content to <code>target</code> rather than to this
+     * writer's current output; lets content be staged elsewhere (e.g. for
+     * compression off the calling thread).
+     * 
+     * @param is Stream to copy.
+     * @param recordLength Length of the record content.
+     * @param enforceLength Whether to throw if fewer bytes are available.
+     * @param target Where to copy to.
+     * @param buffer Buffer to copy through.
+     * @return Count of bytes read from <code>is</code>.
+     * @throws IOException
+     */
+    protected long copyFrom(final InputStream is, final long recordLength,
+            boolean enforceLength, OutputStream target, byte[] buffer)
+    throws IOException {
+        if (is instanceof ReplayInputStream
+                && ((ReplayInputStream) is).isFileBacked()
+                && ((ReplayInputStream) is).remaining() <= recordLength) {
+            return copyFromReplay((ReplayInputStream) is, recordLength,
+                    enforceLength, target);
+        }
+        int read = buffer.length;
         long tot = 0;
         while ((tot < recordLength)
-                && (read = is.read(scratchbuffer)) != -1) {
+                && (read = is.read(buffer)) != -1) {
             int write = read; 
             // never write more than enforced length
             write = (int) Math.min(write, recordLength - tot);
             tot += read;
-            write(scratchbuffer, 0, write);
+            target.write(buffer, 0, write);
         }
         if (enforceLength && tot != recordLength) {
             // throw exception if desired for read vs. declared mismatches
@@ -425,8 +661,22 @@ public abstract class WriterPoolMember {
         if (this.out == null) {
             return;
         }
-        this.out.close();
-        this.out = null;
+        try {
+            try {
+                if (durability.getSyncOnClose()) {
+                    sync(true);
+                }
+            } finally {
+                this.out.close();
+            }
+        } finally {
+            this.out = null;
+            this.fileChannel = null;
+            if (this.selectedDirectory != null) {
+                this.directorySelector.fileClosed(this.selectedDirectory);
+                this.selectedDirectory = null;
+            }
+        }
         if (this.f != null && this.f.exists()) {
             String path = this.f.getAbsolutePath();
             if (path.endsWith(OCCUPIED_SUFFIX)) {
@@ -451,32 +701,42 @@ public abstract class WriterPoolMember {
     }
 
     /**
-     * An override so we get access to underlying output stream.
-     * and offer an end() that does not accompany closing underlying
-     * stream.
-     * @author stack
+     * Reports writes reaching the file, and the time they take, to the
+     * {@link DirectorySelector}.
      */
-    private class CompressedStream extends GZIPOutputStream {
-        public CompressedStream(OutputStream out)
-        throws IOException {
+    private static class MeteredOutputStream extends FilterOutputStream {
+        private final DirectorySelector selector;
+        private final File dir;
+
+        public MeteredOutputStream(OutputStream out, 
+                DirectorySelector selector, File dir) {
             super(out);
+            this.selector = selector;
+            this.dir = dir;
         }
-        
-        /**
-         * @return Reference to stream being compressed.
-         */
-        OutputStream getWrappedStream() {
-            return this.out;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
         }
-        
-        /**
-         * Release the deflater's native process resources,
-         * which otherwise would not occur until either
-         * finalization or DeflaterOutputStream.close() 
-         * (which would also close underlying stream). 
-         */
-        public void end() {
-            def.end();
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            selector.bytesWritten(dir, len, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Gzip member stream whose deflater comes from, and on end() goes back
+     * to, the shared {@link DeflaterPool}, so writing a record does not
+     * allocate and free a native zlib context.
+     */
+    private class CompressedStream extends PooledGZIPOutputStream {
+        public CompressedStream(OutputStream out)
+        throws IOException {
+            super(out);
         }
     }
 }
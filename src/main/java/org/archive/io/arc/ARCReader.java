@@ -44,6 +44,8 @@ import org.archive.io.RecoverableIOException;
 import org.archive.io.WriterPoolMember;
 import org.archive.util.ArchiveUtils;
 
+import com.google.common.io.ByteStreams;
+
 import static org.archive.format.arc.ARCConstants.*;
 
 /**
@@ -81,6 +83,14 @@ implements Closeable {
     private boolean alignedOnFirstRecord = true;
     
     private boolean parseHttpHeaders = true;
+
+    /**
+     * Most records end in a single LINE_SEPARATOR, so a small block
+     * does when skipping to the end of record.
+     */
+    private static final int EOR_BLOCK_LENGTH = 256;
+
+    private byte[] eorBlock = null;
     
     protected ARCReader() {
         super();
@@ -98,23 +108,17 @@ implements Closeable {
         }
         
         // Remove any trailing LINE_SEPARATOR
+        if (getIn().markSupported()) {
+            skipLineSeparators();
+            return;
+        }
         int c = -1;
         while (getIn().available() > 0) {
-            if (getIn().markSupported()) {
-                getIn().mark(1);
-            }
             c = getIn().read();
             if (c != -1) {
                 if (c == LINE_SEPARATOR) {
                     continue;
                 }
-                if (getIn().markSupported()) {
-                    // We've overread.  We're probably in next record.  There is
-                    // no way of telling for sure. It may be dross at end of
-                    // current record. Backup.
-                        getIn().reset();
-                    break;
-                }
                 ArchiveRecordHeader h = (getCurrentRecord() != null)?
                     record.getHeader(): null;
                 throw new IOException("Read " + (char)c +
@@ -125,6 +129,44 @@ implements Closeable {
         }
     }
     
+    /**
+     * @return Buffer to read trailing LINE_SEPARATORs into.
+     */
+    protected byte[] getEORBlock() {
+        if (this.eorBlock == null) {
+            this.eorBlock = new byte[EOR_BLOCK_LENGTH];
+        }
+        return this.eorBlock;
+    }
+
+    /**
+     * Skip trailing LINE_SEPARATORs a block at a time, backing up to the
+     * first byte that isn't one.  We're probably then in the next record.
+     * There is no way of telling for sure.  It may be dross at end of
+     * current record.
+     * @throws IOException
+     */
+    private void skipLineSeparators() throws IOException {
+        InputStream in = getIn();
+        byte[] block = getEORBlock();
+        while (in.available() > 0) {
+            in.mark(block.length);
+            int amt = in.read(block, 0, block.length);
+            if (amt <= 0) {
+                return;
+            }
+            int i = 0;
+            while (i < amt && block[i] == LINE_SEPARATOR) {
+                i++;
+            }
+            if (i < amt) {
+                in.reset();
+                ByteStreams.skipFully(in, i);
+                return;
+            }
+        }
+    }
+
     /**
      * Create new arc record.
      *
@@ -259,10 +301,7 @@ implements Closeable {
                 // Get an ARCWriter.
                 ByteArrayOutputStream baos =
                     new ByteArrayOutputStream(r.available());
-                // This is slow but done only once at top of ARC.
-                while (r.available() > 0) {
-                    baos.write(r.read());
-                }
+                r.transferTo(baos);
                 List<String> listOfMetadata = new ArrayList<String>();
                 listOfMetadata.add(baos.toString(WriterPoolMember.UTF8));
                 // Assume getArc returns full path to file.  ARCWriter
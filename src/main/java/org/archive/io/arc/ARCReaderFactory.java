@@ -39,6 +39,7 @@ import org.archive.util.zip.GZIPMembersInputStream;
 import org.archive.util.zip.GzipHeader;
 import org.archive.util.zip.NoGzipMagicException;
 
+import com.google.common.io.ByteStreams;
 import com.google.common.io.CountingInputStream;
 
 import static org.archive.format.arc.ARCConstants.*;
@@ -320,7 +321,7 @@ public class ARCReaderFactory extends ArchiveReaderFactory {
         throws IOException {
             // Arc file has been tested for existence by time it has come
             // to here.
-            setIn(new CountingInputStream(getInputStream(f, offset)));
+            setIn(countingStream(getInputStream(f, offset)));
             getIn().skip(offset); 
             initialize(f.getAbsolutePath());
         }
@@ -430,14 +431,23 @@ public class ARCReaderFactory extends ArchiveReaderFactory {
         }
         
         protected void gotoEOR(ArchiveRecord rec) throws IOException {
-            int c;
-            while ((c = getIn().read())==LINE_SEPARATOR);
-            if(c==-1) {
-                return; 
+            // Each record is its own gzip member, so anything up to the end
+            // of the member can be read in bulk.
+            byte[] block = getEORBlock();
+            long skipped = 0;
+            int amt;
+            while ((amt = getIn().read(block)) >= 0) {
+                int i = 0;
+                while (i < amt && block[i] == LINE_SEPARATOR) {
+                    i++;
+                }
+                if (i < amt) {
+                    skipped = (amt - i) + ByteStreams.exhaust(getIn());
+                    break;
+                }
             }
-            long skipped = 1; 
-            while (getIn().read()>-1) {
-                skipped++;
+            if (skipped == 0) {
+                return; 
             }
             // Report on system error the number of unexpected characters
             // at the end of this record.
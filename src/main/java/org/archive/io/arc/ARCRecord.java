@@ -39,10 +39,12 @@ import org.archive.io.ArchiveRecord;
 import org.archive.io.ArchiveRecordHeader;
 import org.archive.io.HeaderedArchiveRecord;
 import org.archive.io.RecoverableIOException;
+import org.archive.io.SeekInputStream;
 import org.archive.util.InetAddressUtil;
 import org.archive.util.LaxHttpParser;
 import org.archive.util.TextUtils;
 
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static org.archive.format.arc.ARCConstants.*;
 
 /**
@@ -133,11 +135,25 @@ public class ARCRecord extends ArchiveRecord {
     public List<ArcRecordErrors> errors = new ArrayList<ArcRecordErrors>();
 
     /**
-     * verbatim ARC record header string
+     * ARC record header fields, joined on demand to give the verbatim
+     * header string
      */
-    private String headerString;
+    private List<String> headerLineValues;
+
+    /**
+     * Reused to gather the bytes of the ARC header lines.
+     */
+    private byte[] lineBuffer = null;
+
+    /**
+     * Record length parsed from the bytes of the last header line read, or
+     * -1 if it wasn't a number.
+     */
+    private long metalineLength = -1;
+
     public String getHeaderString() {
-        return this.headerString;
+        return (this.headerLineValues == null)? null:
+            StringUtils.join(this.headerLineValues, " ");
     }
     
     /**
@@ -239,8 +255,22 @@ public class ARCRecord extends ArchiveRecord {
         final boolean isAlignedOnFirstRecord, String version)
     throws IOException {
         
+        MetalineInput input = new MetalineInput(in);
+        try {
+            return parseHeaders(input, identifier, offset,
+                isAlignedOnFirstRecord, version);
+        } finally {
+            input.finish();
+        }
+    }
+
+    private ArchiveRecordHeader parseHeaders(final MetalineInput in,
+        final String identifier, final long offset,
+        final boolean isAlignedOnFirstRecord, String version)
+    throws IOException {
         ArrayList<String> firstLineValues = new ArrayList<String>(20);
         getTokenizedHeaderLine(in, firstLineValues);
+        long length = this.metalineLength;
         
         int bodyOffset = 0;
         String origin = "";
@@ -273,8 +303,13 @@ public class ARCRecord extends ArchiveRecord {
         }
         setBodyOffset(bodyOffset);
         
-        return computeMetaData(this.headerFieldNameKeys, firstLineValues, 
-            version, origin, offset, identifier);
+        ARCRecordMetaData metaData = computeMetaData(this.headerFieldNameKeys,
+            firstLineValues, version, origin, offset, identifier);
+        if (length >= 0) {
+            metaData.setParsedLength(
+                (String)metaData.getHeaderValue(LENGTH_FIELD_KEY), length);
+        }
+        return metaData;
     }
     
     /**
@@ -282,73 +317,160 @@ public class ARCRecord extends ArchiveRecord {
      *
      * We keep reading till we find a LINE_SEPARATOR or we reach the end
      * of file w/o finding a LINE_SEPARATOR or the line length is crazy.
+     * The line is gathered as bytes and only the fields themselves are
+     * made into Strings; the last field, the record length, is also parsed
+     * straight from the bytes into {@link #metalineLength}.
      *
-     * @param stream InputStream to read from.
+     * @param input Where to read the line from.
      * @param list Empty list that gets filled w/ string tokens.
      * @return Count of characters read.
      * @exception IOException If problem reading stream or no line separator
      * found or EOF before EOL or we didn't get minimum header fields.
      */
-    private int getTokenizedHeaderLine(final InputStream stream,
+    private int getTokenizedHeaderLine(final MetalineInput input,
             List<String> list) throws IOException {
-        // Preallocate usual line size.
-        StringBuilder buffer = new StringBuilder(2048 + 20);
+        if (this.lineBuffer == null) {
+            this.lineBuffer = new byte[256];
+        }
+        byte[] line = this.lineBuffer;
+        int length = 0;
+        int fieldStart = 0;
         int read = 0;
         int previous = -1;
         for (int c = -1; true;) {
-                previous = c;
-            c = stream.read();
+            previous = c;
+            c = input.read();
             if (c == -1) {
                 throw new RecoverableIOException("Hit EOF before header EOL.");
             }
-            c &= 0xff; 
             read++;
             if (read > MAX_HEADER_LINE_LENGTH) {
+                String sofar = new String(line, fieldStart,
+                    Math.min(length - fieldStart, 256), ISO_8859_1);
                 throw new IOException("Header line longer than max allowed " +
                     " -- " + String.valueOf(MAX_HEADER_LINE_LENGTH) +
                     " -- or passed buffer doesn't contain a line (Read: " +
-                    buffer.length() + ").  Here's" +
-                    " some of what was read: " +
-                    buffer.substring(0, Math.min(buffer.length(), 256)));
+                    (length - fieldStart) + ").  Here's" +
+                    " some of what was read: " + sofar);
             }
 
             if (c == LINE_SEPARATOR) {
-                if (buffer.length() == 0) {
+                if (length == fieldStart) {
                     // Empty line at start of buffer.  Skip it and try again.
                     continue;
                 }
-
-                if (list != null) {
-                    list.add(buffer.toString());
-                }
-                // LOOP TERMINATION.
                 break;
             } else if (c == HEADER_FIELD_SEPARATOR) {
                 if (!isStrict() && previous == HEADER_FIELD_SEPARATOR) {
-                        // Early ARCs sometimes had multiple spaces between fields.
-                        continue;
+                    // Early ARCs sometimes had multiple spaces between fields.
+                    continue;
                 }
                 if (list != null) {
-                    list.add(buffer.toString());
+                    list.add(new String(line, fieldStart, length - fieldStart,
+                        ISO_8859_1));
                 }
-                // reset to empty
-                buffer.setLength(0);
+                fieldStart = length;
             } else {
-                buffer.append((char)c);
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, line.length * 2);
+                    this.lineBuffer = line;
+                }
+                line[length++] = (byte)c;
             }
         }
 
-        // List must have at least 3 elements in it and no more than 10.  If
-        // it has other than this, then bogus parse.
-        if (list != null && (list.size() < 3 || list.size() > 100)) {
-            throw new IOException("Unparseable header line: " + list);
+        if (list != null) {
+            list.add(new String(line, fieldStart, length - fieldStart,
+                ISO_8859_1));
+            // List must have at least 3 elements in it and no more than 10.
+            // If it has other than this, then bogus parse.
+            if (list.size() < 3 || list.size() > 100) {
+                throw new IOException("Unparseable header line: " + list);
+            }
+            this.metalineLength = parseLength(line, fieldStart, length);
         }
 
         // save verbatim header String
-        this.headerString = StringUtils.join(list," ");
-        
+        this.headerLineValues = list;
+
         return read;
     }
+
+    /**
+     * @return Value of the digits in <code>line</code> between
+     * <code>start</code> and <code>end</code>, or -1 if they aren't all
+     * digits or there are too many of them.
+     */
+    private static long parseLength(byte[] line, int start, int end) {
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Source of the bytes of the ARC header lines.
+     *
+     * A {@link SeekInputStream} is read a block at a time, and positioned
+     * back to just after the last line once the lines are all read; any
+     * other stream is read a byte at a time so that nothing past the lines
+     * is consumed.
+     */
+    private static class MetalineInput {
+        private static final int BLOCK_LENGTH = 1024;
+
+        private final InputStream in;
+        private final SeekInputStream seekIn;
+        private byte[] block;
+        private long blockStart = 0;
+        private int pos = 0;
+        private int limit = 0;
+
+        MetalineInput(InputStream in) {
+            this.in = in;
+            this.seekIn = (in instanceof SeekInputStream)?
+                (SeekInputStream)in: null;
+        }
+
+        int read() throws IOException {
+            if (this.seekIn == null) {
+                return this.in.read();
+            }
+            if (this.pos == this.limit && !fill()) {
+                return -1;
+            }
+            return this.block[this.pos++] & 0xff;
+        }
+
+        private boolean fill() throws IOException {
+            if (this.block == null) {
+                this.block = new byte[BLOCK_LENGTH];
+            }
+            this.blockStart = this.seekIn.position();
+            int amt = this.seekIn.read(this.block, 0, this.block.length);
+            this.pos = 0;
+            this.limit = Math.max(amt, 0);
+            return this.limit > 0;
+        }
+
+        /**
+         * Give back any bytes read past the last line returned.
+         */
+        void finish() throws IOException {
+            if (this.pos < this.limit) {
+                this.seekIn.position(this.blockStart + this.pos);
+                this.limit = this.pos;
+            }
+        }
+    }
     
     /**
      * Compute metadata fields.
@@ -533,6 +655,13 @@ public class ARCRecord extends ArchiveRecord {
             }
         }
     }
+
+    @Override
+    protected void skipRemaining() throws IOException {
+        // Http header bytes were read ahead; count them before skipping
+        skipHttpHeader();
+        super.skipRemaining();
+    }
     
     public void dumpHttpHeader() throws IOException {
                 if (this.httpHeaderStream == null) {
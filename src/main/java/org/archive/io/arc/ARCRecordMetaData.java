@@ -66,6 +66,13 @@ public class ARCRecordMetaData implements ArchiveRecordHeader {
     private String arc = null;
     
     private int contentBegin = 0;
+
+    /**
+     * The length field value {@link #length} was parsed from.
+     */
+    private Object lengthValue = null;
+
+    private long length = -1;
     
     /**
      * Shut down the default constructor.
@@ -127,8 +134,24 @@ public class ARCRecordMetaData implements ArchiveRecordHeader {
      * @return Return length of the record.
      */
     public long getLength() {
-        return Long.parseLong((String)this.headerFields.
-            get(LENGTH_FIELD_KEY));
+        Object value = this.headerFields.get(LENGTH_FIELD_KEY);
+        if (value == null || value != this.lengthValue) {
+            this.length = Long.parseLong((String)value);
+            this.lengthValue = value;
+        }
+        return this.length;
+    }
+
+    /**
+     * Save having to parse the length field again when the reader has
+     * already parsed it.
+     *
+     * @param value Current length field value.
+     * @param parsedLength What value parses as.
+     */
+    void setParsedLength(String value, long parsedLength) {
+        this.lengthValue = value;
+        this.length = parsedLength;
     }
     
     /**
@@ -399,6 +399,7 @@ public class ARCWriter extends WriterPoolMember implements Closeable {
         } finally {
             postWriteRecordTasks();
         }
+        syncIfDue();
     }
     
     /**
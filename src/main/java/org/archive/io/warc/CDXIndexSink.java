@@ -0,0 +1,418 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io.warc;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.format.http.HttpResponse;
+import org.archive.format.http.HttpResponseParser;
+import org.archive.format.warc.WARCConstants.WARCRecordType;
+import org.archive.url.URLKeyMaker;
+import org.archive.url.WaybackURLKeyMaker;
+import org.json.JSONObject;
+
+import static org.archive.format.warc.WARCConstants.*;
+
+/**
+ * Emits an index line (CDX or CDXJ) for each response, revisit and
+ * resource record as a {@link WARCWriter} writes it, so that indexing
+ * does not need a separate pass over the finished WARC. Lines are written
+ * in the order records were written, not sorted; sort the output before
+ * use as a lookup index.
+ * 
+ * <p>The writer only snapshots a record's fields and the first
+ * {@link #HEAD_SIZE} bytes of its content (to read the HTTP status and
+ * Content-Type); the SURT key and line are built on a background thread,
+ * so writing records never waits on indexing. An IOException writing the
+ * index is logged and rethrown from {@link #flush()} or {@link #close()}.
+ * 
+ * <p>At most {@link #getQueueCapacity()} records wait to be indexed. When
+ * the queue is full, {@link OverflowPolicy#DROP} (the default) leaves the
+ * record out of the index and counts it in {@link #getDroppedCount()}, so
+ * an index that falls behind never holds up writing. Choose
+ * {@link OverflowPolicy#BLOCK} to have the writing thread wait for room
+ * instead, when a complete index matters more than write throughput.
+ * 
+ * <p>CDX lines follow {@code org.archive.extract.RealCDXExtractorOutput}:
+ * {@code N b a m s k r M S V g}. CDXJ lines are
+ * {@code <key> <timestamp> {json}} with url, mime, status, digest, length,
+ * offset and filename. The digest is WARC-Payload-Digest without its
+ * "sha1:" prefix.
+ * 
+ * <p>One sink may be shared by many writers, e.g. via
+ * {@link WARCWriterPool#setIndexSink(CDXIndexSink)}.
+ */
+public class CDXIndexSink implements Closeable {
+    private static final Logger logger = 
+        Logger.getLogger(CDXIndexSink.class.getName());
+
+    public enum Format { CDX, CDXJ }
+
+    /** what {@link CDXIndexSink#submit} does when the queue is full */
+    public enum OverflowPolicy { BLOCK, DROP }
+
+    /** bytes of record content kept for reading HTTP headers */
+    public static final int HEAD_SIZE = 8 * 1024;
+
+    /** records waiting to be indexed; each holds up to HEAD_SIZE bytes */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    public static final String CDX_HEADER = " CDX N b a m s k r M S V g";
+
+    protected final Writer out;
+    protected final Format format;
+    protected final URLKeyMaker keyMaker;
+    protected final ThreadPoolExecutor executor;
+    protected final OverflowPolicy overflowPolicy;
+    protected final int queueCapacity;
+    protected final AtomicLong dropped = new AtomicLong();
+    protected volatile IOException failure = null;
+
+    public CDXIndexSink(Writer out, Format format) {
+        this(out, format, new WaybackURLKeyMaker());
+    }
+
+    public CDXIndexSink(Writer out, Format format, URLKeyMaker keyMaker) {
+        this(out, format, keyMaker, DEFAULT_QUEUE_CAPACITY, 
+                OverflowPolicy.DROP);
+    }
+
+    /**
+     * @param queueCapacity records that may wait to be indexed
+     * @param overflowPolicy whether submitting to a full queue waits or
+     * drops the record
+     */
+    public CDXIndexSink(Writer out, Format format, URLKeyMaker keyMaker,
+            int queueCapacity, OverflowPolicy overflowPolicy) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException(
+                    "queueCapacity must be positive: " + queueCapacity);
+        }
+        this.out = out;
+        this.format = format;
+        this.keyMaker = keyMaker;
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), 
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "CDXIndexSink");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                },
+                new RejectedExecutionHandler() {
+                    public void rejectedExecution(Runnable r, 
+                            ThreadPoolExecutor executor) {
+                        overflow(r, executor);
+                    }
+                });
+        if (format == Format.CDX) {
+            submitLine(CDX_HEADER);
+        }
+    }
+
+    /**
+     * @return true if records of the given type get an index line
+     */
+    public boolean accepts(WARCRecordType type) {
+        return type == WARCRecordType.response 
+                || type == WARCRecordType.revisit
+                || type == WARCRecordType.resource;
+    }
+
+    /**
+     * Queue an index line for a record just written.
+     * 
+     * @param recordInfo the record
+     * @param filename WARC file name, without any occupied suffix
+     * @param offset offset of the record in the WARC file
+     * @param length length of the record in the file (compressed, if so)
+     * @param head buffer holding the start of the record content
+     * @param off start of content in head
+     * @param len bytes of content in head; copied, at most {@link #HEAD_SIZE}
+     */
+    public void submit(WARCRecordInfo recordInfo, String filename,
+            long offset, long length, byte[] head, int off, int len) {
+        final Entry e = new Entry();
+        e.type = recordInfo.getType();
+        e.url = recordInfo.getUrl();
+        e.date = recordInfo.getCreate14DigitDate();
+        e.mimetype = recordInfo.getMimetype();
+        e.payloadDigest = recordInfo.getExtraHeader(HEADER_KEY_PAYLOAD_DIGEST);
+        e.filename = filename;
+        e.offset = offset;
+        e.length = length;
+        if (head != null && len > 0) {
+            e.head = Arrays.copyOfRange(head, off, off + Math.min(len, HEAD_SIZE));
+        }
+        executor.execute(new IndexTask() {
+            public void run() {
+                try {
+                    write(formatLine(e));
+                } catch (URISyntaxException ex) {
+                    logger.log(Level.WARNING, "not indexing " + e.url, ex);
+                } catch (IOException ex) {
+                    fail(ex);
+                } catch (RuntimeException ex) {
+                    logger.log(Level.WARNING, "not indexing " + e.url, ex);
+                }
+            }
+        });
+    }
+
+    /** a queued record, which {@link OverflowPolicy#DROP} may discard */
+    protected abstract static class IndexTask implements Runnable {
+    }
+
+    /**
+     * Called when the queue is full. Records are dropped under
+     * {@link OverflowPolicy#DROP}; anything else waits for room, so header
+     * lines and flushes are never lost.
+     */
+    protected void overflow(Runnable r, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("index sink closed");
+        }
+        if (overflowPolicy == OverflowPolicy.DROP && r instanceof IndexTask) {
+            if (dropped.incrementAndGet() == 1) {
+                logger.warning("index queue full, dropping index lines");
+            }
+            return;
+        }
+        try {
+            executor.getQueue().put(r);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+        }
+    }
+
+    /**
+     * @return records left out of the index because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    protected void submitLine(final String line) {
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    write(line);
+                } catch (IOException ex) {
+                    fail(ex);
+                }
+            }
+        });
+    }
+
+    protected void write(String line) throws IOException {
+        if (line != null && failure == null) {
+            out.write(line);
+            out.write('\n');
+        }
+    }
+
+    protected void fail(IOException e) {
+        logger.log(Level.SEVERE, "failed writing index", e);
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Build the index line for one record. Runs on the sink's thread.
+     * @return the line, or null to skip the record
+     */
+    protected String formatLine(Entry e) throws URISyntaxException {
+        if (e.url == null || e.url.length() == 0) {
+            return null;
+        }
+        String mime = "-";
+        String status = "-";
+        String redirect = "-";
+        if (e.type == WARCRecordType.revisit) {
+            mime = "warc/revisit";
+        } else if (e.mimetype != null 
+                && e.mimetype.startsWith("application/http")) {
+            HttpResponse response = parseHead(e.head);
+            if (response != null) {
+                status = Integer.toString(response.getMessage().getStatus());
+                String contentType = response.getHeaders().getValueCaseInsensitive("content-type");
+                mime = contentType != null ? normalizeMime(contentType) : "unk";
+                String location = response.getHeaders().getValueCaseInsensitive("location");
+                if (location != null) {
+                    redirect = location.replace(" ", "%20");
+                }
+            }
+        } else if (e.mimetype != null) {
+            mime = normalizeMime(e.mimetype);
+        }
+        String digest = e.payloadDigest == null ? "-" 
+                : e.payloadDigest.startsWith("sha1:") ? e.payloadDigest.substring(5)
+                : e.payloadDigest;
+        String key = keyMaker.makeKey(e.url);
+        String timestamp = toTimestamp(e.date);
+
+        StringBuilder sb = new StringBuilder(256);
+        if (format == Format.CDXJ) {
+            sb.append(key).append(' ').append(timestamp).append(" {");
+            sb.append("\"url\": ").append(JSONObject.quote(e.url));
+            sb.append(", \"mime\": ").append(JSONObject.quote(mime));
+            sb.append(", \"status\": ").append(JSONObject.quote(status));
+            sb.append(", \"digest\": ").append(JSONObject.quote(digest));
+            sb.append(", \"length\": \"").append(e.length).append('"');
+            sb.append(", \"offset\": \"").append(e.offset).append('"');
+            sb.append(", \"filename\": ").append(JSONObject.quote(e.filename));
+            sb.append('}');
+        } else {
+            // URL DATE OURL MIME HTTP-CODE SHA1 REDIR META LENGTH OFFSET FILE
+            sb.append(key).append(' ').append(timestamp).append(' ')
+                .append(e.url.replace(" ", "%20")).append(' ')
+                .append(mime).append(' ').append(status).append(' ')
+                .append(digest).append(' ').append(redirect).append(" - ")
+                .append(e.length).append(' ').append(e.offset).append(' ')
+                .append(e.filename);
+        }
+        return sb.toString();
+    }
+
+    protected HttpResponse parseHead(byte[] head) {
+        if (head == null) {
+            return null;
+        }
+        try {
+            return new HttpResponseParser().parse(new ByteArrayInputStream(head));
+        } catch (IOException e) {
+            // not HTTP, or headers longer than HEAD_SIZE
+            return null;
+        }
+    }
+
+    protected static String normalizeMime(String contentType) {
+        int semi = contentType.indexOf(';');
+        String mime = (semi >= 0 ? contentType.substring(0, semi) : contentType).trim();
+        return mime.length() == 0 ? "unk" 
+                : mime.toLowerCase(Locale.ROOT).replace(" ", "%20");
+    }
+
+    /**
+     * @return 14 digits from a W3C date like 2009-11-02T23:30:38Z
+     */
+    protected static String toTimestamp(String date) {
+        if (date == null) {
+            return "-";
+        }
+        StringBuilder sb = new StringBuilder(14);
+        for (int i = 0; i < date.length() && sb.length() < 14; i++) {
+            char c = date.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Wait for all lines queued so far to be written, and flush them.
+     * @throws IOException if writing the index failed
+     */
+    public void flush() throws IOException {
+        Future<?> done = executor.submit(new Runnable() {
+            public void run() {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        });
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Write any queued lines and close the underlying writer.
+     */
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.info("waiting for index lines to be written");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * What the sink keeps of a record until its line is written.
+     */
+    protected static class Entry {
+        WARCRecordType type;
+        String url;
+        String date;
+        String mimetype;
+        String payloadDigest;
+        String filename;
+        long offset;
+        long length;
+        byte[] head;
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io.warc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+import org.archive.util.ArchiveUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Payload digests of earlier captures, each mapped to the URI and date of
+ * the capture that first had it; what a {@link WARCWriter} needs to write
+ * a duplicate response as an identical-payload-digest revisit.
+ * 
+ * <p>Entries live outside the Java heap: an open-addressing table of
+ * (hash, reference) slots in one direct buffer, and the digests, dates
+ * and URIs in direct arena chunks, so millions of entries add nothing for
+ * the garbage collector to trace. Lookups hash the digest string in place
+ * and compare it against the stored bytes; they take a read lock, so
+ * many writers can look up at once. Digests are compared without a
+ * leading <code>sha1:</code>, so WARC-Payload-Digest values match the 
+ * bare digests of CDX files. Only ASCII digests are indexed.
+ * 
+ * <p>Entries are never removed. An index may be given a maximum number of
+ * entries; once it is full, further digests are refused (and counted in
+ * {@link #getRefusedCount()}) rather than evicting earlier captures, which
+ * revisits already written may refer to.
+ */
+public class DigestIndex {
+    private static final Logger logger =
+        Logger.getLogger(DigestIndex.class.getName());
+
+    public static final int DEFAULT_INITIAL_CAPACITY = 1 << 16;
+    protected static final int SLOT_BYTES = 16;
+    protected static final int CHUNK_BYTES = 16 * 1024 * 1024;
+    protected static final String SHA1_PREFIX = "sha1:";
+
+    /** earlier capture with a given payload digest */
+    public static class Original {
+        protected final String uri;
+        protected final long dateMillis;
+
+        public Original(String uri, long dateMillis) {
+            this.uri = uri;
+            this.dateMillis = dateMillis;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public long getDateMillis() {
+            return dateMillis;
+        }
+
+        /** @return date in WARC (W3C) form */
+        public String getDate() {
+            return ArchiveUtils.getLog14Date(dateMillis);
+        }
+    }
+
+    protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+    protected ByteBuffer slots;
+    protected int mask;
+    protected int size = 0;
+    protected final int maxEntries;
+    protected long refused = 0;
+    protected final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    protected ByteBuffer chunk = null;
+
+    public DigestIndex() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param expected number of digests expected; the table grows past it
+     */
+    public DigestIndex(int expected) {
+        this(expected, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param expected number of digests expected; the table grows past it
+     * @param maxEntries most digests to hold; at least 1
+     */
+    public DigestIndex(int expected, int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive: "
+                    + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        expected = Math.min(expected, maxEntries);
+        int capacity = Integer.highestOneBit(Math.max(16, expected * 4 / 3)) << 1;
+        this.slots = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @return start of the digest proper, or -1 if not indexable
+     */
+    protected static int digestStart(String digest) {
+        int start = digest.regionMatches(true, 0, SHA1_PREFIX, 0, 
+                SHA1_PREFIX.length()) ? SHA1_PREFIX.length() : 0;
+        if (start == digest.length()) {
+            return -1;
+        }
+        for (int i = start; i < digest.length(); i++) {
+            if (digest.charAt(i) >= 0x80) {
+                return -1;
+            }
+        }
+        return start;
+    }
+
+    protected static long hash(String digest, int start) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = start; i < digest.length(); i++) {
+            h = (h ^ digest.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * @return the capture first seen with this payload digest, or null
+     */
+    public Original get(String digest) {
+        int start = digestStart(digest);
+        if (start < 0) {
+            return null;
+        }
+        long h = hash(digest, start);
+        lock.readLock().lock();
+        try {
+            long ref = find(digest, start, h);
+            return ref < 0 ? null : readOriginal(ref);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add a digest unless already present or the index is full; the first
+     * capture stays.
+     * 
+     * @return true if added
+     */
+    public boolean putIfAbsent(String digest, String uri, long dateMillis) {
+        int start = digestStart(digest);
+        if (start < 0 || uri == null) {
+            return false;
+        }
+        long h = hash(digest, start);
+        lock.writeLock().lock();
+        try {
+            if (find(digest, start, h) >= 0) {
+                return false;
+            }
+            if (size >= maxEntries) {
+                if (refused++ == 0) {
+                    logger.warning("digest index full at " + size 
+                            + " entries; not adding more");
+                }
+                return false;
+            }
+            if ((size + 1) * 4L > (mask + 1) * 3L) {
+                grow();
+            }
+            insert(h, append(digest, start, uri, dateMillis));
+            size++;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** @return reference to the entry for the digest, or -1 */
+    protected long find(String digest, int start, long h) {
+        for (int i = (int) h & mask; ; i = (i + 1) & mask) {
+            long slotHash = slots.getLong(i * SLOT_BYTES);
+            if (slotHash == 0) {
+                return -1;
+            }
+            if (slotHash == h) {
+                long ref = slots.getLong(i * SLOT_BYTES + 8);
+                if (keyEquals(ref, digest, start)) {
+                    return ref;
+                }
+            }
+        }
+    }
+
+    protected void insert(long h, long ref) {
+        int i = (int) h & mask;
+        while (slots.getLong(i * SLOT_BYTES) != 0) {
+            i = (i + 1) & mask;
+        }
+        slots.putLong(i * SLOT_BYTES, h);
+        slots.putLong(i * SLOT_BYTES + 8, ref);
+    }
+
+    protected void grow() {
+        ByteBuffer old = slots;
+        int oldCapacity = mask + 1;
+        slots = ByteBuffer.allocateDirect(oldCapacity * 2 * SLOT_BYTES);
+        mask = oldCapacity * 2 - 1;
+        for (int i = 0; i < oldCapacity; i++) {
+            long h = old.getLong(i * SLOT_BYTES);
+            if (h != 0) {
+                insert(h, old.getLong(i * SLOT_BYTES + 8));
+            }
+        }
+    }
+
+    /*
+     * An entry is: int digest length, digest bytes, long date, 
+     * int uri length, uri (UTF-8) bytes; never split across chunks.
+     */
+
+    protected long append(String digest, int start, String uri, long dateMillis) {
+        byte[] uriBytes = uri.getBytes(StandardCharsets.UTF_8);
+        int keyLength = digest.length() - start;
+        int length = 4 + keyLength + 8 + 4 + uriBytes.length;
+        if (chunk == null || chunk.remaining() < length) {
+            chunk = ByteBuffer.allocateDirect(Math.max(CHUNK_BYTES, length));
+            chunks.add(chunk);
+        }
+        long ref = ((long) (chunks.size() - 1) << 32) | chunk.position();
+        chunk.putInt(keyLength);
+        for (int i = start; i < digest.length(); i++) {
+            chunk.put((byte) digest.charAt(i));
+        }
+        chunk.putLong(dateMillis);
+        chunk.putInt(uriBytes.length);
+        chunk.put(uriBytes);
+        return ref;
+    }
+
+    protected boolean keyEquals(long ref, String digest, int start) {
+        ByteBuffer c = chunks.get((int) (ref >>> 32));
+        int pos = (int) ref;
+        int keyLength = c.getInt(pos);
+        if (keyLength != digest.length() - start) {
+            return false;
+        }
+        pos += 4;
+        for (int i = start; i < digest.length(); i++, pos++) {
+            if (c.get(pos) != (byte) digest.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected Original readOriginal(long ref) {
+        ByteBuffer c = chunks.get((int) (ref >>> 32));
+        int pos = (int) ref;
+        pos += 4 + c.getInt(pos);
+        long date = c.getLong(pos);
+        pos += 8;
+        byte[] uri = new byte[c.getInt(pos)];
+        pos += 4;
+        for (int i = 0; i < uri.length; i++) {
+            uri[i] = c.get(pos + i);
+        }
+        return new Original(new String(uri, StandardCharsets.UTF_8), date);
+    }
+
+    /** @return number of digests held */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /** @return digests not added because the index was full */
+    public long getRefusedCount() {
+        lock.readLock().lock();
+        try {
+            return refused;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add the captures listed in a CDX or CDXJ file. A CDX file's legend
+     * line, if any, locates the url ('a'), timestamp ('b'), digest ('k') 
+     * and mime ('m') fields; without one, the usual layouts are assumed
+     * (timestamp second, url third, mime fourth, digest sixth). CDXJ lines
+     * take url, digest and mime from their JSON. Revisit lines and lines
+     * without a digest are skipped.
+     * 
+     * @param cdx CDX content
+     * @return number of digests added
+     * @throws IOException
+     */
+    public int loadCDX(Reader cdx) throws IOException {
+        BufferedReader reader = cdx instanceof BufferedReader 
+                ? (BufferedReader) cdx : new BufferedReader(cdx);
+        int urlField = 2, dateField = 1, mimeField = 3, digestField = 5;
+        int added = 0;
+        int malformed = 0;
+        for (String line = reader.readLine(); line != null; 
+                line = reader.readLine()) {
+            if (line.startsWith(" CDX ") || line.startsWith("CDX ")) {
+                String[] legend = line.trim().split(" ");
+                for (int i = 1; i < legend.length; i++) {
+                    if (legend[i].equals("a")) {
+                        urlField = i - 1;
+                    } else if (legend[i].equals("b")) {
+                        dateField = i - 1;
+                    } else if (legend[i].equals("k")) {
+                        digestField = i - 1;
+                    } else if (legend[i].equals("m")) {
+                        mimeField = i - 1;
+                    }
+                }
+                continue;
+            }
+            String[] fields = line.split(" ", 3);
+            if (fields.length < 3) {
+                continue;
+            }
+            String url, date, mime, digest;
+            if (fields[2].startsWith("{")) {
+                try {
+                    JSONObject json = new JSONObject(fields[2]);
+                    url = json.optString("url", null);
+                    mime = json.optString("mime", "-");
+                    digest = json.optString("digest", "-");
+                } catch (JSONException e) {
+                    malformed++;
+                    continue;
+                }
+                date = fields[1];
+            } else {
+                fields = line.split(" ");
+                int max = Math.max(Math.max(urlField, dateField), 
+                        Math.max(mimeField, digestField));
+                if (fields.length <= max) {
+                    malformed++;
+                    continue;
+                }
+                url = fields[urlField];
+                date = fields[dateField];
+                mime = fields[mimeField];
+                digest = fields[digestField];
+            }
+            if (url == null || digest.equals("-") || mime.equals("warc/revisit")) {
+                continue;
+            }
+            try {
+                long millis = ArchiveUtils.parse14DigitDate(
+                        date.length() > 14 ? date.substring(0, 14) : date).getTime();
+                if (putIfAbsent(digest, url, millis)) {
+                    added++;
+                }
+            } catch (ParseException e) {
+                malformed++;
+            }
+        }
+        if (malformed > 0) {
+            logger.warning("skipped " + malformed + " malformed CDX lines");
+        }
+        return added;
+    }
+}
@@ -0,0 +1,590 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io.warc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * WARCWriter that pipelines record writing. The calling thread only
+ * serializes a record (header and content) into a pooled buffer; records
+ * are then compressed in parallel on a shared worker pool, and one
+ * appender thread per writer writes them to the file in submission order,
+ * setting each record's {@link WARCRecordInfo#setWARCFileOffset(long)} and
+ * filename once it is written. A writer thus spends little time borrowed,
+ * so fewer writers (open files) are needed for the same ingest rate.
+ * 
+ * <p>Offsets are only valid once a record has been appended: 
+ * {@link #awaitWritten()} waits for all submitted records, and is implied
+ * by {@link #getTmpRecordLog()}, {@link #getTmpStats()}, flush, close and
+ * file rollover. Records larger than {@link #getMaxBufferedRecordBytes()}
+ * are written directly, after the pipeline drains. A failure in 
+ * compressing or appending any record is rethrown by the next write, 
+ * awaitWritten() or close().
+ * 
+ * <p>Records in the pipeline are held in memory, raw and compressed, up
+ * to a {@link PendingBytes} budget, beyond which writeRecord() blocks. A
+ * {@link WARCWriterPool} shares one budget between the writers it makes.
+ * 
+ * <p>{@link #getPosition()} (and so {@link #isOversize()}) lags by
+ * whatever is still in the pipeline.
+ */
+public class PipelinedWARCWriter extends WARCWriter {
+    private static final Logger logger = 
+        Logger.getLogger(PipelinedWARCWriter.class.getName());
+
+    /** default bound on bytes of records submitted but not yet appended */
+    public static final int DEFAULT_MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+    /** default size above which records bypass the pipeline */
+    public static final long DEFAULT_MAX_BUFFERED_RECORD_BYTES = 8 * 1024 * 1024;
+
+    private static ExecutorService defaultCompressors = null;
+
+    protected final ExecutorService compressors;
+    protected final PendingBytes pending;
+    protected long maxBufferedRecordBytes = DEFAULT_MAX_BUFFERED_RECORD_BYTES;
+
+    /** single thread appending in submission order; null when idle/closed */
+    protected ExecutorService appender = null;
+    protected Future<?> lastAppend = null;
+    protected volatile IOException failure = null;
+
+    /** true while writing on the calling thread (e.g. the warcinfo record) */
+    protected boolean direct = false;
+
+    protected RecordBufferPool recordBuffers = new RecordBufferPool();
+
+    /**
+     * Constructor, using the shared compression pool.
+     */
+    public PipelinedWARCWriter(final AtomicInteger serialNo,
+            final WARCWriterPoolSettings settings) {
+        this(serialNo, settings, getDefaultCompressors(),
+                new PendingBytes(DEFAULT_MAX_PENDING_BYTES));
+    }
+
+    /**
+     * @param serialNo  used to generate unique file name sequences
+     * @param settings writer settings
+     * @param compressors where records are compressed; may be shared by
+     * many writers
+     * @param pending budget for the bytes of records submitted but not yet
+     * appended, beyond which writeRecord() blocks; may be shared by many
+     * writers
+     */
+    public PipelinedWARCWriter(final AtomicInteger serialNo,
+            final WARCWriterPoolSettings settings,
+            final ExecutorService compressors, final PendingBytes pending) {
+        super(serialNo, settings);
+        this.compressors = compressors;
+        this.pending = pending;
+    }
+
+    /**
+     * @return a shared pool of daemon threads, one per processor, for
+     * compressing records
+     */
+    public static synchronized ExecutorService getDefaultCompressors() {
+        if (defaultCompressors == null) {
+            defaultCompressors = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                daemonThreadFactory("WARCWriter-compressor"));
+        }
+        return defaultCompressors;
+    }
+
+    protected static ThreadFactory daemonThreadFactory(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    public RecordBufferPool getRecordBufferPool() {
+        return recordBuffers;
+    }
+
+    /**
+     * @param recordBuffers where to recycle record buffers; may be shared
+     * with other writers. Set before writing any records.
+     */
+    public void setRecordBufferPool(RecordBufferPool recordBuffers) {
+        this.recordBuffers = recordBuffers;
+    }
+
+    public PendingBytes getPendingBytes() {
+        return pending;
+    }
+
+    public long getMaxBufferedRecordBytes() {
+        return maxBufferedRecordBytes;
+    }
+
+    public void setMaxBufferedRecordBytes(long maxBufferedRecordBytes) {
+        this.maxBufferedRecordBytes = maxBufferedRecordBytes;
+    }
+
+    @Override
+    public void writeRecord(final WARCRecordInfo recordInfo)
+    throws IOException {
+        if (direct) {
+            super.writeRecord(recordInfo);
+            return;
+        }
+        checkFailure();
+        rewriteAsRevisit(recordInfo);
+        if (recordInfo.getContentLength() > maxBufferedRecordBytes) {
+            awaitWritten();
+            super.writeRecord(recordInfo);
+            return;
+        }
+        if (recordInfo.getContentLength() == 0 &&
+                (recordInfo.getExtraHeaders() == null || recordInfo.getExtraHeaders().size() <= 0)) {
+            throw new IllegalArgumentException("Cannot write record " +
+            "of content-length zero and base headers only.");
+        }
+
+        try {
+            headerEncoder.encode(recordInfo);
+        } catch (IllegalArgumentException e) {
+            logger.log(Level.SEVERE,"could not write record type: " + recordInfo.getType() 
+                    + "for URL: " + recordInfo.getUrl(), e);
+            return;
+        }
+        if (this.out == null) {
+            createFile();
+            if (!headerEncoder.holds(recordInfo)) {
+                headerEncoder.encode(recordInfo);
+            }
+        }
+
+        final RecordBuffer raw = recordBuffers.borrow();
+        final long contentBytes;
+        try {
+            headerEncoder.writeTo(raw);
+            raw.write(CRLF_BYTES);
+            if (recordInfo.getContentStream() != null && recordInfo.getContentLength() > 0) {
+                contentBytes = copyFrom(recordInfo.getContentStream(),
+                        recordInfo.getContentLength(),
+                        recordInfo.getEnforceLength(), raw, scratchbuffer);
+            } else {
+                contentBytes = 0;
+            }
+            raw.write(CRLF_BYTES);
+            raw.write(CRLF_BYTES);
+        } catch (IOException e) {
+            recordBuffers.release(raw);
+            throw e;
+        }
+        submit(recordInfo, raw, contentBytes, headerEncoder.size() + CRLF_BYTES.length);
+    }
+
+    protected void submit(final WARCRecordInfo recordInfo,
+            final RecordBuffer raw, final long contentBytes, 
+            final int contentStart) throws IOException {
+        // the compressed copy is counted at the raw size too
+        final int cost = settings.getCompress() ? 2 * raw.size() : raw.size();
+        final int acquired = pending.acquire(cost);
+        Future<RecordBuffer> compressed = null;
+        try {
+            if (settings.getCompress()) {
+                compressed = compressors.submit(new Callable<RecordBuffer>() {
+                    public RecordBuffer call() throws IOException {
+                        return compress(raw);
+                    }
+                });
+            } else {
+                compressed = Futures.immediateFuture(raw);
+            }
+            final Future<RecordBuffer> compressedRecord = compressed;
+            lastAppend = getAppender().submit(new Runnable() {
+                public void run() {
+                    append(recordInfo, raw, compressedRecord, contentBytes,
+                            contentStart, acquired);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            discard(raw, compressed);
+            pending.release(acquired);
+            throw new IOException("could not queue record " 
+                    + recordInfo.getUrl() + " for writing", e);
+        }
+    }
+
+    /**
+     * Give back the buffers of a record that will not be appended.
+     */
+    protected void discard(RecordBuffer raw, Future<RecordBuffer> compressed) {
+        if (compressed != null && !compressed.cancel(false)) {
+            // already compressing (or done): wait, so raw is no longer read
+            try {
+                RecordBuffer bytes = Futures.getUnchecked(compressed);
+                if (bytes != raw) {
+                    recordBuffers.release(bytes);
+                }
+            } catch (RuntimeException e) {
+                // compression failed; nothing to give back
+            }
+        }
+        recordBuffers.release(raw);
+    }
+
+    /**
+     * Compress one serialized record as its own gzip member or zstd frame.
+     * Runs on a compression thread.
+     */
+    protected RecordBuffer compress(RecordBuffer raw) throws IOException {
+        RecordBuffer target = recordBuffers.borrow();
+        try {
+            OutputStream cs = createCompressedStream(target);
+            cs.write(raw.getBuffer(), 0, raw.size());
+            finishCompressedStream(cs);
+            return target;
+        } catch (IOException e) {
+            recordBuffers.release(target);
+            throw e;
+        }
+    }
+
+    /**
+     * Write one record to the file. Runs on the appender thread.
+     */
+    protected void append(WARCRecordInfo recordInfo, RecordBuffer raw,
+            Future<RecordBuffer> compressed, long contentBytes,
+            int contentStart, int acquired) {
+        RecordBuffer bytes = null;
+        try {
+            bytes = compressed.get();
+            if (failure == null) {
+                long startPosition = getPosition();
+                write(bytes.getBuffer(), 0, bytes.size());
+                if (settings.getCompress()) {
+                    this.out.flush();
+                }
+                recordInfo.setWARCFilename(getFilenameWithoutOccupiedSuffix());
+                recordInfo.setWARCFileOffset(startPosition);
+                logRecord(recordInfo);
+                tally(recordInfo.getType(), contentBytes, raw.size(),
+                        getPosition() - startPosition);
+                noteOriginal(recordInfo);
+                syncIfDue();
+                fireRecordWritten(recordInfo, contentBytes, raw.size(),
+                        getPosition() - startPosition);
+                if (indexSink != null && indexSink.accepts(recordInfo.getType())) {
+                    indexSink.submit(recordInfo, recordInfo.getWARCFilename(),
+                            startPosition, getPosition() - startPosition,
+                            raw.getBuffer(), contentStart, 
+                            (int) Math.min(contentBytes, CDXIndexSink.HEAD_SIZE));
+                }
+            }
+        } catch (ExecutionException e) {
+            fail(e.getCause());
+        } catch (InterruptedException e) {
+            fail(e);
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            fail(e);
+        } finally {
+            if (bytes != null && bytes != raw) {
+                recordBuffers.release(bytes);
+            }
+            recordBuffers.release(raw);
+            pending.release(acquired);
+        }
+    }
+
+    protected void fail(Throwable t) {
+        logger.log(Level.SEVERE, "pipelined write failed for " + getFile(), t);
+        if (failure == null) {
+            failure = (t instanceof IOException) ? (IOException) t
+                    : new IOException(t);
+        }
+    }
+
+    protected void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("earlier pipelined record write failed",
+                    failure);
+        }
+    }
+
+    protected synchronized ExecutorService getAppender() {
+        if (appender == null) {
+            appender = Executors.newSingleThreadExecutor(
+                    daemonThreadFactory("WARCWriter-appender"));
+        }
+        return appender;
+    }
+
+    /**
+     * Wait until every record submitted so far has been written to the
+     * file (and its offset set).
+     * 
+     * @throws IOException if writing any record failed
+     */
+    public void awaitWritten() throws IOException {
+        Future<?> last = lastAppend;
+        if (last != null) {
+            try {
+                last.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted awaiting pipelined writes");
+            } catch (ExecutionException e) {
+                // append() handles its own failures
+            }
+        }
+        checkFailure();
+    }
+
+    protected void awaitWrittenQuietly() {
+        try {
+            awaitWritten();
+        } catch (IOException e) {
+            // rethrown by next write or close
+        }
+    }
+
+    @Override
+    protected String createFile(File file) throws IOException {
+        awaitWritten();
+        direct = true;
+        try {
+            return super.createFile(file);
+        } finally {
+            direct = false;
+        }
+    }
+
+    @Override
+    public void checkSize() throws IOException {
+        if (this.out == null || isOversize()) {
+            awaitWritten();
+        }
+        super.checkSize();
+    }
+
+    @Override
+    protected void flush() throws IOException {
+        awaitWritten();
+        super.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException pendingFailure = null;
+        try {
+            awaitWritten();
+        } catch (IOException e) {
+            pendingFailure = e;
+        }
+        synchronized (this) {
+            if (appender != null) {
+                appender.shutdown();
+                appender = null;
+            }
+        }
+        super.close();
+        if (pendingFailure != null) {
+            failure = null;
+            throw pendingFailure;
+        }
+    }
+
+    @Override
+    public Map<String, Map<String, Long>> getTmpStats() {
+        awaitWrittenQuietly();
+        return super.getTmpStats();
+    }
+
+    @Override
+    public void resetTmpStats() {
+        awaitWrittenQuietly();
+        super.resetTmpStats();
+    }
+
+    @Override
+    public Iterable<WARCRecordInfo> getTmpRecordLog() {
+        awaitWrittenQuietly();
+        return super.getTmpRecordLog();
+    }
+
+    @Override
+    public void resetTmpRecordLog() {
+        awaitWrittenQuietly();
+        super.resetTmpRecordLog();
+    }
+
+    /**
+     * Growable byte buffer for one serialized or compressed record.
+     */
+    protected static class RecordBuffer extends ByteArrayOutputStream {
+        protected static final int INITIAL_SIZE = 16 * 1024;
+
+        protected RecordBuffer() {
+            super(INITIAL_SIZE);
+        }
+
+        public byte[] getBuffer() {
+            return buf;
+        }
+
+        protected int capacity() {
+            return buf.length;
+        }
+    }
+
+    /**
+     * Bounds the bytes held by records in the pipeline, raw and compressed.
+     * A record bigger than the whole budget waits for the pipeline to
+     * empty, then takes all of it.
+     */
+    public static class PendingBytes {
+        protected final int maxBytes;
+        protected final Semaphore permits;
+
+        /**
+         * @param maxBytes most bytes of pending records
+         */
+        public PendingBytes(int maxBytes) {
+            if (maxBytes <= 0) {
+                throw new IllegalArgumentException("maxBytes " + maxBytes);
+            }
+            this.maxBytes = maxBytes;
+            this.permits = new Semaphore(maxBytes, true);
+        }
+
+        /**
+         * Wait until <code>bytes</code> fit in the budget, and take them.
+         * 
+         * @return bytes taken, to pass to {@link #release(int)}
+         */
+        protected int acquire(int bytes) {
+            int n = Math.max(1, Math.min(bytes, maxBytes));
+            permits.acquireUninterruptibly(n);
+            return n;
+        }
+
+        protected void release(int acquired) {
+            permits.release(acquired);
+        }
+
+        public int getMaxBytes() {
+            return maxBytes;
+        }
+
+        /** @return bytes of records currently in the pipeline */
+        public int getPendingBytes() {
+            return maxBytes - permits.availablePermits();
+        }
+    }
+
+    /**
+     * Recycles record buffers, keeping idle ones up to a total number of
+     * bytes. Each writer has its own unless given one to share, as
+     * {@link WARCWriterPool} does for the writers it makes.
+     */
+    public static class RecordBufferPool {
+        public static final long DEFAULT_MAX_IDLE_BYTES = 16 * 1024 * 1024;
+        /** buffers grown beyond this are not kept */
+        public static final int MAX_POOLED_SIZE = 1024 * 1024;
+
+        protected final long maxIdleBytes;
+        protected final AtomicLong idleBytes = new AtomicLong();
+        protected final Queue<RecordBuffer> idle =
+            new ConcurrentLinkedQueue<RecordBuffer>();
+
+        public RecordBufferPool() {
+            this(DEFAULT_MAX_IDLE_BYTES);
+        }
+
+        /**
+         * @param maxIdleBytes most bytes of idle buffers to keep
+         */
+        public RecordBufferPool(long maxIdleBytes) {
+            this.maxIdleBytes = maxIdleBytes;
+        }
+
+        protected RecordBuffer borrow() {
+            RecordBuffer b = idle.poll();
+            if (b == null) {
+                return new RecordBuffer();
+            }
+            idleBytes.addAndGet(-b.capacity());
+            return b;
+        }
+
+        protected void release(RecordBuffer b) {
+            int capacity = b.capacity();
+            if (capacity > MAX_POOLED_SIZE) {
+                return;
+            }
+            if (idleBytes.addAndGet(capacity) > maxIdleBytes) {
+                idleBytes.addAndGet(-capacity);
+                return;
+            }
+            b.reset();
+            idle.offer(b);
+        }
+
+        /**
+         * Drop all idle buffers.
+         */
+        public void clear() {
+            RecordBuffer b;
+            while ((b = idle.poll()) != null) {
+                idleBytes.addAndGet(-b.capacity());
+            }
+        }
+
+        public long getMaxIdleBytes() {
+            return maxIdleBytes;
+        }
+
+        public long getIdleBytes() {
+            return idleBytes.get();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io.warc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.archive.io.FileChannelInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.archive.format.warc.WARCConstants.*;
+
+/**
+ * Sequential reader of uncompressed WARC files that works directly on a
+ * {@link FileChannelInputStream}'s large direct buffer: headers are parsed
+ * from the buffer in one pass, and payloads are handed to a
+ * {@link PayloadConsumer} as {@link ByteBuffer} slices of that buffer
+ * (with any digest updated a slice at a time), so plain iteration costs
+ * little more than the disk reads. Payloads not consumed are skipped
+ * without being read.
+ * 
+ * For compressed WARCs, or when an {@link org.archive.io.ArchiveRecord}
+ * stream is wanted, use {@link WARCReaderFactory}.
+ */
+public class WARCChannelReader implements Closeable {
+    /**
+     * Receives successive slices of a record payload. A slice (and the
+     * buffer behind it) is only valid for the duration of the call.
+     */
+    public interface PayloadConsumer {
+        public void accept(ByteBuffer slice) throws IOException;
+    }
+
+    protected FileChannelInputStream in;
+    protected Record current;
+
+    public WARCChannelReader(final File f) throws IOException {
+        this(FileChannel.open(f.toPath(), StandardOpenOption.READ), 0,
+                FileChannelInputStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param channel channel to read; closed when this reader is
+     * @param offset offset of first record to read
+     * @param bufferSize size of direct read buffer; must hold the largest
+     * record header
+     * @throws IOException
+     */
+    public WARCChannelReader(final FileChannel channel, final long offset,
+            final int bufferSize) throws IOException {
+        this.in = new FileChannelInputStream(channel, true, bufferSize);
+        this.in.position(offset);
+    }
+
+    /**
+     * Advance to the next record, skipping whatever remains of the current
+     * one's payload.
+     * 
+     * @return next record, or null at end of file
+     * @throws IOException
+     */
+    public Record next() throws IOException {
+        if (current != null) {
+            in.position(current.getPayloadStart() + current.getContentLength());
+            current = null;
+        }
+        // step over the record-ending CRLFCRLF (and any stray blank lines)
+        ByteBuffer buf = in.getBuffer();
+        while (true) {
+            if (!in.ensure(1)) {
+                return null;
+            }
+            byte b = buf.get(buf.position());
+            if (b != '\r' && b != '\n') {
+                break;
+            }
+            buf.position(buf.position() + 1);
+        }
+        long offset = in.position();
+        int headerLength = findHeaderEnd(buf);
+        byte[] header = new byte[headerLength];
+        buf.get(header);
+        current = new Record(offset, header, in.position());
+        return current;
+    }
+
+    /**
+     * @return length of the header block (through CRLFCRLF) at the buffer
+     * position, refilling as needed
+     */
+    protected int findHeaderEnd(ByteBuffer buf) throws IOException {
+        int scanned = 0;
+        while (true) {
+            int start = buf.position();
+            int limit = buf.limit();
+            for (int i = start + Math.max(scanned, 3); i < limit; i++) {
+                if (buf.get(i) == '\n' && buf.get(i - 1) == '\r'
+                        && buf.get(i - 2) == '\n' && buf.get(i - 3) == '\r') {
+                    return i + 1 - start;
+                }
+            }
+            scanned = limit - start;
+            if (scanned >= buf.capacity()) {
+                throw new IOException("WARC header at " + in.position()
+                        + " larger than buffer " + buf.capacity());
+            }
+            if (!in.ensure(scanned + 1)) {
+                throw new IOException("truncated WARC header at " + in.position());
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * One WARC record; valid until the next call to {@link #next()}.
+     */
+    public class Record {
+        protected long offset;
+        protected String version;
+        protected Map<String, String> headers =
+            new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        protected long payloadStart;
+        protected long contentLength;
+        protected long consumed = 0;
+
+        protected Record(long offset, byte[] header, long payloadStart)
+        throws IOException {
+            this.offset = offset;
+            this.payloadStart = payloadStart;
+            parse(header);
+            String cl = headers.get(CONTENT_LENGTH);
+            if (cl == null) {
+                throw new IOException("no " + CONTENT_LENGTH
+                        + " in WARC record at " + offset);
+            }
+            try {
+                contentLength = Long.parseLong(cl.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("bad " + CONTENT_LENGTH + " '" + cl
+                        + "' in WARC record at " + offset);
+            }
+        }
+
+        protected void parse(byte[] header) throws IOException {
+            int lineStart = 0;
+            String name = null;
+            StringBuilder value = null;
+            for (int i = 1; i < header.length; i++) {
+                if (header[i] != '\n' || header[i - 1] != '\r') {
+                    continue;
+                }
+                int lineEnd = i - 1;
+                if (version == null) {
+                    version = new String(header, lineStart, lineEnd - lineStart, UTF_8);
+                    if (!version.startsWith(WARC_MAGIC)) {
+                        throw new IOException("not a WARC record at " + offset
+                                + ": " + version);
+                    }
+                } else if (lineEnd > lineStart
+                        && (header[lineStart] == ' ' || header[lineStart] == '\t')) {
+                    if (value != null) {
+                        value.append(' ').append(new String(header, lineStart,
+                                lineEnd - lineStart, UTF_8).trim());
+                    }
+                } else {
+                    if (name != null) {
+                        headers.put(name, value.toString());
+                        name = null;
+                    }
+                    int colon = -1;
+                    for (int j = lineStart; j < lineEnd; j++) {
+                        if (header[j] == ':') {
+                            colon = j;
+                            break;
+                        }
+                    }
+                    if (colon > lineStart) {
+                        name = new String(header, lineStart, colon - lineStart, UTF_8).trim();
+                        value = new StringBuilder(new String(header, colon + 1,
+                                lineEnd - colon - 1, UTF_8).trim());
+                    }
+                }
+                lineStart = i + 1;
+            }
+            if (name != null) {
+                headers.put(name, value.toString());
+            }
+        }
+
+        /**
+         * @return offset of the record in the file
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return the version line, e.g. "WARC/1.0"
+         */
+        public String getVersion() {
+            return version;
+        }
+
+        /**
+         * @return all named header fields, looked up case-insensitively
+         */
+        public Map<String, String> getHeaders() {
+            return Collections.unmodifiableMap(headers);
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        public String getType() {
+            return headers.get(HEADER_KEY_TYPE);
+        }
+
+        public String getTargetURI() {
+            return headers.get(HEADER_KEY_URI);
+        }
+
+        public String getRecordID() {
+            return headers.get(HEADER_KEY_ID);
+        }
+
+        public long getContentLength() {
+            return contentLength;
+        }
+
+        /**
+         * @return file offset of the first payload (record block) byte
+         */
+        public long getPayloadStart() {
+            return payloadStart;
+        }
+
+        /**
+         * Hand the (rest of the) payload to <code>consumer</code>, a 
+         * buffer-sized slice at a time.
+         * 
+         * @param consumer receives payload slices; may be null
+         * @param digest updated with every slice; may be null
+         * @return number of payload bytes handed over
+         * @throws IOException
+         */
+        public long readPayload(PayloadConsumer consumer, MessageDigest digest)
+        throws IOException {
+            if (current != this) {
+                throw new IllegalStateException("record no longer current");
+            }
+            in.position(payloadStart + consumed);
+            ByteBuffer buf = in.getBuffer();
+            long start = consumed;
+            while (consumed < contentLength) {
+                if (!in.ensure(1)) {
+                    throw new IOException("truncated WARC record at " + offset
+                            + ": payload ends after " + consumed + " of "
+                            + contentLength + " bytes");
+                }
+                int n = (int) Math.min(buf.remaining(), contentLength - consumed);
+                ByteBuffer slice = buf.duplicate();
+                slice.limit(slice.position() + n);
+                if (digest != null) {
+                    digest.update(slice.duplicate());
+                }
+                if (consumer != null) {
+                    consumer.accept(slice.asReadOnlyBuffer());
+                }
+                buf.position(buf.position() + n);
+                consumed += n;
+            }
+            return consumed - start;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io.warc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.archive.format.warc.WARCConstants.WARCRecordType;
+import org.archive.util.ArchiveUtils;
+import org.archive.util.anvl.Element;
+
+import static org.archive.format.warc.WARCConstants.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Encodes WARC record headers straight into a reusable byte buffer. 
+ * Produces the same bytes as {@link WARCWriter#createRecordHeader(WARCRecordInfo)}
+ * followed by getBytes(UTF-8), but without building intermediate Strings:
+ * field names are pre-encoded, ASCII values are validated and copied a
+ * char at a time (falling back to the writer's String checks on the first
+ * non-ASCII char), and the content length and (when given as
+ * {@link WARCRecordInfo#getCreateTimeMillis()}) the date are formatted as
+ * digits in place.
+ * 
+ * <p>Not thread-safe; each writer keeps its own.
+ */
+public class WARCHeaderEncoder {
+    protected static final byte[] WARC_ID_LINE = ascii(WARC_ID + CRLF);
+    protected static final byte[] TYPE_PREFIX = ascii(HEADER_KEY_TYPE + COLON_SPACE);
+    protected static final byte[] URI_PREFIX = ascii(HEADER_KEY_URI + COLON_SPACE);
+    protected static final byte[] DATE_PREFIX = ascii(HEADER_KEY_DATE + COLON_SPACE);
+    protected static final byte[] ID_PREFIX = ascii(HEADER_KEY_ID + COLON_SPACE + '<');
+    protected static final byte[] ID_SUFFIX = ascii(">" + CRLF);
+    protected static final byte[] CONTENT_TYPE_PREFIX = ascii(CONTENT_TYPE + COLON_SPACE);
+    protected static final byte[] CONTENT_LENGTH_PREFIX = ascii(CONTENT_LENGTH + COLON_SPACE);
+    protected static final byte[][] TYPE_NAMES;
+    static {
+        WARCRecordType[] types = WARCRecordType.values();
+        TYPE_NAMES = new byte[types.length][];
+        for (WARCRecordType t : types) {
+            TYPE_NAMES[t.ordinal()] = ascii(t.toString());
+        }
+    }
+
+    protected static final int MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+
+    /** supplies the (overridable) checks used for non-ASCII values */
+    protected final WARCWriter writer;
+    protected byte[] buf = new byte[2048];
+    protected int count = 0;
+    /** record whose header is in the buffer */
+    protected WARCRecordInfo encoded = null;
+
+    public WARCHeaderEncoder(WARCWriter writer) {
+        this.writer = writer;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(UTF_8);
+    }
+
+    /**
+     * Encode the header of the given record, replacing any previous
+     * contents of the buffer. Does not include the blank line separating
+     * header from content.
+     * 
+     * @param metaRecord record to describe
+     * @return this encoder
+     * @throws IllegalArgumentException if a value is not a legal header value
+     */
+    public WARCHeaderEncoder encode(WARCRecordInfo metaRecord)
+    throws IllegalArgumentException {
+        count = 0;
+        encoded = null;
+        append(WARC_ID_LINE);
+        append(TYPE_PREFIX);
+        if (metaRecord.getType() != null) {
+            append(TYPE_NAMES[metaRecord.getType().ordinal()]);
+        } else {
+            appendUnchecked("null");
+        }
+        appendCRLF();
+        // Do not write a subject-uri if not one present.
+        String url = metaRecord.getUrl();
+        if (url != null && url.length() > 0) {
+            append(URI_PREFIX);
+            appendHeaderValue(url);
+            appendCRLF();
+        }
+        append(DATE_PREFIX);
+        if (metaRecord.create14DigitDate == null
+                && metaRecord.getCreateTimeMillis() >= 0) {
+            appendW3CDate(metaRecord.getCreateTimeMillis());
+        } else {
+            appendUnchecked(metaRecord.getCreate14DigitDate());
+        }
+        appendCRLF();
+        if (metaRecord.getExtraHeaders() != null) {
+            for (final Iterator<Element> i = metaRecord.getExtraHeaders().iterator(); i.hasNext();) {
+                Element e = i.next();
+                // already validated when the ANVLRecord was built
+                appendUnchecked(String.valueOf((Object) e.getLabel()));
+                ensure(2);
+                buf[count++] = ':';
+                if (e.isValue()) {
+                    buf[count++] = ' ';
+                    appendUnchecked(String.valueOf((Object) e.getValue()));
+                }
+                appendCRLF();
+            }
+        }
+        append(ID_PREFIX);
+        appendUnchecked(metaRecord.getRecordId().toString());
+        append(ID_SUFFIX);
+        if (metaRecord.getContentLength() > 0) {
+            append(CONTENT_TYPE_PREFIX);
+            appendMimetype(metaRecord.getMimetype());
+            appendCRLF();
+        }
+        append(CONTENT_LENGTH_PREFIX);
+        appendDecimal(metaRecord.getContentLength());
+        appendCRLF();
+        encoded = metaRecord;
+        return this;
+    }
+
+    /**
+     * @return true if the buffer holds the header of the given record (and
+     * not, say, that of a warcinfo record written in between)
+     */
+    public boolean holds(WARCRecordInfo metaRecord) {
+        return encoded == metaRecord;
+    }
+
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, count, UTF_8);
+    }
+
+    protected void ensure(int n) {
+        if (count + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+        }
+    }
+
+    protected void append(byte[] b) {
+        ensure(b.length);
+        System.arraycopy(b, 0, buf, count, b.length);
+        count += b.length;
+    }
+
+    protected void appendCRLF() {
+        ensure(2);
+        buf[count++] = '\r';
+        buf[count++] = '\n';
+    }
+
+    /**
+     * Append a value needing no checks.
+     */
+    protected void appendUnchecked(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                append(s.substring(i).getBytes(UTF_8));
+                return;
+            }
+            buf[count++] = (byte) c;
+        }
+    }
+
+    /**
+     * Append a value with the checks of
+     * {@link WARCWriter#checkHeaderValue(String)}: no control characters or
+     * white space.
+     */
+    protected void appendHeaderValue(String s) {
+        int start = count;
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c <= ' ' || c >= 0x7f) {
+                // non-ASCII, or about to fail: the writer's check decides
+                count = start;
+                append(writer.checkHeaderValue(s).getBytes(UTF_8));
+                return;
+            }
+            buf[count++] = (byte) c;
+        }
+    }
+
+    /**
+     * Append a mimetype with the normalization of
+     * {@link WARCWriter#checkHeaderLineMimetypeParameter(String)}: runs of
+     * white space become one space.
+     */
+    protected void appendMimetype(String s) {
+        int start = count;
+        int n = s.length();
+        ensure(n);
+        boolean wasWhitespace = false;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                if (!wasWhitespace) {
+                    buf[count++] = ' ';
+                    wasWhitespace = true;
+                }
+                continue;
+            }
+            if (c < ' ' || c >= 0x7f) {
+                // non-ASCII, or about to fail: the writer's check decides
+                count = start;
+                append(writer.checkHeaderLineMimetypeParameter(s).getBytes(UTF_8));
+                return;
+            }
+            wasWhitespace = false;
+            buf[count++] = (byte) c;
+        }
+    }
+
+    protected void appendDecimal(long value) {
+        if (value < 0) {
+            appendUnchecked(Long.toString(value));
+            return;
+        }
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        ensure(digits);
+        for (int i = count + digits - 1; i >= count; i--) {
+            buf[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        count += digits;
+    }
+
+    protected void appendPadded(long value, int width) {
+        ensure(width);
+        for (int i = count + width - 1; i >= count; i--) {
+            buf[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        count += width;
+    }
+
+    /**
+     * Append a UTC timestamp as yyyy-MM-dd'T'HH:mm:ss'Z', as
+     * {@link ArchiveUtils#getLog14Date(long)} would.
+     */
+    protected void appendW3CDate(long millis) {
+        long days = Math.floorDiv(millis, (long) MILLIS_PER_DAY);
+        long secondOfDay = Math.floorMod(millis, (long) MILLIS_PER_DAY) / 1000;
+        // civil-from-days, for the proleptic Gregorian calendar
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long day = doy - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 1583 || year > 9999) {
+            // Julian dates and wider years: leave it to SimpleDateFormat
+            appendUnchecked(ArchiveUtils.getLog14Date(millis));
+            return;
+        }
+        ensure(20);
+        appendPadded(year, 4);
+        buf[count++] = '-';
+        appendPadded(month, 2);
+        buf[count++] = '-';
+        appendPadded(day, 2);
+        buf[count++] = 'T';
+        appendPadded(secondOfDay / 3600, 2);
+        buf[count++] = ':';
+        appendPadded((secondOfDay / 60) % 60, 2);
+        buf[count++] = ':';
+        appendPadded(secondOfDay % 60, 2);
+        buf[count++] = 'Z';
+    }
+}
@@ -19,6 +19,7 @@
 
 package org.archive.io.warc;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -27,6 +28,8 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Iterator;
 import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
 
 import org.archive.io.ArchiveReader;
 import org.archive.io.ArchiveReaderFactory;
@@ -34,7 +37,9 @@ import org.archive.io.ArchiveRecord;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.FileUtils;
 import org.archive.util.zip.GZIPMembersInputStream;
+import org.archive.util.zip.ZstdMembersInputStream;
 
+import com.google.common.io.ByteStreams;
 import com.google.common.io.CountingInputStream;
 
 import static org.archive.format.warc.WARCConstants.*;
@@ -81,6 +86,9 @@ public class WARCReaderFactory extends ArchiveReaderFactory {
     
     protected ArchiveReader getArchiveReader(final File f, final long offset)
     throws IOException {
+		if (testZstdWARCFile(f)) {
+			return WARCReaderFactory.factory.new ZstdWARCReader(f, offset);
+		}
 		boolean compressed = testCompressedWARCFile(f);
 		if (!compressed) {
 			if (!FileUtils.isReadableWithExtensionAndMagic(f,
@@ -112,6 +120,8 @@ public class WARCReaderFactory extends ArchiveReaderFactory {
     	// Check if it's compressed, based on file extension.
     	if( f.endsWith(".gz") ) {
     		return new CompressedWARCReader(f, is, atFirstRecord);
+    	} else if (f.endsWith(DOT_ZSTD_COMPRESSED_FILE_EXTENSION)) {
+    		return new ZstdWARCReader(f, is);
     	} else {
     		return new UncompressedWARCReader(f, is);
     	}
@@ -161,6 +171,26 @@ public class WARCReaderFactory extends ArchiveReaderFactory {
         return compressed;
     }
 
+    /**
+     * Check file is Zstandard-compressed WARC.
+     *
+     * @param f File to test.
+     *
+     * @return True if the file begins with a zstd data or skippable frame.
+     *
+     * @exception IOException If file does not exist or is not unreadable.
+     */
+    public static boolean testZstdWARCFile(final File f)
+    throws IOException {
+        FileUtils.assertReadable(f);
+        final InputStream is = new FileInputStream(f);
+        try {
+            return ZstdMembersInputStream.isZstd(is);
+        } finally {
+            is.close();
+        }
+    }
+
     /**
      * Uncompressed WARC file reader.
      * @author stack
@@ -186,7 +216,7 @@ public class WARCReaderFactory extends ArchiveReaderFactory {
         public UncompressedWARCReader(final File f, final long offset)
         throws IOException {
             // File has been tested for existence by time it has come to here.
-            setIn(new CountingInputStream(getInputStream(f, offset)));
+            setIn(countingStream(getInputStream(f, offset)));
             getIn().skip(offset);
             initialize(f.getAbsolutePath());
         }
@@ -294,10 +324,7 @@ public class WARCReaderFactory extends ArchiveReaderFactory {
         }
         
         protected void gotoEOR(ArchiveRecord rec) throws IOException {
-            long skipped = 0; 
-            while (getIn().read()>-1) {
-                skipped++;
-            }
+            long skipped = ByteStreams.exhaust(getIn());
             if(skipped>4) {
                 System.err.println("unexpected extra data after record "+rec);
             }
@@ -305,10 +332,117 @@ public class WARCReaderFactory extends ArchiveReaderFactory {
         }
     }
     
+    /**
+     * Zstandard-compressed WARC file reader, reading one record per frame.
+     * Requires the optional <code>com.github.luben:zstd-jni</code>
+     * dependency.
+     */
+    public class ZstdWARCReader extends WARCReader {
+        /**
+         * Constructor.
+         * 
+         * @param f Zstd-compressed warc to read.
+         * @param offset Position at where to start reading file.
+         * @throws IOException
+         */
+        public ZstdWARCReader(final File f, final long offset)
+                throws IOException {
+            ZstdMembersInputStream zis =
+                new ZstdMembersInputStream(getInputStream(f, offset));
+            zis.setEofEachMember(true);
+            setIn(zis);
+            if (offset > 0) {
+                zis.compressedSeek(offset);
+            }
+            setCompressed(true);
+            initialize(f.getAbsolutePath());
+        }
+
+        /**
+         * Constructor.
+         * 
+         * @param f Zstd-compressed warc name.
+         * @param is InputStream to use, positioned at start of file.
+         * @throws IOException
+         */
+        public ZstdWARCReader(final String f, final InputStream is)
+                throws IOException {
+            ZstdMembersInputStream zis = new ZstdMembersInputStream(is);
+            zis.setEofEachMember(true);
+            setIn(zis);
+            setCompressed(true);
+            initialize(f);
+        }
+
+        protected ZstdMembersInputStream getZstdIn() {
+            return (ZstdMembersInputStream)getIn();
+        }
+
+        /**
+         * Get record at passed <code>offset</code>.
+         * 
+         * @param offset Byte index into file at which a record's frame starts.
+         * @return A WARCRecord reference.
+         * @throws IOException
+         */
+        public WARCRecord get(long offset) throws IOException {
+            cleanupCurrentRecord();
+            getZstdIn().compressedSeek(offset);
+            return createArchiveRecord(getIn(), offset);
+        }
+
+        /**
+         * @return Record in the frame at (or, if between frames, following)
+         * the current position.
+         * @throws IOException
+         */
+        public ArchiveRecord get() throws IOException {
+            cleanupCurrentRecord();
+            if (!getZstdIn().nextMember()) {
+                throw new EOFException("no further zstd frames");
+            }
+            return super.get();
+        }
+
+        public Iterator<ArchiveRecord> iterator() {
+            return new ArchiveRecordIterator() {
+                private ZstdMembersInputStream zis = getZstdIn();
+
+                protected boolean innerHasNext() {
+                    // opens the next frame; repeated calls stay on it
+                    try {
+                        return zis.nextMember();
+                    } catch (IOException e) {
+                        getLogger().log(Level.WARNING,
+                                "problem probing for more content", e);
+                        return false;
+                    }
+                }
+
+                protected ArchiveRecord innerNext() throws IOException {
+                    if (!zis.nextMember()) {
+                        throw new NoSuchElementException();
+                    }
+                    return createArchiveRecord(zis, zis.getCurrentMemberStart());
+                }
+            };
+        }
+
+        protected void gotoEOR(ArchiveRecord rec) throws IOException {
+            long skipped = ByteStreams.exhaust(getIn());
+            if(skipped>4) {
+                getLogger().log(Level.WARNING,
+                    "unexpected extra data after record " + rec);
+            }
+        }
+    }
+    
     public static boolean isWARCSuffix(final String f) {
     	return (f == null)?
     		false:
     		(f.toLowerCase(Locale.ROOT).endsWith(DOT_COMPRESSED_WARC_FILE_EXTENSION))?
+    		    true:
+    		(f.toLowerCase(Locale.ROOT).endsWith(DOT_ZSTD_COMPRESSED_WARC_FILE_EXTENSION))?
     		    true:
     			(f.toLowerCase(Locale.ROOT).endsWith(DOT_WARC_FILE_EXTENSION))?
     			true: false;
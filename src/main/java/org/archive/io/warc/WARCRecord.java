@@ -23,9 +23,6 @@ import it.unimi.dsi.fastutil.io.RepositionableStream;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,8 +31,6 @@ import org.archive.io.ArchiveRecord;
 import org.archive.io.ArchiveRecordHeader;
 import org.archive.util.LaxHttpParser;
 
-import static org.archive.format.ArchiveFileConstants.ABSOLUTE_OFFSET_KEY;
-import static org.archive.format.ArchiveFileConstants.READER_IDENTIFIER_FIELD_KEY;
 import static org.archive.format.warc.WARCConstants.*;
 
 
@@ -105,9 +100,7 @@ public class WARCRecord extends ArchiveRecord {
     protected ArchiveRecordHeader parseHeaders(final InputStream in,
         final String identifier, final long offset, final boolean strict)
     throws IOException {
-    	final Map<String, Object> m = new HashMap<String, Object>();
-    	m.put(ABSOLUTE_OFFSET_KEY, new Long(offset));
-    	m.put(READER_IDENTIFIER_FIELD_KEY, identifier);
+        final WARCRecordHeader header = new WARCRecordHeader(identifier, offset);
         
         long startPosition = -1;
         if (in instanceof RepositionableStream) {
@@ -128,100 +121,16 @@ public class WARCRecord extends ArchiveRecord {
         // 
         HttpHeader[] h = LaxHttpParser.parseHeaders(in, WARC_HEADER_ENCODING);
         for (int i = 0; i < h.length; i++) {
-            m.put(h[i].getName(), h[i].getValue());
+            header.setField(h[i].getName(), h[i].getValue());
         }
         int headerLength = -1;
         if (in instanceof RepositionableStream) {
             headerLength =
                 (int)(((RepositionableStream)in).position() - startPosition);
         }
-        final int contentOffset = headerLength;
-        incrementPosition(contentOffset);
-   
-    	return new ArchiveRecordHeader() {
-    		private Map<String, Object> headers = m;
-            private int contentBegin = contentOffset;
-
-			public String getDate() {
-				return (String)this.headers.get(HEADER_KEY_DATE);
-			}
-
-			public String getDigest() {
-                return null;
-                // TODO: perhaps return block-digest? 
-                // superclass def implies this is calculated ("only after
-                // read in totality"), not pulled from header, so
-                // below prior implementation was misleading
-//              return (String)this.headers.get(HEADER_KEY_CHECKSUM);
-			}
-
-			public String getReaderIdentifier() {
-				return (String)this.headers.get(READER_IDENTIFIER_FIELD_KEY);
-			}
-
-			public Set<String> getHeaderFieldKeys() {
-				return this.headers.keySet();
-			}
-
-			public Map<String,Object> getHeaderFields() {
-				return this.headers;
-			}
-
-			public Object getHeaderValue(String key) {
-				return this.headers.get(key);
-			}
-
-			// Returns just the Content-Length of the warc record
-			public long getContentLength() {
-				Object o = this.headers.get(CONTENT_LENGTH);
-				if (o == null) {
-					return -1;
-				}
-				long contentLength = (o instanceof Long)?
-                    ((Long)o).longValue(): Long.parseLong((String)o);
-                return contentLength;
-			}
-			
-			// Returns the full record length
-			public long getLength()
-			{
-				return getContentLength() + contentOffset;
-			}
-
-			public String getMimetype() {
-				return (String)this.headers.get(CONTENT_TYPE);
-			}
-
-			public long getOffset() {
-				Object o = this.headers.get(ABSOLUTE_OFFSET_KEY);
-				if (o == null) {
-					return -1;
-				}
-				return (o instanceof Long)?
-                    ((Long)o).longValue(): Long.parseLong((String)o);
-			}
-
-			public String getRecordIdentifier() {
-				return (String)this.headers.get(RECORD_IDENTIFIER_FIELD_KEY);
-			}
-
-			public String getUrl() {
-				return (String)this.headers.get(HEADER_KEY_URI);
-			}
-
-			public String getVersion() {
-				return (String)this.headers.get(VERSION_FIELD_KEY);
-			}
-            
-            public int getContentBegin() {
-                return this.contentBegin;
-            }
-            
-            @Override
-            public String toString() {
-                return this.headers.toString();
-            }
-    	};
+        header.setContentBegin(headerLength);
+        incrementPosition(headerLength);
+        return header;
     }
     
     @Override
@@ -0,0 +1,266 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io.warc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.archive.io.ArchiveRecordHeader;
+
+import static org.archive.format.ArchiveFileConstants.ABSOLUTE_OFFSET_KEY;
+import static org.archive.format.ArchiveFileConstants.READER_IDENTIFIER_FIELD_KEY;
+import static org.archive.format.ArchiveFileConstants.RECORD_IDENTIFIER_FIELD_KEY;
+import static org.archive.format.ArchiveFileConstants.VERSION_FIELD_KEY;
+import static org.archive.format.warc.WARCConstants.*;
+
+/**
+ * Named fields of a WARC record, as parsed by {@link WARCRecord}.
+ * 
+ * The standard fields are held in typed fields, the offset as a long and
+ * the content length parsed once, on first use; any others go in a short
+ * list of names and values. A later field of the same name replaces an
+ * earlier one. {@link #getHeaderFields()} builds a map of them all when
+ * first asked for; changes to that map are not seen by the getters.
+ */
+public class WARCRecordHeader implements ArchiveRecordHeader {
+    private static final long UNPARSED = Long.MIN_VALUE;
+
+    private final String readerIdentifier;
+    private final long offset;
+    private int contentBegin = -1;
+
+    private String type = null;
+    private String targetUri = null;
+    private String date = null;
+    private String recordId = null;
+    private String blockDigest = null;
+    private String payloadDigest = null;
+    private String contentType = null;
+    private String contentLengthValue = null;
+    private long contentLength = UNPARSED;
+
+    private List<String> otherNames = null;
+    private List<String> otherValues = null;
+
+    private Map<String,Object> fields = null;
+
+    /**
+     * @param readerIdentifier identifier of the reader, usually the file
+     * @param offset offset of the record in the file
+     */
+    public WARCRecordHeader(String readerIdentifier, long offset) {
+        this.readerIdentifier = readerIdentifier;
+        this.offset = offset;
+    }
+
+    /**
+     * Set a named field.
+     * @param name field name, as in the record
+     * @param value field value
+     */
+    public void setField(String name, String value) {
+        this.fields = null;
+        switch (name) {
+        case HEADER_KEY_TYPE:
+            this.type = value;
+            break;
+        case HEADER_KEY_URI:
+            this.targetUri = value;
+            break;
+        case HEADER_KEY_DATE:
+            this.date = value;
+            break;
+        case HEADER_KEY_ID:
+            this.recordId = value;
+            break;
+        case HEADER_KEY_BLOCK_DIGEST:
+            this.blockDigest = value;
+            break;
+        case HEADER_KEY_PAYLOAD_DIGEST:
+            this.payloadDigest = value;
+            break;
+        case CONTENT_TYPE:
+            this.contentType = value;
+            break;
+        case CONTENT_LENGTH:
+            this.contentLengthValue = value;
+            this.contentLength = UNPARSED;
+            break;
+        default:
+            if (this.otherNames == null) {
+                this.otherNames = new ArrayList<String>(8);
+                this.otherValues = new ArrayList<String>(8);
+            }
+            int i = this.otherNames.indexOf(name);
+            if (i >= 0) {
+                this.otherValues.set(i, value);
+            } else {
+                this.otherNames.add(name);
+                this.otherValues.add(value);
+            }
+        }
+    }
+
+    protected void setContentBegin(int contentBegin) {
+        this.contentBegin = contentBegin;
+    }
+
+    public String getType() {
+        return this.type;
+    }
+
+    public String getRecordId() {
+        return this.recordId;
+    }
+
+    public String getBlockDigest() {
+        return this.blockDigest;
+    }
+
+    public String getPayloadDigest() {
+        return this.payloadDigest;
+    }
+
+    public String getDate() {
+        return this.date;
+    }
+
+    public String getDigest() {
+        // superclass def implies this is calculated ("only after read in
+        // totality"), not pulled from header; see getBlockDigest()
+        return null;
+    }
+
+    public String getReaderIdentifier() {
+        return this.readerIdentifier;
+    }
+
+    // Returns just the Content-Length of the warc record
+    public long getContentLength() {
+        if (this.contentLength == UNPARSED) {
+            this.contentLength = (this.contentLengthValue == null) ? -1
+                    : Long.parseLong(this.contentLengthValue);
+        }
+        return this.contentLength;
+    }
+
+    // Returns the full record length
+    public long getLength() {
+        return getContentLength() + this.contentBegin;
+    }
+
+    public String getMimetype() {
+        return this.contentType;
+    }
+
+    public long getOffset() {
+        return this.offset;
+    }
+
+    public String getRecordIdentifier() {
+        return (String) getHeaderValue(RECORD_IDENTIFIER_FIELD_KEY);
+    }
+
+    public String getUrl() {
+        return this.targetUri;
+    }
+
+    public String getVersion() {
+        return (String) getHeaderValue(VERSION_FIELD_KEY);
+    }
+
+    public int getContentBegin() {
+        return this.contentBegin;
+    }
+
+    public Object getHeaderValue(String key) {
+        if (key == null) {
+            return null;
+        }
+        switch (key) {
+        case HEADER_KEY_TYPE:
+            return this.type;
+        case HEADER_KEY_URI:
+            return this.targetUri;
+        case HEADER_KEY_DATE:
+            return this.date;
+        case HEADER_KEY_ID:
+            return this.recordId;
+        case HEADER_KEY_BLOCK_DIGEST:
+            return this.blockDigest;
+        case HEADER_KEY_PAYLOAD_DIGEST:
+            return this.payloadDigest;
+        case CONTENT_TYPE:
+            return this.contentType;
+        case CONTENT_LENGTH:
+            return this.contentLengthValue;
+        case ABSOLUTE_OFFSET_KEY:
+            return Long.valueOf(this.offset);
+        case READER_IDENTIFIER_FIELD_KEY:
+            return this.readerIdentifier;
+        default:
+            if (this.otherNames == null) {
+                return null;
+            }
+            int i = this.otherNames.indexOf(key);
+            return (i >= 0) ? this.otherValues.get(i) : null;
+        }
+    }
+
+    public Set<String> getHeaderFieldKeys() {
+        return getHeaderFields().keySet();
+    }
+
+    public Map<String,Object> getHeaderFields() {
+        if (this.fields == null) {
+            Map<String,Object> m = new HashMap<String,Object>();
+            m.put(ABSOLUTE_OFFSET_KEY, Long.valueOf(this.offset));
+            m.put(READER_IDENTIFIER_FIELD_KEY, this.readerIdentifier);
+            putIfSet(m, HEADER_KEY_TYPE, this.type);
+            putIfSet(m, HEADER_KEY_URI, this.targetUri);
+            putIfSet(m, HEADER_KEY_DATE, this.date);
+            putIfSet(m, HEADER_KEY_ID, this.recordId);
+            putIfSet(m, HEADER_KEY_BLOCK_DIGEST, this.blockDigest);
+            putIfSet(m, HEADER_KEY_PAYLOAD_DIGEST, this.payloadDigest);
+            putIfSet(m, CONTENT_TYPE, this.contentType);
+            putIfSet(m, CONTENT_LENGTH, this.contentLengthValue);
+            if (this.otherNames != null) {
+                for (int i = 0; i < this.otherNames.size(); i++) {
+                    m.put(this.otherNames.get(i), this.otherValues.get(i));
+                }
+            }
+            this.fields = m;
+        }
+        return this.fields;
+    }
+
+    private static void putIfSet(Map<String,Object> m, String key, String value) {
+        if (value != null) {
+            m.put(key, value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getHeaderFields().toString();
+    }
+}
@@ -20,15 +20,25 @@ package org.archive.io.warc;
 
 import java.io.InputStream;
 import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 
+import org.archive.format.warc.WARCConstants;
 import org.archive.format.warc.WARCConstants.WARCRecordType;
+import org.archive.io.DigestSet;
+import org.archive.util.ArchiveUtils;
+import org.archive.util.Base32;
 import org.archive.util.anvl.ANVLRecord;
+import org.archive.util.anvl.Element;
 
 public class WARCRecordInfo {
 
     protected WARCRecordType type;
     protected String url;
     protected String create14DigitDate;
+    protected long createTimeMillis = -1;
     protected String mimetype;
     protected URI recordId; 
     protected ANVLRecord extraHeaders;
@@ -37,6 +47,7 @@ public class WARCRecordInfo {
     protected boolean enforceLength;
     protected String warcFilename;
     protected Long warcFileOffset;
+    protected Map<String, byte[]> payloadDigests;
 
     public void setType(WARCRecordType type) {
         this.type = type;
@@ -47,6 +58,9 @@ public class WARCRecordInfo {
     }
 
     public String getCreate14DigitDate() {
+        if (create14DigitDate == null && createTimeMillis >= 0) {
+            return ArchiveUtils.getLog14Date(createTimeMillis);
+        }
         return create14DigitDate;
     }
 
@@ -54,6 +68,23 @@ public class WARCRecordInfo {
         this.create14DigitDate = create14DigitDate;
     }
 
+    /**
+     * @return record date as set by {@link #setCreateTimeMillis(long)}, or
+     * -1 if none
+     */
+    public long getCreateTimeMillis() {
+        return createTimeMillis;
+    }
+
+    /**
+     * Set the record date as a timestamp instead of a formatted string; 
+     * the writer then formats it directly into the header. A date set with 
+     * {@link #setCreate14DigitDate(String)} takes precedence.
+     */
+    public void setCreateTimeMillis(long createTimeMillis) {
+        this.createTimeMillis = createTimeMillis;
+    }
+
     public String getMimetype() {
         return mimetype;
     }
@@ -121,6 +152,65 @@ public class WARCRecordInfo {
         extraHeaders.addLabelValue(label, value);
     }
 
+    /**
+     * @return value of the first extra header named <code>label</code>, or
+     * null if there is none
+     */
+    public String getExtraHeader(String label) {
+        if (extraHeaders == null) {
+            return null;
+        }
+        for (Iterator<Element> i = extraHeaders.iterator(); i.hasNext();) {
+            Element e = i.next();
+            if (e.isValue() && label.equals(String.valueOf((Object) e.getLabel()))) {
+                return String.valueOf((Object) e.getValue());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Set digests of the payload already computed, for example by
+     * {@link org.archive.util.Recorder#getPayloadDigests()}. Unless a
+     * WARC-Payload-Digest header is present already, the first digest by
+     * a {@link java.security.MessageDigest} algorithm is added as one.
+     *
+     * @param digests algorithm name to digest value
+     */
+    public void setPayloadDigests(Map<String, byte[]> digests) {
+        this.payloadDigests = new LinkedHashMap<String, byte[]>(digests);
+        if (getExtraHeader(WARCConstants.HEADER_KEY_PAYLOAD_DIGEST) != null) {
+            return;
+        }
+        for (Map.Entry<String, byte[]> e : digests.entrySet()) {
+            if (!DigestSet.MURMUR3_128.equals(e.getKey())) {
+                addExtraHeader(WARCConstants.HEADER_KEY_PAYLOAD_DIGEST,
+                        formatDigest(e.getKey(), e.getValue()));
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return algorithm name to digest value, or null if not set
+     */
+    public Map<String, byte[]> getPayloadDigests() {
+        return payloadDigests;
+    }
+
+    public byte[] getPayloadDigest(String algorithm) {
+        return payloadDigests == null ? null : payloadDigests.get(algorithm);
+    }
+
+    /**
+     * @return digest as labelled Base32, like <code>sha1:3I42H3S6...</code>
+     * for algorithm SHA-1
+     */
+    public static String formatDigest(String algorithm, byte[] value) {
+        return algorithm.toLowerCase(Locale.ROOT).replace("-", "") + ":"
+                + Base32.encode(value);
+    }
+
     public void setWARCFilename(String warcFilenameWithoutOccupiedSuffix) {
         this.warcFilename = warcFilenameWithoutOccupiedSuffix;
     }
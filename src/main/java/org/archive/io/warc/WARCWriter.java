@@ -19,28 +19,35 @@
 
 package org.archive.io.warc;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.archive.format.ArchiveFileConstants;
 import org.archive.io.WriterPoolMember;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.anvl.Element;
+import org.archive.util.zip.ZstdCompressorPool;
+import org.archive.util.zip.ZstdFrameOutputStream;
 
 import static org.archive.format.warc.WARCConstants.*;
 
@@ -87,10 +94,38 @@ public class WARCWriter extends WriterPoolMember {
      * {@link #resetTmpStats()}, write some records, then add
      * {@link #getTmpStats()} into its long-term running totals.
      */
-    private Map<String, Map<String, Long>> tmpStats;
-    
-    /** Temporarily accumulates info on written warc records for use externally. */
-    private LinkedList<WARCRecordInfo> tmpRecordLog = new LinkedList<WARCRecordInfo>();
+    protected final WARCWriterStats stats = new WARCWriterStats();
+
+    /** default for {@link #setTmpRecordLogLimit(int)} */
+    public static final int DEFAULT_TMP_RECORD_LOG_LIMIT = 10000;
+
+    /**
+     * Temporarily accumulates info on written warc records for use externally.
+     * Holds at most tmpRecordLogLimit records; prefer a 
+     * {@link WARCWriterListener} to see every record.
+     */
+    private final ArrayDeque<WARCRecordInfo> tmpRecordLog = new ArrayDeque<WARCRecordInfo>();
+    protected int tmpRecordLogLimit = DEFAULT_TMP_RECORD_LOG_LIMIT;
+    private boolean tmpRecordLogOverflowed = false;
+
+    protected final List<WARCWriterListener> listeners =
+        new CopyOnWriteArrayList<WARCWriterListener>();
+
+    /** reused for the header of each record written */
+    protected final WARCHeaderEncoder headerEncoder = new WARCHeaderEncoder(this);
+
+    private final Object zstdLock = new Object();
+    protected ZstdCompressorPool zstdCompressors = null;
+
+    /** if set, gets an index line for each record written */
+    protected CDXIndexSink indexSink = null;
+
+    /** if set, responses with a known payload digest become revisits */
+    protected DigestIndex revisitIndex = null;
+    protected boolean recordOriginals = false;
+
+    /** most of a response read looking for the end of its HTTP headers */
+    public static final int MAX_REVISIT_HEADERS = 64 * 1024;
     
     /**
      * Constructor.
@@ -118,9 +153,81 @@ public class WARCWriter extends WriterPoolMember {
     @Override
     protected String createFile(File file) throws IOException {
     	String filename = super.createFile(file);
+    	if (isZstdCompressed()) {
+    	    byte[] dictionary = ((ZstdWARCWriterPoolSettings)settings).getZstdDictionary();
+    	    if (dictionary != null) {
+    	        ZstdFrameOutputStream.writeDictionaryFrame(this.out, dictionary);
+    	    }
+    	}
     	writeWarcinfoRecord(filename);
         return filename;
     }
+
+    /**
+     * @return true if records are compressed as Zstandard frames rather
+     * than GZIP members
+     */
+    public boolean isZstdCompressed() {
+        return settings.getCompress()
+                && settings instanceof ZstdWARCWriterPoolSettings
+                && ((ZstdWARCWriterPoolSettings)settings).getZstdCompress();
+    }
+
+    @Override
+    protected String getCompressedFileExtension() {
+        return isZstdCompressed() ? DOT_ZSTD_COMPRESSED_FILE_EXTENSION
+                : super.getCompressedFileExtension();
+    }
+
+    @Override
+    protected OutputStream createCompressedStream(OutputStream out)
+    throws IOException {
+        if (isZstdCompressed()) {
+            return new ZstdFrameOutputStream(out, getZstdCompressors());
+        }
+        return super.createCompressedStream(out);
+    }
+
+    /**
+     * @return contexts, sharing one digested dictionary, that this
+     * writer's zstd frames are compressed with; made on first use and
+     * freed when the writer is closed
+     */
+    protected ZstdCompressorPool getZstdCompressors() {
+        synchronized (zstdLock) {
+            if (zstdCompressors == null) {
+                ZstdWARCWriterPoolSettings zs = (ZstdWARCWriterPoolSettings)settings;
+                zstdCompressors = new ZstdCompressorPool(zs.getZstdLevel(),
+                        zs.getZstdDictionary(), ZstdCompressorPool.DEFAULT_MAX_IDLE);
+            }
+            return zstdCompressors;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            synchronized (zstdLock) {
+                if (zstdCompressors != null) {
+                    zstdCompressors.close();
+                    zstdCompressors = null;
+                }
+            }
+        }
+    }
+
+    @Override
+    protected OutputStream finishCompressedStream(OutputStream compressed)
+    throws IOException {
+        if (compressed instanceof ZstdFrameOutputStream) {
+            ZstdFrameOutputStream o = (ZstdFrameOutputStream)compressed;
+            o.finish();
+            return o.getWrappedStream();
+        }
+        return super.finishCompressedStream(compressed);
+    }
     
     protected void baseCharacterCheck(final char c, final String parameter)
     throws IllegalArgumentException {
@@ -173,6 +280,10 @@ public class WARCWriter extends WriterPoolMember {
 //    		final String url, final String create14DigitDate,
 //    		final String mimetype, final URI recordId,
 //    		final ANVLRecord xtraHeaders, final long contentLength)
+    /**
+     * Header as a String. Records are written with the equivalent, 
+     * allocation-free {@link #headerEncoder}.
+     */
     protected String createRecordHeader(WARCRecordInfo metaRecord)
     throws IllegalArgumentException {
     	final StringBuilder sb =
@@ -207,6 +318,7 @@ public class WARCWriter extends WriterPoolMember {
 
     public void writeRecord(WARCRecordInfo recordInfo)
     throws IOException {
+        rewriteAsRevisit(recordInfo);
 
         if (recordInfo.getContentLength() == 0 &&
                 (recordInfo.getExtraHeaders() == null || recordInfo.getExtraHeaders().size() <= 0)) {
@@ -214,28 +326,40 @@ public class WARCWriter extends WriterPoolMember {
             "of content-length zero and base headers only.");
         }
 
-        String header;
         try {
-            header = createRecordHeader(recordInfo);
-
+            headerEncoder.encode(recordInfo);
         } catch (IllegalArgumentException e) {
             logger.log(Level.SEVERE,"could not write record type: " + recordInfo.getType() 
                     + "for URL: " + recordInfo.getUrl(), e);
             return;
         }
 
+        byte[] head = null;
+        if (indexSink != null && indexSink.accepts(recordInfo.getType())) {
+            head = peekContent(recordInfo, CDXIndexSink.HEAD_SIZE);
+        }
+
         long contentBytes = 0;
         long totalBytes = 0;
         long startPosition;
+        boolean written = false;
 
         startPosition = getPosition();
         try {
+            if (this.out == null) {
+                // start the file, and its warcinfo record, before noting
+                // where this record starts
+                createFile();
+                startPosition = getPosition();
+            }
             preWriteRecordTasks();
+            if (!headerEncoder.holds(recordInfo)) {
+                // a new file's warcinfo record reused the encoder
+                headerEncoder.encode(recordInfo);
+            }
 
-            // TODO: Revisit encoding of header.
-            byte[] bytes = header.getBytes(WARC_HEADER_ENCODING);
-            write(bytes);
-            totalBytes += bytes.length;
+            write(headerEncoder.getBuffer(), 0, headerEncoder.size());
+            totalBytes += headerEncoder.size();
 
             // Write out the header/body separator.
             write(CRLF_BYTES);
@@ -255,71 +379,226 @@ public class WARCWriter extends WriterPoolMember {
             
             recordInfo.setWARCFilename(getFilenameWithoutOccupiedSuffix());
             recordInfo.setWARCFileOffset(startPosition);
-            tmpRecordLog.add(recordInfo);
+            logRecord(recordInfo);
+            written = true;
         } finally {
             postWriteRecordTasks();
             tally(recordInfo.getType(), contentBytes, totalBytes, getPosition() - startPosition);
         }
+        if (written) {
+            noteOriginal(recordInfo);
+            syncIfDue();
+            fireRecordWritten(recordInfo, contentBytes, totalBytes,
+                    getPosition() - startPosition);
+        }
+        if (written && head != null) {
+            indexSink.submit(recordInfo, recordInfo.getWARCFilename(),
+                    startPosition, getPosition() - startPosition,
+                    head, 0, head.length);
+        }
     }
 
-    public String getFilenameWithoutOccupiedSuffix() {
-        String name = getFile().getName();
-        if (name.endsWith(ArchiveFileConstants.OCCUPIED_SUFFIX)) {
-            name = name.substring(0, name.length() - ArchiveFileConstants.OCCUPIED_SUFFIX.length());
+    /**
+     * Read up to max bytes from the start of a record's content without
+     * consuming them. A content stream not supporting mark is replaced by 
+     * a buffered one that does.
+     * 
+     * @return the bytes read, possibly fewer than max
+     */
+    protected byte[] peekContent(WARCRecordInfo recordInfo, int max)
+    throws IOException {
+        InputStream in = recordInfo.getContentStream();
+        if (in == null || recordInfo.getContentLength() <= 0) {
+            return new byte[0];
         }
-        return name;
+        if (!in.markSupported()) {
+            in = new BufferedInputStream(in, max);
+            recordInfo.setContentStream(in);
+        }
+        int n = (int) Math.min(max, recordInfo.getContentLength());
+        in.mark(n);
+        byte[] head = new byte[n];
+        int read = IOUtils.read(in, head);
+        in.reset();
+        return read < n ? Arrays.copyOf(head, read) : head;
     }
-    
-    // if compression is enabled, sizeOnDisk means compressed bytes; if not, it
-    // should be the same as totalBytes (right?)
-    protected void tally(WARCRecordType warcRecordType, long contentBytes, long totalBytes, long sizeOnDisk) {
-        if (tmpStats == null) {
-            tmpStats = new HashMap<String, Map<String,Long>>();
+
+    public CDXIndexSink getIndexSink() {
+        return indexSink;
+    }
+
+    /**
+     * @param indexSink sink to get an index line for each record written,
+     * or null for none
+     */
+    public void setIndexSink(CDXIndexSink indexSink) {
+        this.indexSink = indexSink;
+    }
+
+    public DigestIndex getRevisitIndex() {
+        return revisitIndex;
+    }
+
+    /**
+     * @param revisitIndex payload digests of earlier captures: a response
+     * whose WARC-Payload-Digest is found there is written as a revisit;
+     * or null for none
+     */
+    public void setRevisitIndex(DigestIndex revisitIndex) {
+        this.revisitIndex = revisitIndex;
+    }
+
+    public boolean getRecordOriginals() {
+        return recordOriginals;
+    }
+
+    /**
+     * @param recordOriginals whether responses written that are not in the
+     * revisit index are added to it, so later duplicates within the crawl
+     * become revisits too; off by default
+     */
+    public void setRecordOriginals(boolean recordOriginals) {
+        this.recordOriginals = recordOriginals;
+    }
+
+    /**
+     * If the revisit index holds a response's payload digest, turn the
+     * record into an identical-payload-digest revisit referring to the
+     * earlier capture, with just the HTTP headers for content. The record
+     * info (and its extra headers) are changed in place; the rest of the
+     * original content stream is left unread.
+     * 
+     * @return whether the record was rewritten
+     */
+    protected boolean rewriteAsRevisit(WARCRecordInfo recordInfo)
+    throws IOException {
+        if (revisitIndex == null || recordInfo.getType() != WARCRecordType.response) {
+            return false;
+        }
+        String digest = recordInfo.getExtraHeader(HEADER_KEY_PAYLOAD_DIGEST);
+        if (digest == null) {
+            return false;
         }
+        DigestIndex.Original original = revisitIndex.get(digest);
+        if (original == null) {
+            return false;
+        }
+        byte[] head = peekContent(recordInfo, MAX_REVISIT_HEADERS);
+        int headersLength = headersLength(head);
+        if (headersLength < 0) {
+            return false;
+        }
+        for (Iterator<Element> i = recordInfo.getExtraHeaders().iterator(); i.hasNext();) {
+            Element e = i.next();
+            if (e.isValue() && HEADER_KEY_BLOCK_DIGEST.equals(
+                    String.valueOf((Object) e.getLabel()))) {
+                // described the whole response
+                i.remove();
+            }
+        }
+        recordInfo.setType(WARCRecordType.revisit);
+        recordInfo.addExtraHeader(HEADER_KEY_PROFILE, PROFILE_REVISIT_IDENTICAL_DIGEST);
+        recordInfo.addExtraHeader(HEADER_KEY_TRUNCATED, NAMED_FIELD_TRUNCATED_VALUE_LENGTH);
+        recordInfo.addExtraHeader(HEADER_KEY_REFERS_TO_TARGET_URI, original.getUri());
+        recordInfo.addExtraHeader(HEADER_KEY_REFERS_TO_DATE, original.getDate());
+        recordInfo.setContentStream(new ByteArrayInputStream(head, 0, headersLength));
+        recordInfo.setContentLength(headersLength);
+        return true;
+    }
 
-        // add to stats for this record type
-        Map<String, Long> substats = tmpStats.get(warcRecordType.toString());
-        if (substats == null) {
-            substats = new HashMap<String, Long>();
-            tmpStats.put(warcRecordType.toString(), substats);
+    /**
+     * @return length of the HTTP headers, through the blank line ending
+     * them, at the start of content; -1 if they do not end there
+     */
+    protected static int headersLength(byte[] content) {
+        for (int i = 0; i < content.length - 1; i++) {
+            if (content[i] == '\n') {
+                if (content[i + 1] == '\n') {
+                    return i + 2;
+                }
+                if (content[i + 1] == '\r' && i + 2 < content.length
+                        && content[i + 2] == '\n') {
+                    return i + 3;
+                }
+            }
         }
-        subtally(substats, contentBytes, totalBytes, sizeOnDisk);
-        
-        // add to totals
-        substats = tmpStats.get(TOTALS);
-        if (substats == null) {
-            substats = new HashMap<String, Long>();
-            tmpStats.put(TOTALS, substats);
+        return -1;
+    }
+
+    /**
+     * Add a response just written to the revisit index, if recording
+     * originals and it is not a duplicate of one already there.
+     */
+    protected void noteOriginal(WARCRecordInfo recordInfo) {
+        if (revisitIndex == null || !recordOriginals 
+                || recordInfo.getType() != WARCRecordType.response) {
+            return;
+        }
+        String digest = recordInfo.getExtraHeader(HEADER_KEY_PAYLOAD_DIGEST);
+        if (digest == null) {
+            return;
+        }
+        long date = recordInfo.getCreateTimeMillis();
+        if (date < 0) {
+            Date d = ArchiveUtils.parse14DigitISODate(recordInfo.getCreate14DigitDate(), null);
+            if (d == null) {
+                return;
+            }
+            date = d.getTime();
         }
-        subtally(substats, contentBytes, totalBytes, sizeOnDisk);
+        revisitIndex.putIfAbsent(digest, recordInfo.getUrl(), date);
     }
 
-    protected void subtally(Map<String, Long> substats, long contentBytes,
-            long totalBytes, long sizeOnDisk) {
-        
-        if (substats.get(NUM_RECORDS) == null) {
-            substats.put(NUM_RECORDS, 1l);
-        } else {
-            substats.put(NUM_RECORDS, substats.get(NUM_RECORDS) + 1);
+    /**
+     * Note a written record in the temporary record log.
+     * @param recordInfo record just written, with its filename and offset set
+     */
+    protected void logRecord(WARCRecordInfo recordInfo) {
+        if (tmpRecordLogLimit <= 0) {
+            return;
         }
-        
-        if (substats.get(CONTENT_BYTES) == null) {
-            substats.put(CONTENT_BYTES, contentBytes);
-        } else {
-            substats.put(CONTENT_BYTES, substats.get(CONTENT_BYTES) + contentBytes);
+        while (tmpRecordLog.size() >= tmpRecordLogLimit) {
+            tmpRecordLog.pollFirst();
+            if (!tmpRecordLogOverflowed) {
+                tmpRecordLogOverflowed = true;
+                logger.warning("more than " + tmpRecordLogLimit + " records since "
+                        + "resetTmpRecordLog(); dropping the oldest");
+            }
         }
-        
-        if (substats.get(TOTAL_BYTES) == null) {
-            substats.put(TOTAL_BYTES, totalBytes);
-        } else {
-            substats.put(TOTAL_BYTES, substats.get(TOTAL_BYTES) + totalBytes);
+        tmpRecordLog.add(recordInfo);
+    }
+
+    /**
+     * Tell listeners about a record just written.
+     */
+    protected void fireRecordWritten(WARCRecordInfo recordInfo,
+            long contentBytes, long totalBytes, long sizeOnDisk) {
+        for (WARCWriterListener listener : listeners) {
+            listener.recordWritten(this, recordInfo, contentBytes, totalBytes,
+                    sizeOnDisk);
         }
-        
-        if (substats.get(SIZE_ON_DISK) == null) {
-            substats.put(SIZE_ON_DISK, sizeOnDisk);
-        } else {
-            substats.put(SIZE_ON_DISK, substats.get(SIZE_ON_DISK) + sizeOnDisk);
+    }
+
+    public void addListener(WARCWriterListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(WARCWriterListener listener) {
+        listeners.remove(listener);
+    }
+
+    public String getFilenameWithoutOccupiedSuffix() {
+        String name = getFile().getName();
+        if (name.endsWith(ArchiveFileConstants.OCCUPIED_SUFFIX)) {
+            name = name.substring(0, name.length() - ArchiveFileConstants.OCCUPIED_SUFFIX.length());
         }
+        return name;
+    }
+    
+    // if compression is enabled, sizeOnDisk means compressed bytes; if not, it
+    // should be the same as totalBytes (right?)
+    protected void tally(WARCRecordType warcRecordType, long contentBytes, long totalBytes, long sizeOnDisk) {
+        stats.add(warcRecordType, contentBytes, totalBytes, sizeOnDisk);
     }
 
     protected URI generateRecordId(final Map<String, String> qualifiers)
@@ -341,7 +620,7 @@ public class WARCWriter extends WriterPoolMember {
         	throws IOException {
         WARCRecordInfo recordInfo = new WARCRecordInfo();
         recordInfo.setType(WARCRecordType.warcinfo);
-        recordInfo.setCreate14DigitDate(ArchiveUtils.getLog14Date());
+        recordInfo.setCreateTimeMillis(System.currentTimeMillis());
         recordInfo.setMimetype("application/warc-fields");
 
         // Strip .open suffix if present.
@@ -384,17 +663,23 @@ public class WARCWriter extends WriterPoolMember {
      * @see WARCWriter#tmpStats for usage model
      */
     public void resetTmpStats() {
-        if (tmpStats != null) {
-            for (Map<String, Long> substats : tmpStats.values()) {
-                for (Entry<String, Long> entry : substats.entrySet()) {
-                    entry.setValue(0l);
-                }
-            }
-        }
+        stats.reset();
     }
 
+    /**
+     * @return a snapshot of {@link #getStats()} as nested maps, for 
+     * compatibility; null until a record has been written
+     */
     public Map<String, Map<String, Long>> getTmpStats() {
-        return tmpStats;
+        return stats.toMap();
+    }
+
+    /**
+     * @return live counts of records written since the last 
+     * {@link #resetTmpStats()}
+     */
+    public WARCWriterStats getStats() {
+        return stats;
     }
 
     public static long getStat(Map<String, Map<String, Long>> map, String key,
@@ -420,6 +705,20 @@ public class WARCWriter extends WriterPoolMember {
 
     public void resetTmpRecordLog() {
         tmpRecordLog.clear();
+        tmpRecordLogOverflowed = false;
+    }
+
+    public int getTmpRecordLogLimit() {
+        return tmpRecordLogLimit;
+    }
+
+    /**
+     * @param limit most records kept by {@link #getTmpRecordLog()} between
+     * calls to {@link #resetTmpRecordLog()}; the oldest are dropped beyond
+     * it. 0 disables the log.
+     */
+    public void setTmpRecordLogLimit(int limit) {
+        this.tmpRecordLogLimit = limit;
     }
 
     public Iterable<WARCRecordInfo> getTmpRecordLog() {
@@ -0,0 +1,39 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io.warc;
+
+/**
+ * Told about each record a {@link WARCWriter} writes. Called on the thread
+ * that wrote the record (for a {@link PipelinedWARCWriter}, its appender
+ * thread), after the record's filename and offset have been set; keep
+ * implementations quick.
+ * 
+ * @see WARCWriter#addListener(WARCWriterListener)
+ */
+public interface WARCWriterListener {
+    /**
+     * @param writer writer that wrote the record
+     * @param recordInfo the record, with WARC filename and offset set
+     * @param contentBytes bytes of record content
+     * @param totalBytes bytes of the whole record, uncompressed
+     * @param sizeOnDisk bytes the record takes in the file
+     */
+    void recordWritten(WARCWriter writer, WARCRecordInfo recordInfo,
+            long contentBytes, long totalBytes, long sizeOnDisk);
+}
@@ -31,6 +31,30 @@ import org.archive.io.WriterPoolMember;
  * @version $Revision: 4566 $ $Date: 2006-08-31 09:51:41 -0700 (Thu, 31 Aug 2006) $
  */
 public class WARCWriterPool extends WriterPool {
+    /** whether to make {@link PipelinedWARCWriter}s */
+    protected boolean pipelined = false;
+
+    /** given to each writer made, if set */
+    protected CDXIndexSink indexSink = null;
+
+    /** given to each writer made, if set */
+    protected DigestIndex revisitIndex = null;
+    protected boolean recordOriginals = false;
+
+    /** most bytes of idle record buffers kept for pipelined writers */
+    protected long maxIdleRecordBufferBytes =
+        PipelinedWARCWriter.RecordBufferPool.DEFAULT_MAX_IDLE_BYTES;
+
+    /** shared by the pipelined writers made; dropped on close */
+    protected PipelinedWARCWriter.RecordBufferPool recordBuffers = null;
+
+    /** most bytes of records in the pipelines of all writers made */
+    protected int maxPendingRecordBytes =
+        PipelinedWARCWriter.DEFAULT_MAX_PENDING_BYTES;
+
+    /** shared by the pipelined writers made */
+    protected PipelinedWARCWriter.PendingBytes pendingRecordBytes = null;
+
     /**
      * Constructor
      * @param settings Settings for this pool.
@@ -55,10 +79,130 @@ public class WARCWriterPool extends WriterPool {
     	super(serial, settings, poolMaximumActive, poolMaximumWait);
     }
     
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * @param pipelined if true, new writers compress records in parallel
+     * and append them on a background thread; see {@link PipelinedWARCWriter}
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    public long getMaxIdleRecordBufferBytes() {
+        return maxIdleRecordBufferBytes;
+    }
+
+    /**
+     * @param maxIdleRecordBufferBytes most bytes of record buffers the
+     * pipelined writers made from now on keep between records, in total
+     */
+    public synchronized void setMaxIdleRecordBufferBytes(
+            long maxIdleRecordBufferBytes) {
+        this.maxIdleRecordBufferBytes = maxIdleRecordBufferBytes;
+        this.recordBuffers = null;
+    }
+
+    public int getMaxPendingRecordBytes() {
+        return maxPendingRecordBytes;
+    }
+
+    /**
+     * @param maxPendingRecordBytes most bytes of records, raw and
+     * compressed, that the pipelined writers made from now on hold between
+     * them before writeRecord() blocks
+     */
+    public synchronized void setMaxPendingRecordBytes(
+            int maxPendingRecordBytes) {
+        this.maxPendingRecordBytes = maxPendingRecordBytes;
+        this.pendingRecordBytes = null;
+    }
+
+    protected synchronized PipelinedWARCWriter.PendingBytes getPendingRecordBytes() {
+        if (pendingRecordBytes == null) {
+            pendingRecordBytes = new PipelinedWARCWriter.PendingBytes(
+                    maxPendingRecordBytes);
+        }
+        return pendingRecordBytes;
+    }
+
+    protected synchronized PipelinedWARCWriter.RecordBufferPool getRecordBuffers() {
+        if (recordBuffers == null) {
+            recordBuffers = new PipelinedWARCWriter.RecordBufferPool(
+                    maxIdleRecordBufferBytes);
+        }
+        return recordBuffers;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        synchronized (this) {
+            if (recordBuffers != null) {
+                recordBuffers.clear();
+                recordBuffers = null;
+            }
+        }
+    }
+
+    public CDXIndexSink getIndexSink() {
+        return indexSink;
+    }
+
+    /**
+     * @param indexSink sink to get an index line for each record written
+     * by writers made from now on; shared by all of them
+     */
+    public void setIndexSink(CDXIndexSink indexSink) {
+        this.indexSink = indexSink;
+    }
+
+    public DigestIndex getRevisitIndex() {
+        return revisitIndex;
+    }
+
+    /**
+     * @param revisitIndex payload digest index shared by writers made from
+     * now on, for writing duplicate responses as revisits; see
+     * {@link WARCWriter#setRevisitIndex(DigestIndex)}
+     */
+    public void setRevisitIndex(DigestIndex revisitIndex) {
+        this.revisitIndex = revisitIndex;
+    }
+
+    public boolean getRecordOriginals() {
+        return recordOriginals;
+    }
+
+    /**
+     * @param recordOriginals whether writers made from now on add new
+     * responses to the revisit index; see
+     * {@link WARCWriter#setRecordOriginals(boolean)}
+     */
+    public void setRecordOriginals(boolean recordOriginals) {
+        this.recordOriginals = recordOriginals;
+    }
+
     /* (non-Javadoc)
      * @see org.archive.io.WriterPool#makeWriter()
      */
     protected WriterPoolMember makeWriter() {
-        return new WARCWriter(serialNo, (WARCWriterPoolSettings)settings);
+        WARCWriter writer;
+        if (pipelined) {
+            PipelinedWARCWriter p = new PipelinedWARCWriter(serialNo,
+                    (WARCWriterPoolSettings)settings,
+                    PipelinedWARCWriter.getDefaultCompressors(),
+                    getPendingRecordBytes());
+            p.setRecordBufferPool(getRecordBuffers());
+            writer = p;
+        } else {
+            writer = new WARCWriter(serialNo, (WARCWriterPoolSettings)settings);
+        }
+        writer.setIndexSink(indexSink);
+        writer.setRevisitIndex(revisitIndex);
+        writer.setRecordOriginals(recordOriginals);
+        return writer;
     }
 }
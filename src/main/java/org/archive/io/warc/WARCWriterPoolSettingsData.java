@@ -23,9 +23,13 @@ import java.util.List;
 
 import org.archive.io.arc.WriterPoolSettingsData;
 import org.archive.uid.RecordIDGenerator;
+import org.archive.util.zip.ZstdFrameOutputStream;
 
-public class WARCWriterPoolSettingsData extends WriterPoolSettingsData implements WARCWriterPoolSettings {
+public class WARCWriterPoolSettingsData extends WriterPoolSettingsData implements ZstdWARCWriterPoolSettings {
     RecordIDGenerator generator;
+    protected boolean zstdCompress = false;
+    protected int zstdLevel = ZstdFrameOutputStream.DEFAULT_LEVEL;
+    protected byte[] zstdDictionary;
     
     public WARCWriterPoolSettingsData(String prefix, String template,
             long maxFileSizeBytes, boolean compress, List<File> outputDirs,
@@ -37,4 +41,25 @@ public class WARCWriterPoolSettingsData extends WriterPoolSettingsData implement
     public RecordIDGenerator getRecordIDGenerator() {
         return generator; 
     }
-}
\ No newline at end of file
+    @Override
+    public boolean getZstdCompress() {
+        return zstdCompress;
+    }
+    public void setZstdCompress(boolean zstdCompress) {
+        this.zstdCompress = zstdCompress;
+    }
+    @Override
+    public int getZstdLevel() {
+        return zstdLevel;
+    }
+    public void setZstdLevel(int zstdLevel) {
+        this.zstdLevel = zstdLevel;
+    }
+    @Override
+    public byte[] getZstdDictionary() {
+        return zstdDictionary;
+    }
+    public void setZstdDictionary(byte[] zstdDictionary) {
+        this.zstdDictionary = zstdDictionary;
+    }
+}
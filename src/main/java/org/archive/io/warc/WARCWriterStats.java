@@ -0,0 +1,123 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io.warc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.archive.format.warc.WARCConstants.WARCRecordType;
+
+/**
+ * Running counts of records written, by {@link WARCRecordType} and in
+ * total, kept in fixed arrays of primitive counters.
+ * 
+ * @see WARCWriter#getStats()
+ */
+public class WARCWriterStats {
+    public static final int NUM_RECORDS = 0;
+    public static final int CONTENT_BYTES = 1;
+    public static final int TOTAL_BYTES = 2;
+    public static final int SIZE_ON_DISK = 3;
+
+    /** names of the stats in {@link #toMap()}, by index */
+    protected static final String[] STAT_NAMES = {
+        WARCWriter.NUM_RECORDS, WARCWriter.CONTENT_BYTES,
+        WARCWriter.TOTAL_BYTES, WARCWriter.SIZE_ON_DISK
+    };
+    protected static final WARCRecordType[] TYPES = WARCRecordType.values();
+    /** index of the totals row */
+    protected static final int TOTALS = TYPES.length;
+
+    protected final LongAdder[][] counters;
+    /** whether a type has had any record since construction */
+    protected final AtomicIntegerArray seen;
+
+    public WARCWriterStats() {
+        counters = new LongAdder[TYPES.length + 1][STAT_NAMES.length];
+        for (LongAdder[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = new LongAdder();
+            }
+        }
+        seen = new AtomicIntegerArray(TYPES.length + 1);
+    }
+
+    public void add(WARCRecordType type, long contentBytes, long totalBytes,
+            long sizeOnDisk) {
+        add(type.ordinal(), contentBytes, totalBytes, sizeOnDisk);
+        add(TOTALS, contentBytes, totalBytes, sizeOnDisk);
+    }
+
+    protected void add(int row, long contentBytes, long totalBytes,
+            long sizeOnDisk) {
+        LongAdder[] r = counters[row];
+        r[NUM_RECORDS].increment();
+        r[CONTENT_BYTES].add(contentBytes);
+        r[TOTAL_BYTES].add(totalBytes);
+        r[SIZE_ON_DISK].add(sizeOnDisk);
+        if (seen.get(row) == 0) {
+            seen.set(row, 1);
+        }
+    }
+
+    /**
+     * @param type record type, or null for all records
+     * @param stat one of {@link #NUM_RECORDS}, {@link #CONTENT_BYTES},
+     * {@link #TOTAL_BYTES}, {@link #SIZE_ON_DISK}
+     */
+    public long get(WARCRecordType type, int stat) {
+        return counters[type == null ? TOTALS : type.ordinal()][stat].sum();
+    }
+
+    /**
+     * Zero all counts.
+     */
+    public void reset() {
+        for (LongAdder[] row : counters) {
+            for (LongAdder counter : row) {
+                counter.reset();
+            }
+        }
+    }
+
+    /**
+     * @return counts in the form of {@link WARCWriter#getTmpStats()}: by 
+     * record type name (for types seen so far) and {@link WARCWriter#TOTALS},
+     * then by stat name; null if no record has been counted yet
+     */
+    public Map<String, Map<String, Long>> toMap() {
+        if (seen.get(TOTALS) == 0) {
+            return null;
+        }
+        Map<String, Map<String, Long>> map = new HashMap<String, Map<String, Long>>();
+        for (int row = 0; row <= TOTALS; row++) {
+            if (seen.get(row) != 0) {
+                Map<String, Long> substats = new HashMap<String, Long>();
+                for (int stat = 0; stat < STAT_NAMES.length; stat++) {
+                    substats.put(STAT_NAMES[stat], counters[row][stat].sum());
+                }
+                map.put(row == TOTALS ? WARCWriter.TOTALS : TYPES[row].toString(),
+                        substats);
+            }
+        }
+        return map;
+    }
+}
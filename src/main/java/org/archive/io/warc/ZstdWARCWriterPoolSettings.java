@@ -0,0 +1,43 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io.warc;
+
+/**
+ * Settings for writers that may compress WARCs with Zstandard, one frame
+ * per record (<code>.warc.zst</code>), rather than gzip. Only consulted
+ * when {@link #getCompress()} is true.
+ */
+public interface ZstdWARCWriterPoolSettings extends WARCWriterPoolSettings {
+    /**
+     * @return true to write <code>.warc.zst</code> rather than 
+     * <code>.warc.gz</code>
+     */
+    public boolean getZstdCompress();
+
+    /**
+     * @return zstd compression level
+     */
+    public int getZstdLevel();
+
+    /**
+     * @return dictionary to compress every record with (and to write at the
+     * start of each file), or null
+     */
+    public byte[] getZstdDictionary();
+}
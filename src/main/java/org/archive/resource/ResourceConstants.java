@@ -26,6 +26,12 @@ public interface ResourceConstants {
 	public static final String GZIP_FEXTRA_VALUE    = "Value";	
 
 
+	public static final String ZSTD                 = "Zstd-Metadata";
+
+	public static final String ZSTD_FRAME_LENGTH    = "Frame-Length";
+	public static final String ZSTD_INFLATED_LENGTH = "Inflated-Length";
+
+
 	public static final String ENVELOPE             = "Envelope";
 
 	public static final String ENVELOPE_FORMAT      = "Format";
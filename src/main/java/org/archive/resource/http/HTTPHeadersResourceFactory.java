@@ -19,7 +19,6 @@ implements ResourceFactory, ResourceConstants {
 
 	private String name;
 	private String type;
-	HttpHeaderParser parser;
 
 	public HTTPHeadersResourceFactory(String name) {
 		this(name,null);
@@ -28,7 +27,6 @@ implements ResourceFactory, ResourceConstants {
 	public HTTPHeadersResourceFactory(String name, String type) {
 		this.name = name;
 		this.type = type;
-		parser = new HttpHeaderParser();
 	}
 
 	@Override
@@ -37,7 +35,7 @@ implements ResourceFactory, ResourceConstants {
 			IOException {
 		HttpHeaders headers = new HttpHeaders();
 		try {
-			int bytes = parser.doParse(is,headers);
+			int bytes = HttpHeaderParser.forThread().doParse(is,headers);
 			if(headers.isCorrupt()) {
 				parentMetaData.putBoolean(HTTP_HEADERS_CORRUPT, true);
 			}
@@ -3,6 +3,7 @@ package org.archive.resource.http;
 import java.io.IOException;
 import java.io.InputStream;
 
+import org.archive.format.http.HttpHeaderParser;
 import org.archive.format.http.HttpParseException;
 import org.archive.format.http.HttpResponse;
 import org.archive.format.http.HttpResponseParser;
@@ -24,7 +25,10 @@ public class HTTPResponseResourceFactory implements ResourceFactory, ResourceCon
 	throws ResourceParseException, IOException {
 		try {
 
-			HttpResponse response = parser.parse(is);
+			// read headers a block at a time; the body then comes from
+			// the same stream
+			HttpResponse response = parser.parse(
+					HttpHeaderParser.blockReadable(is));
 			metaData.putString(PAYLOAD_CONTENT_TYPE, 
 					PAYLOAD_TYPE_HTTP_RESPONSE);
 			return new HTTPResponseResource(metaData.createChild(HTTP_RESPONSE_METADATA),
@@ -11,10 +11,13 @@ import org.archive.resource.ResourceProducer;
 import org.archive.resource.TransformingResourceProducer;
 import org.archive.resource.generic.GenericResourceProducer;
 import org.archive.resource.gzip.GZIPResourceContainer;
+import org.archive.resource.zstd.ZstdResourceContainer;
 import org.archive.streamcontext.HDFSStream;
 import org.archive.streamcontext.HTTP11Stream;
 import org.archive.streamcontext.RandomAccessFileStream;
 import org.archive.streamcontext.Stream;
+import org.archive.streamcontext.StreamWrappedInputStream;
+import org.archive.util.zip.ZstdMembersInputStream;
 
 public class EnvelopedResourceFile {
 	private ResourceFactory factory;
@@ -40,6 +43,23 @@ public class EnvelopedResourceFile {
 		return new TransformingResourceProducer(producer,factory);
 	}
 
+	private ResourceProducer getZstdProducer(Stream stream, String name,
+			long offset) throws IOException {
+		byte[] dictionary = null;
+		if(offset > 0) {
+			// any dictionary frame is at the very start of the file
+			dictionary = ZstdMembersInputStream.readDictionary(
+					new StreamWrappedInputStream(stream));
+			stream.setOffset(offset);
+		}
+		ZstdResourceContainer producer =
+			new ZstdResourceContainer(stream, name, dictionary);
+		if(factory == null) {
+			return producer;
+		}
+		return new TransformingResourceProducer(producer,factory);
+	}
+
 	public ResourceProducer getResourceProducer(File file) throws IOException {
 		return getResourceProducer(file,0);
 	}
@@ -79,6 +99,17 @@ public class EnvelopedResourceFile {
 		return getGZProducer(stream, name);
 	}
 
+	public ResourceProducer getZstdResourceProducer(File file, long offset)
+	throws IOException {
+		return getZstdProducer(new RandomAccessFileStream(file),
+				file.getName(), offset);
+	}
+
+	public ResourceProducer getZstdResourceProducer(FSDataInputStream fsdis, 
+			String name, long offset) throws IOException {
+		return getZstdProducer(new HDFSStream(fsdis), name, offset);
+	}
+
 	public ResourceProducer getResourceProducer(FSDataInputStream fsdis, 
 			String name) throws IOException {
 
@@ -147,6 +178,11 @@ public class EnvelopedResourceFile {
 		return getGZProducer(stream, name);
 	}
 
+	public ResourceProducer getZstdResourceProducer(URL url, String name, long offset) 
+	throws IOException {
+		return getZstdProducer(new HTTP11Stream(url), name, offset);
+	}
+
 	/**
 	 * @return the strict
 	 */
@@ -3,6 +3,7 @@ package org.archive.resource.warc;
 import java.io.IOException;
 import java.io.InputStream;
 
+import org.archive.format.http.HttpHeaderParser;
 import org.archive.format.http.HttpParseException;
 import org.archive.format.http.HttpResponse;
 import org.archive.format.http.HttpResponseParser;
@@ -12,6 +13,7 @@ import org.archive.resource.Resource;
 import org.archive.resource.ResourceContainer;
 import org.archive.resource.ResourceFactory;
 import org.archive.resource.ResourceParseException;
+import org.archive.util.io.PushBackOneByteInputStream;
 
 public class WARCResourceFactory implements ResourceFactory, ResourceConstants {
 	private HttpResponseParser parser;
@@ -24,6 +26,11 @@ public class WARCResourceFactory implements ResourceFactory, ResourceConstants {
 			IOException {
 		try {
 
+			// read headers a block at a time, unless WARCResource needs
+			// the one-byte pushback to skip trailing newlines
+			if(!(is instanceof PushBackOneByteInputStream)) {
+				is = HttpHeaderParser.blockReadable(is);
+			}
 			HttpResponse response = parser.parse(is);
 			WARCResource r = new WARCResource(parentMetaData.createChild(ENVELOPE),
 					container, response);
@@ -16,9 +16,7 @@ import org.archive.util.StreamCopy;
 
 public class WARCMetaDataResourceFactory implements ResourceFactory, ResourceConstants {
 
-	HttpHeaderParser parser;
 	public WARCMetaDataResourceFactory() {
-		parser = new HttpHeaderParser();
 	}
 
 	@Override
@@ -30,7 +28,7 @@ public class WARCMetaDataResourceFactory implements ResourceFactory, ResourceCon
 			parentMetaData.putString(PAYLOAD_CONTENT_TYPE, 
 					PAYLOAD_TYPE_WARC_META_FIELDS);
 			MetaData md = parentMetaData.createChild(WARC_META_FIELDS_METADATA);
-			int bytes = parser.doParse(is,headers);
+			int bytes = HttpHeaderParser.forThread().doParse(is,headers);
 			if(headers.isCorrupt()) {
 				md.putBoolean(WARC_META_FIELDS_CORRUPT, true);
 			}
@@ -0,0 +1,53 @@
+package org.archive.resource.zstd;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.archive.resource.AbstractResource;
+import org.archive.resource.MetaData;
+import org.archive.resource.ResourceConstants;
+import org.archive.resource.ResourceContainer;
+import org.archive.util.io.EOFNotifyingInputStream;
+import org.archive.util.io.EOFObserver;
+import org.archive.util.zip.ZstdMembersInputStream;
+
+import com.google.common.io.CountingInputStream;
+
+public class ZstdResource extends AbstractResource 
+	implements EOFObserver, ResourceConstants {
+
+	private ZstdMembersInputStream frames;
+	private CountingInputStream counter;
+	private EOFNotifyingInputStream eofStream;
+	private MetaData zstdMetaData;
+
+	public ZstdResource(MetaData metaData, ResourceContainer container, 
+			ZstdMembersInputStream frames) {
+		super(metaData, container);
+		this.frames = frames;
+		this.counter = new CountingInputStream(frames);
+		this.eofStream = new EOFNotifyingInputStream(counter, this);
+
+		MetaData containerMD = new MetaData(metaData, CONTAINER);
+
+		containerMD.putString(CONTAINER_FILENAME, container.getName());
+		containerMD.putBoolean(CONTAINER_COMPRESSED, true);
+		containerMD.putLong(CONTAINER_OFFSET, frames.getCurrentMemberStart());
+
+		zstdMetaData = new MetaData(containerMD, ZSTD);
+	}
+
+	public void close() throws IOException {
+		// frame remainder is drained by the container's next nextMember()
+	}
+
+	public InputStream getInputStream() {
+		return eofStream;
+	}
+
+	public void notifyEOF() throws IOException {
+		zstdMetaData.putLong(ZSTD_FRAME_LENGTH,
+				frames.getCurrentMemberEnd() - frames.getCurrentMemberStart());
+		zstdMetaData.putLong(ZSTD_INFLATED_LENGTH, counter.getCount());
+	}
+}
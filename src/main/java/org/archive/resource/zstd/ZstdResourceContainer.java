@@ -0,0 +1,61 @@
+package org.archive.resource.zstd;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import org.archive.resource.MetaData;
+import org.archive.resource.Resource;
+import org.archive.resource.ResourceContainer;
+import org.archive.resource.ResourceParseException;
+import org.archive.resource.ResourceProducer;
+import org.archive.streamcontext.Stream;
+import org.archive.streamcontext.StreamWrappedInputStream;
+import org.archive.util.zip.ZstdMembersInputStream;
+
+/**
+ * Produces one Resource per Zstandard frame of a <code>.warc.zst</code>
+ * (or other per-record zstd framed) stream.
+ */
+public class ZstdResourceContainer implements ResourceContainer, ResourceProducer {
+	private String name;
+	private ZstdMembersInputStream frames;
+
+	/**
+	 * @param stream stream positioned at a frame start
+	 * @param name name of the file or URL being read
+	 * @param dictionary dictionary for the frames, or null (a dictionary 
+	 * frame at the start of the stream, if any, is picked up automatically)
+	 * @throws IOException
+	 */
+	public ZstdResourceContainer(Stream stream, String name, byte[] dictionary)
+	throws IOException {
+		StreamWrappedInputStream in = new StreamWrappedInputStream(stream);
+		in.setCloseOnClose(true);
+		this.name = name;
+		this.frames = new ZstdMembersInputStream(in, stream.getOffset(), dictionary);
+		frames.setEofEachMember(true);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isCompressed() {
+		return true;
+	}
+
+	public Resource getNext() throws ResourceParseException, IOException {
+		if(!frames.nextMember()) {
+			return null;
+		}
+		return new ZstdResource(new MetaData(),this,frames);
+	}
+
+	public void close() throws IOException {
+		frames.close();
+	}
+
+	public String getContext() {
+		return String.format(Locale.ROOT, "Context(%s)(%d)", name, frames.getCurrentMemberStart());
+	}
+}
@@ -38,9 +38,12 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
+import org.archive.format.http.HeaderNames;
 import org.archive.format.http.HttpHeader;
+import org.archive.io.SeekInputStream;
 
 /**
  * A Modified version of HttpParser which doesn't throw exceptions on bad header lines
@@ -57,6 +60,9 @@ public class LaxHttpParser {
 
     /** Log object for this class. */
     private static final Logger LOG = Logger.getLogger(LaxHttpParser.class.getName());
+
+    /** Bytes read at a time from seekable streams. */
+    private static final int BLOCK_LENGTH = 2048;
     
     /**
      * Constructor for LaxHttpParser.
@@ -69,6 +75,8 @@ public class LaxHttpParser {
      * If the stream ends before the line terminator is found,
      * the last part of the string will still be returned. 
      * If no input data available, <code>null</code> is returned.
+     * A {@link SeekInputStream} is read a block at a time, and positioned
+     * back to just after the line.  Other streams are read a byte at a time.
      *
      * @param inputStream the stream to read from
      *
@@ -78,6 +86,13 @@ public class LaxHttpParser {
     public static byte[] readRawLine(InputStream inputStream) throws IOException {
         LOG.finest("enter LaxHttpParser.readRawLine()");
 
+        if (inputStream instanceof SeekInputStream) {
+            BlockLineReader reader =
+                new BlockLineReader((SeekInputStream) inputStream);
+            byte[] line = reader.readRawLine();
+            reader.finish();
+            return line;
+        }
         ByteArrayOutputStream buf = new ByteArrayOutputStream();
         int ch;
         while ((ch = inputStream.read()) >= 0) {
@@ -108,7 +123,10 @@ public class LaxHttpParser {
      */
     public static String readLine(InputStream inputStream, String charset) throws IOException {
         LOG.finest("enter LaxHttpParser.readLine(InputStream, String)");
-        byte[] rawdata = readRawLine(inputStream);
+        return decodeLine(readRawLine(inputStream), charset);
+    }
+
+    private static String decodeLine(byte[] rawdata, String charset) {
         if (rawdata == null) {
             return null;
         }
@@ -170,8 +188,12 @@ public class LaxHttpParser {
         ArrayList<HttpHeader> headers = new ArrayList<>();
         String name = null;
         StringBuffer value = null;
+        BlockLineReader reader = (is instanceof SeekInputStream)
+                ? new BlockLineReader((SeekInputStream) is) : null;
         for (; ;) {
-            String line = LaxHttpParser.readLine(is, charset);
+            String line = reader != null
+                    ? decodeLine(reader.readRawLine(), charset)
+                    : LaxHttpParser.readLine(is, charset);
             if ((line == null) || (line.trim().length() < 1)) {
                 break;
             }
@@ -208,7 +230,7 @@ public class LaxHttpParser {
                     value = new StringBuffer(line);
 
                 } else {
-                name = line.substring(0, colon).trim();
+                name = HeaderNames.intern(line.substring(0, colon).trim());
                 value = new StringBuffer(line.substring(colon + 1).trim());
                 }
                 // END IA/HERITRIX change
@@ -216,6 +238,10 @@ public class LaxHttpParser {
 
         }
 
+        if (reader != null) {
+            reader.finish();
+        }
+
         // make sure we save the last name,value pair if present
         if (name != null) {
             headers.add(new HttpHeader(name, value.toString()));
@@ -240,4 +266,71 @@ public class LaxHttpParser {
         LOG.finest("enter HeaderParser.parseHeaders(InputStream, String)");
         return parseHeaders(is, StandardCharsets.US_ASCII.name());
     }
+
+    /**
+     * Reads lines a block at a time from a seekable stream, noting where
+     * each block starts so that {@link #finish()} can position the stream
+     * just after the last line returned.
+     */
+    private static class BlockLineReader {
+        private final SeekInputStream in;
+        private final byte[] block = new byte[BLOCK_LENGTH];
+        private long blockStart = 0;
+        private int pos = 0;
+        private int limit = 0;
+
+        BlockLineReader(SeekInputStream in) {
+            this.in = in;
+        }
+
+        byte[] readRawLine() throws IOException {
+            ByteArrayOutputStream buf = null;
+            while (pos < limit || fill()) {
+                int end = pos;
+                while (end < limit && block[end] != '\n') {
+                    end++;
+                }
+                boolean found = end < limit;
+                if (found) {
+                    end++;
+                }
+                if (found && buf == null) {
+                    byte[] line = Arrays.copyOfRange(block, pos, end);
+                    pos = end;
+                    return line;
+                }
+                if (buf == null) {
+                    buf = new ByteArrayOutputStream();
+                }
+                buf.write(block, pos, end - pos);
+                pos = end;
+                if (found) {
+                    break;
+                }
+            }
+            if (buf == null || buf.size() == 0) {
+                return null;
+            }
+            return buf.toByteArray();
+        }
+
+        private boolean fill() throws IOException {
+            blockStart = in.position();
+            int amt = in.read(block, 0, block.length);
+            pos = 0;
+            limit = Math.max(amt, 0);
+            return limit > 0;
+        }
+
+        /**
+         * Give back any bytes read past the last line returned.
+         */
+        void finish() throws IOException {
+            if (pos == limit) {
+                return;
+            }
+            in.position(blockStart + pos);
+            limit = pos;
+        }
+    }
 }
@@ -28,20 +28,25 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.DeflaterInputStream;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.archive.io.DigestSet;
+import org.archive.io.DirectBufferPool;
 import org.archive.io.GenericReplayCharSequence;
 import org.archive.io.RecordingInputStream;
 import org.archive.io.RecordingOutputStream;
 import org.archive.io.ReplayCharSequence;
 import org.archive.io.ReplayInputStream;
+import org.archive.io.WindowedReplayCharSequence;
+import org.archive.util.zip.InflaterPool;
+import org.archive.util.zip.OpenJDK7InflaterInputStream;
 
 
 /**
@@ -62,6 +67,9 @@ public class Recorder {
     private static final int DEFAULT_OUTPUT_BUFFER_SIZE = 16384;
     private static final int DEFAULT_INPUT_BUFFER_SIZE = 524288;
 
+    /** default most bytes of decoded content kept; see {@link #setMaxDecodedContentBytes(long)} */
+    public static final long DEFAULT_MAX_DECODED_CONTENT_BYTES = 64L * 1024 * 1024;
+
     private RecordingInputStream ris = null;
     private RecordingOutputStream ros = null;
 
@@ -82,6 +90,11 @@ public class Recorder {
     */
     private static final String RECORDING_INPUT_STREAM_SUFFIX = ".ris";
 
+    /**
+     * Backing file suffix for the decoded-content copy.
+     */
+    private static final String DECODED_CONTENT_SUFFIX = ".decoded";
+
     /**
      * recording-input (ris) content character encoding.
      */
@@ -105,6 +118,21 @@ public class Recorder {
     
     private ReplayCharSequence replayCharSequence;
 
+    /** pool for in-memory buffers, if any */
+    private DirectBufferPool bufferPool = null;
+
+    /** whether to keep a decoded copy of content; see {@link #setCacheDecodedContent(boolean)} */
+    protected boolean cacheDecodedContent = false;
+
+    /** content decoding to more than this is not kept */
+    protected long maxDecodedContentBytes = DEFAULT_MAX_DECODED_CONTENT_BYTES;
+
+    /** decoded copy of the current content, once made */
+    private RecordingOutputStream decodedContent = null;
+    private boolean decodedContentReady = false;
+    private boolean decodedContentFailed = false;
+    private byte[] decodedContentDigest = null;
+
    
     /**
      * Create an HttpRecorder.
@@ -143,6 +171,32 @@ public class Recorder {
             this.backingFileBasename + RECORDING_OUTPUT_STREAM_SUFFIX);
     }
 
+    /**
+     * Create a Recorder whose in-memory buffers are direct buffers borrowed
+     * from <code>bufferPool</code> when input or output is wrapped, and 
+     * returned by {@link #releaseBuffers()} or {@link #cleanup()}. With 
+     * many recorders sharing one pool, only those holding a recording 
+     * hold buffers, and none are on the Java heap.
+     *
+     * @param file Backing file basename.
+     * @param outBufferSize Size of output buffer to use.
+     * @param inBufferSize Size of input buffer to use.
+     * @param bufferPool Pool to borrow buffers from, e.g.
+     * {@link DirectBufferPool#SHARED}.
+     */
+    public Recorder(File file, int outBufferSize, int inBufferSize,
+            DirectBufferPool bufferPool) {
+        super();
+        this.backingFileBasename = file.getAbsolutePath();
+        this.bufferPool = bufferPool;
+        this.ris = new RecordingInputStream(inBufferSize,
+            this.backingFileBasename + RECORDING_INPUT_STREAM_SUFFIX, 
+            bufferPool);
+        this.ros = new RecordingOutputStream(outBufferSize,
+            this.backingFileBasename + RECORDING_OUTPUT_STREAM_SUFFIX,
+            bufferPool);
+    }
+
     /**
      * Create an HttpRecorder.
      * 
@@ -180,6 +234,7 @@ public class Recorder {
         this.characterEncoding = null;
         this.inputIsChunked = false;
         this.contentEncoding = null; 
+        discardDecodedContent();
         
         this.ris.open(is);
         return this.ris;
@@ -251,6 +306,31 @@ public class Recorder {
         return this.ris.getResponseContentLength();
     }
 
+    /**
+     * Compute all of <code>digests</code> over the recorded content, in
+     * the same pass that records it. Digesting restarts at
+     * {@link #markContentBegin()}.
+     *
+     * @param digests digests to compute, or null for none
+     */
+    public void setDigests(DigestSet digests) {
+        this.ris.setDigests(digests);
+    }
+
+    public DigestSet getDigests() {
+        return this.ris.getDigests();
+    }
+
+    /**
+     * @return algorithm name to digest value of the recorded content, for
+     * each of the digests set with {@link #setDigests(DigestSet)}; null if
+     * none were set
+     * @see org.archive.io.warc.WARCRecordInfo#setPayloadDigests(Map)
+     */
+    public Map<String, byte[]> getPayloadDigests() {
+        return this.ris.getDigestValues();
+    }
+
     /**
      * Close both input and output recorders.
      *
@@ -267,6 +347,29 @@ public class Recorder {
         }
     }
 
+    /**
+     * Return any pooled buffers. Call once done with all replays of the
+     * current recordings; wrapping new input or output borrows again.
+     * Replay streams and char sequences obtained before must not be read
+     * afterwards.
+     */
+    public void releaseBuffers() {
+        if (this.replayCharSequence != null) {
+            try {
+                this.replayCharSequence.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "problem closing replay char sequence", e);
+            }
+            this.replayCharSequence = null;
+        }
+        this.ris.releaseBuffer();
+        this.ros.releaseBuffer();
+        discardDecodedContent();
+        if (this.decodedContent != null) {
+            this.decodedContent.releaseBuffer();
+        }
+    }
+
     /**
      * Cleanup backing files.
      *
@@ -275,8 +378,13 @@ public class Recorder {
      */
     public void cleanup() {
         this.close();
+        releaseBuffers();
+        if (getDigests() != null) {
+            getDigests().close();
+        }
         this.delete(this.backingFileBasename + RECORDING_OUTPUT_STREAM_SUFFIX);
         this.delete(this.backingFileBasename + RECORDING_INPUT_STREAM_SUFFIX);
+        this.delete(this.backingFileBasename + DECODED_CONTENT_SUFFIX);
     }
 
     /**
@@ -323,6 +431,9 @@ public class Recorder {
     }
     
     public void setInputIsChunked(boolean chunked) {
+        if (chunked != this.inputIsChunked) {
+            discardDecodedContent();
+        }
         this.inputIsChunked = chunked;
     }
     
@@ -342,6 +453,7 @@ public class Recorder {
         if(!SUPPORTED_ENCODINGS.contains(contentEncoding.toLowerCase(Locale.ROOT))) {
             throw new IllegalArgumentException("contentEncoding unsupported: "+contentEncoding); 
         }
+        discardDecodedContent();
         this.contentEncoding = lowerCoding;
     }
 
@@ -381,6 +493,21 @@ public class Recorder {
      * @throws IOException
      */
     public ReplayCharSequence getContentReplayCharSequence(Charset requestedCharset) throws IOException {
+        Charset cs = requestedCharset == null
+                ? ReplayCharSequence.FALLBACK_CHARSET : requestedCharset;
+        if (WindowedReplayCharSequence.isSupported(cs)) {
+            // decode lazily, straight from the recorded (or decoded) bytes
+            if (isIdentityContent()) {
+                return new WindowedReplayCharSequence(
+                        getRecordedInput().getMessageBodyReplayInputStream(), cs);
+            }
+            if (cacheDecodedContent) {
+                ReplayInputStream decoded = getDecodedContentReplayInputStream();
+                if (decoded != null) {
+                    return new WindowedReplayCharSequence(decoded, cs);
+                }
+            }
+        }
         // raw data overflows to disk; use temp file
         InputStream ris = getContentReplayInputStream();
         ReplayCharSequence rcs =  new GenericReplayCharSequence(
@@ -392,6 +519,16 @@ public class Recorder {
         return rcs;
     }
     
+    /**
+     * @return true if the recorded entity is the content itself, with no
+     * content-encoding to undo
+     */
+    protected boolean isIdentityContentEncoding() {
+        return StringUtils.isEmpty(contentEncoding)
+                || "identity".equalsIgnoreCase(contentEncoding)
+                || "none".equalsIgnoreCase(contentEncoding);
+    }
+
     /**
      * Calculate a recommended size for an in-memory decoded-character buffer
      * of this content. We seek a size that is itself no larger (in 2-byte chars)
@@ -453,6 +590,21 @@ public class Recorder {
      * @throws IOException
      */
     public InputStream getContentReplayInputStream() throws IOException {
+        if (cacheDecodedContent && !isIdentityContent()) {
+            ReplayInputStream decoded = getDecodedContentReplayInputStream();
+            if (decoded != null) {
+                return decoded;
+            }
+        }
+        return decodeContent();
+    }
+
+    /**
+     * @return a new stream undoing any transfer- and content-encoding of
+     * the recorded entity
+     * @throws IOException
+     */
+    protected InputStream decodeContent() throws IOException {
         InputStream entityStream = getEntityReplayInputStream();
         if(StringUtils.isEmpty(contentEncoding)) {
             return entityStream;
@@ -465,7 +617,7 @@ public class Recorder {
                 return getEntityReplayInputStream(); 
             }
         } else if ("deflate".equalsIgnoreCase(contentEncoding)) {
-            return new DeflaterInputStream(entityStream);
+            return inflate(entityStream);
         } else if ("identity".equalsIgnoreCase(contentEncoding) || "none".equalsIgnoreCase(contentEncoding)) {
             return entityStream;
         } else {
@@ -475,6 +627,159 @@ public class Recorder {
         }
     }
     
+    /**
+     * HTTP deflate is meant to be zlib-wrapped, but many servers send raw
+     * deflate data; tell them apart by the zlib header check bits.
+     * 
+     * @return stream inflating <code>in</code>
+     */
+    protected static InputStream inflate(InputStream in) throws IOException {
+        BufferedInputStream bin = new BufferedInputStream(in);
+        bin.mark(2);
+        int cmf = bin.read();
+        int flg = bin.read();
+        bin.reset();
+        boolean zlib = cmf >= 0 && flg >= 0 && (cmf & 0x0f) == 8
+                && ((cmf << 8) | flg) % 31 == 0;
+        final InflaterPool pool = zlib ? InflaterPool.ZLIB : InflaterPool.GZIP;
+        return new OpenJDK7InflaterInputStream(bin, pool.borrow(), 8192) {
+            {
+                inflaterPool = pool;
+            }
+        };
+    }
+
+    /**
+     * Keep a decoded copy of content that is chunked or content-encoded,
+     * made in full the first time the content is replayed, and replay
+     * later calls of {@link #getContentReplayInputStream()} (and
+     * char sequences) from it rather than de-chunking and inflating again.
+     * The copy is held in a buffer as large as the input buffer (borrowed
+     * from the pool, if this recorder has one), spilling to a backing file.
+     * If decoding fails part-way, or the content decodes to more than
+     * {@link #getMaxDecodedContentBytes()}, nothing is kept, and replays
+     * decode as they go as before. Prefix reads
+     * ({@link #getContentReplayPrefixString(int)}) never make the copy.
+     * 
+     * @param cacheDecodedContent true to keep a decoded copy
+     */
+    public void setCacheDecodedContent(boolean cacheDecodedContent) {
+        this.cacheDecodedContent = cacheDecodedContent;
+        if (!cacheDecodedContent) {
+            discardDecodedContent();
+        }
+    }
+
+    public boolean getCacheDecodedContent() {
+        return cacheDecodedContent;
+    }
+
+    public long getMaxDecodedContentBytes() {
+        return maxDecodedContentBytes;
+    }
+
+    /**
+     * @param maxDecodedContentBytes most bytes of decoded content to keep
+     * a copy of, bounding what a small, highly compressed entity (a
+     * "gzip bomb") can make this recorder write
+     * @see #setCacheDecodedContent(boolean)
+     */
+    public void setMaxDecodedContentBytes(long maxDecodedContentBytes) {
+        this.maxDecodedContentBytes = maxDecodedContentBytes;
+    }
+
+    /**
+     * @return true if the recorded entity is the content as is
+     */
+    protected boolean isIdentityContent() {
+        return !inputIsChunked && isIdentityContentEncoding();
+    }
+
+    /**
+     * @return replay of the decoded copy of the content, made now if need
+     * be; null if it could not be made
+     * @throws IOException
+     */
+    protected ReplayInputStream getDecodedContentReplayInputStream()
+            throws IOException {
+        if (!decodedContentReady) {
+            if (decodedContentFailed) {
+                return null;
+            }
+            if (decodedContent == null) {
+                String name = backingFileBasename + DECODED_CONTENT_SUFFIX;
+                int size = ris.getRecordedBufferLength();
+                decodedContent = bufferPool != null
+                        ? new RecordingOutputStream(size, name, bufferPool)
+                        : new RecordingOutputStream(size, name);
+                decodedContent.setSha1Digest();
+            }
+            InputStream in = null;
+            try {
+                in = decodeContent();
+                decodedContent.open();
+                decodedContent.markMessageBodyBegin();
+                byte[] buf = new byte[16 * 1024];
+                long total = 0;
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    total += n;
+                    if (total > maxDecodedContentBytes) {
+                        logger.log(Level.FINE, "not keeping decoded content"
+                                + " over " + maxDecodedContentBytes + " bytes");
+                        IOUtils.closeQuietly(decodedContent);
+                        decodedContentFailed = true;
+                        return null;
+                    }
+                    decodedContent.write(buf, 0, n);
+                }
+                decodedContent.close();
+                decodedContentDigest = decodedContent.getDigestValue();
+                decodedContentReady = true;
+            } catch (IOException e) {
+                logger.log(Level.FINE, "not keeping decoded content", e);
+                IOUtils.closeQuietly(decodedContent);
+                decodedContentFailed = true;
+                return null;
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        return decodedContent.getMessageBodyReplayInputStream();
+    }
+
+    /**
+     * Forget any decoded copy of the content.
+     */
+    protected void discardDecodedContent() {
+        if (decodedContentReady && replayCharSequence != null) {
+            // may be reading from the copy
+            ArchiveUtils.closeQuietly(replayCharSequence);
+            replayCharSequence = null;
+        }
+        decodedContentReady = false;
+        decodedContentFailed = false;
+        decodedContentDigest = null;
+    }
+
+    /**
+     * @return length of the decoded content, if a decoded copy has been
+     * kept; otherwise -1
+     * @see #setCacheDecodedContent(boolean)
+     */
+    public long getDecodedContentLength() {
+        return decodedContentReady ? decodedContent.getSize() : -1;
+    }
+
+    /**
+     * @return SHA-1 of the decoded content, if a decoded copy has been
+     * kept; otherwise null
+     * @see #setCacheDecodedContent(boolean)
+     */
+    public byte[] getDecodedContentDigest() {
+        return decodedContentDigest;
+    }
+
     /**
      * Return a short prefix of the presumed-textual content as a String.
      * 
@@ -493,7 +798,12 @@ public class Recorder {
      */
     public String getContentReplayPrefixString(int size, Charset cs) {
         try {
-            InputStreamReader isr =  new InputStreamReader(getContentReplayInputStream(), cs); 
+            // only a prefix is wanted: use a decoded copy if one is already
+            // kept, but don't decode everything to make one
+            InputStream in = decodedContentReady && cacheDecodedContent
+                    ? decodedContent.getMessageBodyReplayInputStream()
+                    : decodeContent();
+            InputStreamReader isr =  new InputStreamReader(in, cs); 
             char[] chars = new char[size];
             int count = isr.read(chars);
             isr.close(); 
@@ -562,6 +872,7 @@ public class Recorder {
     public void endReplays() {
         ArchiveUtils.closeQuietly(replayCharSequence);
         replayCharSequence = null;
+        discardDecodedContent();
 
         // like closeQuietly
         try {
@@ -0,0 +1,51 @@
+package org.archive.util.binsearch.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import org.archive.util.binsearch.AbstractSeekableLineReader;
+import org.archive.util.zip.GZIPCheckpointIndex;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * SeekableLineReader over a gzip file, seeking by uncompressed offset with
+ * the help of a {@link GZIPCheckpointIndex}.
+ */
+public class GZIPIndexedSeekableLineReader extends AbstractSeekableLineReader {
+	
+	private RandomAccessFile raf;
+	private GZIPCheckpointIndex index;
+
+	public GZIPIndexedSeekableLineReader(RandomAccessFile raf, GZIPCheckpointIndex index, int blockSize) {
+		super(blockSize);
+		this.raf = raf;
+		this.index = index;
+	}
+
+	public InputStream doSeekLoad(long offset, int maxLength) throws IOException {
+		if (is != null) {
+			is.close();
+		}
+		
+		InputStream uncompressed = index.getInputStream(raf, offset, blockSize);
+		
+		if (maxLength > 0) {
+			return ByteStreams.limit(uncompressed, maxLength);
+		} else {
+			return uncompressed;
+		}
+	}
+	
+	public void doClose() throws IOException {
+		if (raf != null) {
+			raf.close();
+		}
+		raf = null;
+	}
+	
+	public long getSize() throws IOException {
+		return index.getUncompressedLength();
+	}
+}
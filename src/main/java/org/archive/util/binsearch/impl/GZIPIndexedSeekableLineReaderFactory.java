@@ -0,0 +1,67 @@
+package org.archive.util.binsearch.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.archive.util.binsearch.SeekableLineReader;
+import org.archive.util.binsearch.SeekableLineReaderFactory;
+import org.archive.util.zip.GZIPCheckpointIndex;
+
+public class GZIPIndexedSeekableLineReaderFactory implements SeekableLineReaderFactory {
+	private File file;
+	private int blockSize = BINSEARCH_BLOCK_SIZE;
+	private long span = GZIPCheckpointIndex.DEFAULT_SPAN;
+	private GZIPCheckpointIndex index;
+	
+	/**
+	 * Loads the checkpoint index from the sidecar file, building and saving
+	 * it first if it is missing or stale.
+	 */
+	public GZIPIndexedSeekableLineReaderFactory(File file) throws IOException {
+		this.file = file;
+		this.index = GZIPCheckpointIndex.loadOrBuild(file, span);
+	}
+	public GZIPIndexedSeekableLineReaderFactory(File file, int blockSize) throws IOException {
+		this.file = file;
+		this.blockSize = blockSize;
+		this.index = GZIPCheckpointIndex.loadOrBuild(file, span);
+	}
+	public GZIPIndexedSeekableLineReaderFactory(File file, GZIPCheckpointIndex index, int blockSize) {
+		this.file = file;
+		this.index = index;
+		this.blockSize = blockSize;
+	}
+	public SeekableLineReader get() throws IOException {
+		return new GZIPIndexedSeekableLineReader(new RandomAccessFile(file, "r"),
+				index, blockSize);
+	}
+	public void close() throws IOException {
+		this.file = null;
+		this.index = null;
+	}
+	
+	public long getModTime()
+	{
+		return file.lastModified();
+	}
+	
+	public GZIPCheckpointIndex getIndex()
+	{
+		return index;
+	}
+	
+	/**
+	 * Reload the checkpoint index from the sidecar file. Nothing is built
+	 * or written; if the sidecar is missing, stale or unreadable, the
+	 * current index is kept and an IOException thrown.
+	 */
+	@Override
+    public void reload() throws IOException {
+		GZIPCheckpointIndex fresh = GZIPCheckpointIndex.loadIfFresh(file);
+		if (fresh == null) {
+			throw new IOException("no up to date checkpoint index for " + file);
+		}
+		index = fresh;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util.zip;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread-safe pool of native zlib contexts ({@link java.util.zip.Inflater}
+ * or {@link java.util.zip.Deflater}). Released objects are reset and kept
+ * for reuse, up to <code>maxIdle</code>; beyond that they are ended right
+ * away rather than left for cleanup by the garbage collector.
+ *
+ * <p>Objects must not be used after they have been released.
+ *
+ * @param <T> pooled type
+ */
+public abstract class AbstractZlibPool<T> {
+    /** default number of idle objects kept per pool */
+    public final static int DEFAULT_MAX_IDLE =
+        Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+
+    protected final BlockingQueue<T> idle;
+
+    protected final AtomicLong borrowed = new AtomicLong();
+    protected final AtomicLong reused = new AtomicLong();
+    protected final AtomicLong created = new AtomicLong();
+    protected final AtomicLong discarded = new AtomicLong();
+
+    protected AbstractZlibPool(int maxIdle) {
+        this.idle = new ArrayBlockingQueue<T>(Math.max(1, maxIdle));
+    }
+
+    protected abstract T create();
+
+    protected abstract void reset(T obj);
+
+    protected abstract void end(T obj);
+
+    /**
+     * @return an idle pooled object, or a new one if none is idle
+     */
+    public T borrow() {
+        borrowed.incrementAndGet();
+        T obj = idle.poll();
+        if (obj != null) {
+            reused.incrementAndGet();
+            return obj;
+        }
+        created.incrementAndGet();
+        return create();
+    }
+
+    /**
+     * Reset <code>obj</code> and return it to the pool, or end it if the
+     * pool is full.
+     * @param obj object previously obtained from {@link #borrow()}
+     */
+    public void release(T obj) {
+        if (obj == null) {
+            return;
+        }
+        reset(obj);
+        if (!idle.offer(obj)) {
+            discarded.incrementAndGet();
+            end(obj);
+        }
+    }
+
+    /**
+     * End all idle objects.
+     */
+    public void clear() {
+        T obj;
+        while ((obj = idle.poll()) != null) {
+            end(obj);
+        }
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public long getBorrowCount() {
+        return borrowed.get();
+    }
+
+    /** @return number of borrows satisfied by an idle pooled object */
+    public long getReuseCount() {
+        return reused.get();
+    }
+
+    public long getCreateCount() {
+        return created.get();
+    }
+
+    /** @return number of released objects ended because the pool was full */
+    public long getDiscardCount() {
+        return discarded.get();
+    }
+
+    /** @return fraction of borrows satisfied from the pool */
+    public double getReuseRatio() {
+        long b = borrowed.get();
+        return b == 0 ? 0.0 : (double) reused.get() / b;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[borrowed=" + getBorrowCount()
+            + ", reused=" + getReuseCount() + ", created=" + getCreateCount()
+            + ", discarded=" + getDiscardCount() + ", idle=" + getIdleCount()
+            + "]";
+    }
+}
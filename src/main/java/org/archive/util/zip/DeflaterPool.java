@@ -0,0 +1,68 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util.zip;
+
+import java.util.zip.Deflater;
+
+/**
+ * Pool of {@link Deflater}s sharing one compression level and wrapping mode.
+ */
+public class DeflaterPool extends AbstractZlibPool<Deflater> {
+    /**
+     * shared pool of raw (nowrap) deflaters at default level, as used for
+     * gzip members
+     */
+    public final static DeflaterPool GZIP =
+        new DeflaterPool(Deflater.DEFAULT_COMPRESSION, true, DEFAULT_MAX_IDLE);
+
+    protected final int level;
+    protected final boolean nowrap;
+
+    public DeflaterPool(int level, boolean nowrap, int maxIdle) {
+        super(maxIdle);
+        this.level = level;
+        this.nowrap = nowrap;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public boolean isNowrap() {
+        return nowrap;
+    }
+
+    @Override
+    protected Deflater create() {
+        return new Deflater(level, nowrap);
+    }
+
+    @Override
+    protected void reset(Deflater deflater) {
+        deflater.reset();
+        // undo any per-use tuning so all pooled deflaters behave alike
+        deflater.setLevel(level);
+        deflater.setStrategy(Deflater.DEFAULT_STRATEGY);
+    }
+
+    @Override
+    protected void end(Deflater deflater) {
+        deflater.end();
+    }
+}
@@ -0,0 +1,892 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util.zip;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.archive.format.gzip.GZIPFormatException;
+import org.archive.util.io.RuntimeIOException;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Random-access index over a (typically single-member) gzip file, in the
+ * manner of zlib's <code>zran.c</code>.
+ *
+ * <p>While building, the whole file is inflated once and, at deflate block
+ * boundaries roughly every <code>span</code> bytes of uncompressed output, a
+ * checkpoint is recorded: the compressed bit position of the block start,
+ * the uncompressed offset, and the preceding 32 KB of output (the deflate
+ * window). Reading from an arbitrary uncompressed offset then only needs to
+ * inflate from the nearest preceding checkpoint, priming the
+ * {@link Inflater} with the saved window as a preset dictionary.
+ *
+ * <p>{@link Inflater} cannot start mid-byte or report block boundaries, so
+ * the build pass uses a small built-in inflater, and reads starting at a
+ * non byte-aligned block are fed through a bit-shifting stream.
+ *
+ * <p>The index is kept in a sidecar file, by default the gzip file name
+ * plus {@link #SIDECAR_SUFFIX}. Sidecars are written to a temporary file
+ * and renamed into place, so readers never see one half-written.
+ */
+public class GZIPCheckpointIndex {
+    private static final Logger logger =
+        Logger.getLogger(GZIPCheckpointIndex.class.getName());
+
+    public final static String SIDECAR_SUFFIX = ".gzindex";
+    public final static long DEFAULT_SPAN = 1024 * 1024;
+    public final static int WINDOW_SIZE = 32 * 1024;
+
+    private final static int MAGIC = 0x57474349; // "WGCI"
+    private final static int VERSION = 1;
+
+    /**
+     * A single access point into the compressed stream.
+     */
+    public static class Checkpoint {
+        /** offset in the uncompressed data */
+        protected long uncompressedOffset;
+        /** offset of the byte holding the first bit of the block */
+        protected long compressedOffset;
+        /** number of bits of that byte belonging to the previous block */
+        protected int bits;
+        /** offset just past the trailer of the containing gzip member */
+        protected long memberEnd;
+        /** deflated copy of the window preceding this point */
+        protected byte[] window;
+
+        public long getUncompressedOffset() {
+            return uncompressedOffset;
+        }
+        public long getCompressedOffset() {
+            return compressedOffset;
+        }
+        public int getBits() {
+            return bits;
+        }
+        public long getMemberEnd() {
+            return memberEnd;
+        }
+    }
+
+    protected long span;
+    protected long uncompressedLength;
+    protected long compressedLength;
+    protected List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+
+    protected GZIPCheckpointIndex(long span) {
+        this.span = span;
+    }
+
+    public long getSpan() {
+        return span;
+    }
+
+    public long getUncompressedLength() {
+        return uncompressedLength;
+    }
+
+    public long getCompressedLength() {
+        return compressedLength;
+    }
+
+    public List<Checkpoint> getCheckpoints() {
+        return Collections.unmodifiableList(checkpoints);
+    }
+
+    public static File getSidecarFile(File gzFile) {
+        return new File(gzFile.getPath() + SIDECAR_SUFFIX);
+    }
+
+    /**
+     * Build an index for the given gzip file.
+     * @param gzFile gzip file, one or more members
+     * @param span minimum uncompressed distance between checkpoints
+     * @return the index
+     * @throws IOException
+     */
+    public static GZIPCheckpointIndex build(File gzFile, long span)
+            throws IOException {
+        InputStream in = new FileInputStream(gzFile);
+        try {
+            return build(in, span);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Build an index by reading the gzip data in <code>in</code> from its
+     * current position to EOF. Offsets are relative to that position.
+     */
+    public static GZIPCheckpointIndex build(InputStream in, long span)
+            throws IOException {
+        GZIPCheckpointIndex index = new GZIPCheckpointIndex(span);
+        new Scanner(index, in).scan();
+        return index;
+    }
+
+    /**
+     * Load the sidecar index of <code>gzFile</code>, building and saving it
+     * if it does not exist yet or is older than the gzip file.
+     */
+    public static GZIPCheckpointIndex loadOrBuild(File gzFile, long span)
+            throws IOException {
+        File sidecar = getSidecarFile(gzFile);
+        if (isFresh(gzFile)) {
+            return load(sidecar);
+        }
+        GZIPCheckpointIndex index = build(gzFile, span);
+        index.save(sidecar);
+        return index;
+    }
+
+    /**
+     * @return whether <code>gzFile</code> has a sidecar index no older
+     * than itself
+     */
+    public static boolean isFresh(File gzFile) {
+        File sidecar = getSidecarFile(gzFile);
+        return sidecar.exists() && sidecar.lastModified() >= gzFile.lastModified();
+    }
+
+    /**
+     * Load the sidecar index of <code>gzFile</code> if it is fresh, without
+     * building or writing anything; for query paths that can fall back to
+     * reading the gzip file some other way.
+     *
+     * @return the index, or null if the sidecar is missing, stale or
+     * unreadable
+     */
+    public static GZIPCheckpointIndex loadIfFresh(File gzFile) {
+        if (!isFresh(gzFile)) {
+            return null;
+        }
+        try {
+            return load(getSidecarFile(gzFile));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "unreadable checkpoint index for " + gzFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Write the index to <code>sidecar</code>, by way of a temporary file
+     * in the same directory.
+     */
+    public void save(File sidecar) throws IOException {
+        File dir = sidecar.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(sidecar.getName(), ".tmp", dir);
+        boolean saved = false;
+        try {
+            write(tmp);
+            try {
+                Files.move(tmp.toPath(), sidecar.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), sidecar.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            saved = true;
+        } finally {
+            if (!saved && !tmp.delete()) {
+                logger.warning("failed delete of " + tmp);
+            }
+        }
+    }
+
+    protected void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(span);
+            out.writeLong(uncompressedLength);
+            out.writeLong(compressedLength);
+            out.writeInt(checkpoints.size());
+            for (Checkpoint cp : checkpoints) {
+                out.writeLong(cp.uncompressedOffset);
+                out.writeLong(cp.compressedOffset);
+                out.writeByte(cp.bits);
+                out.writeLong(cp.memberEnd);
+                out.writeInt(cp.window.length);
+                out.write(cp.window);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public static GZIPCheckpointIndex load(File sidecar) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(sidecar)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a gzip checkpoint index: " + sidecar);
+            }
+            GZIPCheckpointIndex index = new GZIPCheckpointIndex(in.readLong());
+            index.uncompressedLength = in.readLong();
+            index.compressedLength = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Checkpoint cp = new Checkpoint();
+                cp.uncompressedOffset = in.readLong();
+                cp.compressedOffset = in.readLong();
+                cp.bits = in.readUnsignedByte();
+                cp.memberEnd = in.readLong();
+                cp.window = new byte[in.readInt()];
+                in.readFully(cp.window);
+                index.checkpoints.add(cp);
+            }
+            return index;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the last checkpoint at or before <code>offset</code>
+     */
+    public Checkpoint findCheckpoint(long offset) {
+        int lo = 0;
+        int hi = checkpoints.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (checkpoints.get(mid).uncompressedOffset <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return checkpoints.get(lo);
+    }
+
+    /**
+     * Open an uncompressed stream positioned at <code>offset</code>. The
+     * RandomAccessFile is repositioned and is owned by the caller; closing
+     * the returned stream does not close it.
+     *
+     * @param raf the indexed gzip file
+     * @param offset uncompressed offset
+     * @param bufferSize size of compressed-side read buffer
+     * @return stream of uncompressed data from <code>offset</code> to EOF
+     * @throws IOException
+     */
+    public InputStream getInputStream(final RandomAccessFile raf, long offset,
+            final int bufferSize) throws IOException {
+        if (checkpoints.isEmpty() || offset >= uncompressedLength) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        final Checkpoint cp = findCheckpoint(offset);
+        raf.seek(cp.compressedOffset);
+        InputStream compressed = new BufferedInputStream(
+                new UnclosingFileInputStream(raf), bufferSize);
+        if (cp.bits != 0) {
+            compressed = new BitShiftInputStream(compressed, cp.bits);
+        }
+
+        final Inflater inflater = InflaterPool.GZIP.borrow();
+        InputStream is = null;
+        boolean positioned = false;
+        try {
+            if (cp.window.length > 0) {
+                inflater.setDictionary(inflateWindow(cp.window));
+            }
+            final InputStream member = new InflaterInputStream(compressed, inflater,
+                    bufferSize) {
+                boolean released = false;
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    if (!released) {
+                        released = true;
+                        InflaterPool.GZIP.release(inflater);
+                    }
+                }
+            };
+
+            is = member;
+            if (cp.memberEnd < compressedLength) {
+                // later members are read sequentially from their headers
+                Enumeration<InputStream> members = new Enumeration<InputStream>() {
+                    InputStream first = member;
+                    boolean rest = true;
+                    public boolean hasMoreElements() {
+                        return first != null || rest;
+                    }
+                    public InputStream nextElement() {
+                        if (first != null) {
+                            InputStream tmp = first;
+                            first = null;
+                            return tmp;
+                        }
+                        if (!rest) {
+                            throw new NoSuchElementException();
+                        }
+                        rest = false;
+                        try {
+                            raf.seek(cp.memberEnd);
+                            return new GZIPMembersInputStream(
+                                    new BufferedInputStream(
+                                            new UnclosingFileInputStream(raf),
+                                            bufferSize), bufferSize);
+                        } catch (IOException e) {
+                            throw new RuntimeIOException(e);
+                        }
+                    }
+                };
+                is = new SequenceInputStream(members);
+            }
+            ByteStreams.skipFully(is, offset - cp.uncompressedOffset);
+            positioned = true;
+            return is;
+        } finally {
+            if (!positioned) {
+                if (is != null) {
+                    // closing the first member gives back the inflater
+                    closeQuietly(is);
+                } else {
+                    InflaterPool.GZIP.release(inflater);
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(InputStream is) {
+        try {
+            is.close();
+        } catch (IOException e) {
+            // already failing
+        } catch (RuntimeException e) {
+            // already failing
+        }
+    }
+
+    protected static byte[] deflateWindow(byte[] window, int off, int len) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(window, off, len);
+            deflater.finish();
+            byte[] buf = new byte[len + 64];
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == buf.length) {
+                    byte[] bigger = new byte[buf.length * 2];
+                    System.arraycopy(buf, 0, bigger, 0, n);
+                    buf = bigger;
+                }
+                n += deflater.deflate(buf, n, buf.length - n);
+            }
+            byte[] result = new byte[n];
+            System.arraycopy(buf, 0, result, 0, n);
+            return result;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    protected static byte[] inflateWindow(byte[] deflated) throws IOException {
+        Inflater inflater = InflaterPool.GZIP.borrow();
+        try {
+            // extra dummy byte, required by nowrap
+            byte[] input = new byte[deflated.length + 1];
+            System.arraycopy(deflated, 0, input, 0, deflated.length);
+            inflater.setInput(input);
+            byte[] buf = new byte[WINDOW_SIZE];
+            int n = 0;
+            while (!inflater.finished() && n < buf.length) {
+                int got = inflater.inflate(buf, n, buf.length - n);
+                if (got == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated checkpoint window");
+                }
+                n += got;
+            }
+            byte[] result = new byte[n];
+            System.arraycopy(buf, 0, result, 0, n);
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt checkpoint window", e);
+        } finally {
+            InflaterPool.GZIP.release(inflater);
+        }
+    }
+
+    /**
+     * FileInputStream over a RandomAccessFile's descriptor which leaves the
+     * file open on close().
+     */
+    private static class UnclosingFileInputStream extends FilterInputStream {
+        UnclosingFileInputStream(RandomAccessFile raf) throws IOException {
+            super(new FileInputStream(raf.getFD()));
+        }
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Drops the low <code>shift</code> bits of the first byte and re-aligns
+     * the remaining bits, so a deflate block starting mid-byte can be handed
+     * to {@link Inflater}.
+     */
+    protected static class BitShiftInputStream extends FilterInputStream {
+        private final int shift;
+        private int pending = -1;
+        private boolean eof = false;
+        private byte[] buf = new byte[8192];
+        private byte[] skipBuf = new byte[8192];
+        private byte[] one = new byte[1];
+
+        protected BitShiftInputStream(InputStream in, int shift)
+                throws IOException {
+            super(in);
+            this.shift = shift;
+            pending = in.read();
+            if (pending < 0) {
+                eof = true;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (eof) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            int want = Math.min(len, buf.length);
+            int n = in.read(buf, 0, want);
+            if (n < 0) {
+                // final partial byte
+                b[off] = (byte) (pending >>> shift);
+                eof = true;
+                return 1;
+            }
+            int prev = pending;
+            for (int i = 0; i < n; i++) {
+                int cur = buf[i] & 0xff;
+                b[off + i] = (byte) ((prev >>> shift) | (cur << (8 - shift)));
+                prev = cur;
+            }
+            pending = prev;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n) {
+                int got = read(skipBuf, 0, (int) Math.min(n - skipped, skipBuf.length));
+                if (got < 0) {
+                    break;
+                }
+                skipped += got;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Minimal inflater (after Mark Adler's <code>puff.c</code>) which tracks
+     * the exact bit position of every deflate block and keeps the last
+     * 32 KB of output, recording checkpoints into the index as it goes.
+     */
+    protected static class Scanner {
+        private final static int MAXBITS = 15;
+        private final static int FAST_BITS = 9;
+        private final static int WINDOW_MASK = WINDOW_SIZE - 1;
+
+        private final static short[] LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9, 10,
+                11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99,
+                115, 131, 163, 195, 227, 258 };
+        private final static short[] LENGTH_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0,
+                1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+        private final static int[] DIST_BASE = { 1, 2, 3, 4, 5, 7, 9, 13, 17,
+                25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537,
+                2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+        private final static short[] DIST_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2, 3,
+                3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12,
+                13, 13 };
+        private final static short[] CODE_LENGTH_ORDER = { 16, 17, 18, 0, 8,
+                7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15 };
+
+        private static Huffman fixedLengthCodes;
+        private static Huffman fixedDistCodes;
+
+        private final GZIPCheckpointIndex index;
+        private final CountingInputStream in;
+        private int bitbuf = 0;
+        private int bitcnt = 0;
+        private final byte[] window = new byte[WINDOW_SIZE];
+        private long out = 0;
+        private long memberStartOut = 0;
+        private long lastCheckpointOut = 0;
+
+        protected Scanner(GZIPCheckpointIndex index, InputStream in) {
+            this.index = index;
+            this.in = new CountingInputStream(new BufferedInputStream(in, 65536));
+        }
+
+        protected void scan() throws IOException {
+            boolean first = true;
+            InputStream headerIn = new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    return bits(8);
+                }
+            };
+            while (true) {
+                if (!first && bitcnt == 0) {
+                    in.mark(1);
+                    if (in.read() < 0) {
+                        break;
+                    }
+                    in.reset();
+                }
+                new GzipHeader(headerIn);
+                int memberCheckpoints = index.checkpoints.size();
+                memberStartOut = out;
+                inflateMember(first);
+                first = false;
+                // align to byte, then skip CRC32 and ISIZE
+                dropBits(bitcnt & 7);
+                for (int i = 0; i < 8; i++) {
+                    bits(8);
+                }
+                long memberEnd = position() >>> 3;
+                for (int i = memberCheckpoints; i < index.checkpoints.size(); i++) {
+                    index.checkpoints.get(i).memberEnd = memberEnd;
+                }
+            }
+            index.uncompressedLength = out;
+            index.compressedLength = position() >>> 3;
+        }
+
+        /** @return bit position of the next unconsumed input bit */
+        private long position() {
+            return (in.getCount() << 3) - bitcnt;
+        }
+
+        private void inflateMember(boolean first) throws IOException {
+            boolean last;
+            boolean memberStart = true;
+            do {
+                if ((first && memberStart) || out - lastCheckpointOut >= index.span) {
+                    addCheckpoint();
+                }
+                memberStart = false;
+                last = bits(1) == 1;
+                int type = bits(2);
+                switch (type) {
+                case 0:
+                    stored();
+                    break;
+                case 1:
+                    codes(fixedLengthCodes(), fixedDistCodes());
+                    break;
+                case 2:
+                    dynamic();
+                    break;
+                default:
+                    throw new GZIPFormatException("Invalid deflate block type");
+                }
+            } while (!last);
+        }
+
+        private void addCheckpoint() {
+            long pos = position();
+            Checkpoint cp = new Checkpoint();
+            cp.uncompressedOffset = out;
+            cp.compressedOffset = pos >>> 3;
+            cp.bits = (int) (pos & 7);
+            int len = (int) Math.min(out - memberStartOut, WINDOW_SIZE);
+            byte[] copy = new byte[len];
+            int start = (int) ((out - len) & WINDOW_MASK);
+            int firstPart = Math.min(len, WINDOW_SIZE - start);
+            System.arraycopy(window, start, copy, 0, firstPart);
+            System.arraycopy(window, 0, copy, firstPart, len - firstPart);
+            cp.window = deflateWindow(copy, 0, len);
+            index.checkpoints.add(cp);
+            lastCheckpointOut = out;
+        }
+
+        private boolean need(int n) throws IOException {
+            while (bitcnt < n) {
+                int b = in.read();
+                if (b < 0) {
+                    return false;
+                }
+                bitbuf |= b << bitcnt;
+                bitcnt += 8;
+            }
+            return true;
+        }
+
+        private int bits(int n) throws IOException {
+            if (!need(n)) {
+                throw new EOFException("Unexpected end of gzip data");
+            }
+            int val = bitbuf & ((1 << n) - 1);
+            bitbuf >>>= n;
+            bitcnt -= n;
+            return val;
+        }
+
+        private void dropBits(int n) {
+            bitbuf >>>= n;
+            bitcnt -= n;
+        }
+
+        private void put(int b) {
+            window[(int) (out++ & WINDOW_MASK)] = (byte) b;
+        }
+
+        private void stored() throws IOException {
+            dropBits(bitcnt & 7);
+            int len = bits(16);
+            int nlen = bits(16);
+            if (len != (~nlen & 0xffff)) {
+                throw new GZIPFormatException("Stored block length mismatch");
+            }
+            while (len > 0 && bitcnt > 0) {
+                put(bits(8));
+                len--;
+            }
+            while (len > 0) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException("Unexpected end of gzip data");
+                }
+                put(b);
+                len--;
+            }
+        }
+
+        private int decode(Huffman h) throws IOException {
+            if (need(FAST_BITS) || bitcnt > 0) {
+                int entry = h.fast[bitbuf & ((1 << FAST_BITS) - 1)];
+                int len = entry & 0xf;
+                if (len != 0 && len <= bitcnt) {
+                    dropBits(len);
+                    return entry >>> 4;
+                }
+            }
+            // slow path: canonical decode one bit at a time
+            int code = 0;
+            int first = 0;
+            int index = 0;
+            for (int len = 1; len <= MAXBITS; len++) {
+                code |= bits(1);
+                int count = h.count[len];
+                if (code - count < first) {
+                    return h.symbol[index + (code - first)];
+                }
+                index += count;
+                first += count;
+                first <<= 1;
+                code <<= 1;
+            }
+            throw new GZIPFormatException("Invalid huffman code");
+        }
+
+        private void codes(Huffman lencode, Huffman distcode)
+                throws IOException {
+            while (true) {
+                int symbol = decode(lencode);
+                if (symbol < 256) {
+                    put(symbol);
+                } else if (symbol == 256) {
+                    return;
+                } else {
+                    symbol -= 257;
+                    if (symbol >= 29) {
+                        throw new GZIPFormatException("Invalid length symbol");
+                    }
+                    int len = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+                    symbol = decode(distcode);
+                    if (symbol >= 30) {
+                        throw new GZIPFormatException("Invalid distance symbol");
+                    }
+                    int dist = DIST_BASE[symbol] + bits(DIST_EXTRA[symbol]);
+                    if (dist > out - memberStartOut) {
+                        throw new GZIPFormatException("Distance too far back");
+                    }
+                    while (len-- > 0) {
+                        put(window[(int) ((out - dist) & WINDOW_MASK)]);
+                    }
+                }
+            }
+        }
+
+        private void dynamic() throws IOException {
+            int nlen = bits(5) + 257;
+            int ndist = bits(5) + 1;
+            int ncode = bits(4) + 4;
+            if (nlen > 286 || ndist > 30) {
+                throw new GZIPFormatException("Bad dynamic block counts");
+            }
+            short[] lengths = new short[320];
+            for (int i = 0; i < ncode; i++) {
+                lengths[CODE_LENGTH_ORDER[i]] = (short) bits(3);
+            }
+            Huffman lencode = new Huffman(lengths, 0, 19);
+            int i = 0;
+            while (i < nlen + ndist) {
+                int symbol = decode(lencode);
+                if (symbol < 16) {
+                    lengths[i++] = (short) symbol;
+                } else {
+                    short len = 0;
+                    int repeat;
+                    if (symbol == 16) {
+                        if (i == 0) {
+                            throw new GZIPFormatException("Repeat with no first length");
+                        }
+                        len = lengths[i - 1];
+                        repeat = 3 + bits(2);
+                    } else if (symbol == 17) {
+                        repeat = 3 + bits(3);
+                    } else {
+                        repeat = 11 + bits(7);
+                    }
+                    if (i + repeat > nlen + ndist) {
+                        throw new GZIPFormatException("Too many code lengths");
+                    }
+                    while (repeat-- > 0) {
+                        lengths[i++] = len;
+                    }
+                }
+            }
+            if (lengths[256] == 0) {
+                throw new GZIPFormatException("No end-of-block code");
+            }
+            codes(new Huffman(lengths, 0, nlen),
+                    new Huffman(lengths, nlen, ndist));
+        }
+
+        private static synchronized Huffman fixedLengthCodes() {
+            if (fixedLengthCodes == null) {
+                short[] lengths = new short[288];
+                int i = 0;
+                for (; i < 144; i++) lengths[i] = 8;
+                for (; i < 256; i++) lengths[i] = 9;
+                for (; i < 280; i++) lengths[i] = 7;
+                for (; i < 288; i++) lengths[i] = 8;
+                fixedLengthCodes = new Huffman(lengths, 0, 288);
+            }
+            return fixedLengthCodes;
+        }
+
+        private static synchronized Huffman fixedDistCodes() {
+            if (fixedDistCodes == null) {
+                short[] lengths = new short[30];
+                for (int i = 0; i < 30; i++) lengths[i] = 5;
+                fixedDistCodes = new Huffman(lengths, 0, 30);
+            }
+            return fixedDistCodes;
+        }
+
+        /**
+         * Canonical huffman code: counts per length and symbols ordered by
+         * code, plus a lookup table for codes up to FAST_BITS long indexed
+         * by the (bit-reversed) next input bits.
+         */
+        private static class Huffman {
+            final short[] count = new short[MAXBITS + 1];
+            final short[] symbol;
+            final int[] fast = new int[1 << FAST_BITS];
+
+            Huffman(short[] lengths, int off, int n) {
+                symbol = new short[n];
+                for (int i = 0; i < n; i++) {
+                    count[lengths[off + i]]++;
+                }
+                short[] offs = new short[MAXBITS + 1];
+                for (int len = 1; len < MAXBITS; len++) {
+                    offs[len + 1] = (short) (offs[len] + count[len]);
+                }
+                for (int i = 0; i < n; i++) {
+                    if (lengths[off + i] != 0) {
+                        symbol[offs[lengths[off + i]]++] = (short) i;
+                    }
+                }
+                // assign canonical codes to fill the fast table
+                int code = 0;
+                int index = 0;
+                for (int len = 1; len <= FAST_BITS; len++) {
+                    for (int i = 0; i < count[len]; i++) {
+                        int sym = symbol[index++];
+                        int rev = Integer.reverse(code) >>> (32 - len);
+                        for (int fill = rev; fill < fast.length; fill += 1 << len) {
+                            fast[fill] = (sym << 4) | len;
+                        }
+                        code++;
+                    }
+                    code <<= 1;
+                }
+            }
+        }
+    }
+}
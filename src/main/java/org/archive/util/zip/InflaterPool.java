@@ -0,0 +1,58 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util.zip;
+
+import java.util.zip.Inflater;
+
+/**
+ * Pool of {@link Inflater}s of one kind (raw or zlib-wrapped).
+ */
+public class InflaterPool extends AbstractZlibPool<Inflater> {
+    /** shared pool of raw (nowrap) inflaters, as used for gzip members */
+    public final static InflaterPool GZIP = new InflaterPool(true, DEFAULT_MAX_IDLE);
+
+    /** shared pool of zlib-wrapped inflaters, as for HTTP deflate */
+    public final static InflaterPool ZLIB = new InflaterPool(false, DEFAULT_MAX_IDLE);
+
+    protected final boolean nowrap;
+
+    public InflaterPool(boolean nowrap, int maxIdle) {
+        super(maxIdle);
+        this.nowrap = nowrap;
+    }
+
+    public boolean isNowrap() {
+        return nowrap;
+    }
+
+    @Override
+    protected Inflater create() {
+        return new Inflater(nowrap);
+    }
+
+    @Override
+    protected void reset(Inflater inflater) {
+        inflater.reset();
+    }
+
+    @Override
+    protected void end(Inflater inflater) {
+        inflater.end();
+    }
+}
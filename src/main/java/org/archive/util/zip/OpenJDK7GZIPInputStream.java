@@ -34,7 +34,6 @@ import java.io.IOException;
 import java.io.EOFException;
 import java.util.zip.CRC32;               // IA ADDED IMPORT
 import java.util.zip.CheckedInputStream;  // IA ADDED IMPORT
-import java.util.zip.Inflater;            // IA ADDED IMPORT
 import java.util.zip.ZipException;        // IA ADDED IMPORT
 
 /**
@@ -79,9 +78,18 @@ class OpenJDK7GZIPInputStream extends OpenJDK7InflaterInputStream { // IA RENAMI
      * @exception IllegalArgumentException if size is &lt;= 0
      */
     public OpenJDK7GZIPInputStream(InputStream in, int size) throws IOException {
-        super(in, new Inflater(true), size);
+        super(in, InflaterPool.GZIP.borrow(), size); // IA CHANGE: POOLED INFLATER
         usesDefaultInflater = true;
-        readHeader(in);
+        inflaterPool = InflaterPool.GZIP;
+        try {
+            readHeader(in);
+        } catch (IOException e) {
+            // not a usable gzip stream; hand the inflater straight back
+            inflaterPool.release(inf);
+            inflaterPool = null;
+            usesDefaultInflater = false;
+            throw e;
+        }
     }
 
     /**
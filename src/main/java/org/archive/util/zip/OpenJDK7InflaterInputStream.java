@@ -104,6 +104,12 @@ class OpenJDK7InflaterInputStream extends FilterInputStream { // IA RENAMED CLAS
 
     protected boolean usesDefaultInflater = false;
 
+    /**
+     * Pool the inflater was borrowed from, if any; it is returned there on
+     * close() instead of being ended.
+     */
+    protected InflaterPool inflaterPool = null; // IA ADDITION
+
     /**
      * Creates a new input stream with a default decompressor and buffer size.
      * @param in the input stream
@@ -226,7 +232,9 @@ class OpenJDK7InflaterInputStream extends FilterInputStream { // IA RENAMED CLAS
      */
     public void close() throws IOException {
         if (!closed) {
-            if (usesDefaultInflater)
+            if (inflaterPool != null) // IA ADDITION
+                inflaterPool.release(inf);
+            else if (usesDefaultInflater)
                 inf.end();
             in.close();
             closed = true;
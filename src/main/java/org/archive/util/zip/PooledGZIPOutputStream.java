@@ -0,0 +1,113 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a single gzip member, like {@link java.util.zip.GZIPOutputStream},
+ * but with a {@link java.util.zip.Deflater} borrowed from a
+ * {@link DeflaterPool}. {@link #end()} hands the deflater back without
+ * closing the wrapped stream.
+ */
+public class PooledGZIPOutputStream extends DeflaterOutputStream {
+    private final static byte[] HEADER = {
+        (byte) 0x1f, (byte) 0x8b, // magic
+        8,                        // CM deflate
+        0,                        // FLG
+        0, 0, 0, 0,               // MTIME
+        0,                        // XFL
+        0                         // OS
+    };
+
+    protected DeflaterPool pool;
+    protected CRC32 crc = new CRC32();
+    private boolean finished = false;
+
+    public PooledGZIPOutputStream(OutputStream out) throws IOException {
+        this(out, DeflaterPool.GZIP, 512);
+    }
+
+    public PooledGZIPOutputStream(OutputStream out, DeflaterPool pool,
+            int size) throws IOException {
+        super(out, pool.borrow(), size);
+        this.pool = pool;
+        out.write(HEADER);
+    }
+
+    /**
+     * @return Reference to stream being compressed.
+     */
+    public OutputStream getWrappedStream() {
+        return this.out;
+    }
+
+    @Override
+    public synchronized void write(byte[] buf, int off, int len)
+            throws IOException {
+        super.write(buf, off, len);
+        crc.update(buf, off, len);
+    }
+
+    /**
+     * Finish writing compressed data and the gzip trailer, without closing
+     * the wrapped stream.
+     */
+    @Override
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        super.finish();
+        writeInt((int) crc.getValue());
+        writeInt((int) def.getBytesRead());
+        finished = true;
+    }
+
+    private void writeInt(int i) throws IOException {
+        out.write(i & 0xff);
+        out.write((i >> 8) & 0xff);
+        out.write((i >> 16) & 0xff);
+        out.write((i >> 24) & 0xff);
+    }
+
+    /**
+     * Return the deflater to its pool. The stream must not be written to
+     * afterwards.
+     */
+    public void end() {
+        if (pool != null) {
+            pool.release(def);
+            pool = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+            out.close();
+        } finally {
+            end();
+        }
+    }
+}
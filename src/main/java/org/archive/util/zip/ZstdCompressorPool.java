@@ -0,0 +1,122 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util.zip;
+
+import java.nio.ByteBuffer;
+
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDictCompress;
+
+/**
+ * Pool of Zstandard compression contexts sharing one level and, optionally,
+ * one dictionary, which is digested once into a {@link ZstdDictCompress}
+ * rather than for every frame. Each pooled {@link Compressor} also carries
+ * the direct buffers its context streams through, so writing a frame with
+ * {@link ZstdFrameOutputStream} allocates nothing native.
+ *
+ * <p>Call {@link #close()} once no more frames will be written, to free
+ * the idle contexts and the dictionary.
+ *
+ * Requires the optional <code>com.github.luben:zstd-jni</code> dependency.
+ */
+public class ZstdCompressorPool extends AbstractZlibPool<ZstdCompressorPool.Compressor> {
+    /** bytes buffered before handing input to the context; one zstd block */
+    public final static int BUFFER_SIZE = 128 * 1024;
+
+    /** a compression context and the buffers it streams through */
+    public static class Compressor {
+        protected final ZstdCompressCtx ctx = new ZstdCompressCtx();
+        protected final ByteBuffer src = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        protected final ByteBuffer dst = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        protected final byte[] transfer = new byte[BUFFER_SIZE];
+    }
+
+    protected final int level;
+    protected final ZstdDictCompress dictionary;
+    protected volatile boolean closed = false;
+
+    /**
+     * @param level compression level
+     * @param dictionary raw dictionary for all frames, or null
+     * @param maxIdle most idle contexts kept
+     */
+    public ZstdCompressorPool(int level, byte[] dictionary, int maxIdle) {
+        super(maxIdle);
+        this.level = level;
+        this.dictionary = dictionary == null ? null
+                : new ZstdDictCompress(dictionary, level);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    protected Compressor create() {
+        Compressor c = new Compressor();
+        configure(c.ctx);
+        return c;
+    }
+
+    protected void configure(ZstdCompressCtx ctx) {
+        ctx.setLevel(level);
+        ctx.setChecksum(true);
+        if (dictionary != null) {
+            ctx.loadDict(dictionary);
+        }
+    }
+
+    @Override
+    protected void reset(Compressor c) {
+        // drops any unfinished frame, along with all parameters
+        c.ctx.reset();
+        configure(c.ctx);
+        c.src.clear();
+        c.dst.clear();
+    }
+
+    @Override
+    public synchronized void release(Compressor c) {
+        if (c != null && closed) {
+            end(c);
+            return;
+        }
+        super.release(c);
+    }
+
+    @Override
+    protected void end(Compressor c) {
+        c.ctx.close();
+    }
+
+    /**
+     * Free idle contexts and the dictionary. Contexts still borrowed are
+     * freed as they are released.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        clear();
+        if (dictionary != null) {
+            dictionary.close();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util.zip;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import com.github.luben.zstd.EndDirective;
+import com.github.luben.zstd.ZstdException;
+
+/**
+ * Writes one Zstandard frame to the wrapped stream; {@link #finish()} ends
+ * the frame, returns the compression context to its
+ * {@link ZstdCompressorPool} and leaves the wrapped stream open for the
+ * next frame, as used for per-record framing in <code>.warc.zst</code>
+ * files. Writers of many frames should share a pool, so that contexts
+ * and the digested dictionary are reused rather than created per frame.
+ * 
+ * Requires the optional <code>com.github.luben:zstd-jni</code> dependency.
+ */
+public class ZstdFrameOutputStream extends FilterOutputStream {
+    public final static int DEFAULT_LEVEL = 3;
+
+    protected ZstdCompressorPool pool;
+    /** pool made for this stream alone, closed when the frame ends */
+    protected boolean ownPool = false;
+    protected ZstdCompressorPool.Compressor compressor;
+    protected final byte[] single = new byte[1];
+    protected boolean finished = false;
+
+    /**
+     * Write a frame with a context of its own; prefer
+     * {@link #ZstdFrameOutputStream(OutputStream, ZstdCompressorPool)}
+     * when writing more than one frame.
+     */
+    public ZstdFrameOutputStream(OutputStream out, int level, byte[] dictionary)
+    throws IOException {
+        this(out, new ZstdCompressorPool(level, dictionary, 1));
+        this.ownPool = true;
+    }
+
+    public ZstdFrameOutputStream(OutputStream out, ZstdCompressorPool pool)
+    throws IOException {
+        super(out);
+        this.pool = pool;
+        this.compressor = pool.borrow();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    /**
+     * Write a dictionary as the skippable frame that, by the WARC zstd
+     * convention, must lead a file whose frames were compressed with it.
+     * 
+     * @param out stream at the start of a file
+     * @param dictionary the (uncompressed) dictionary
+     * @throws IOException
+     */
+    public static void writeDictionaryFrame(OutputStream out, byte[] dictionary)
+    throws IOException {
+        writeIntLE(out, ZstdMembersInputStream.DICTIONARY_FRAME_MAGIC);
+        writeIntLE(out, dictionary.length);
+        out.write(dictionary);
+    }
+
+    protected static void writeIntLE(OutputStream out, int v) throws IOException {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+        out.write((v >>> 16) & 0xff);
+        out.write((v >>> 24) & 0xff);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("frame already finished");
+        }
+        ByteBuffer src = compressor.src;
+        while (len > 0) {
+            int n = Math.min(len, src.remaining());
+            src.put(b, off, n);
+            off += n;
+            len -= n;
+            if (!src.hasRemaining()) {
+                compress(EndDirective.CONTINUE);
+            }
+        }
+    }
+
+    /**
+     * Hand the buffered input to the context, writing out what it
+     * produces: for CONTINUE until the input is consumed, for END until
+     * the frame is complete.
+     */
+    protected void compress(EndDirective op) throws IOException {
+        ByteBuffer src = compressor.src;
+        ByteBuffer dst = compressor.dst;
+        src.flip();
+        try {
+            boolean done;
+            do {
+                done = compressor.ctx.compressDirectByteBufferStream(dst, src, op);
+                dst.flip();
+                int n = dst.remaining();
+                dst.get(compressor.transfer, 0, n);
+                dst.clear();
+                out.write(compressor.transfer, 0, n);
+            } while (op == EndDirective.END ? !done : src.hasRemaining());
+        } catch (ZstdException e) {
+            throw new IOException(e);
+        }
+        src.clear();
+    }
+
+    /**
+     * End the frame, leaving the wrapped stream open.
+     * 
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        if (!finished) {
+            try {
+                compress(EndDirective.END);
+            } finally {
+                finished = true;
+                end();
+            }
+        }
+    }
+
+    /**
+     * Give the context back to its pool. Nothing more can be written.
+     */
+    protected void end() {
+        if (compressor != null) {
+            pool.release(compressor);
+            compressor = null;
+            if (ownPool) {
+                pool.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+            out.close();
+        } finally {
+            end();
+        }
+    }
+
+    public OutputStream getWrappedStream() {
+        return out;
+    }
+}
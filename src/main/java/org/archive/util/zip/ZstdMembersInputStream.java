@@ -0,0 +1,501 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.github.luben.zstd.ZstdInputStreamNoFinalizer;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Decompresses a series of concatenated Zstandard frames, as found in
+ * <code>.warc.zst</code> files, offering access to frame boundaries (in
+ * compressed offsets) the same way {@link GZIPMembersInputStream} does for
+ * gzip members.
+ * 
+ * Frame boundaries are found by walking the frame and block headers, so
+ * the native decompressor never sees (or buffers) bytes belonging to the
+ * following frame. Skippable frames are passed over; a leading dictionary
+ * frame (magic 0x184D2A5D, as per the WARC zstd convention) is read and
+ * its dictionary used for all subsequent frames. The dictionary may
+ * itself be zstd-compressed.
+ * 
+ * By default reads straight through all frames. With 
+ * {@link #setEofEachMember(boolean)} each frame end returns EOF, and 
+ * {@link #nextMember()} positions at the start of the following frame.
+ * 
+ * Requires the optional <code>com.github.luben:zstd-jni</code> dependency.
+ */
+public class ZstdMembersInputStream extends InputStream {
+    public final static int ZSTD_MAGIC = 0xFD2FB528;
+    public final static int DICTIONARY_FRAME_MAGIC = 0x184D2A5D;
+    protected final static int SKIPPABLE_MAGIC_MASK = 0xFFFFFFF0;
+    protected final static int SKIPPABLE_MAGIC = 0x184D2A50;
+
+    protected CountingInputStream in;
+    protected long startOffset;
+    protected byte[] dictionary;
+    protected boolean eofEachMember = false;
+
+    /** decompressor for the current frame; null between frames */
+    protected InputStream current;
+    /** true while nothing has been read from the current frame */
+    protected boolean currentUnread = false;
+    protected long memberNumber = -1;
+    protected long currentMemberStart = -1;
+    protected long currentMemberEnd = -1;
+    protected boolean exhausted = false;
+    /** scratch for single-byte reads and frame magic/size fields */
+    protected final byte[] scratch = new byte[4];
+
+    /**
+     * @param in stream positioned at the start of a zstd file (any leading
+     * dictionary frame will be read)
+     * @throws IOException
+     */
+    public ZstdMembersInputStream(InputStream in) throws IOException {
+        this(in, 0, null);
+    }
+
+    /**
+     * @param in stream of concatenated zstd frames
+     * @param startOffset compressed offset of <code>in</code>'s first byte,
+     * used when reporting member boundaries
+     * @param dictionary dictionary to decompress frames with, or null
+     * @throws IOException
+     */
+    public ZstdMembersInputStream(InputStream in, long startOffset,
+            byte[] dictionary) throws IOException {
+        this.in = new CountingInputStream(in);
+        this.startOffset = startOffset;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Read the dictionary from the leading dictionary frame of a zstd
+     * stream, if it has one.
+     * 
+     * @param in stream positioned at the start of a zstd file
+     * @return the (uncompressed) dictionary, or null if none
+     * @throws IOException
+     */
+    public static byte[] readDictionary(InputStream in) throws IOException {
+        int magic;
+        try {
+            magic = readIntLE(in);
+        } catch (EOFException e) {
+            return null;
+        }
+        if (magic != DICTIONARY_FRAME_MAGIC) {
+            return null;
+        }
+        byte[] dict = new byte[readIntLE(in)];
+        ByteStreams.readFully(in, dict);
+        return uncompressDictionary(dict);
+    }
+
+    /**
+     * Tests whether the passed stream starts with a zstd frame (data or
+     * skippable). Does not mark/reset the stream.
+     * 
+     * @param in stream to test
+     * @return true if stream begins with zstd magic
+     * @throws IOException
+     */
+    public static boolean isZstd(InputStream in) throws IOException {
+        int magic;
+        try {
+            magic = readIntLE(in);
+        } catch (EOFException e) {
+            return false;
+        }
+        return magic == ZSTD_MAGIC
+                || (magic & SKIPPABLE_MAGIC_MASK) == SKIPPABLE_MAGIC;
+    }
+
+    protected static byte[] uncompressDictionary(byte[] dict) throws IOException {
+        if (dict.length >= 4 && (dict[0] & 0xff) == 0x28 
+                && (dict[1] & 0xff) == 0xB5 && (dict[2] & 0xff) == 0x2F
+                && (dict[3] & 0xff) == 0xFD) {
+            InputStream zin = Native.open(new ByteArrayInputStream(dict), null);
+            try {
+                return ByteStreams.toByteArray(zin);
+            } finally {
+                zin.close();
+            }
+        }
+        return dict;
+    }
+
+    protected static int readIntLE(InputStream in) throws IOException {
+        return readIntLE(in, new byte[4]);
+    }
+
+    /**
+     * @param buf scratch of at least 4 bytes
+     * @throws EOFException if <code>in</code> is already at its end, or 
+     * ends partway through the int
+     */
+    protected static int readIntLE(InputStream in, byte[] buf)
+            throws IOException {
+        int n = 0;
+        while (n < 4) {
+            int r = in.read(buf, n, 4 - n);
+            if (r < 0) {
+                if (n == 0) {
+                    throw new EOFException();
+                }
+                throw new EOFException("truncated zstd frame magic");
+            }
+            n += r;
+        }
+        return (buf[0] & 0xff) | ((buf[1] & 0xff) << 8)
+                | ((buf[2] & 0xff) << 16) | ((buf[3] & 0xff) << 24);
+    }
+
+    protected long position() {
+        return startOffset + in.getCount();
+    }
+
+    /**
+     * Open the next data frame, skipping (and, for a dictionary frame,
+     * loading) any skippable frames on the way.
+     * 
+     * @return false if no further frames
+     * @throws IOException
+     */
+    protected boolean openFrame() throws IOException {
+        while (true) {
+            long start = position();
+            int magic;
+            try {
+                magic = readIntLE(in, scratch);
+            } catch (EOFException e) {
+                if (position() == start) {
+                    exhausted = true;
+                    return false;
+                }
+                throw e;
+            }
+            if ((magic & SKIPPABLE_MAGIC_MASK) == SKIPPABLE_MAGIC) {
+                int size = readIntLE(in, scratch);
+                if (magic == DICTIONARY_FRAME_MAGIC && dictionary == null) {
+                    byte[] dict = new byte[size];
+                    ByteStreams.readFully(in, dict);
+                    dictionary = uncompressDictionary(dict);
+                } else {
+                    ByteStreams.skipFully(in, size & 0xffffffffL);
+                }
+                continue;
+            }
+            if (magic != ZSTD_MAGIC) {
+                throw new IOException("not a zstd frame at offset " + start
+                        + ": magic " + Integer.toHexString(magic));
+            }
+            current = Native.open(new FrameInputStream(in), dictionary);
+            currentUnread = true;
+            memberNumber++;
+            currentMemberStart = start;
+            currentMemberEnd = -1;
+            return true;
+        }
+    }
+
+    protected void closeFrame() throws IOException {
+        current.close();
+        current = null;
+        currentMemberEnd = position();
+    }
+
+    @Override
+    public int read() throws IOException {
+        int n;
+        while ((n = read(scratch, 0, 1)) == 0);
+        return n < 0 ? -1 : scratch[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            if (current == null) {
+                if (exhausted || (eofEachMember && currentMemberEnd >= 0)
+                        || !openFrame()) {
+                    return -1;
+                }
+            }
+            int n = current.read(b, off, len);
+            if (n >= 0) {
+                currentUnread = false;
+                return n;
+            }
+            closeFrame();
+            if (eofEachMember) {
+                return -1;
+            }
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] scratch = new byte[(int) Math.min(8192, Math.max(n, 1))];
+        long skipped = 0;
+        while (skipped < n) {
+            int r = read(scratch, 0, (int) Math.min(scratch.length, n - skipped));
+            if (r < 0) {
+                break;
+            }
+            skipped += r;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current == null ? 0 : current.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        in.close();
+    }
+
+    /**
+     * Set whether reaching the end of each frame returns EOF (use 
+     * {@link #nextMember()} to proceed to the next).
+     * 
+     * @param eofPerMember true to set EOF-each-member behavior
+     */
+    public void setEofEachMember(boolean eofPerMember) {
+        this.eofEachMember = eofPerMember;
+    }
+
+    /**
+     * Finish the current frame, if any, and open the next data frame, so
+     * that {@link #getCurrentMemberStart()} reports its offset. Does nothing
+     * if a frame has been opened but not yet read from (e.g. just after
+     * {@link #compressedSeek(long)}).
+     * 
+     * @return false if there are no further frames
+     * @throws IOException
+     */
+    public boolean nextMember() throws IOException {
+        if (current != null && currentUnread) {
+            return true;
+        }
+        if (current != null) {
+            ByteStreams.exhaust(current);
+            closeFrame();
+        }
+        return !exhausted && openFrame();
+    }
+
+    /**
+     * Skip forward in the compressed stream to the frame starting at
+     * <code>position</code>, and open it. If nothing has yet been read from
+     * the start of the file, any dictionary frame is loaded first.
+     * 
+     * @param position compressed offset of a frame start
+     * @throws IOException
+     */
+    public void compressedSeek(long position) throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        if (in.getCount() == 0 && startOffset == 0 && dictionary == null
+                && position > 0) {
+            // pick up any leading dictionary frame before skipping past it
+            dictionary = readDictionary(in);
+        }
+        long delta = position - position();
+        if (delta < 0) {
+            throw new IllegalArgumentException("can't seek backwards: seeked "
+                    + position + " already at " + position());
+        }
+        ByteStreams.skipFully(in, delta);
+        exhausted = false;
+        if (!openFrame()) {
+            throw new EOFException("no zstd frame at offset " + position);
+        }
+    }
+
+    /**
+     * @return true if the last read finished a frame
+     */
+    public boolean getAtMemberEnd() {
+        return current == null && currentMemberEnd >= 0;
+    }
+
+    public long getMemberNumber() {
+        return memberNumber;
+    }
+
+    /**
+     * @return compressed offset where the current frame began
+     */
+    public long getCurrentMemberStart() {
+        return currentMemberStart;
+    }
+
+    /**
+     * @return compressed offset where the just-finished frame ended, or -1
+     * if the current frame's end has not been reached
+     */
+    public long getCurrentMemberEnd() {
+        return currentMemberEnd;
+    }
+
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Keeps references to zstd-jni classes out of this class's own code, so
+     * that merely loading it (e.g. for an instanceof test) does not require
+     * the optional dependency.
+     */
+    protected static class Native {
+        protected static InputStream open(InputStream in, byte[] dictionary)
+                throws IOException {
+            ZstdInputStreamNoFinalizer zin = new ZstdInputStreamNoFinalizer(in);
+            if (dictionary != null) {
+                zin.setDict(dictionary);
+            }
+            return zin;
+        }
+    }
+
+    /**
+     * Passes through exactly the bytes of one zstd frame (whose magic has
+     * already been consumed), walking the frame and block headers to find
+     * its end.
+     */
+    protected static class FrameInputStream extends InputStream {
+        protected final static int BLOCKS = 0;
+        protected final static int CHECKSUM = 1;
+        protected final static int DONE = 2;
+
+        protected InputStream in;
+        protected byte[] pending = new byte[18];
+        protected int pendingPos = 0;
+        protected int pendingLen = 0;
+        protected long chunkRemaining = 0;
+        protected boolean checksum;
+        protected int state = BLOCKS;
+        protected final byte[] single = new byte[1];
+
+        public FrameInputStream(InputStream in) throws IOException {
+            this.in = in;
+            pending[0] = 0x28;
+            pending[1] = (byte) 0xB5;
+            pending[2] = 0x2F;
+            pending[3] = (byte) 0xFD;
+            ByteStreams.readFully(in, pending, 4, 1);
+            int fhd = pending[4] & 0xff;
+            pendingLen = 5;
+            int fcsFlag = fhd >>> 6;
+            boolean singleSegment = (fhd & 0x20) != 0;
+            checksum = (fhd & 0x04) != 0;
+            int dictIdSize = new int[] {0, 1, 2, 4}[fhd & 0x03];
+            int fcsSize = fcsFlag == 0 ? (singleSegment ? 1 : 0) : 1 << fcsFlag;
+            int headerRest = (singleSegment ? 0 : 1) + dictIdSize + fcsSize;
+            ByteStreams.readFully(in, pending, pendingLen, headerRest);
+            pendingLen += headerRest;
+        }
+
+        /**
+         * Move on to the next structural piece of the frame.
+         * 
+         * @return false at frame end
+         */
+        protected boolean advance() throws IOException {
+            switch (state) {
+            case BLOCKS:
+                ByteStreams.readFully(in, pending, 0, 3);
+                pendingPos = 0;
+                pendingLen = 3;
+                int header = (pending[0] & 0xff) | ((pending[1] & 0xff) << 8)
+                        | ((pending[2] & 0xff) << 16);
+                int type = (header >>> 1) & 0x03;
+                if (type == 3) {
+                    throw new IOException("reserved zstd block type");
+                }
+                chunkRemaining = type == 1 ? 1 : header >>> 3;
+                if ((header & 1) != 0) {
+                    state = checksum ? CHECKSUM : DONE;
+                }
+                return true;
+            case CHECKSUM:
+                chunkRemaining = 4;
+                state = DONE;
+                return true;
+            default:
+                return false;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int n = read(single, 0, 1);
+            return n < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                if (pendingPos < pendingLen) {
+                    int n = Math.min(len, pendingLen - pendingPos);
+                    System.arraycopy(pending, pendingPos, b, off, n);
+                    pendingPos += n;
+                    return n;
+                }
+                if (chunkRemaining > 0) {
+                    int n = in.read(b, off, (int) Math.min(len, chunkRemaining));
+                    if (n < 0) {
+                        throw new EOFException("truncated zstd frame");
+                    }
+                    chunkRemaining -= n;
+                    return n;
+                }
+                if (!advance()) {
+                    return -1;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            // leave underlying stream open
+        }
+    }
+}
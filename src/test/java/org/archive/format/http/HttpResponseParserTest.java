@@ -2,12 +2,17 @@ package org.archive.format.http;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
+import org.archive.io.ArraySeekInputStream;
 import org.archive.util.IAUtils;
+import org.archive.util.LaxHttpParser;
 import org.archive.util.TestUtils;
 
 import org.junit.jupiter.api.Test;
 
+import com.google.common.io.ByteStreams;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class HttpResponseParserTest {
@@ -81,4 +86,118 @@ public class HttpResponseParserTest {
 		
 	}
 
+	@Test
+	public void testLongHeaderValue() throws IOException, HttpParseException {
+		StringBuilder cookie = new StringBuilder();
+		while (cookie.length() < 200 * 1024) {
+			cookie.append("k").append(cookie.length()).append("=v;");
+		}
+		String message = "200 OK\r\nSet-Cookie: " + cookie
+			+ "\r\nContent-Type: text/plain\r\n\r\nHi there";
+		HttpResponseParser parser = new HttpResponseParser();
+		for (int i = 0; i < 2; i++) {
+			HttpResponse response =
+				parser.parse(new ByteArrayInputStream(message.getBytes(IAUtils.UTF8)));
+			HttpHeaders headers = response.getHeaders();
+			assertEquals(2, headers.size());
+			assertEquals(cookie.toString(), headers.getValue("Set-Cookie"));
+			assertEquals("text/plain", headers.getValue("Content-Type"));
+			TestUtils.assertStreamEquals(response, "Hi there".getBytes(IAUtils.UTF8));
+		}
+
+		// buffers grow only up to the limits given
+		HttpHeaderParser small = new HttpHeaderParser(null, 10, 100);
+		small.isStrict = true;
+		assertEquals(2, small.parseHeaders(new ByteArrayInputStream(
+				"Name-Ten-X: ok\r\nA: b\r\n\r\n".getBytes(IAUtils.UTF8))).size());
+		assertThrows(HttpParseException.class, () -> small.parseHeaders(
+				new ByteArrayInputStream("Name-Eleven: ok\r\n\r\n".getBytes(IAUtils.UTF8))));
+		assertThrows(HttpParseException.class, () -> small.parseHeaders(
+				new ByteArrayInputStream(message.substring(8).getBytes(IAUtils.UTF8))));
+	}
+
+	@Test
+	public void testBlockParse() throws IOException, HttpParseException {
+		StringBuilder longValue = new StringBuilder();
+		while (longValue.length() < 3 * HttpHeaderParser.BLOCK_LENGTH) {
+			longValue.append("0123456789");
+		}
+		String body = "Body\r\nX: y\r\n\r\nmore";
+		String[] heads = {
+			"Content-Type: text/plain\r\nContent-Length: 4\r\n\r\n",
+			"A: b\nFolded: one\r\n  two\tthree \r\nEmpty:\r\n\n",
+			"Long: " + longValue + "\r\nShort: s\r\n\r\n",
+			"Bad\u00e9: x\r\nOK: caf\u00e9 ok\r\n\r\n",
+		};
+		HttpHeaderParser parser = new HttpHeaderParser();
+		for (String head : heads) {
+			byte[] b = (head + body).getBytes(IAUtils.UTF8);
+
+			HttpHeaders byByte = new HttpHeaders();
+			parser.setObserver(byByte);
+			InputStream in = new ByteArrayInputStream(b);
+			int byteCount = parser.doParse(in);
+			String byteRest = new String(ByteStreams.toByteArray(in), IAUtils.UTF8);
+
+			HttpHeaders byBlock = new HttpHeaders();
+			parser.setObserver(byBlock);
+			in = new ArraySeekInputStream(b);
+			assertEquals(byteCount, parser.doParse(in));
+			assertEquals(body, byteRest);
+			assertEquals(body, new String(ByteStreams.toByteArray(in), IAUtils.UTF8));
+			assertEquals(byByte.toString(), byBlock.toString());
+			assertEquals(byByte.isCorrupt(), byBlock.isCorrupt());
+			assertEquals(byByte.getTotalBytes(), byBlock.getTotalBytes());
+
+			// a stream that can't seek hands back what it read past
+			HttpHeaders byPushback = new HttpHeaders();
+			parser.setObserver(byPushback);
+			in = HttpHeaderParser.blockReadable(new ByteArrayInputStream(b));
+			assertTrue(in instanceof HttpHeaderParser.BlockPushbackInputStream);
+			assertEquals(byteCount, parser.doParse(in));
+			assertEquals(body, new String(ByteStreams.toByteArray(in), IAUtils.UTF8));
+			assertEquals(byByte.toString(), byPushback.toString());
+			assertEquals(byByte.getTotalBytes(), byPushback.getTotalBytes());
+
+			in = new ArraySeekInputStream(b);
+			HttpHeader[] lax = LaxHttpParser.parseHeaders(in, "UTF-8");
+			assertEquals(body, new String(ByteStreams.toByteArray(in), IAUtils.UTF8));
+			in = new ByteArrayInputStream(b);
+			assertEquals(lax.length, LaxHttpParser.parseHeaders(in, "UTF-8").length);
+			assertEquals(body, new String(ByteStreams.toByteArray(in), IAUtils.UTF8));
+		}
+	}
+
+	@Test
+	public void testHeaderNames() throws IOException, HttpParseException {
+		byte[] b = "Content-Type: a\r\ncontent-type: b\r\nX-Own: c\r\n\r\n"
+			.getBytes(IAUtils.UTF8);
+		HttpHeaderParser parser = new HttpHeaderParser();
+		HttpHeaders first = parser.parseHeaders(new ByteArrayInputStream(b));
+		HttpHeaders second = parser.parseHeaders(new ByteArrayInputStream(b));
+		assertSame(first.get(0).getName(), second.get(0).getName());
+		assertSame("Content-Type", first.get(0).getName());
+		assertNotSame(first.get(2).getName(), second.get(2).getName());
+		assertEquals("content-type", first.get(1).getName());
+
+		assertEquals("a", first.getValueCaseInsensitive("CONTENT-TYPE"));
+		assertEquals("b", first.getValue("content-type"));
+		assertEquals("c", first.getValueCaseInsensitive("x-own"));
+		assertNull(first.getValue("X-own"));
+		assertNull(first.get("Location"));
+
+		first.remove(0);
+		assertEquals("b", first.getValueCaseInsensitive("Content-Type"));
+		first.set(0, new HttpHeader("Location", "/"));
+		assertNull(first.getValueCaseInsensitive("Content-Type"));
+		assertEquals("/", first.getValue("Location"));
+		first.add("Content-Length", "12");
+		assertEquals(12, first.getContentLength());
+
+		assertEquals("WARC-Target-URI", HeaderNames.canonical("warc-target-uri"));
+		assertNull(HeaderNames.canonical("X-Own"));
+		assertEquals("x-own", HeaderNames.key("X-Own"));
+		assertSame(HeaderNames.key("ETAG"), HeaderNames.key("etag"));
+	}
+
 }
@@ -19,16 +19,24 @@
 
 package org.archive.io;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
+import org.archive.io.arc.ARCReaderFactory;
 import org.archive.io.arc.ARCWriterTest;
+import org.archive.io.warc.WARCReaderFactory;
+import org.archive.io.warc.WARCWriterTest;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ArchiveReaderFactoryTest {
@@ -78,6 +86,117 @@ public class ArchiveReaderFactoryTest {
         }
     }
     
+    /**
+     * Records of an uncompressed file opened by the factory are read from
+     * a seekable stream, so headers are parsed a block at a time, with the
+     * same offsets as when counting a plain stream.
+     * @throws IOException
+     */
+    @Test
+    public void testUncompressedWARCIsSeekable() throws IOException {
+        File warc = WARCWriterTest.createWARCFile(tempDir, false);
+        List<Long> offsets = new ArrayList<Long>();
+        ArchiveReader reader = WARCReaderFactory.get(warc);
+        try {
+            assertTrue(reader.getIn() instanceof SeekInputStream);
+            for (Iterator<ArchiveRecord> i = reader.iterator(); i.hasNext();) {
+                ArchiveRecord r = i.next();
+                assertTrue(r.getIn() instanceof SeekInputStream);
+                offsets.add(r.getHeader().getOffset());
+            }
+        } finally {
+            reader.close();
+        }
+        assertTrue(offsets.size() > 1);
+
+        reader = WARCReaderFactory.get(warc.getName(),
+                new BufferedInputStream(new FileInputStream(warc)), true);
+        try {
+            int n = 0;
+            for (Iterator<ArchiveRecord> i = reader.iterator(); i.hasNext(); n++) {
+                assertEquals(offsets.get(n).longValue(), i.next().getHeader().getOffset());
+            }
+            assertEquals(offsets.size(), n);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Headers-only records of an uncompressed file opened by the factory
+     * seek past their content rather than reading it through the shared
+     * transfer buffer, which a plain stream has to do.
+     * @throws IOException
+     */
+    @Test
+    public void testHeadersOnlySeeksPastContent() throws IOException {
+        File warc = WARCWriterTest.createWARCFile(tempDir, false);
+        for (boolean seekable : new boolean[] {true, false}) {
+            ArchiveReader reader = seekable ? WARCReaderFactory.get(warc)
+                    : WARCReaderFactory.get(warc.getName(),
+                            new BufferedInputStream(new FileInputStream(warc)), true);
+            reader.setHeadersOnly(0);
+            byte[] transferBuffer = null;
+            int n = 0;
+            try {
+                for (Iterator<ArchiveRecord> i = reader.iterator(); i.hasNext(); n++) {
+                    ArchiveRecord r = i.next();
+                    assertTrue(r.getHeader().getLength() > 0);
+                    r.close();
+                    transferBuffer = r.getTransferBuffer();
+                }
+            } finally {
+                reader.close();
+            }
+            assertTrue(n > 1);
+            boolean untouched = true;
+            for (byte b : transferBuffer) {
+                untouched &= b == 0;
+            }
+            assertEquals(seekable, untouched);
+        }
+    }
+
+    /**
+     * ARC metalines of an uncompressed file opened by the factory are read
+     * a block at a time from a seekable stream, giving the same headers as
+     * reading a plain stream byte by byte.
+     * @throws IOException
+     */
+    @Test
+    public void testUncompressedARCIsSeekable() throws IOException {
+        File arc = ARCWriterTest.createARCFile(tempDir, false);
+        List<ArchiveRecordHeader> headers = new ArrayList<ArchiveRecordHeader>();
+        ArchiveReader reader = ARCReaderFactory.get(arc);
+        try {
+            assertTrue(reader.getIn() instanceof SeekInputStream);
+            for (Iterator<ArchiveRecord> i = reader.iterator(); i.hasNext();) {
+                ArchiveRecord r = i.next();
+                assertTrue(r.getIn() instanceof SeekInputStream);
+                headers.add(r.getHeader());
+            }
+        } finally {
+            reader.close();
+        }
+        assertTrue(headers.size() > 1);
+
+        reader = ARCReaderFactory.get(arc.getName(),
+                new BufferedInputStream(new FileInputStream(arc)), true);
+        try {
+            int n = 0;
+            for (Iterator<ArchiveRecord> i = reader.iterator(); i.hasNext(); n++) {
+                ArchiveRecordHeader h = i.next().getHeader();
+                assertEquals(headers.get(n).getOffset(), h.getOffset());
+                assertEquals(headers.get(n).getUrl(), h.getUrl());
+                assertEquals(headers.get(n).getMimetype(), h.getMimetype());
+                assertEquals(headers.get(n).getLength(), h.getLength());
+            }
+            assertEquals(headers.size(), n);
+        } finally {
+            reader.close();
+        }
+    }
+
     /**
      * Test local file as String path
      * @throws IOException
@@ -0,0 +1,255 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.archive.format.warc.WARCConstants.WARCRecordType;
+import org.archive.io.arc.ARCReader;
+import org.archive.io.arc.ARCReaderFactory;
+import org.archive.io.arc.ARCWriter;
+import org.archive.io.arc.WriterPoolSettingsData;
+import org.archive.io.warc.WARCReader;
+import org.archive.io.warc.WARCReaderFactory;
+import org.archive.io.warc.WARCRecordInfo;
+import org.archive.io.warc.WARCWriter;
+import org.archive.io.warc.WARCWriterPoolSettingsData;
+import org.archive.uid.RecordIDGenerator;
+import org.archive.uid.UUIDGenerator;
+import org.archive.util.ArchiveUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArchiveRecordFetcherTest {
+    private static final AtomicInteger SERIAL_NO = new AtomicInteger();
+    private static final long MAX_FILE_SIZE = 100 * 1024 * 1024;
+
+    @TempDir
+    File tempDir;
+
+    RecordIDGenerator generator = new UUIDGenerator();
+
+    private static byte[] content(int index) {
+        return ("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n"
+                + "<html><body>Page #" + index + "</body></html>").getBytes(UTF_8);
+    }
+
+    private File writeWARC(String name, boolean compress, int recordCount)
+            throws IOException {
+        WARCWriter w = new WARCWriter(SERIAL_NO, new WARCWriterPoolSettingsData(
+                name, "${prefix}", MAX_FILE_SIZE, compress,
+                Arrays.asList(tempDir), null, generator));
+        for (int i = 0; i < recordCount; i++) {
+            byte[] b = content(i);
+            WARCRecordInfo recordInfo = new WARCRecordInfo();
+            recordInfo.setType(WARCRecordType.resource);
+            recordInfo.setUrl("http://www.one.net/id=" + i);
+            recordInfo.setCreate14DigitDate(ArchiveUtils.get14DigitDate());
+            recordInfo.setMimetype("text/html");
+            recordInfo.setRecordId(generator.getRecordID());
+            recordInfo.setContentLength((long) b.length);
+            recordInfo.setContentStream(new ByteArrayInputStream(b));
+            w.writeRecord(recordInfo);
+        }
+        w.close();
+        return w.getFile();
+    }
+
+    private File writeARC(String name, boolean compress, int recordCount)
+            throws IOException {
+        ARCWriter w = new ARCWriter(SERIAL_NO, new WriterPoolSettingsData(
+                name, "${prefix}", MAX_FILE_SIZE, compress,
+                Arrays.asList(tempDir), null));
+        for (int i = 0; i < recordCount; i++) {
+            byte[] b = content(i);
+            w.write("http://www.one.net/id=" + i, "text/html", "0.1.2.3",
+                    System.currentTimeMillis(), b.length,
+                    new ByteArrayInputStream(b));
+        }
+        w.close();
+        return w.getFile();
+    }
+
+    @Test
+    public void testFetchWARCRecords() throws Exception {
+        final List<File> files = new ArrayList<File>();
+        final List<Long> offsets = new ArrayList<Long>();
+        final List<String> urls = new ArrayList<String>();
+        final List<byte[]> contents = new ArrayList<byte[]>();
+        for (boolean compress : new boolean[] {false, true}) {
+            File f = writeWARC("fetcher-" + compress, compress, 5);
+            WARCReader reader = WARCReaderFactory.get(f);
+            for (Iterator<ArchiveRecord> i = reader.iterator(); i.hasNext();) {
+                ArchiveRecord r = i.next();
+                files.add(f);
+                offsets.add(r.getHeader().getOffset());
+                urls.add(r.getHeader().getUrl());
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                r.transferTo(baos);
+                contents.add(baos.toByteArray());
+            }
+            reader.close();
+        }
+
+        // one open file between two archives: every switch is a miss
+        final ArchiveRecordFetcher fetcher = new ArchiveRecordFetcher(1);
+        for (int n = files.size() - 1; n >= 0; n--) {
+            ArchiveRecord r = fetcher.fetch(files.get(n), offsets.get(n));
+            assertEquals(urls.get(n), r.getHeader().getUrl());
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            r.transferTo(baos);
+            assertArrayEquals(contents.get(n), baos.toByteArray());
+            r.close();
+            r.close();
+        }
+        assertEquals(2, fetcher.getMissCount());
+        assertEquals(files.size() - 2, fetcher.getHitCount());
+        assertEquals(1, fetcher.getEvictionCount());
+        assertEquals(1, fetcher.getOpenFileCount());
+
+        // records stay readable while their file is evicted
+        ArchiveRecord first = fetcher.fetch(files.get(0), offsets.get(0));
+        ArchiveRecord last = fetcher.fetch(files.get(files.size() - 1),
+            offsets.get(files.size() - 1));
+        assertEquals(contents.get(0).length, first.transferTo(new ByteArrayOutputStream()));
+        first.close();
+        last.close();
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < 8; t++) {
+                final int start = t;
+                results.add(pool.submit(() -> {
+                    for (int k = 0; k < files.size(); k++) {
+                        int n = (start + k) % files.size();
+                        ArchiveRecord r = fetcher.fetch(files.get(n), offsets.get(n));
+                        try {
+                            byte[] b = new byte[contents.get(n).length];
+                            if (r.readFully(b, 0, b.length) != b.length
+                                    && b.length > 0) {
+                                return false;
+                            }
+                            if (!Arrays.equals(contents.get(n), b)) {
+                                return false;
+                            }
+                        } finally {
+                            r.close();
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(fetcher.getHitCount() + fetcher.getMissCount(),
+            files.size() * 9L + 2);
+        fetcher.close();
+        assertThrows(IOException.class,
+            () -> fetcher.fetch(files.get(0), offsets.get(0)));
+    }
+
+    @Test
+    public void testFetchARCRecords() throws IOException {
+        ArchiveRecordFetcher fetcher = new ArchiveRecordFetcher();
+        for (boolean compress : new boolean[] {false, true}) {
+            File f = writeARC("fetcher-" + compress, compress, 4);
+            List<Long> offsets = new ArrayList<Long>();
+            List<String> contents = new ArrayList<String>();
+            ARCReader reader = ARCReaderFactory.get(f);
+            for (Iterator<ArchiveRecord> i = reader.iterator(); i.hasNext();) {
+                ArchiveRecord r = i.next();
+                offsets.add(r.getHeader().getOffset());
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                r.transferTo(baos);
+                contents.add(baos.toString("UTF-8"));
+            }
+            reader.close();
+            // skip the filedesc record
+            for (int n = offsets.size() - 1; n > 0; n--) {
+                ArchiveRecord r = fetcher.fetch(f, offsets.get(n));
+                assertEquals(offsets.get(n).longValue(), r.getHeader().getOffset());
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                r.transferTo(baos);
+                r.close();
+                assertEquals(contents.get(n), baos.toString("UTF-8"));
+            }
+        }
+        assertEquals(2, fetcher.getMissCount());
+        fetcher.close();
+    }
+
+    @Test
+    public void testConcurrentFirstFetch() throws Exception {
+        final File f = writeWARC("firstFetch", true, 2);
+        WARCReader reader = WARCReaderFactory.get(f);
+        // after the warcinfo record and id=0
+        final long offset = reader.validate().get(2).getOffset();
+        reader.close();
+
+        // threads racing to open the same file all end up sharing one
+        final ArchiveRecordFetcher fetcher = new ArchiveRecordFetcher();
+        final int threads = 8;
+        final CountDownLatch go = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int t = 0; t < threads; t++) {
+                results.add(pool.submit(() -> {
+                    go.await();
+                    ArchiveRecord r = fetcher.fetch(f, offset);
+                    try {
+                        return r.getHeader().getUrl();
+                    } finally {
+                        r.close();
+                    }
+                }));
+            }
+            go.countDown();
+            for (Future<String> result : results) {
+                assertEquals("http://www.one.net/id=1", result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(1, fetcher.getOpenFileCount());
+        assertEquals(0, fetcher.getEvictionCount());
+        assertEquals(threads, fetcher.getHitCount() + fetcher.getMissCount());
+        fetcher.close();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.common.io.ByteStreams;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileChannelInputStreamTest {
+    @TempDir
+    File tempDir;
+
+    private File write(String name, byte[] data, boolean append)
+            throws IOException {
+        File f = new File(tempDir, name);
+        OutputStream out = new FileOutputStream(f, append);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+
+    @Test
+    public void testBufferReturnedOnClose() throws IOException {
+        byte[] data = new byte[200000];
+        new Random(1).nextBytes(data);
+        File f = write("data", data, false);
+        long outstanding = DirectBufferPool.SHARED.getOutstandingBytes();
+        FileChannelInputStream in = new FileChannelInputStream(f);
+        assertEquals(outstanding + FileChannelInputStream.DEFAULT_BUFFER_SIZE,
+                DirectBufferPool.SHARED.getOutstandingBytes());
+        in.position(150000);
+        byte[] got = new byte[50000];
+        ByteStreams.readFully(in, got);
+        for (int i = 0; i < got.length; i++) {
+            assertEquals(data[150000 + i], got[i]);
+        }
+        in.close();
+        assertEquals(outstanding, DirectBufferPool.SHARED.getOutstandingBytes());
+        assertEquals(200000, in.position());
+        assertThrows(IOException.class, () -> in.read());
+        // closing twice gives nothing back twice
+        in.close();
+        assertEquals(outstanding, DirectBufferPool.SHARED.getOutstandingBytes());
+    }
+
+    @Test
+    public void testEnsureFullBufferAtUnalignedPosition() throws IOException {
+        byte[] data = new byte[40000];
+        new Random(2).nextBytes(data);
+        File f = write("unaligned", data, false);
+        int capacity = FileChannelInputStream.ALIGNMENT * 4;
+        FileChannelInputStream in = new FileChannelInputStream(
+                FileChannel.open(f.toPath(), StandardOpenOption.READ), true,
+                capacity);
+        try {
+            in.position(100);
+            assertTrue(in.ensure(capacity));
+            assertEquals(100, in.position());
+            ByteBuffer buffer = in.getBuffer();
+            assertEquals(capacity, buffer.remaining());
+            assertEquals(data[100], buffer.get(buffer.position()));
+            in.position(FileChannelInputStream.ALIGNMENT + 5);
+            assertTrue(in.ensure(10));
+            assertEquals(data[FileChannelInputStream.ALIGNMENT + 5], (byte) in.read());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testGrowingFile() throws IOException {
+        File f = write("growing", "first".getBytes("UTF-8"), false);
+        FileChannelInputStream in = new FileChannelInputStream(f);
+        try {
+            assertEquals("first", new String(ByteStreams.toByteArray(in), "UTF-8"));
+            assertEquals(0, in.available());
+            write("growing", " second".getBytes("UTF-8"), true);
+            assertEquals(7, in.available());
+            assertEquals(" second", new String(ByteStreams.toByteArray(in), "UTF-8"));
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -23,15 +23,27 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
 
+import org.archive.io.warc.WARCRecordInfo;
 import org.archive.util.Base32;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import com.google.common.hash.Hashing;
+
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
 /**
@@ -260,6 +272,125 @@ public class RecordingOutputStreamTest {
         ris.close();
     }
 
+    @Test
+    public void testPooledBuffer() throws IOException {
+        final String BASENAME = "testPooledBuffer";
+        DirectBufferPool pool = new DirectBufferPool(64 * 1024, 1024 * 1024);
+        RecordingOutputStream ros = new RecordingOutputStream(BUFFER_SIZE,
+                (new File(tempDir, BASENAME + "Backing.txt")).getAbsolutePath(), pool);
+        for (int i = 0; i < 3; i++) {
+            // byte-at-a-time and array writes, spilling past the buffer
+            File f = i % 2 == 0 ? writeIntRecordedFile(ros, BASENAME + i, WRITE_TOTAL)
+                    : writeByteRecordedFile(ros, BASENAME + i, WRITE_TOTAL);
+            assertEquals(DirectBufferPool.MIN_CLASS_BYTES, pool.getOutstandingBytes());
+            verifyRecording(ros, f, WRITE_TOTAL);
+            ReplayInputStream ris = ros.getReplayInputStream();
+            ByteArrayOutputStream bulk = new ByteArrayOutputStream();
+            assertEquals(WRITE_TOTAL, ris.readTo(bulk, WRITE_TOTAL, new byte[3]));
+            assertEquals(WRITE_TOTAL, bulk.size());
+            for (int j = 0; j < WRITE_TOTAL; j++) {
+                assertEquals(j, bulk.toByteArray()[j]);
+            }
+            ris.close();
+            ros.releaseBuffer();
+            assertEquals(0, pool.getOutstandingBytes());
+            assertThrows(IOException.class, () -> ros.getReplayInputStream());
+        }
+        assertEquals(3, pool.getBorrowCount());
+        assertEquals(1, pool.getCreateCount());
+        assertEquals(DirectBufferPool.MIN_CLASS_BYTES, pool.getIdleBytes());
+        assertEquals(BUFFER_SIZE, ros.getBufferLength());
+
+        // past the largest class: unpooled, and not kept
+        ByteBuffer big = pool.borrow(100 * 1024);
+        assertEquals(100 * 1024, big.limit());
+        pool.release(big);
+        assertEquals(1, pool.getDiscardCount());
+        ByteBuffer mid = pool.borrow(5000);
+        assertEquals(8192, mid.capacity());
+        pool.release(mid);
+        pool.clear();
+        assertEquals(0, pool.getIdleBytes());
+    }
+
+    @Test
+    public void testDigestSet() throws Exception {
+        byte[] head = "HTTP/1.1 200 OK\r\n\r\n".getBytes(UTF_8);
+        byte[] body = new byte[200 * 1024 + 17];
+        new Random(0).nextBytes(body);
+        for (boolean background : new boolean[] {false, true}) {
+            DigestSet digests = new DigestSet(background,
+                    "SHA-1", "SHA-256", DigestSet.MURMUR3_128);
+            RecordingOutputStream ros = new RecordingOutputStream(1024,
+                    new File(tempDir, "testDigestSet" + background).getAbsolutePath());
+            ros.setDigests(digests);
+            ros.setSha1Digest();
+            for (int run = 0; run < 2; run++) {
+                ros.open();
+                ros.write(head);
+                ros.markMessageBodyBegin();
+                // single bytes, small and large arrays
+                int pos = 0;
+                for (; pos < 1000; pos++) {
+                    ros.write(body[pos]);
+                }
+                ros.write(body, pos, 100);
+                pos += 100;
+                ros.write(body, pos, 130000);
+                pos += 130000;
+                ros.write(body, pos, body.length - pos);
+                ros.close();
+
+                Map<String, byte[]> values = ros.getDigestValues();
+                assertEquals(Arrays.asList("SHA-1", "SHA-256", DigestSet.MURMUR3_128),
+                        new ArrayList<String>(values.keySet()));
+                assertArrayEquals(MessageDigest.getInstance("SHA-1").digest(body),
+                        values.get("SHA-1"));
+                assertArrayEquals(ros.getDigestValue(), values.get("SHA-1"));
+                assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(body),
+                        values.get("SHA-256"));
+                assertArrayEquals(Hashing.murmur3_128().hashBytes(body).asBytes(),
+                        digests.getValue(DigestSet.MURMUR3_128));
+                assertEquals(body.length, digests.getByteCount());
+            }
+            digests.close();
+
+            WARCRecordInfo info = new WARCRecordInfo();
+            info.setPayloadDigests(ros.getDigestValues());
+            assertEquals("sha1:" + Base32.encode(ros.getDigestValues().get("SHA-1")),
+                    String.valueOf((Object) info.getExtraHeaders().get(0).getValue()));
+            assertEquals(1, info.getExtraHeaders().size());
+        }
+    }
+
+    @Test
+    public void testDigestSetsShareBackgroundThreads() throws Exception {
+        byte[] body = new byte[300 * 1024];
+        new Random(1).nextBytes(body);
+        byte[] expected = MessageDigest.getInstance("SHA-256").digest(body);
+        // more instances than pool threads, fed in turn
+        DigestSet[] sets = new DigestSet[4 * Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < sets.length; i++) {
+            sets[i] = new DigestSet(true, "SHA-256");
+        }
+        for (int pos = 0; pos < body.length; pos += 10000) {
+            for (DigestSet set : sets) {
+                set.update(body, pos, Math.min(10000, body.length - pos));
+            }
+        }
+        for (DigestSet set : sets) {
+            assertArrayEquals(expected, set.getValue("SHA-256"));
+            set.close();
+        }
+        int threads = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith("DigestSet-")) {
+                threads++;
+            }
+        }
+        assertTrue(threads <= Runtime.getRuntime().availableProcessors());
+    }
+
     @Test
     public void testMessageBodyBegin() throws IOException {
         final String BASENAME = "testMessageBodyBegin";
@@ -255,6 +255,78 @@ public class ReplayCharSequenceTest {
         }
     }
 
+    @Test
+    public void testWindowedSingleByte() throws IOException {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        RecordingOutputStream ros = writeTestStream(
+                bytes, 2, "testWindowedSingleByte.txt", 5);
+        for (Charset cs : new Charset[] {ISO_8859_1, US_ASCII,
+                Charset.forName("windows-1252")}) {
+            String expected = new String(bytes, cs);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 7; i++) {
+                sb.append(expected);
+            }
+            checkWindowed(ros, cs, sb.toString());
+        }
+    }
+
+    @Test
+    public void testWindowedUtf8() throws IOException {
+        // 1-, 2-, 3- and 4-byte sequences, plus a stray continuation byte,
+        // so that window boundaries fall inside sequences
+        byte[] unit = "a\u00e9\u20ac\ud83d\ude00 <b>x</b>\n".getBytes(UTF_8);
+        byte[] bytes = new byte[unit.length + 1];
+        System.arraycopy(unit, 0, bytes, 0, unit.length);
+        bytes[unit.length] = (byte) 0x80;
+        RecordingOutputStream ros = writeTestStream(
+                bytes, 3, "testWindowedUtf8.txt", 40);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 43; i++) {
+            sb.append(new String(bytes, UTF_8));
+        }
+        String expected = sb.toString();
+        ReplayCharSequence rcs = checkWindowed(ros, UTF_8, expected);
+        assertEquals(43, rcs.getDecodeExceptionCount());
+        assertNotNull(rcs.getCodingException());
+        assertEquals(expected, getReplayCharSequence(ros, UTF_8).toString());
+    }
+
+    @Test
+    public void testWindowedEmpty() throws IOException {
+        RecordingOutputStream ros = writeTestStream(
+                new byte[0], 1, "testWindowedEmpty.txt", 0);
+        checkWindowed(ros, UTF_8, "");
+        checkWindowed(ros, ISO_8859_1, "");
+        assertFalse(WindowedReplayCharSequence.isSupported(Charset.forName("ISO-2022-JP")));
+        assertFalse(WindowedReplayCharSequence.isSupported(StandardCharsets.UTF_16));
+    }
+
+    private ReplayCharSequence checkWindowed(RecordingOutputStream ros,
+            Charset cs, String expected) throws IOException {
+        ReplayCharSequence rcs = new WindowedReplayCharSequence(
+                ros.getMessageBodyReplayInputStream(), cs, 37, 3);
+        assertEquals(cs, rcs.getCharset());
+        assertEquals(expected.length(), rcs.length());
+        assertEquals(expected, rcs.toString());
+        Random rand = new Random(0);
+        for (int i = 0; i < 2000 && expected.length() > 0; i++) {
+            int index = rand.nextInt(expected.length());
+            assertEquals(expected.charAt(index), rcs.charAt(index), "index " + index);
+        }
+        for (int i = expected.length() - 1; i >= 0; i--) {
+            assertEquals(expected.charAt(i), rcs.charAt(i), "index " + i);
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> rcs.charAt(expected.length()));
+        rcs.close();
+        assertFalse(rcs.isOpen());
+        rcs.close();
+        return rcs;
+    }
+
     @Test
     @Disabled
     public void xestHugeReplayCharSequence() throws IOException {
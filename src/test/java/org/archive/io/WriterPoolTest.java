@@ -0,0 +1,309 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.archive.format.ArchiveFileConstants;
+import org.archive.format.warc.WARCConstants.WARCRecordType;
+import org.archive.io.warc.WARCReaderFactory;
+import org.archive.io.warc.WARCRecordInfo;
+import org.archive.io.warc.WARCWriter;
+import org.archive.io.warc.WARCWriterPool;
+import org.archive.io.warc.WARCWriterPoolSettingsData;
+import org.archive.uid.UUIDGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriterPoolTest {
+    @TempDir
+    File tempDir;
+
+    private WARCWriterPool makePool(int maxActive) {
+        return new WARCWriterPool(new WARCWriterPoolSettingsData("pool", "${prefix}-${serialno}",
+                -1, false, Arrays.asList(tempDir), null, new UUIDGenerator()),
+                maxActive, 50);
+    }
+
+    @Test
+    public void testThreadAffinity() throws Exception {
+        WARCWriterPool pool = makePool(4);
+        pool.setThreadAffinity(true);
+        WriterPoolMember first = pool.borrowFile();
+        WriterPoolMember second = pool.borrowFile();
+        assertNotSame(first, second);
+        pool.returnFile(first);
+        pool.returnFile(second);
+        assertEquals(2, pool.getNumIdle());
+        assertEquals(0, pool.getNumActive());
+
+        // the thread gets back the writer it last borrowed, not the queue head
+        assertSame(second, pool.borrowFile());
+        assertEquals(1, pool.getAffinityHitCount());
+        // the stale queue entry for 'second' is skipped
+        assertSame(first, pool.borrowFile());
+        assertEquals(0, pool.getNumIdle());
+        pool.returnFile(second);
+        pool.returnFile(first);
+        assertEquals(2, pool.getNumIdle());
+        assertEquals(4, pool.getBorrowCount());
+        assertEquals(2, pool.getContendedBorrowCount());
+        assertEquals(4, pool.jsonMetrics().getLong("borrows"));
+        pool.close();
+        assertEquals(0, pool.getNumIdle());
+    }
+
+    @Test
+    public void testConcurrentBorrow() throws Exception {
+        final WARCWriterPool pool = makePool(3);
+        pool.setThreadAffinity(true);
+        final Map<WriterPoolMember,Boolean> inUse =
+            Collections.synchronizedMap(new IdentityHashMap<WriterPoolMember,Boolean>());
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicInteger borrows = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 2000; i++) {
+                        WriterPoolMember w = pool.borrowFile();
+                        borrows.incrementAndGet();
+                        assertNull(inUse.put(w, Boolean.TRUE), "writer handed out twice");
+                        inUse.remove(w);
+                        pool.returnFile(w);
+                        if (i % 100 == 0) {
+                            pool.flush();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        // flush() drains all writers while borrowers run
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertNull(failure.get());
+        assertEquals(borrows.get(), pool.getBorrowCount());
+        assertTrue(pool.getNumIdle() <= 3);
+        Collection<WriterPoolMember> writers = pool.drainAllWriters();
+        assertEquals(writers.size(), new HashSet<WriterPoolMember>(writers).size());
+        assertEquals(0, pool.getNumIdle());
+        pool.releaseAll(writers);
+        assertEquals(writers.size(), pool.getNumIdle());
+        pool.close();
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        final WARCWriterPool pool = makePool(4);
+        pool.setDurabilityPolicy(DurabilityPolicy.everyRecords(2));
+        final GroupCommitter committer = pool.getGroupCommitter();
+        assertNotNull(committer);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final byte[] content = "durable".getBytes(StandardCharsets.UTF_8);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        WARCWriter w = (WARCWriter) pool.borrowFile();
+                        try {
+                            WARCRecordInfo info = new WARCRecordInfo();
+                            info.setType(WARCRecordType.resource);
+                            info.setUrl("http://example.com/" + i);
+                            info.setMimetype("text/plain");
+                            info.setCreateTimeMillis(System.currentTimeMillis());
+                            info.setRecordId(new UUIDGenerator().getRecordID());
+                            info.setContentStream(new ByteArrayInputStream(content));
+                            info.setContentLength(content.length);
+                            w.writeRecord(info);
+                        } finally {
+                            pool.returnFile(w);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertNull(failure.get());
+        // every second record of each writer waits for a sync
+        assertTrue(committer.getRequestCount() >= 100);
+        assertTrue(committer.getForceCount() > 0);
+        assertTrue(committer.getPassCount() <= committer.getRequestCount());
+        assertTrue(pool.jsonMetrics().getJSONObject("sync").getLong("fsyncs") > 0);
+
+        pool.close();
+        int records = 0;
+        for (File f : tempDir.listFiles()) {
+            assertFalse(f.getName().endsWith(ArchiveFileConstants.OCCUPIED_SUFFIX));
+            ArchiveReader reader = WARCReaderFactory.get(f);
+            for (ArchiveRecord r : reader) {
+                if (r.getHeader().getUrl() != null) {
+                    records++;
+                }
+            }
+            reader.close();
+        }
+        assertEquals(200, records);
+        assertThrows(IOException.class, () -> committer.sync(null, false));
+    }
+
+    @Test
+    public void testSyncPolicies() throws Exception {
+        WARCWriterPool pool = makePool(1);
+        assertNull(pool.getGroupCommitter());
+        pool.setDurabilityPolicy(DurabilityPolicy.onRollover());
+        GroupCommitter committer = pool.getGroupCommitter();
+        WriterPoolMember w = pool.borrowFile();
+        assertEquals(DurabilityPolicy.Mode.ROLLOVER, w.getDurability().getMode());
+        w.checkSize();
+        pool.returnFile(w);
+        assertEquals(0, committer.getForceCount());
+        pool.close();
+        // closing the file synced it
+        assertEquals(1, committer.getForceCount());
+        assertNull(pool.getGroupCommitter());
+        assertThrows(IllegalArgumentException.class, () -> DurabilityPolicy.everyRecords(0));
+        assertEquals("every 500ms", DurabilityPolicy.everyMillis(500).toString());
+    }
+
+    private void writeResource(WARCWriter w, String url) throws IOException {
+        byte[] content = "durable".getBytes(StandardCharsets.UTF_8);
+        WARCRecordInfo info = new WARCRecordInfo();
+        info.setType(WARCRecordType.resource);
+        info.setUrl(url);
+        info.setMimetype("text/plain");
+        info.setCreateTimeMillis(System.currentTimeMillis());
+        info.setRecordId(new UUIDGenerator().getRecordID());
+        info.setContentStream(new ByteArrayInputStream(content));
+        info.setContentLength(content.length);
+        w.writeRecord(info);
+    }
+
+    @Test
+    public void testIntervalSyncOfIdleWriter() throws Exception {
+        WARCWriterPool pool = makePool(1);
+        pool.setDurabilityPolicy(DurabilityPolicy.everyMillis(50));
+        GroupCommitter committer = pool.getGroupCommitter();
+        WARCWriter w = (WARCWriter) pool.borrowFile();
+        // the first record is due at once; the second waits an interval
+        writeResource(w, "http://example.com/1");
+        writeResource(w, "http://example.com/2");
+        long requests = committer.getRequestCount();
+        pool.returnFile(w);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (committer.getRequestCount() == requests 
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(requests + 1, committer.getRequestCount());
+        // nothing new to sync
+        Thread.sleep(200);
+        assertEquals(requests + 1, committer.getRequestCount());
+        assertEquals(1, pool.getNumIdle());
+        pool.close();
+    }
+
+    @Test
+    public void testCloseAfterFailedSync() throws Exception {
+        GroupCommitter committer = new GroupCommitter();
+        WARCWriter w = new WARCWriter(new AtomicInteger(), new WARCWriterPoolSettingsData("sync", 
+                "${prefix}", -1, false, Arrays.asList(tempDir), null, new UUIDGenerator()));
+        w.setDurability(DurabilityPolicy.onRollover(), committer);
+        writeResource(w, "http://example.com/");
+        FileChannel channel = w.fileChannel;
+        assertTrue(channel.isOpen());
+        committer.close();
+        assertThrows(IOException.class, () -> w.close());
+        assertFalse(channel.isOpen());
+        w.close();
+    }
+
+    @Test
+    public void testThroughputDirectorySelector() throws Exception {
+        File slow = new File(tempDir, "slow");
+        File fast = new File(tempDir, "fast");
+        List<File> dirs = Arrays.asList(slow, fast);
+        ThroughputDirectorySelector selector = new ThroughputDirectorySelector();
+        selector.setMinFreeBytes(0);
+        selector.setSampleIntervalMillis(0);
+        // nothing measured yet: ties go by free space, both on one disk
+        assertNotNull(selector.selectDirectory(dirs));
+
+        selector.bytesWritten(slow, 1000000, 1000000000L);
+        selector.bytesWritten(fast, 1000000, 10000000L);
+        assertSame(fast, selector.selectDirectory(dirs));
+        assertEquals(1000000, selector.getThroughput(slow), 1);
+        for (int i = 0; i < 150; i++) {
+            selector.fileOpened(fast);
+        }
+        // 151 files' wait at 100MB/s exceeds one at 1MB/s
+        assertSame(slow, selector.selectDirectory(dirs));
+        for (int i = 0; i < 150; i++) {
+            selector.fileClosed(fast);
+        }
+        // with every directory too full, still choose among them
+        selector.setMinFreeBytes(Long.MAX_VALUE);
+        assertSame(fast, selector.selectDirectory(dirs));
+        selector.setMinFreeBytes(0);
+
+        WARCWriterPool pool = new WARCWriterPool(new WARCWriterPoolSettingsData("pool",
+                "${prefix}-${serialno}", -1, false, dirs, null, new UUIDGenerator()), 1, 50);
+        pool.setDirectorySelector(selector);
+        WriterPoolMember w = pool.borrowFile();
+        w.checkSize();
+        assertEquals(fast.getAbsoluteFile(), w.getFile().getAbsoluteFile().getParentFile());
+        assertEquals(1, selector.getOpenFiles(fast));
+        pool.returnFile(w);
+        pool.flush();
+        pool.close();
+        assertEquals(0, selector.getOpenFiles(fast));
+        // the warcinfo record was metered
+        assertTrue(selector.jsonStatus().getJSONObject(fast.getAbsolutePath())
+                .getLong("bytesWritten") > 1000000);
+    }
+}
@@ -32,12 +32,14 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.NullInputStream;
 import org.apache.commons.io.output.NullOutputStream;
 import org.archive.io.ArchiveRecord;
 import org.archive.io.ArchiveRecordHeader;
+import org.archive.io.ArraySeekInputStream;
 import org.archive.io.ReplayInputStream;
 import org.archive.io.WriterPoolMember;
 import org.archive.io.WriterPoolSettings;
@@ -45,6 +47,7 @@ import org.archive.util.ArchiveUtils;
 
 import com.google.common.io.Closeables;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
 import org.junit.jupiter.api.io.TempDir;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -62,6 +65,9 @@ import static org.archive.format.arc.ARCConstants.*;
  * @author stack
  */
 public class ARCWriterTest {
+    private static final Logger logger =
+        Logger.getLogger(ARCWriterTest.class.getName());
+
     /**
      * Utility class for writing bad ARCs (with trailing junk)
      */
@@ -710,4 +716,71 @@ public class ARCWriterTest {
         // Now we're at first and only record in ARC.
         return (ARCRecord) i.next();
     }
+
+    @Test
+    public void testParseMetaline() throws IOException {
+        String[][] cases = {
+            {"http://example.com/a 1.2.3.4 20060111174224 text/html 7",
+                "http://example.com/a", "text/html"},
+            // early ARCs had runs of spaces between fields
+            {"http://example.com/b  1.2.3.4   20060111174224 text/html 7",
+                "http://example.com/b", "text/html"},
+            {"http://example.com/c d 1.2.3.4 20060111174224 text/html 7",
+                "http://example.com/c%20d", "text/html"},
+            {"http://example.com/e 1.2.3.4 20060111174224 text/html; charset=utf-8 7",
+                "http://example.com/e", "text/html;charset=utf-8"},
+            {"http://example.com/f 1.2.3.4 20060111174224 7",
+                "http://example.com/f", "-"},
+        };
+        for (String[] c : cases) {
+            byte[] b = (c[0] + "\ncontent\nNEXT").getBytes(UTF_8);
+            for (boolean seekable : new boolean[] {false, true}) {
+                InputStream in = seekable? new ArraySeekInputStream(b):
+                    new ByteArrayInputStream(b);
+                ARCRecord r = new ARCRecord(in, "id", 0, false, false, false);
+                ARCRecordMetaData h = (ARCRecordMetaData)r.getHeader();
+                assertEquals(c[1], h.getUrl());
+                assertEquals(c[2], h.getMimetype());
+                assertEquals("1.2.3.4", h.getIp());
+                assertEquals("20060111174224", h.getDate());
+                assertEquals(7, h.getLength());
+                assertEquals(c[0].replaceAll(" +", " "), r.getHeaderString());
+                assertEquals("content", IOUtils.toString(r, UTF_8));
+                // nothing past the record was consumed reading the metaline
+                assertEquals('\n', in.read());
+                assertEquals("NEXT", IOUtils.toString(in, UTF_8));
+                // length is re-parsed if the field is changed
+                h.getHeaderFields().put(LENGTH_FIELD_KEY, "12");
+                assertEquals(12, h.getLength());
+            }
+        }
+    }
+
+    /**
+     * Development-time benchmark of ARC iteration. Run with
+     * -DarcBenchmarkFile=/path/to/some.arc.gz; never fails anything, just
+     * logs records per second over a few passes.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "arcBenchmarkFile", matches = ".+")
+    public void testIterationBenchmark() throws IOException {
+        File f = new File(System.getProperty("arcBenchmarkFile"));
+        for (int pass = 1; pass <= 5; pass++) {
+            long start = System.nanoTime();
+            long count = 0;
+            long length = 0;
+            ARCReader reader = ARCReaderFactory.get(f);
+            reader.setDigest(false);
+            for (ArchiveRecord r : reader) {
+                length += r.getHeader().getLength();
+                r.getHeader().getUrl();
+                count++;
+            }
+            reader.close();
+            long ms = Math.max(1, (System.nanoTime() - start) / 1000000);
+            logger.info("pass " + pass + ": " + count + " records, "
+                + length + " bytes in " + ms + "ms, "
+                + (count * 1000 / ms) + " records/s");
+        }
+    }
 }
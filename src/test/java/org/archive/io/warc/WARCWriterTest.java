@@ -23,22 +23,40 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.archive.io.ArchiveRecord;
 import org.archive.io.ArchiveRecordHeader;
+import org.archive.io.ReplayInputStream;
 import org.archive.io.UTF8Bytes;
 import org.archive.io.WriterPoolMember;
 import org.archive.uid.RecordIDGenerator;
 import org.archive.uid.UUIDGenerator;
+import org.archive.url.WaybackURLKeyMaker;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.anvl.ANVLRecord;
+import org.archive.util.zip.ZstdCompressorPool;
+import org.json.JSONObject;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
@@ -46,6 +64,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import static org.archive.format.ArchiveFileConstants.ABSOLUTE_OFFSET_KEY;
 import static org.archive.format.warc.WARCConstants.*;
 
 /**
@@ -109,6 +128,42 @@ public class WARCWriterTest {
                     "multipart/mixed; \r\n        boundary=\"simple boundary\""));
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testHeaderEncoder() throws Exception {
+        WARCWriter writer = new WARCWriter(SERIAL_NO,
+            new WARCWriterPoolSettingsData(
+                    "","test",1,false,Collections.EMPTY_LIST,Collections.EMPTY_LIST,generator));
+        WARCHeaderEncoder encoder = new WARCHeaderEncoder(writer);
+        String[] urls = {SOME_URL, "http://例え.jp/パス?q=ü", null, ""};
+        String[] mimetypes = {"text/html", "multipart/mixed; \r\n        boundary=\"simple\"",
+                "text/plain; charset=ÜTF"};
+        long[] dates = {0, 1234567890123L, 4102444799999L};
+        for (int i = 0; i < urls.length * mimetypes.length * dates.length; i++) {
+            WARCRecordInfo recordInfo = new WARCRecordInfo();
+            recordInfo.setType(WARCRecordType.values()[i % WARCRecordType.values().length]);
+            recordInfo.setUrl(urls[i % urls.length]);
+            recordInfo.setMimetype(mimetypes[i % mimetypes.length]);
+            recordInfo.setCreateTimeMillis(dates[i % dates.length]);
+            recordInfo.setRecordId(generator.getRecordID());
+            recordInfo.setContentLength(i % 5 == 0 ? 0 : 1L << i);
+            recordInfo.addExtraHeader(NAMED_FIELD_IP_LABEL, "127.0.0.1");
+            recordInfo.addExtraHeader("X-Note", "größe " + i);
+            assertEquals(ArchiveUtils.getLog14Date(dates[i % dates.length]),
+                    recordInfo.getCreate14DigitDate());
+            byte[] expected = writer.createRecordHeader(recordInfo).getBytes(UTF_8);
+            encoder.encode(recordInfo);
+            assertArrayEquals(expected, Arrays.copyOf(encoder.getBuffer(), encoder.size()));
+        }
+
+        WARCRecordInfo bad = new WARCRecordInfo();
+        bad.setType(WARCRecordType.resource);
+        bad.setUrl("http://example.com/with space");
+        bad.setRecordId(generator.getRecordID());
+        assertThrows(IllegalArgumentException.class, () -> encoder.encode(bad));
+        writer.close();
+    }
+
     @Test
     public void testWriteRecord() throws IOException {
     	File [] files = {tempDir};
@@ -319,6 +374,164 @@ public class WARCWriterTest {
      	validate(f, recordCount  + 1); // Header record.
     }
 
+    @Test
+    public void testChannelReader() throws IOException {
+        final int recordCount = 5;
+        File f = writeRecords("channelReader", false, DEFAULT_MAX_WARC_FILE_SIZE,
+            recordCount);
+        WARCReader reader = WARCReaderFactory.get(f);
+        List<ArchiveRecordHeader> headers = reader.validate();
+        reader.close();
+
+        WARCChannelReader channelReader = new WARCChannelReader(
+            FileChannel.open(f.toPath()), 0, 16 * 1024);
+        try {
+            for (int i = 0; i < headers.size(); i++) {
+                WARCChannelReader.Record r = channelReader.next();
+                assertNotNull(r);
+                ArchiveRecordHeader h = headers.get(i);
+                assertEquals(h.getOffset(), r.getOffset());
+                assertEquals(h.getUrl(), r.getTargetURI());
+                assertEquals(h.getHeaderValue(HEADER_KEY_ID), r.getRecordID());
+                if (i % 2 == 0) {
+                    // leave every other payload unread
+                    continue;
+                }
+                final long[] seen = {0};
+                long n = r.readPayload(slice -> seen[0] += slice.remaining(), null);
+                assertEquals(r.getContentLength(), n);
+                assertEquals(n, seen[0]);
+            }
+            assertNull(channelReader.next());
+        } finally {
+            channelReader.close();
+        }
+    }
+
+    @Test
+    public void testTransferTo() throws IOException {
+        File f = writeRecords("transferTo", true, DEFAULT_MAX_WARC_FILE_SIZE, 3);
+        // bytes and digests from byte-at-a-time reads...
+        List<String> digests = new ArrayList<String>();
+        List<byte[]> contents = new ArrayList<byte[]>();
+        WARCReader reader = WARCReaderFactory.get(f);
+        for (Iterator<ArchiveRecord> i = reader.iterator(); i.hasNext();) {
+            ArchiveRecord r = i.next();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            for (int c; (c = r.read()) != -1;) {
+                baos.write(c);
+            }
+            r.close();
+            contents.add(baos.toByteArray());
+            digests.add(r.getDigestStr());
+        }
+        reader.close();
+
+        // ...must match those from bulk transfers
+        reader = WARCReaderFactory.get(f);
+        int n = 0;
+        for (Iterator<ArchiveRecord> i = reader.iterator(); i.hasNext(); n++) {
+            ArchiveRecord r = i.next();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            if (n % 2 == 0) {
+                assertEquals(contents.get(n).length,
+                    r.transferTo(Channels.newChannel(baos)));
+            } else {
+                byte[] b = new byte[contents.get(n).length + 10];
+                int read = r.readFully(b, 0, b.length);
+                assertEquals(contents.get(n).length, read);
+                baos.write(b, 0, read);
+                assertEquals(-1, r.readFully(b, 0, b.length));
+            }
+            r.close();
+            assertArrayEquals(contents.get(n), baos.toByteArray());
+            assertEquals(digests.get(n), r.getDigestStr());
+        }
+        reader.close();
+        assertEquals(contents.size(), n);
+    }
+
+    @Test
+    public void testRecordHeader() throws IOException {
+        File f = writeRecords("recordHeader", true, DEFAULT_MAX_WARC_FILE_SIZE, 2);
+        WARCReader reader = WARCReaderFactory.get(f);
+        for (Iterator<ArchiveRecord> i = reader.iterator(); i.hasNext();) {
+            ArchiveRecord r = i.next();
+            WARCRecordHeader h = (WARCRecordHeader) r.getHeader();
+            Map<String,Object> fields = h.getHeaderFields();
+            assertEquals(h.getOffset(), fields.get(ABSOLUTE_OFFSET_KEY));
+            assertEquals(f.getAbsolutePath(), h.getReaderIdentifier());
+            assertEquals(fields.get(HEADER_KEY_TYPE), h.getType());
+            assertEquals(fields.get(HEADER_KEY_ID), h.getRecordId());
+            assertEquals(fields.get(HEADER_KEY_DATE), h.getDate());
+            assertEquals(fields.get(CONTENT_TYPE), h.getMimetype());
+            assertEquals(Long.parseLong((String) fields.get(CONTENT_LENGTH)),
+                h.getContentLength());
+            for (String key : fields.keySet()) {
+                assertEquals(fields.get(key), h.getHeaderValue(key), key);
+            }
+            assertEquals(h.getContentLength() + h.getContentBegin(), h.getLength());
+            r.close();
+        }
+        reader.close();
+
+        WARCRecordHeader h = new WARCRecordHeader("x", 10);
+        h.setField("WARC-Concurrent-To", "<urn:a>");
+        h.setField("WARC-Concurrent-To", "<urn:b>");
+        h.setField(CONTENT_LENGTH, "7");
+        h.setContentBegin(3);
+        assertEquals("<urn:b>", h.getHeaderValue("WARC-Concurrent-To"));
+        assertEquals(10L, h.getHeaderValue(ABSOLUTE_OFFSET_KEY));
+        assertEquals(10, h.getLength());
+        assertEquals(4, h.getHeaderFields().size());
+        assertNull(h.getUrl());
+        assertNull(h.getHeaderValue(null));
+    }
+
+    @Test
+    public void testHeadersOnly() throws IOException {
+        for (boolean compress : new boolean[] {false, true}) {
+            File f = writeRecords("headersOnly", compress,
+                DEFAULT_MAX_WARC_FILE_SIZE, 4);
+            List<byte[]> contents = new ArrayList<byte[]>();
+            WARCReader reader = WARCReaderFactory.get(f);
+            List<ArchiveRecordHeader> headers = new ArrayList<ArchiveRecordHeader>();
+            for (Iterator<ArchiveRecord> i = reader.iterator(); i.hasNext();) {
+                ArchiveRecord r = i.next();
+                headers.add(r.getHeader());
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                r.transferTo(baos);
+                contents.add(baos.toByteArray());
+            }
+            reader.close();
+
+            final int preview = 20;
+            reader = WARCReaderFactory.get(f);
+            reader.setHeadersOnly(preview);
+            assertFalse(reader.isDigest());
+            int n = 0;
+            for (Iterator<ArchiveRecord> i = reader.iterator(); i.hasNext(); n++) {
+                ArchiveRecord r = i.next();
+                assertTrue(r.isHeadersOnly());
+                assertEquals(headers.get(n).getOffset(), r.getHeader().getOffset());
+                assertEquals(headers.get(n).getUrl(), r.getHeader().getUrl());
+                if (n % 2 == 0) {
+                    // read the preview, and try for more
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    r.transferTo(baos);
+                    byte[] want = Arrays.copyOf(contents.get(n),
+                        Math.min(preview, contents.get(n).length));
+                    assertArrayEquals(want, baos.toByteArray());
+                    assertEquals(-1, r.read());
+                }
+                r.close();
+                assertNull(r.getDigestStr());
+            }
+            reader.close();
+            assertEquals(headers.size(), n);
+        }
+    }
+
     @Test
     public void testRandomAccess() throws IOException {
         final int recordCount = 3;
@@ -370,6 +583,446 @@ public class WARCWriterTest {
         validate(arcFile, recordCount + 1 /*Header record*/);
     }
     
+    @Test
+    public void testFileBackedContent() throws IOException {
+        byte[] content = new byte[700 * 1024];
+        new Random(7).nextBytes(content);
+        byte[] memory = Arrays.copyOf(content, 1000);
+        File backing = new File(tempDir, "backing.ros");
+        FileOutputStream fos = new FileOutputStream(backing);
+        fos.write(content, memory.length, content.length - memory.length);
+        fos.close();
+
+        for (boolean compress : new boolean[] {false, true}) {
+            File [] files = {tempDir};
+            WARCWriter w = new WARCWriter(SERIAL_NO, new WARCWriterPoolSettingsData(
+                    "fileBacked-" + compress + '-' + SUFFIX, "${prefix}", -1, compress,
+                    Arrays.asList(files), null, generator));
+            for (int i = 0; i < 3; i++) {
+                WARCRecordInfo recordInfo = new WARCRecordInfo();
+                recordInfo.setType(WARCRecordType.resource);
+                recordInfo.setUrl(SOME_URL + i);
+                recordInfo.setCreate14DigitDate(ArchiveUtils.getLog14Date());
+                recordInfo.setMimetype("application/octet-stream");
+                recordInfo.setRecordId(generator.getRecordID());
+                recordInfo.setEnforceLength(true);
+                recordInfo.setContentLength((long) content.length);
+                ReplayInputStream ris = new ReplayInputStream(
+                        memory, content.length, backing.getPath());
+                assertTrue(ris.isFileBacked());
+                recordInfo.setContentStream(ris);
+                w.writeRecord(recordInfo);
+                ris.close();
+            }
+            w.close();
+
+            WARCReader reader = WARCReaderFactory.get(w.getFile());
+            int count = 0;
+            for (Iterator<ArchiveRecord> i = reader.iterator(); i.hasNext();) {
+                ArchiveRecord r = i.next();
+                if (!WARCRecordType.resource.toString().equals(
+                        r.getHeader().getHeaderValue(HEADER_KEY_TYPE))) {
+                    continue;
+                }
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                r.transferTo(baos);
+                assertArrayEquals(content, baos.toByteArray());
+                count++;
+            }
+            reader.close();
+            assertEquals(3, count);
+        }
+    }
+
+    @Test
+    public void testIndexSink() throws IOException {
+        for (CDXIndexSink.Format format : CDXIndexSink.Format.values()) {
+            for (boolean pipelined : new boolean[] {false, true}) {
+                File [] files = {tempDir};
+                WARCWriterPoolSettingsData settings = new WARCWriterPoolSettingsData(
+                        "index-" + format + '-' + pipelined + '-' + SUFFIX, "${prefix}",
+                        DEFAULT_MAX_WARC_FILE_SIZE, true, Arrays.asList(files), null, generator);
+                WARCWriter w = pipelined ? new PipelinedWARCWriter(SERIAL_NO, settings)
+                        : new WARCWriter(SERIAL_NO, settings);
+                StringWriter index = new StringWriter();
+                CDXIndexSink sink = new CDXIndexSink(index, format);
+                // a full queue must never hold up the writer
+                assertEquals(CDXIndexSink.OverflowPolicy.DROP, sink.getOverflowPolicy());
+                w.setIndexSink(sink);
+                for (int i = 0; i < 5; i++) {
+                    byte[] content = ("HTTP/1.1 " + (i == 3 ? 404 : 200) + " OK\r\n"
+                            + "Content-Type: Text/HTML; charset=UTF-8\r\n\r\n"
+                            + getContent(Integer.toString(i))).getBytes(UTF_8);
+                    WARCRecordInfo recordInfo = new WARCRecordInfo();
+                    recordInfo.setType(WARCRecordType.response);
+                    recordInfo.setUrl("http://www.Example.com/page" + i);
+                    recordInfo.setCreate14DigitDate("2024-01-02T03:04:05Z");
+                    recordInfo.setMimetype(HTTP_RESPONSE_MIMETYPE);
+                    recordInfo.setRecordId(generator.getRecordID());
+                    recordInfo.setContentLength(content.length);
+                    recordInfo.setContentStream(new ByteArrayInputStream(content));
+                    recordInfo.addExtraHeader(HEADER_KEY_PAYLOAD_DIGEST, "sha1:ABCDEF" + i);
+                    w.writeRecord(recordInfo);
+                }
+                // not indexed
+                writeRandomHTTPRecord(w, 9);
+                w.close();
+                sink.close();
+
+                WARCReader reader = WARCReaderFactory.get(w.getFile());
+                List<ArchiveRecordHeader> headers = reader.validate();
+                reader.close();
+                String[] lines = index.toString().split("\n");
+                int first = format == CDXIndexSink.Format.CDX ? 1 : 0;
+                if (first == 1) {
+                    assertEquals(CDXIndexSink.CDX_HEADER, lines[0]);
+                }
+                assertEquals(5 + 1 + first, lines.length, index.toString());
+                for (int i = 0; i < 5; i++) {
+                    String line = lines[i + first];
+                    String status = i == 3 ? "404" : "200";
+                    long offset = headers.get(i + 1).getOffset();
+                    long length = headers.get(i + 2).getOffset() - offset;
+                    assertTrue(line.startsWith("com,example)/page" + i + " 20240102030405 "), line);
+                    if (format == CDXIndexSink.Format.CDX) {
+                        assertEquals("com,example)/page" + i + " 20240102030405 http://www.Example.com/page" + i
+                                + " text/html " + status + " ABCDEF" + i + " - - " + length + " " + offset
+                                + " " + w.getFile().getName(), line);
+                    } else {
+                        JSONObject json = new JSONObject(line.substring(line.indexOf('{')));
+                        assertEquals(status, json.getString("status"));
+                        assertEquals("text/html", json.getString("mime"));
+                        assertEquals(Long.toString(offset), json.getString("offset"));
+                        assertEquals(Long.toString(length), json.getString("length"));
+                        assertEquals(w.getFile().getName(), json.getString("filename"));
+                    }
+                }
+            }
+        }
+    }
+
+    /** StringWriter whose writes wait until {@link #release} counts down */
+    private static class StalledWriter extends StringWriter {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void write(String str) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.write(str);
+        }
+    }
+
+    @Test
+    public void testIndexSinkOverflow() throws Exception {
+        for (CDXIndexSink.OverflowPolicy policy : CDXIndexSink.OverflowPolicy.values()) {
+            StalledWriter index = new StalledWriter();
+            final CDXIndexSink sink = new CDXIndexSink(index, CDXIndexSink.Format.CDXJ,
+                    new WaybackURLKeyMaker(), 1, policy);
+            final byte[] head = "HTTP/1.1 200 OK\r\n\r\n".getBytes(UTF_8);
+            final WARCRecordInfo recordInfo = responseRecord("http://example.com/", "sha1:A", "x");
+            sink.submit(recordInfo, "f.warc", 0, 10, head, 0, head.length);
+            assertTrue(index.entered.await(10, TimeUnit.SECONDS));
+            // fills the queue
+            sink.submit(recordInfo, "f.warc", 10, 10, head, 0, head.length);
+            ExecutorService submitter = Executors.newSingleThreadExecutor();
+            Future<?> third = submitter.submit(() -> 
+                    sink.submit(recordInfo, "f.warc", 20, 10, head, 0, head.length));
+            if (policy == CDXIndexSink.OverflowPolicy.DROP) {
+                third.get(10, TimeUnit.SECONDS);
+                assertEquals(1, sink.getDroppedCount());
+            } else {
+                assertThrows(TimeoutException.class, () -> third.get(200, TimeUnit.MILLISECONDS));
+                assertEquals(0, sink.getDroppedCount());
+            }
+            index.release.countDown();
+            third.get(10, TimeUnit.SECONDS);
+            submitter.shutdown();
+            sink.close();
+            int expected = policy == CDXIndexSink.OverflowPolicy.DROP ? 2 : 3;
+            assertEquals(expected, index.toString().split("\n").length, index.toString());
+        }
+    }
+
+    private WARCRecordInfo responseRecord(String url, String digest, String body) {
+        byte[] content = ("HTTP/1.1 200 OK\r\nContent-Type: text/javascript\r\n\r\n"
+                + body).getBytes(UTF_8);
+        WARCRecordInfo recordInfo = new WARCRecordInfo();
+        recordInfo.setType(WARCRecordType.response);
+        recordInfo.setUrl(url);
+        recordInfo.setCreate14DigitDate("2024-01-02T03:04:05Z");
+        recordInfo.setMimetype(HTTP_RESPONSE_MIMETYPE);
+        recordInfo.setRecordId(generator.getRecordID());
+        recordInfo.setContentLength(content.length);
+        recordInfo.setContentStream(new ByteArrayInputStream(content));
+        recordInfo.addExtraHeader(HEADER_KEY_BLOCK_DIGEST, "sha1:BLOCK");
+        recordInfo.addExtraHeader(HEADER_KEY_PAYLOAD_DIGEST, digest);
+        return recordInfo;
+    }
+
+    @Test
+    public void testRevisitIndex() throws IOException {
+        DigestIndex index = new DigestIndex(4);
+        int added = index.loadCDX(new StringReader(CDXIndexSink.CDX_HEADER + "\n"
+                + "com,example)/lib.js 20200101000000 http://example.com/lib.js "
+                + "text/javascript 200 LIBDIGEST - - 100 0 a.warc.gz\n"
+                + "com,example)/old.js 20200101000000 http://example.com/old.js "
+                + "warc/revisit 200 REVISITED - - 100 0 a.warc.gz\n"
+                + "com,example)/j 20210101000000 {\"url\": \"http://example.com/j\", "
+                + "\"digest\": \"JSONDIGEST\"}\n"));
+        assertEquals(2, added);
+        assertNull(index.get("sha1:REVISITED"));
+        assertEquals("http://example.com/j", index.get("JSONDIGEST").getUri());
+        for (int i = 0; i < 20000; i++) {
+            assertTrue(index.putIfAbsent("sha1:D" + i, "http://example.com/" + i, i));
+        }
+        assertFalse(index.putIfAbsent("D5", "http://example.com/other", 0));
+        assertEquals(20002, index.size());
+        assertEquals("http://example.com/5", index.get("D5").getUri());
+        assertEquals(19999, index.get("sha1:D19999").getDateMillis());
+        assertNull(index.get("sha1:D20000"));
+        assertEquals(0, index.getRefusedCount());
+
+        DigestIndex capped = new DigestIndex(16, 2);
+        assertTrue(capped.putIfAbsent("A", "http://example.com/a", 0));
+        assertTrue(capped.putIfAbsent("B", "http://example.com/b", 0));
+        assertFalse(capped.putIfAbsent("C", "http://example.com/c", 0));
+        assertFalse(capped.putIfAbsent("A", "http://example.com/other", 0));
+        assertEquals(2, capped.size());
+        assertEquals(1, capped.getRefusedCount());
+        assertNull(capped.get("C"));
+
+        // new responses are only added when asked
+        File [] dirs = {tempDir};
+        WARCWriter plain = new WARCWriter(SERIAL_NO, new WARCWriterPoolSettingsData(
+                "revisit-off-" + SUFFIX, "${prefix}", DEFAULT_MAX_WARC_FILE_SIZE, true,
+                Arrays.asList(dirs), null, generator));
+        plain.setRevisitIndex(capped);
+        plain.writeRecord(responseRecord("http://example.com/b2", "sha1:B", "b"));
+        plain.writeRecord(responseRecord("http://example.com/d", "sha1:D", "d"));
+        plain.close();
+        assertEquals(2, capped.size());
+        assertNull(capped.get("D"));
+
+        for (boolean pipelined : new boolean[] {false, true}) {
+            File [] files = {tempDir};
+            WARCWriterPoolSettingsData settings = new WARCWriterPoolSettingsData(
+                    "revisit-" + pipelined + '-' + SUFFIX, "${prefix}",
+                    DEFAULT_MAX_WARC_FILE_SIZE, true, Arrays.asList(files), null, generator);
+            WARCWriter w = pipelined ? new PipelinedWARCWriter(SERIAL_NO, settings)
+                    : new WARCWriter(SERIAL_NO, settings);
+            w.setRevisitIndex(index);
+            w.setRecordOriginals(true);
+            w.writeRecord(responseRecord("http://example.com/lib.js?v=2", "sha1:LIBDIGEST", "lib();"));
+            WARCRecordInfo fresh = responseRecord("http://example.com/new.js", 
+                    "sha1:NEW" + pipelined, "fresh();");
+            w.writeRecord(fresh);
+            if (pipelined) {
+                ((PipelinedWARCWriter) w).awaitWritten();
+            }
+            w.writeRecord(responseRecord("http://example.com/copy.js", "sha1:NEW" + pipelined, "fresh();"));
+            w.close();
+
+            WARCReader reader = WARCReaderFactory.get(w.getFile());
+            Iterator<ArchiveRecord> records = reader.iterator();
+            records.next();
+            ArchiveRecord revisit = records.next();
+            ArchiveRecordHeader h = revisit.getHeader();
+            assertEquals(WARCRecordType.revisit.toString(), h.getHeaderValue(HEADER_KEY_TYPE));
+            assertEquals(PROFILE_REVISIT_IDENTICAL_DIGEST, h.getHeaderValue(HEADER_KEY_PROFILE));
+            assertEquals("http://example.com/lib.js", h.getHeaderValue(HEADER_KEY_REFERS_TO_TARGET_URI));
+            assertEquals("2020-01-01T00:00:00Z", h.getHeaderValue(HEADER_KEY_REFERS_TO_DATE));
+            assertNull(h.getHeaderValue(HEADER_KEY_BLOCK_DIGEST));
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            revisit.dump(content);
+            assertEquals("HTTP/1.1 200 OK\r\nContent-Type: text/javascript\r\n\r\n",
+                    content.toString("UTF-8"));
+            assertEquals(WARCRecordType.response.toString(),
+                    records.next().getHeader().getHeaderValue(HEADER_KEY_TYPE));
+            h = records.next().getHeader();
+            assertEquals(WARCRecordType.revisit.toString(), h.getHeaderValue(HEADER_KEY_TYPE));
+            assertEquals("http://example.com/new.js", h.getHeaderValue(HEADER_KEY_REFERS_TO_TARGET_URI));
+            assertEquals("2024-01-02T03:04:05Z", h.getHeaderValue(HEADER_KEY_REFERS_TO_DATE));
+            assertFalse(records.hasNext());
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testListenerAndStats() throws IOException {
+        File [] files = {tempDir};
+        WARCWriter w = new WARCWriter(SERIAL_NO, new WARCWriterPoolSettingsData(
+                "listener-" + SUFFIX, "${prefix}", DEFAULT_MAX_WARC_FILE_SIZE, true,
+                Arrays.asList(files), null, generator));
+        assertNull(w.getTmpStats());
+        final List<Long> offsets = new ArrayList<Long>();
+        final long[] onDisk = new long[1];
+        w.addListener(new WARCWriterListener() {
+            public void recordWritten(WARCWriter writer, WARCRecordInfo recordInfo,
+                    long contentBytes, long totalBytes, long sizeOnDisk) {
+                offsets.add(recordInfo.getWARCFileOffset());
+                onDisk[0] += sizeOnDisk;
+            }
+        });
+        w.setTmpRecordLogLimit(2);
+        long content = 0;
+        for (int i = 0; i < 4; i++) {
+            content += writeRandomHTTPRecord(w, i);
+        }
+        w.close();
+
+        // warcinfo plus four resource records
+        assertEquals(5, offsets.size());
+        assertEquals(w.getFile().length(), onDisk[0]);
+        WARCWriterStats stats = w.getStats();
+        assertEquals(4, stats.get(WARCRecordType.resource, WARCWriterStats.NUM_RECORDS));
+        assertEquals(content, stats.get(WARCRecordType.resource, WARCWriterStats.CONTENT_BYTES));
+        assertEquals(5, stats.get(null, WARCWriterStats.NUM_RECORDS));
+        assertEquals(onDisk[0], stats.get(null, WARCWriterStats.SIZE_ON_DISK));
+        Map<String, Map<String, Long>> tmpStats = w.getTmpStats();
+        assertEquals(4L, WARCWriter.getStat(tmpStats, "resource", WARCWriter.NUM_RECORDS));
+        assertEquals(1L, WARCWriter.getStat(tmpStats, "warcinfo", WARCWriter.NUM_RECORDS));
+        assertEquals(content, WARCWriter.getStat(tmpStats, "resource", WARCWriter.CONTENT_BYTES));
+        assertFalse(tmpStats.containsKey("response"));
+
+        // only the latest records are kept in the log
+        List<Long> logged = new ArrayList<Long>();
+        for (WARCRecordInfo info : w.getTmpRecordLog()) {
+            logged.add(info.getWARCFileOffset());
+        }
+        assertEquals(offsets.subList(3, 5), logged);
+
+        w.resetTmpStats();
+        assertEquals(0L, WARCWriter.getStat(w.getTmpStats(), WARCWriter.TOTALS, WARCWriter.NUM_RECORDS));
+        assertTrue(w.getTmpStats().containsKey("resource"));
+    }
+
+    @Test
+    public void testPipelinedWriter() throws IOException {
+        final int recordCount = 50;
+        for (boolean compress : new boolean[] {true, false}) {
+            File [] files = {tempDir};
+            PipelinedWARCWriter w = new PipelinedWARCWriter(SERIAL_NO,
+                new WARCWriterPoolSettingsData("pipelined-" + compress + '-' + SUFFIX,
+                    "${prefix}", DEFAULT_MAX_WARC_FILE_SIZE, compress,
+                    Arrays.asList(files), null, generator));
+            PipelinedWARCWriter.RecordBufferPool buffers =
+                new PipelinedWARCWriter.RecordBufferPool(64 * 1024);
+            w.setRecordBufferPool(buffers);
+            for (int i = 0; i < recordCount; i++) {
+                writeRandomHTTPRecord(w, i);
+            }
+            // offsets are filled in as records are appended, in order
+            List<Long> offsets = new ArrayList<Long>();
+            List<String> urls = new ArrayList<String>();
+            for (WARCRecordInfo info : w.getTmpRecordLog()) {
+                offsets.add(info.getWARCFileOffset());
+                urls.add(info.getUrl());
+            }
+            w.close();
+            assertTrue(buffers.getIdleBytes() > 0);
+            assertTrue(buffers.getIdleBytes() <= 64 * 1024);
+            File f = w.getFile();
+            validate(f, recordCount + 1 /*Header record*/);
+
+            WARCReader reader = WARCReaderFactory.get(f);
+            List<ArchiveRecordHeader> headers = reader.validate();
+            reader.close();
+            assertEquals(headers.size(), offsets.size());
+            for (int i = 0; i < headers.size(); i++) {
+                assertEquals(headers.get(i).getOffset(), (long) offsets.get(i));
+                assertEquals(headers.get(i).getUrl(), urls.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testPipelinedWriterPendingBytes() throws IOException {
+        final int recordCount = 20;
+        File [] files = {tempDir};
+        WARCWriterPoolSettingsData settings = new WARCWriterPoolSettingsData(
+                "pipelinedBudget-" + SUFFIX, "${prefix}",
+                DEFAULT_MAX_WARC_FILE_SIZE, true, Arrays.asList(files), null,
+                generator);
+        // budget smaller than one record: records go through one at a time
+        PipelinedWARCWriter.PendingBytes pending =
+            new PipelinedWARCWriter.PendingBytes(100);
+        PipelinedWARCWriter w = new PipelinedWARCWriter(SERIAL_NO, settings,
+                PipelinedWARCWriter.getDefaultCompressors(), pending);
+        for (int i = 0; i < recordCount; i++) {
+            writeRandomHTTPRecord(w, i);
+        }
+        w.close();
+        assertEquals(0, pending.getPendingBytes());
+        validate(w.getFile(), recordCount + 1 /*Header record*/);
+
+        // a record that can't be queued gives back its share of the budget
+        ExecutorService compressors = Executors.newSingleThreadExecutor();
+        compressors.shutdown();
+        settings = new WARCWriterPoolSettingsData(
+                "pipelinedRejected-" + SUFFIX, "${prefix}",
+                DEFAULT_MAX_WARC_FILE_SIZE, true, Arrays.asList(files), null,
+                generator);
+        pending = new PipelinedWARCWriter.PendingBytes(1024 * 1024);
+        final PipelinedWARCWriter rejecting = new PipelinedWARCWriter(
+                SERIAL_NO, settings, compressors, pending);
+        assertThrows(IOException.class, () -> writeRandomHTTPRecord(rejecting, 0));
+        assertEquals(0, pending.getPendingBytes());
+        rejecting.close();
+    }
+
+    private File writeZstdRecords(String baseName, byte[] dictionary,
+        int recordCount)
+    throws IOException {
+        File [] files = {tempDir};
+        WARCWriterPoolSettingsData settings = new WARCWriterPoolSettingsData(
+                baseName + '-' + SUFFIX, "${prefix}", DEFAULT_MAX_WARC_FILE_SIZE,
+                true, Arrays.asList(files), null, generator);
+        settings.setZstdCompress(true);
+        settings.setZstdDictionary(dictionary);
+        WARCWriter w = new WARCWriter(SERIAL_NO, settings);
+        for (int i = 0; i < recordCount; i++) {
+            writeRandomHTTPRecord(w, i);
+        }
+        // one context, with its digested dictionary, serves every frame
+        ZstdCompressorPool compressors = w.getZstdCompressors();
+        assertEquals(1, compressors.getCreateCount());
+        assertTrue(compressors.getReuseCount() >= recordCount - 1);
+        w.close();
+        assertNull(w.zstdCompressors);
+        assertTrue(w.getFile().getName().endsWith(
+            DOT_ZSTD_COMPRESSED_WARC_FILE_EXTENSION));
+        return w.getFile();
+    }
+
+    @Test
+    public void testWriteRecordZstd() throws IOException {
+        final int recordCount = 3;
+        File f = writeZstdRecords("writeRecordZstd", null, recordCount);
+        validate(f, recordCount + 1 /*Header record*/);
+        byte[] dictionary = getContent().getBytes(UTF_8);
+        f = writeZstdRecords("writeRecordZstdDict", dictionary, recordCount);
+        validate(f, recordCount + 1 /*Header record*/);
+
+        // iteration from a mid-file offset must pick up the dictionary
+        WARCReader reader = WARCReaderFactory.get(f);
+        List<ArchiveRecordHeader> headers = reader.validate();
+        reader.close();
+        reader = WARCReaderFactory.get(f, headers.get(2).getOffset());
+        assertEquals(headers.get(2).getUrl(), reader.get().getHeader().getUrl());
+        int count = 0;
+        for (final Iterator<ArchiveRecord> i = reader.iterator(); i.hasNext(); i.next()) {
+            count++;
+        }
+        reader.close();
+        assertEquals(recordCount - 2, count);
+    }
+
     protected WARCWriter createWARCWriter(String name,
             boolean compress) {
         File [] files = {tempDir};
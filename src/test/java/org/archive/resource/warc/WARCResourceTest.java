@@ -46,4 +46,32 @@ public class WARCResourceTest  {
 			resource = extractor.getNext();
 		}
 	}
+
+	@Test
+	public void testCompressedWARCResource() throws ResourceParseException, IOException {
+		// gzip members can't seek: headers are read a block at a time and
+		// the bytes read past them handed back to the body
+		String testFileName = "../../format/gzip/IAH-urls-wget.warc.gz";
+		ResourceProducer producer = ProducerUtils.getProducer(getClass().getResource(testFileName).getPath());
+		ResourceFactoryMapper mapper = new ExtractingResourceFactoryMapper();
+		ExtractingResourceProducer extractor = new ExtractingResourceProducer(producer, mapper);
+
+		int responses = 0;
+		Resource resource = extractor.getNext();
+		while (resource != null) {
+			StreamCopy.readToEOF(resource.getInputStream());
+			JSONObject envelope = resource.getMetaData().getTopMetaData().getJSONObject("Envelope");
+			JSONObject payloadMD = envelope.getJSONObject("Payload-Metadata");
+			long length = envelope.getJSONObject("WARC-Header-Metadata").getLong("Content-Length");
+			assertEquals(length, payloadMD.getLong(PAYLOAD_LENGTH));
+			if (payloadMD.has("HTTP-Response-Metadata")) {
+				JSONObject http = payloadMD.getJSONObject("HTTP-Response-Metadata");
+				assertEquals(length, http.getLong("Headers-Length")
+						+ http.getLong("Entity-Length") + http.optLong("Entity-Trailing-Slop-Length"));
+				responses++;
+			}
+			resource = extractor.getNext();
+		}
+		assertTrue(responses > 0);
+	}
 }
@@ -0,0 +1,169 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecorderTest {
+    @TempDir
+    File tempDir;
+
+    private static byte[] text() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 200 * 1024; i++) {
+            sb.append("<p>line ").append(i).append(" été</p>\n");
+        }
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    private static byte[] chunked(byte[] data, int chunkSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int off = 0; off < data.length; off += chunkSize) {
+            int len = Math.min(chunkSize, data.length - off);
+            out.write((Integer.toHexString(len) + "\r\n").getBytes(US_ASCII));
+            out.write(data, off, len);
+            out.write("\r\n".getBytes(US_ASCII));
+        }
+        out.write("0\r\n\r\n".getBytes(US_ASCII));
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data, boolean nowrap) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream dos = new DeflaterOutputStream(out,
+                new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap));
+        dos.write(data);
+        dos.close();
+        return out.toByteArray();
+    }
+
+    private Recorder record(String name, byte[] entity) throws IOException {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        response.write("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n"
+                .getBytes(US_ASCII));
+        response.write(entity);
+        return Recorder.wrapInputStreamWithHttpRecord(tempDir, name,
+                new ByteArrayInputStream(response.toByteArray()), "UTF-8");
+    }
+
+    private static byte[] content(Recorder rec) throws IOException {
+        InputStream in = rec.getContentReplayInputStream();
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testCacheDecodedContent() throws Exception {
+        byte[] text = text();
+        Recorder rec = record("testCacheDecodedContent",
+                chunked(ArchiveUtils.gzip(text), 3000));
+        rec.setInputIsChunked(true);
+        rec.setContentEncoding("gzip");
+        rec.setCacheDecodedContent(true);
+        assertEquals(-1, rec.getDecodedContentLength());
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(text, content(rec));
+        }
+        assertEquals(text.length, rec.getDecodedContentLength());
+        assertArrayEquals(MessageDigest.getInstance("SHA1").digest(text),
+                rec.getDecodedContentDigest());
+        assertEquals(new String(text, UTF_8),
+                rec.getContentReplayCharSequence().toString());
+
+        // a change of encoding drops the copy
+        rec.setInputIsChunked(false);
+        assertEquals(-1, rec.getDecodedContentLength());
+        rec.endReplays();
+        rec.cleanup();
+    }
+
+    @Test
+    public void testCacheDecodedContentTruncated() throws Exception {
+        byte[] text = text();
+        byte[] gz = ArchiveUtils.gzip(text);
+        Recorder rec = record("testCacheDecodedContentTruncated",
+                Arrays.copyOf(gz, gz.length / 2));
+        rec.setContentEncoding("gzip");
+        rec.setCacheDecodedContent(true);
+        // nothing kept; replays decode, and fail, as they go
+        assertThrows(IOException.class, () -> content(rec));
+        assertEquals(-1, rec.getDecodedContentLength());
+        assertThrows(IOException.class, () -> content(rec));
+        rec.cleanup();
+    }
+
+    @Test
+    public void testCacheDecodedContentLimit() throws Exception {
+        // compresses a thousandfold
+        byte[] zeros = new byte[2 * 1024 * 1024];
+        Recorder rec = record("testCacheDecodedContentLimit",
+                ArchiveUtils.gzip(zeros));
+        rec.setContentEncoding("gzip");
+        rec.setCacheDecodedContent(true);
+        rec.setMaxDecodedContentBytes(1024 * 1024);
+        // a prefix doesn't make the copy
+        assertEquals("\u0000\u0000", rec.getContentReplayPrefixString(2));
+        assertEquals(-1, rec.getDecodedContentLength());
+        // too big to keep: replays decode as they go
+        assertArrayEquals(zeros, content(rec));
+        assertEquals(-1, rec.getDecodedContentLength());
+        assertArrayEquals(zeros, content(rec));
+        rec.cleanup();
+
+        rec = record("testCacheDecodedContentLimit2", ArchiveUtils.gzip(zeros));
+        rec.setContentEncoding("gzip");
+        rec.setCacheDecodedContent(true);
+        assertArrayEquals(zeros, content(rec));
+        assertEquals(zeros.length, rec.getDecodedContentLength());
+        assertEquals("\u0000\u0000", rec.getContentReplayPrefixString(2));
+        rec.cleanup();
+    }
+
+    @Test
+    public void testDeflate() throws Exception {
+        byte[] text = text();
+        for (boolean nowrap : new boolean[] {false, true}) {
+            Recorder rec = record("testDeflate" + nowrap, deflate(text, nowrap));
+            rec.setContentEncoding("deflate");
+            assertArrayEquals(text, content(rec));
+            assertArrayEquals(text, content(rec));
+            rec.cleanup();
+        }
+    }
+}
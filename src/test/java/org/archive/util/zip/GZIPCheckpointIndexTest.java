@@ -0,0 +1,224 @@
+package org.archive.util.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.archive.format.cdx.CDXFile;
+import org.archive.util.ArchiveUtils;
+import org.archive.util.binsearch.SortedTextFile;
+import org.archive.util.binsearch.impl.GZIPIndexedSeekableLineReaderFactory;
+import org.archive.util.iterator.CloseableIterator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.common.io.ByteStreams;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GZIPCheckpointIndexTest {
+    @TempDir
+    File tempDir;
+
+    private byte[] sortedLines(int count) {
+        StringBuilder sb = new StringBuilder();
+        Random rand = new Random(1);
+        for (int i = 0; i < count; i++) {
+            sb.append(String.format(Locale.ROOT, "%08d", i)).append(' ')
+                .append(Long.toHexString(rand.nextLong())).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private File gzip(String name, byte[] data, int level) throws IOException {
+        File f = new File(tempDir, name);
+        OutputStream out = new FileOutputStream(f);
+        try {
+            final int l = level;
+            GZIPOutputStream gz = new GZIPOutputStream(out) {
+                {
+                    def.setLevel(l);
+                }
+            };
+            gz.write(data);
+            gz.finish();
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+
+    private void checkRandomReads(File gz, byte[] data, GZIPCheckpointIndex index)
+            throws IOException {
+        assertEquals(data.length, index.getUncompressedLength());
+        assertEquals(gz.length(), index.getCompressedLength());
+        Random rand = new Random(2);
+        RandomAccessFile raf = new RandomAccessFile(gz, "r");
+        try {
+            long[] offsets = new long[40];
+            for (int i = 0; i < offsets.length - 2; i++) {
+                offsets[i] = (long) (rand.nextDouble() * data.length);
+            }
+            offsets[offsets.length - 2] = 0;
+            offsets[offsets.length - 1] = data.length - 1;
+            for (long offset : offsets) {
+                InputStream in = index.getInputStream(raf, offset, 4096);
+                int want = (int) Math.min(1000, data.length - offset);
+                byte[] got = new byte[want];
+                ByteStreams.readFully(in, got);
+                for (int i = 0; i < want; i++) {
+                    assertEquals(data[(int) offset + i], got[i], "offset " + offset);
+                }
+                in.close();
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testDynamicBlocks() throws IOException {
+        byte[] data = sortedLines(200000);
+        File gz = gzip("dynamic.gz", data, Deflater.DEFAULT_COMPRESSION);
+        GZIPCheckpointIndex index = GZIPCheckpointIndex.build(gz, 64 * 1024);
+        assertTrue(index.getCheckpoints().size() > 10);
+        checkRandomReads(gz, data, index);
+    }
+
+    @Test
+    public void testStoredBlocks() throws IOException {
+        byte[] data = new byte[300000];
+        new Random(3).nextBytes(data);
+        File gz = gzip("stored.gz", data, Deflater.NO_COMPRESSION);
+        GZIPCheckpointIndex index = GZIPCheckpointIndex.build(gz, 32 * 1024);
+        assertTrue(index.getCheckpoints().size() > 2);
+        checkRandomReads(gz, data, index);
+    }
+
+    @Test
+    public void testMultipleMembers() throws IOException {
+        byte[] first = sortedLines(30000);
+        byte[] second = sortedLines(20000);
+        ByteArrayOutputStream gzBytes = new ByteArrayOutputStream();
+        gzBytes.write(ArchiveUtils.gzip(first));
+        gzBytes.write(ArchiveUtils.gzip(second));
+        File gz = new File(tempDir, "multi.gz");
+        FileOutputStream out = new FileOutputStream(gz);
+        out.write(gzBytes.toByteArray());
+        out.close();
+
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        all.write(first);
+        all.write(second);
+        GZIPCheckpointIndex index = GZIPCheckpointIndex.build(gz, 16 * 1024);
+        checkRandomReads(gz, all.toByteArray(), index);
+    }
+
+    private void checkFailureReleasesInflater(File gz, GZIPCheckpointIndex index,
+            long offset) throws IOException {
+        InflaterPool pool = InflaterPool.GZIP;
+        pool.clear();
+        long created = pool.getCreateCount();
+        long discarded = pool.getDiscardCount();
+        RandomAccessFile raf = new RandomAccessFile(gz, "r");
+        try {
+            assertThrows(IOException.class, () -> index.getInputStream(raf, offset, 4096));
+        } finally {
+            raf.close();
+        }
+        // every inflater borrowed has gone back to the pool
+        assertEquals(pool.getCreateCount() - created,
+                pool.getIdleCount() + pool.getDiscardCount() - discarded);
+    }
+
+    @Test
+    public void testFailedOpenReleasesInflater() throws IOException {
+        byte[] data = sortedLines(200000);
+        File gz = gzip("failed.gz", data, Deflater.DEFAULT_COMPRESSION);
+        GZIPCheckpointIndex index = GZIPCheckpointIndex.build(gz, 64 * 1024);
+        GZIPCheckpointIndex.Checkpoint last =
+                index.getCheckpoints().get(index.getCheckpoints().size() - 1);
+
+        // truncated file: skipping to the offset runs out of input
+        RandomAccessFile raf = new RandomAccessFile(gz, "rw");
+        raf.setLength(last.compressedOffset + 100);
+        raf.close();
+        checkFailureReleasesInflater(gz, index, data.length - 1);
+
+        // corrupt window: setting the dictionary fails
+        last.window = new byte[] {1, 2, 3};
+        checkFailureReleasesInflater(gz, index, data.length - 1);
+    }
+
+    @Test
+    public void testSidecarBinarySearch() throws IOException {
+        int max = 100000;
+        byte[] data = sortedLines(max);
+        File gz = gzip("test.cdx.gz", data, Deflater.DEFAULT_COMPRESSION);
+        GZIPCheckpointIndex.loadOrBuild(gz, 64 * 1024);
+        assertTrue(GZIPCheckpointIndex.getSidecarFile(gz).exists());
+
+        GZIPCheckpointIndex loaded = GZIPCheckpointIndex.load(GZIPCheckpointIndex.getSidecarFile(gz));
+        checkRandomReads(gz, data, loaded);
+
+        SortedTextFile stf = new CDXFile(gz.getPath());
+        assertEquals(data.length, stf.getSLR().getSize());
+        for (int i : new int[] {0, 1, 4242, 77777, max - 1}) {
+            String key = String.format(Locale.ROOT, "%08d", i);
+            CloseableIterator<String> itr = stf.getRecordIterator(key);
+            assertTrue(itr.next().startsWith(key + " "));
+            itr.close();
+        }
+        CloseableIterator<String> itr = stf.getRecordIterator(
+                String.format(Locale.ROOT, "%08d", max));
+        assertFalse(itr.hasNext());
+        itr.close();
+
+        GZIPIndexedSeekableLineReaderFactory factory = new GZIPIndexedSeekableLineReaderFactory(gz);
+        assertEquals(loaded.getCheckpoints().size(), factory.getIndex().getCheckpoints().size());
+        // saved by rename; no temporary files left behind
+        assertEquals(2, tempDir.list().length);
+    }
+
+    @Test
+    public void testStaleSidecarNotRebuiltByQuery() throws IOException {
+        byte[] data = sortedLines(1000);
+        File gz = gzip("stale.cdx.gz", data, Deflater.DEFAULT_COMPRESSION);
+        File sidecar = GZIPCheckpointIndex.getSidecarFile(gz);
+        GZIPCheckpointIndex.loadOrBuild(gz, 16 * 1024);
+        assertNotNull(GZIPCheckpointIndex.loadIfFresh(gz));
+
+        assertTrue(sidecar.setLastModified(gz.lastModified() - 10000));
+        long sidecarTime = sidecar.lastModified();
+        assertFalse(GZIPCheckpointIndex.isFresh(gz));
+        assertNull(GZIPCheckpointIndex.loadIfFresh(gz));
+
+        // falls back to decoding to a temporary file
+        SortedTextFile stf = new CDXFile(CDXFile.getUriFactory(gz.getPath(), true));
+        CloseableIterator<String> itr = stf.getRecordIterator("00000500");
+        assertTrue(itr.next().startsWith("00000500 "));
+        itr.close();
+        assertEquals(sidecarTime, sidecar.lastModified());
+
+        // an unreadable fresh sidecar is ignored too
+        FileOutputStream out = new FileOutputStream(sidecar);
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+        assertTrue(sidecar.setLastModified(gz.lastModified() + 10000));
+        assertNull(GZIPCheckpointIndex.loadIfFresh(gz));
+        stf = new CDXFile(CDXFile.getUriFactory(gz.getPath(), true));
+        itr = stf.getRecordIterator("00000042");
+        assertTrue(itr.next().startsWith("00000042 "));
+        itr.close();
+        assertEquals(3, sidecar.length());
+    }
+}
@@ -0,0 +1,70 @@
+package org.archive.util.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ZlibPoolTest {
+
+    @Test
+    public void testReuse() {
+        InflaterPool pool = new InflaterPool(true, 2);
+        Inflater a = pool.borrow();
+        Inflater b = pool.borrow();
+        Inflater c = pool.borrow();
+        assertEquals(3, pool.getCreateCount());
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+        assertEquals(1, pool.getDiscardCount());
+        assertEquals(2, pool.getIdleCount());
+        assertSame(a, pool.borrow());
+        assertEquals(1, pool.getReuseCount());
+        assertEquals(4, pool.getBorrowCount());
+        pool.clear();
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testPooledGZIPRoundTrip() throws IOException {
+        DeflaterPool pool = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, true, 4);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[][] payloads = {
+            "first member".getBytes(StandardCharsets.UTF_8),
+            "second, somewhat longer member".getBytes(StandardCharsets.UTF_8),
+            new byte[0]
+        };
+        for (byte[] payload : payloads) {
+            PooledGZIPOutputStream gz = new PooledGZIPOutputStream(baos, pool, 512);
+            gz.write(payload);
+            gz.finish();
+            gz.end();
+        }
+        assertEquals(3, pool.getBorrowCount());
+        assertEquals(2, pool.getReuseCount());
+
+        GZIPMembersInputStream in = new GZIPMembersInputStream(
+                new ByteArrayInputStream(baos.toByteArray()));
+        in.setEofEachMember(true);
+        for (byte[] payload : payloads) {
+            assertArrayEquals(payload, IOUtils.toByteArray(in));
+            in.nextMember();
+        }
+        in.close();
+
+        // JDK reader agrees on header and trailer
+        GZIPInputStream jdk = new GZIPInputStream(
+                new ByteArrayInputStream(baos.toByteArray()));
+        assertEquals("first membersecond, somewhat longer member",
+                new String(IOUtils.toByteArray(jdk), StandardCharsets.UTF_8));
+    }
+}